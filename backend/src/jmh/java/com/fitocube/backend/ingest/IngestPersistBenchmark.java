@@ -0,0 +1,137 @@
+package com.fitocube.backend.ingest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fitocube.backend.config.MoodProperties;
+import com.fitocube.backend.config.MqttProperties;
+import com.fitocube.backend.repositories.PlantStateJdbcRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+/**
+ * One lane batch from payload to row: decode, order check, mood, deadband and the batched
+ * conditional {@code plant_states} update, against an in-memory H2 database standing in for Postgres.
+ * <p>
+ * History and rollups are left out: their SQL (partitions, {@code ON CONFLICT}) is Postgres
+ * only. Batches alternate between two moisture levels so the deadband lets every reading
+ * through and each one is a row write; every invocation moves the readings' timestamps forward,
+ * as a live fleet would, so the order check and the update's timestamp guard pass them too.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@OperationsPerInvocation(IngestPersistBenchmark.BATCH_SIZE)
+public class IngestPersistBenchmark {
+
+    static final int BATCH_SIZE = 500;
+
+    private static final String CREATE_PLANT_STATES = """
+            CREATE TABLE plant_states (
+                device_uid            VARCHAR(64) PRIMARY KEY,
+                air_temperature_c     DOUBLE PRECISION,
+                air_humidity_percent  DOUBLE PRECISION,
+                soil_moisture_percent DOUBLE PRECISION,
+                soil_moisture_raw     INTEGER,
+                measurement_timestamp TIMESTAMP,
+                mood                  VARCHAR(16),
+                measurement_received_at TIMESTAMP
+            )
+            """;
+
+    /** Devices the batch is spread over; fewer than the batch means repeats collapse to the latest. */
+    @Param({"50", "500"})
+    public int devices;
+
+    private SingleConnectionDataSource dataSource;
+    private PlantStateJdbcRepository repository;
+    private PlantPayloadDecoder decoder;
+    private MoodEngine.Draft moodDraft;
+    private DeadbandFilter deadbandFilter;
+    private ReadingOrderGuard orderGuard;
+    private long clock;
+    private final ReadingFrame frame = new ReadingFrame();
+    private final byte[][][] batches = new byte[2][BATCH_SIZE][];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dataSource = new SingleConnectionDataSource("jdbc:h2:mem:ingest;DB_CLOSE_DELAY=-1", true);
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("DROP TABLE IF EXISTS plant_states");
+        jdbcTemplate.execute(CREATE_PLANT_STATES);
+        for (int device = 0; device < devices; device++) {
+            jdbcTemplate.update("INSERT INTO plant_states (device_uid) VALUES (?)", deviceUid(device));
+        }
+        MqttProperties mqttProperties = new MqttProperties();
+        // timestamps run ahead of the wall clock by a millisecond per reading; keep them trusted
+        mqttProperties.getIngest().getClock().setMaxSkew(Duration.ofDays(365));
+        repository = new PlantStateJdbcRepository(jdbcTemplate, mqttProperties);
+        decoder = new PlantPayloadDecoder(new ObjectMapper());
+        moodDraft = new MoodEngine(new MoodProperties()).draft();
+        deadbandFilter = new DeadbandFilter(mqttProperties, new SimpleMeterRegistry());
+        orderGuard = new ReadingOrderGuard(mqttProperties.getIngest().getClock());
+        Instant now = Instant.now();
+        clock = now.toEpochMilli();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batches[0][i] = PayloadDecodeBenchmark.json(deviceUid(i % devices), 30.0, now);
+            batches[1][i] = PayloadDecodeBenchmark.json(deviceUid(i % devices), 60.0, now);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dataSource.destroy();
+    }
+
+    /**
+     * @return rows updated
+     */
+    @Benchmark
+    public int decodeAndPersist() throws Exception {
+        byte[][] batch = batches[next++ & 1];
+        long receivedAt = System.currentTimeMillis();
+        List<PlantReading> decoded = new ArrayList<>(batch.length);
+        for (byte[] payload : batch) {
+            decoded.add(restamped(decoder.decode(payload, receivedAt, frame), ++clock));
+        }
+        List<PlantReading> admitted = orderGuard.admit(decoded);
+        orderGuard.commit();
+        Map<String, PlantReading> latest = new LinkedHashMap<>(batch.length * 2);
+        for (PlantReading reading : admitted) {
+            PlantReading evaluated = moodDraft.evaluate(reading);
+            latest.put(evaluated.deviceUid(), evaluated);
+        }
+        List<PlantReading> changed = deadbandFilter.select(latest.values());
+        int updated = changed.isEmpty() ? 0 : repository.updateMeasurements(changed);
+        moodDraft.commit();
+        return updated;
+    }
+
+    private static PlantReading restamped(PlantReading reading, long timestampMillis) {
+        return new PlantReading(reading.deviceUid(), reading.airTemperatureC(), reading.airHumidityPercent(),
+                                reading.soilMoisturePercent(), reading.soilMoistureRaw(), timestampMillis,
+                                reading.mood(), reading.correlationId(), reading.receivedAtMillis());
+    }
+
+    private static String deviceUid(int device) {
+        return "esp32-" + device;
+    }
+}
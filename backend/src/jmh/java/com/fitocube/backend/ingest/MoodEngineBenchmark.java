@@ -0,0 +1,64 @@
+package com.fitocube.backend.ingest;
+
+import com.fitocube.backend.config.MoodProperties;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Mood derivation per reading: straight into the window, and the way a lane does it, through a
+ * {@link MoodEngine.Draft} that copies each touched window once per batch and puts it back on
+ * commit. Moisture swings through every band so the derived mood keeps changing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MoodEngineBenchmark {
+
+    static final int BATCH_SIZE = 500;
+
+    /** Devices a batch is spread over; fewer than the batch means several readings per window. */
+    @Param({"50", "500"})
+    public int devices;
+
+    private MoodEngine moodEngine;
+    private MoodEngine.Draft draft;
+    private final PlantReading[] batch = new PlantReading[BATCH_SIZE];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        moodEngine = new MoodEngine(new MoodProperties());
+        draft = moodEngine.draft();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch[i] = new PlantReading("esp32-" + i % devices, 22.5, 48.0, 10.0 + i % 60, 2870,
+                                        now + i * 1_000L, null, null, now + i * 1_000L);
+        }
+    }
+
+    @Benchmark
+    public PlantReading evaluate() {
+        PlantReading reading = batch[next];
+        next = next + 1 == BATCH_SIZE ? 0 : next + 1;
+        return moodEngine.evaluate(reading);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void evaluateBatch(Blackhole blackhole) {
+        for (PlantReading reading : batch) {
+            blackhole.consume(draft.evaluate(reading));
+        }
+        draft.commit();
+    }
+}
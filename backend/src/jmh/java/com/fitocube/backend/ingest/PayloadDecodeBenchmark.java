@@ -0,0 +1,90 @@
+package com.fitocube.backend.ingest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fitocube.backend.model.enums.Mood;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * What a message costs before it is written: the {@code deviceUid} peek done on the MQTT
+ * callback thread in {@code MqttGateway.messageArrived}, and the full decode done by a lane,
+ * for both payload formats.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PayloadDecodeBenchmark {
+
+    private PlantPayloadDecoder decoder;
+    private ReadingFrame frame;
+    private byte[] json;
+    private byte[] compact;
+
+    @Setup
+    public void setUp() {
+        decoder = new PlantPayloadDecoder(new ObjectMapper());
+        frame = new ReadingFrame();
+        json = json("esp32-bench", 41.5, Instant.now());
+        compact = compact("esp32-bench", 41.5f, System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public String peekJson() {
+        return decoder.peekDeviceUid(json);
+    }
+
+    @Benchmark
+    public String peekCompact() {
+        return decoder.peekDeviceUid(compact);
+    }
+
+    @Benchmark
+    public PlantReading decodeJson() throws Exception {
+        return decoder.decode(json, System.currentTimeMillis(), frame);
+    }
+
+    @Benchmark
+    public PlantReading decodeCompact() throws Exception {
+        return decoder.decode(compact, System.currentTimeMillis(), frame);
+    }
+
+    /**
+     * A payload as published by the current firmware.
+     */
+    static byte[] json(String deviceUid, double soilMoisturePercent, Instant timestamp) {
+        return ("{\"deviceUid\":\"" + deviceUid + "\","
+                + "\"measurements\":{\"airTemperatureC\":22.5,\"airHumidityPercent\":48.0,"
+                + "\"soilMoisturePercent\":" + soilMoisturePercent + ",\"soilMoistureRaw\":2870,"
+                + "\"timestamp\":\"" + timestamp + "\"},"
+                + "\"mood\":\"NORMAL\",\"friendVisible\":true}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A version 1 frame, see {@link PlantPayloadDecoder}.
+     */
+    static byte[] compact(String deviceUid, float soilMoisturePercent, long timestampMillis) {
+        byte[] uid = deviceUid.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(2 + 1 + uid.length + 12 + 2 + 8 + 1 + 1)
+                .put(PlantPayloadDecoder.COMPACT_MAGIC)
+                .put((byte) PlantPayloadDecoder.COMPACT_VERSION)
+                .put((byte) uid.length)
+                .put(uid)
+                .putFloat(22.5f)
+                .putFloat(48.0f)
+                .putFloat(soilMoisturePercent)
+                .putShort((short) 2870)
+                .putLong(timestampMillis)
+                .put((byte) (Mood.NORMAL.ordinal() + 1))
+                .put((byte) 0)
+                .array();
+    }
+}
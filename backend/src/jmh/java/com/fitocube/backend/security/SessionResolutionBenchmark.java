@@ -0,0 +1,69 @@
+package com.fitocube.backend.security;
+
+import com.fitocube.backend.config.SessionProperties;
+import com.fitocube.backend.model.session.SessionUser;
+import com.fitocube.backend.services.SessionService;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Per-request session cost: verifying a token as {@link SessionTokenFilter} does, and the
+ * {@link SessionService#requireSessionUser()} every controller starts with.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SessionResolutionBenchmark {
+
+    private SessionTokenCodec codec;
+    private SessionService sessionService;
+    private String token;
+
+    @Setup
+    public void setUp() {
+        SessionProperties properties = new SessionProperties();
+        properties.setMode(SessionProperties.Mode.TOKEN);
+        properties.setTokenSecret("benchmark-secret-benchmark-secret");
+        codec = new SessionTokenCodec(properties);
+        SessionUser user = new SessionUser(2L, "nikola", "Nikola");
+        token = codec.encode(user, System.currentTimeMillis() + properties.getTokenTtl().toMillis());
+        // requireSessionUser reads the security context only
+        sessionService = new SessionService(null, null, properties, codec);
+
+        var details = new SessionUserDetails(user);
+        SecurityContext context = SecurityContextHolder.createEmptyContext();
+        context.setAuthentication(UsernamePasswordAuthenticationToken.authenticated(details, null, details.getAuthorities()));
+        SecurityContextHolder.setContext(context);
+    }
+
+    @TearDown
+    public void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Benchmark
+    public Optional<SessionUser> decodeToken() {
+        return codec.decode(token, System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public String encodeToken() {
+        return codec.encode(new SessionUser(2L, "nikola", "Nikola"), System.currentTimeMillis() + 60_000);
+    }
+
+    @Benchmark
+    public SessionUser requireSessionUser() {
+        return sessionService.requireSessionUser();
+    }
+}
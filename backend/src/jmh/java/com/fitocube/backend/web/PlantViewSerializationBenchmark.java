@@ -0,0 +1,100 @@
+package com.fitocube.backend.web;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fitocube.backend.model.PlantMeasurementsDto;
+import com.fitocube.backend.model.PlantStateDto;
+import com.fitocube.backend.model.PlantView;
+import com.fitocube.backend.model.UserDto;
+import com.fitocube.backend.model.enums.Mood;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+/**
+ * JSON written by {@link PlantsController}: a single plant as cached by the snapshot cache,
+ * a full {@code /by-owner} page, and the entity those views replaced, with its owner's
+ * friends, for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PlantViewSerializationBenchmark {
+
+    private static final int PAGE_SIZE = 100;
+
+    private ObjectMapper objectMapper;
+    private PlantView plant;
+    private List<PlantView> page;
+    private PlantStateDto entity;
+
+    @Setup
+    public void setUp() {
+        // configured as by Boot's JacksonAutoConfiguration
+        objectMapper = Jackson2ObjectMapperBuilder.json()
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+        UserDto owner = new UserDto();
+        owner.setUserId(2L);
+        owner.setUserName("nikola");
+        owner.setDisplayName("Nikola");
+        for (long friend = 1; friend <= 20; friend++) {
+            owner.getFriends().add(friend + 100);
+        }
+        page = new ArrayList<>(PAGE_SIZE);
+        for (long plantId = 1; plantId <= PAGE_SIZE; plantId++) {
+            PlantStateDto state = new PlantStateDto();
+            state.setPlantId(plantId);
+            state.setDeviceUid("esp32-" + plantId);
+            state.setOwner(owner);
+            state.setNickname("Ficus " + plantId);
+            state.setMeasurements(measurements(plantId));
+            state.setMood(Mood.HAPPY);
+            state.setFriendVisible(true);
+            page.add(PlantView.of(state));
+            if (entity == null) {
+                entity = state;
+            }
+        }
+        plant = page.get(0);
+    }
+
+    @Benchmark
+    public byte[] plant() throws Exception {
+        return objectMapper.writeValueAsBytes(plant);
+    }
+
+    @Benchmark
+    public byte[] page() throws Exception {
+        return objectMapper.writeValueAsBytes(page);
+    }
+
+    @Benchmark
+    public byte[] entity() throws Exception {
+        return objectMapper.writeValueAsBytes(entity);
+    }
+
+    @Benchmark
+    public byte[] entityToView() throws Exception {
+        return objectMapper.writeValueAsBytes(PlantView.of(entity));
+    }
+
+    private static PlantMeasurementsDto measurements(long plantId) {
+        PlantMeasurementsDto measurements = new PlantMeasurementsDto();
+        measurements.setAirTemperatureC(22.5);
+        measurements.setAirHumidityPercent(48.0);
+        measurements.setSoilMoisturePercent(40.0 + plantId % 20);
+        measurements.setSoilMoistureRaw(2870);
+        measurements.setTimestamp(Instant.parse("2026-01-01T12:00:00Z").plusSeconds(plantId));
+        return measurements;
+    }
+}
@@ -0,0 +1,239 @@
+package com.fitocube.backend.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fitocube.backend.BackendApplication;
+import com.fitocube.backend.config.MqttProperties;
+import com.fitocube.backend.model.UserDto;
+import com.fitocube.backend.model.request.ClaimRequest;
+import com.fitocube.backend.services.PlantService;
+import com.fitocube.backend.services.RefreshService;
+import com.fitocube.backend.services.UserService;
+import io.moquette.broker.Server;
+import io.moquette.broker.config.MemoryConfig;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Ingest capacity of one build: starts an in-process MQTT broker and the backend against it,
+ * claims a fleet of virtual cubes for a {@code loadtest} user, lets them publish for a warmup
+ * and a measured run, and reports throughput and publish → row visible latency percentiles.
+ * <p>
+ * The database is whatever the backend is configured with ({@code DB_URL} or
+ * {@code --spring.datasource.url=...} as program arguments); the fleet's plants and history
+ * are left in it, so point it at a scratch database. Settings: {@link LoadTestOptions}.
+ */
+@Slf4j
+public final class FleetLoadTest {
+
+    private static final String OWNER = "loadtest";
+
+    private FleetLoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options = LoadTestOptions.fromSystemProperties();
+        int port = freePort();
+        Server broker = startBroker(port);
+        IngestLatencyProbe probe = new IngestLatencyProbe();
+        ConfigurableApplicationContext context = null;
+        VirtualFleet fleet = null;
+        int exitCode = 0;
+        try {
+            context = new SpringApplicationBuilder(BackendApplication.class)
+                    .initializers(ctx -> ctx.getBeanFactory().registerSingleton("ingestLatencyProbe", probe))
+                    .run(withDefaults(args, port, options));
+            registerFleet(context, options.cubes());
+            fleet = new VirtualFleet(options, context.getBean(MqttProperties.class), "tcp://127.0.0.1:" + port);
+            Map<String, Object> summary = run(options, fleet, probe, context.getBean(RefreshService.class));
+            Files.createDirectories(options.results().toAbsolutePath().getParent());
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(options.results().toFile(), summary);
+            log.info("Итог нагрузочного теста записан в {}", options.results().toAbsolutePath());
+        }
+        catch (Exception e) {
+            log.error("Нагрузочный тест прерван", e);
+            exitCode = 1;
+        }
+        finally {
+            if (fleet != null) {
+                fleet.stop();
+            }
+            if (context != null) {
+                context.close();
+            }
+            broker.stopServer();
+        }
+        System.exit(exitCode);
+    }
+
+    private static Map<String, Object> run(LoadTestOptions options,
+                                           VirtualFleet fleet,
+                                           IngestLatencyProbe probe,
+                                           RefreshService refreshService) throws Exception {
+        Recorder refreshMillis = new Recorder(TimeUnit.MINUTES.toMillis(1), 3);
+        LongAdder refreshFailures = new LongAdder();
+        ScheduledExecutorService driver = Executors.newSingleThreadScheduledExecutor();
+        try {
+            fleet.start();
+            if (options.refreshRate() > 0) {
+                long periodMicros = Math.max(1, Math.round(1_000_000 / options.refreshRate()));
+                driver.scheduleAtFixedRate(() -> refresh(fleet, refreshService, refreshMillis, refreshFailures),
+                                           periodMicros, periodMicros, TimeUnit.MICROSECONDS);
+            }
+            log.info("Прогрев {}", options.warmup());
+            Thread.sleep(options.warmup().toMillis());
+
+            Histogram latency = probe.latencyMillis().getIntervalHistogram();
+            latency.reset();
+            Histogram refresh = refreshMillis.getIntervalHistogram();
+            refresh.reset();
+            long publishedBefore = fleet.publishedCount();
+            long failedBefore = fleet.publishFailureCount();
+            long persistedBefore = probe.persistedCount();
+            long started = System.nanoTime();
+            long end = started + options.duration().toNanos();
+            while (System.nanoTime() < end) {
+                long intervalStart = System.nanoTime();
+                long persistedAtStart = probe.persistedCount();
+                Thread.sleep(Math.min(options.reportInterval().toMillis(), Math.max(1, (end - intervalStart) / 1_000_000)));
+                Histogram interval = probe.latencyMillis().getIntervalHistogram();
+                latency.add(interval);
+                double seconds = (System.nanoTime() - intervalStart) / 1e9;
+                log.info("Записано {} сообщений/с, задержка p50={} мс p99={} мс max={} мс",
+                         Math.round((probe.persistedCount() - persistedAtStart) / seconds),
+                         interval.getValueAtPercentile(50), interval.getValueAtPercentile(99), interval.getMaxValue());
+            }
+            double elapsedSeconds = (System.nanoTime() - started) / 1e9;
+            refresh.add(refreshMillis.getIntervalHistogram());
+
+            long published = fleet.publishedCount() - publishedBefore;
+            long persisted = probe.persistedCount() - persistedBefore;
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("cubes", options.cubes());
+            summary.put("intervalMillis", options.interval().toMillis());
+            summary.put("jitter", options.jitter());
+            summary.put("qos", options.qos());
+            summary.put("durationSeconds", elapsedSeconds);
+            summary.put("offeredPerSecond", options.offeredRate());
+            summary.put("publishedPerSecond", published / elapsedSeconds);
+            summary.put("persistedPerSecond", persisted / elapsedSeconds);
+            summary.put("publishFailures", fleet.publishFailureCount() - failedBefore);
+            summary.put("commandsAnswered", fleet.commandsAnsweredCount());
+            summary.put("latencyMillis", percentiles(latency));
+            summary.put("refreshMillis", percentiles(refresh));
+            summary.put("refreshFailures", refreshFailures.sum());
+            log.info("Кубов {}, предложено {} сообщений/с, опубликовано {}/с, записано {}/с, ошибок публикации {}",
+                     options.cubes(), Math.round(options.offeredRate()), Math.round(published / elapsedSeconds),
+                     Math.round(persisted / elapsedSeconds), summary.get("publishFailures"));
+            log.info("Задержка публикация → запись, мс: {}", summary.get("latencyMillis"));
+            log.info("Обновление по запросу, мс: {}, неудачных {}", summary.get("refreshMillis"), refreshFailures.sum());
+            return summary;
+        }
+        finally {
+            driver.shutdownNow();
+        }
+    }
+
+    /**
+     * A {@code POST /plants/{plantId}/refresh} without the HTTP layer: a command to a random
+     * cube and the wait for its answer to be persisted.
+     */
+    private static void refresh(VirtualFleet fleet, RefreshService refreshService, Recorder refreshMillis, LongAdder failures) {
+        String deviceUid = fleet.deviceUidAt(ThreadLocalRandom.current().nextInt(fleet.size()));
+        long started = System.currentTimeMillis();
+        refreshService.refresh(deviceUid).whenComplete((measurements, error) -> {
+            if (error == null) {
+                refreshMillis.recordValue(Math.min(System.currentTimeMillis() - started, TimeUnit.MINUTES.toMillis(1)));
+            } else {
+                failures.increment();
+            }
+        });
+    }
+
+    /**
+     * Claims every cube for the load test user, so its readings pass the device registry.
+     * Already claimed cubes are claimed again, which changes nothing.
+     */
+    private static void registerFleet(ConfigurableApplicationContext context, int cubes) {
+        UserService userService = context.getBean(UserService.class);
+        PlantService plantService = context.getBean(PlantService.class);
+        UserDto owner = userService.findByUserName(OWNER).orElseGet(() -> {
+            UserDto user = new UserDto();
+            user.setUserName(OWNER);
+            user.setDisplayName("Load test");
+            return userService.save(user);
+        });
+        for (int i = 0; i < cubes; i++) {
+            ClaimRequest claim = new ClaimRequest();
+            claim.setDeviceUid(VirtualFleet.deviceUid(i));
+            claim.setNickname("Load cube " + i);
+            if (plantService.claimPlant(owner, claim).isEmpty()) {
+                throw new IllegalStateException(claim.getDeviceUid() + " is claimed by another user");
+            }
+        }
+        log.info("Зарегистрировано {} виртуальных кубов за пользователем {}", cubes, OWNER);
+    }
+
+    private static Map<String, Object> percentiles(Histogram histogram) {
+        Map<String, Object> percentiles = new LinkedHashMap<>();
+        percentiles.put("count", histogram.getTotalCount());
+        percentiles.put("mean", histogram.getTotalCount() == 0 ? 0 : histogram.getMean());
+        for (double percentile : new double[] {50, 90, 99, 99.9}) {
+            percentiles.put("p" + (percentile == Math.rint(percentile) ? String.valueOf((int) percentile) : String.valueOf(percentile)),
+                            histogram.getValueAtPercentile(percentile));
+        }
+        percentiles.put("max", histogram.getMaxValue());
+        return percentiles;
+    }
+
+    /**
+     * The broker and a random HTTP port; program arguments come last and win.
+     */
+    private static String[] withDefaults(String[] args, int brokerPort, LoadTestOptions options) {
+        List<String> all = new ArrayList<>();
+        all.add("--mqtt.broker-uri=tcp://127.0.0.1:" + brokerPort);
+        all.add("--mqtt.instance-id=loadtest");
+        // cubes that ignore the per-device command are only reached by the broadcast
+        all.add("--mqtt.refresh-broadcast=" + !options.deviceCommands());
+        all.add("--server.port=0");
+        // the broker logs every packet at INFO
+        all.add("--logging.level.io.moquette=WARN");
+        all.addAll(List.of(args));
+        return all.toArray(String[]::new);
+    }
+
+    private static Server startBroker(int port) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("host", "127.0.0.1");
+        properties.setProperty("port", String.valueOf(port));
+        properties.setProperty("allow_anonymous", "true");
+        properties.setProperty("persistence_enabled", "false");
+        properties.setProperty("netty.mqtt.message_size", "65536");
+        Server broker = new Server();
+        broker.startServer(new MemoryConfig(properties));
+        log.info("MQTT брокер запущен на порту {}", port);
+        return broker;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
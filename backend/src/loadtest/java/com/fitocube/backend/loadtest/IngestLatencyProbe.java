@@ -0,0 +1,40 @@
+package com.fitocube.backend.loadtest;
+
+import com.fitocube.backend.ingest.IngestListener;
+import com.fitocube.backend.ingest.PlantReading;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Records publish → row visible for every persisted reading of the fleet. Listeners run after
+ * the lane's transaction has committed, and the fleet stamps each reading with the time it
+ * was published, so the difference is the end-to-end ingest latency on the same clock.
+ */
+final class IngestLatencyProbe implements IngestListener {
+
+    private static final long HIGHEST_TRACKABLE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final Recorder latencyMillis = new Recorder(HIGHEST_TRACKABLE_MILLIS, 3);
+    private final LongAdder persisted = new LongAdder();
+
+    @Override
+    public void onPersisted(List<PlantReading> readings) {
+        long now = System.currentTimeMillis();
+        for (PlantReading reading : readings) {
+            if (reading.hasTimestamp() && reading.deviceUid().startsWith(VirtualFleet.DEVICE_PREFIX)) {
+                latencyMillis.recordValue(Math.min(Math.max(now - reading.timestampMillis(), 0), HIGHEST_TRACKABLE_MILLIS));
+                persisted.increment();
+            }
+        }
+    }
+
+    Recorder latencyMillis() {
+        return latencyMillis;
+    }
+
+    long persistedCount() {
+        return persisted.sum();
+    }
+}
@@ -0,0 +1,60 @@
+package com.fitocube.backend.loadtest;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Settings of a load test run, read from {@code loadtest.*} system properties
+ * ({@code ./gradlew loadTest -Ploadtest.cubes=5000}).
+ *
+ * @param cubes          virtual cubes publishing
+ * @param interval       mean time between two readings of one cube
+ * @param jitter         each interval is stretched or shrunk by up to this fraction
+ * @param connections    MQTT connections the cubes' readings are spread over
+ * @param qos            QoS of the readings
+ * @param refreshRate    {@code get_info} refreshes requested per second through the backend
+ * @param deviceCommands cubes also answer the per-device refresh command with its correlation
+ *                       id; otherwise they only answer the broadcast, like older firmware
+ * @param warmup         run before measuring
+ * @param duration       measured run
+ * @param reportInterval how often progress is logged
+ * @param results        file the summary is written to as JSON
+ */
+record LoadTestOptions(int cubes,
+                       Duration interval,
+                       double jitter,
+                       int connections,
+                       int qos,
+                       double refreshRate,
+                       boolean deviceCommands,
+                       Duration warmup,
+                       Duration duration,
+                       Duration reportInterval,
+                       Path results) {
+
+    static LoadTestOptions fromSystemProperties() {
+        return new LoadTestOptions(
+                Integer.getInteger("loadtest.cubes", 1000),
+                duration("loadtest.interval", "PT1S"),
+                Double.parseDouble(System.getProperty("loadtest.jitter", "0.2")),
+                Integer.getInteger("loadtest.connections", 4),
+                Integer.getInteger("loadtest.qos", 1),
+                Double.parseDouble(System.getProperty("loadtest.refresh-rate", "2")),
+                Boolean.parseBoolean(System.getProperty("loadtest.device-commands", "false")),
+                duration("loadtest.warmup", "PT10S"),
+                duration("loadtest.duration", "PT60S"),
+                duration("loadtest.report-interval", "PT5S"),
+                Path.of(System.getProperty("loadtest.results", "build/results/loadtest/summary.json")));
+    }
+
+    /**
+     * Readings per second the fleet is scheduled to publish.
+     */
+    double offeredRate() {
+        return cubes * 1000d / interval.toMillis();
+    }
+
+    private static Duration duration(String property, String defaultValue) {
+        return Duration.parse(System.getProperty(property, defaultValue));
+    }
+}
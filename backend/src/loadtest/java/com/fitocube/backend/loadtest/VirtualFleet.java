@@ -0,0 +1,249 @@
+package com.fitocube.backend.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fitocube.backend.config.MqttProperties;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+/**
+ * Cubes publishing firmware JSON to the data topic, each on its own jittered schedule, and
+ * answering {@code get_info}. By default they behave like firmware flashed before per-device
+ * commands: only the broadcast on the command topic makes them report, every cube at once and
+ * without a correlation id. With {@link LoadTestOptions#deviceCommands()} a refresh command on a
+ * cube's own topic also makes that cube report with the command's correlation id, as the
+ * current firmware does.
+ * <p>
+ * Readings are spread over a few shared connections rather than one per cube, so the client
+ * side stays cheap enough to saturate the backend. Every reading carries the time it was
+ * published as its timestamp, see {@link IngestLatencyProbe}.
+ */
+@Slf4j
+final class VirtualFleet {
+
+    static final String DEVICE_PREFIX = "load-";
+
+    private static final int MAX_INFLIGHT = 65_535;
+
+    private final LoadTestOptions options;
+    private final MqttProperties mqtt;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Cube[] cubes;
+    private final MqttAsyncClient[] publishers;
+    private final MqttAsyncClient commands;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final String refreshTopicPrefix;
+    private final String refreshTopicSuffix;
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder publishFailures = new LongAdder();
+    private final LongAdder commandsAnswered = new LongAdder();
+
+    VirtualFleet(LoadTestOptions options, MqttProperties mqtt, String brokerUri) throws MqttException {
+        this.options = options;
+        this.mqtt = mqtt;
+        this.cubes = new Cube[options.cubes()];
+        for (int i = 0; i < cubes.length; i++) {
+            cubes[i] = new Cube(deviceUid(i));
+        }
+        this.publishers = new MqttAsyncClient[Math.max(1, options.connections())];
+        for (int i = 0; i < publishers.length; i++) {
+            publishers[i] = new MqttAsyncClient(brokerUri, "loadtest-fleet-" + i, new MemoryPersistence());
+        }
+        this.commands = new MqttAsyncClient(brokerUri, "loadtest-commands", new MemoryPersistence());
+        this.scheduler = new ScheduledThreadPoolExecutor(Math.max(2, publishers.length), runnable -> {
+            Thread thread = new Thread(runnable, "loadtest-fleet");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.setRemoveOnCancelPolicy(true);
+        String template = mqtt.getRefreshCommandTopic();
+        int placeholder = template.indexOf("{deviceUid}");
+        this.refreshTopicPrefix = template.substring(0, placeholder);
+        this.refreshTopicSuffix = template.substring(placeholder + "{deviceUid}".length());
+    }
+
+    static String deviceUid(int index) {
+        return DEVICE_PREFIX + String.format(Locale.ROOT, "%06d", index);
+    }
+
+    String deviceUidAt(int index) {
+        return cubes[index].deviceUid;
+    }
+
+    int size() {
+        return cubes.length;
+    }
+
+    void start() throws MqttException {
+        MqttConnectOptions connectOptions = new MqttConnectOptions();
+        connectOptions.setCleanSession(true);
+        connectOptions.setMaxInflight(MAX_INFLIGHT);
+        for (MqttAsyncClient publisher : publishers) {
+            publisher.connect(connectOptions).waitForCompletion();
+        }
+        commands.connect(connectOptions).waitForCompletion();
+        commands.subscribe(mqtt.getCommandTopic(), 1, (topic, message) -> broadcastArrived(message)).waitForCompletion();
+        if (options.deviceCommands()) {
+            commands.subscribe(refreshTopicPrefix + "+" + refreshTopicSuffix, 1, this::refreshArrived).waitForCompletion();
+        }
+
+        long intervalMillis = options.interval().toMillis();
+        for (int i = 0; i < cubes.length; i++) {
+            // spread first readings over one interval so the fleet does not publish in lockstep
+            scheduleNext(i, ThreadLocalRandom.current().nextLong(Math.max(1, intervalMillis)));
+        }
+        log.info("Запущено {} виртуальных кубов на {} соединениях, ~{} сообщений/с",
+                 cubes.length, publishers.length, Math.round(options.offeredRate()));
+    }
+
+    void stop() {
+        scheduler.shutdownNow();
+        for (MqttAsyncClient client : publishers) {
+            close(client);
+        }
+        close(commands);
+    }
+
+    long publishedCount() {
+        return published.sum();
+    }
+
+    long publishFailureCount() {
+        return publishFailures.sum();
+    }
+
+    long commandsAnsweredCount() {
+        return commandsAnswered.sum();
+    }
+
+    private void scheduleNext(int index, long delayMillis) {
+        if (scheduler.isShutdown()) {
+            return;
+        }
+        scheduler.schedule(() -> {
+            publish(index, null);
+            scheduleNext(index, jittered(options.interval().toMillis()));
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private long jittered(long intervalMillis) {
+        double jitter = Math.min(Math.max(options.jitter(), 0), 1);
+        double factor = 1 + jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        return Math.max(1, Math.round(intervalMillis * factor));
+    }
+
+    private void publish(int index, String correlationId) {
+        Cube cube = cubes[index];
+        MqttMessage message = new MqttMessage(cube.nextPayload(correlationId));
+        message.setQos(options.qos());
+        try {
+            publishers[index % publishers.length].publish(mqtt.getDataTopic(), message);
+            published.increment();
+        }
+        catch (MqttException e) {
+            // most often the in-flight window is full: the broker or the backend is not keeping up
+            publishFailures.increment();
+        }
+    }
+
+    private void broadcastArrived(MqttMessage message) {
+        if (!mqtt.getCommandPayload().equals(new String(message.getPayload(), StandardCharsets.UTF_8).trim())) {
+            return;
+        }
+        for (int i = 0; i < cubes.length; i++) {
+            int index = i;
+            scheduler.execute(() -> publish(index, null));
+        }
+        commandsAnswered.increment();
+    }
+
+    private void refreshArrived(String topic, MqttMessage message) {
+        if (!topic.startsWith(refreshTopicPrefix) || !topic.endsWith(refreshTopicSuffix)) {
+            return;
+        }
+        String deviceUid = topic.substring(refreshTopicPrefix.length(), topic.length() - refreshTopicSuffix.length());
+        if (!deviceUid.startsWith(DEVICE_PREFIX)) {
+            return;
+        }
+        JsonNode command;
+        try {
+            command = objectMapper.readTree(message.getPayload());
+        }
+        catch (IOException e) {
+            return;
+        }
+        if (!mqtt.getCommandPayload().equals(command.path("cmd").asText())) {
+            return;
+        }
+        int index = Integer.parseInt(deviceUid.substring(DEVICE_PREFIX.length()));
+        String correlationId = command.hasNonNull("correlationId") ? command.get("correlationId").asText() : null;
+        scheduler.execute(() -> publish(index, correlationId));
+        commandsAnswered.increment();
+    }
+
+    private static void close(MqttAsyncClient client) {
+        try {
+            if (client.isConnected()) {
+                client.disconnect().waitForCompletion(1000);
+            }
+            client.close();
+        }
+        catch (MqttException e) {
+            log.debug("Не удалось закрыть {}", client.getClientId(), e);
+        }
+    }
+
+    /**
+     * A plant drying out between waterings, with air readings wandering around room climate.
+     */
+    private static final class Cube {
+
+        private final String deviceUid;
+        private double soilMoisturePercent;
+        private double airTemperatureC;
+        private double airHumidityPercent;
+
+        private Cube(String deviceUid) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            this.deviceUid = deviceUid;
+            this.soilMoisturePercent = 25 + random.nextDouble() * 50;
+            this.airTemperatureC = 20 + random.nextDouble() * 6;
+            this.airHumidityPercent = 35 + random.nextDouble() * 30;
+        }
+
+        synchronized byte[] nextPayload(String correlationId) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            soilMoisturePercent -= random.nextDouble() * 0.05;
+            if (soilMoisturePercent < 15) {
+                soilMoisturePercent = 65 + random.nextDouble() * 10;
+            }
+            airTemperatureC = clamp(airTemperatureC + random.nextGaussian() * 0.1, 14, 32);
+            airHumidityPercent = clamp(airHumidityPercent + random.nextGaussian() * 0.5, 20, 80);
+            int soilMoistureRaw = (int) Math.round(4095 - soilMoisturePercent * 30);
+            return String.format(Locale.ROOT,
+                                 "{\"deviceUid\":\"%s\",\"measurements\":{\"airTemperatureC\":%.1f,\"airHumidityPercent\":%.1f,"
+                                         + "\"soilMoisturePercent\":%.1f,\"soilMoistureRaw\":%d,\"timestamp\":\"%s\"}%s}",
+                                 deviceUid, airTemperatureC, airHumidityPercent, soilMoisturePercent, soilMoistureRaw,
+                                 Instant.now(),
+                                 correlationId == null ? "" : ",\"correlationId\":\"" + correlationId + "\"")
+                    .getBytes(StandardCharsets.UTF_8);
+        }
+
+        private static double clamp(double value, double min, double max) {
+            return Math.min(Math.max(value, min), max);
+        }
+    }
+}
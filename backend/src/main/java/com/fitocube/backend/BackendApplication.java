@@ -1,12 +1,26 @@
 package com.fitocube.backend;
 
+import com.fitocube.backend.config.GamesProperties;
+import com.fitocube.backend.config.HistoryProperties;
+import com.fitocube.backend.config.LivenessProperties;
+import com.fitocube.backend.config.MoodProperties;
 import com.fitocube.backend.config.MqttProperties;
+import com.fitocube.backend.config.SessionProperties;
+import com.fitocube.backend.config.SnapshotCacheProperties;
+import com.fitocube.backend.config.StatsProperties;
+import com.fitocube.backend.config.StreamProperties;
+import com.fitocube.backend.config.WateringProperties;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
-@EnableConfigurationProperties(MqttProperties.class)
+@EnableScheduling
+@EnableConfigurationProperties({MqttProperties.class, HistoryProperties.class, StreamProperties.class,
+                                SnapshotCacheProperties.class, SessionProperties.class, MoodProperties.class,
+                                WateringProperties.class, LivenessProperties.class, StatsProperties.class,
+                                GamesProperties.class})
 public class BackendApplication {
 
     public static void main(String[] args) {
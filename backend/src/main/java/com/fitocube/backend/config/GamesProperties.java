@@ -0,0 +1,28 @@
+package com.fitocube.backend.config;
+
+import java.time.Duration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Mood battles and the weekly wellbeing challenge. Happy time is counted the same way as in
+ * the per-user statistics, with {@code stats.max-gap} and {@code stats.replay-overlap}.
+ */
+@Data
+@ConfigurationProperties(prefix = "games")
+public class GamesProperties {
+
+    /** Resolution at which battles finish. */
+    private Duration tick = Duration.ofSeconds(1);
+    /** How often scores are written to {@code wellbeing_scores / mood_battles}. */
+    private Duration checkpointInterval = Duration.ofMinutes(1);
+    /** Happy hours a plant needs in a week (Monday to Monday, UTC) to complete the challenge. */
+    private double weeklyGoalHappyHours = 40;
+    private Duration battleDefaultDuration = Duration.ofHours(24);
+    private Duration battleMaxDuration = Duration.ofDays(7);
+    /** Drops credited to the owner of a battle's winner. */
+    private int battleDropsReward = 10;
+    /** Cap on leaderboard page sizes and on the radius around a plant. */
+    private int leaderboardMaxEntries = 100;
+}
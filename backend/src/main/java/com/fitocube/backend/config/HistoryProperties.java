@@ -0,0 +1,46 @@
+package com.fitocube.backend.config;
+
+import com.fitocube.backend.model.enums.SeriesResolution;
+import java.time.Duration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "history")
+public class HistoryProperties {
+
+    /** Time span covered by one partition of {@code plant_measurements}. */
+    private Granularity granularity = Granularity.DAILY;
+    /** How many future partitions are kept created in advance. */
+    private int partitionsAhead = 3;
+    /** Partitions entirely older than this are dropped. */
+    private Duration retention = Duration.ofDays(180);
+    /** Minute rollups older than this are deleted; at most {@code retention}, like the readings they sum up. */
+    private Duration minuteRollupRetention = Duration.ofDays(30);
+    /** Hour rollups older than this are deleted. */
+    private Duration hourRollupRetention = Duration.ofDays(730);
+    /** Day rollups older than this are deleted. */
+    private Duration dayRollupRetention = Duration.ofDays(3650);
+    /** How often partitions are created and dropped, and expired rollups deleted. */
+    private Duration maintenanceInterval = Duration.ofHours(1);
+    /** Upper bound for the number of points a single history query may return. */
+    private int maxPoints = 10_000;
+    /** Series requests switch to a coarser resolution when they would return more buckets than this. */
+    private int seriesMaxPoints = 1_000;
+    /** Rows an export reads per keyset page; the connection is only held for one page at a time. */
+    private int exportPageSize = 5_000;
+
+    public Duration getRollupRetention(SeriesResolution resolution) {
+        return switch (resolution) {
+            case MINUTE -> minuteRollupRetention;
+            case HOUR -> hourRollupRetention;
+            case DAY -> dayRollupRetention;
+        };
+    }
+
+    public enum Granularity {
+        DAILY,
+        MONTHLY
+    }
+}
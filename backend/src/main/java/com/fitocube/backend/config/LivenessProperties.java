@@ -0,0 +1,16 @@
+package com.fitocube.backend.config;
+
+import java.time.Duration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "liveness")
+public class LivenessProperties {
+
+    /** A device silent for this long is offline; also the grace period after the broker connection comes back. */
+    private Duration offlineAfter = Duration.ofMinutes(5);
+    /** Resolution of offline detection; transitions are also written to the database at this rate. */
+    private Duration tick = Duration.ofSeconds(1);
+}
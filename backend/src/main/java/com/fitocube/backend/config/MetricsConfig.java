@@ -0,0 +1,83 @@
+package com.fitocube.backend.config;
+
+import com.fitocube.backend.services.LivenessTracker;
+import com.fitocube.backend.services.PlantSnapshotCache;
+import com.fitocube.backend.services.PlantStreamService;
+import com.fitocube.backend.services.RefreshService;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Publishes the counters the services already keep. Ingest and MQTT register their own meters;
+ * REST latency comes from Boot's {@code http.server.requests}.
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public MeterBinder refreshMetrics(RefreshService refreshService) {
+        return registry -> {
+            FunctionCounter.builder("fitocube.refresh.requests", refreshService, RefreshService::commandsSentCount)
+                    .description("Refresh requests, by how they were served")
+                    .tag("outcome", "sent")
+                    .register(registry);
+            FunctionCounter.builder("fitocube.refresh.requests", refreshService, RefreshService::coalescedCount)
+                    .description("Refresh requests, by how they were served")
+                    .tag("outcome", "coalesced")
+                    .register(registry);
+            FunctionCounter.builder("fitocube.refresh.requests", refreshService, RefreshService::timedOutCount)
+                    .description("Refresh requests, by how they were served")
+                    .tag("outcome", "timed_out")
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder livenessMetrics(LivenessTracker livenessTracker) {
+        return registry -> {
+            Gauge.builder("fitocube.devices", livenessTracker, LivenessTracker::onlineCount)
+                    .description("Tracked devices, by liveness")
+                    .tag("state", "online")
+                    .register(registry);
+            Gauge.builder("fitocube.devices", livenessTracker, LivenessTracker::offlineCount)
+                    .description("Tracked devices, by liveness")
+                    .tag("state", "offline")
+                    .register(registry);
+            Gauge.builder("fitocube.mqtt.connected", livenessTracker, tracker -> tracker.isBrokerConnected() ? 1 : 0)
+                    .description("1 while the broker connection is up")
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder snapshotCacheMetrics(PlantSnapshotCache snapshotCache) {
+        return registry -> {
+            Gauge.builder("fitocube.snapshot.cache.size", snapshotCache, PlantSnapshotCache::size)
+                    .description("Plants held in the snapshot cache")
+                    .register(registry);
+            FunctionCounter.builder("fitocube.snapshot.cache.requests", snapshotCache, PlantSnapshotCache::hitCount)
+                    .description("Snapshot cache lookups, by result")
+                    .tag("result", "hit")
+                    .register(registry);
+            FunctionCounter.builder("fitocube.snapshot.cache.requests", snapshotCache, PlantSnapshotCache::missCount)
+                    .description("Snapshot cache lookups, by result")
+                    .tag("result", "miss")
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder streamMetrics(PlantStreamService streamService) {
+        return registry -> {
+            Gauge.builder("fitocube.stream.subscribers", streamService, PlantStreamService::subscriberCount)
+                    .description("Open plant update streams")
+                    .register(registry);
+            FunctionCounter.builder("fitocube.stream.slow.consumers", streamService, PlantStreamService::slowConsumersDroppedCount)
+                    .description("Streams closed because the client fell behind")
+                    .register(registry);
+        };
+    }
+}
@@ -0,0 +1,52 @@
+package com.fitocube.backend.config;
+
+import java.time.Duration;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Rules of the mood engine. Levels are compared with the mean of the last {@link #window}
+ * readings of a device, so a single noisy sample does not flip the mood. The first rule that
+ * matches wins, in the order dry, hot, cold, thirsty, happy; otherwise the plant is normal.
+ */
+@Data
+@ConfigurationProperties(prefix = "mood")
+public class MoodProperties {
+
+    /** Derive mood from measurements; when off, whatever the firmware sends is kept. The windows watering plans from are kept either way. */
+    private boolean enabled = true;
+    /** Readings per device the rules look back over. */
+    private int window = 16;
+    /** Soil moisture, %, below which the plant is dry. */
+    private double dryBelow = 20;
+    /** Soil moisture, %, below which the plant is thirsty. */
+    private double thirstyBelow = 35;
+    /** Soil moisture loss, percentage points per hour across the window, at which a plant is thirsty already. */
+    private double dryingFastPerHour = 3;
+    /** Shortest window span the drying rate is trusted over. */
+    private Duration trendMinSpan = Duration.ofMinutes(10);
+    /** Air temperature, °C, above which the plant is hot. */
+    private double hotAbove = 32;
+    /** Air temperature, °C, below which the plant is cold. */
+    private double coldBelow = 12;
+    /** A plant with every measurement within these ranges is happy. */
+    private Range happySoilMoisture = new Range(45, 75);
+    private Range happyAirTemperature = new Range(18, 27);
+    private Range happyAirHumidity = new Range(40, 70);
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Range {
+
+        private double min;
+        private double max;
+
+        public boolean contains(double value) {
+            return value >= min && value <= max;
+        }
+    }
+}
@@ -1,20 +1,180 @@
 package com.fitocube.backend.config;
 
 import java.time.Duration;
+import java.time.Instant;
 
+import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
 
 @Data
 @ConfigurationProperties(prefix = "mqtt")
 public class MqttProperties {
 
     private String brokerUri = "mqtt://azat222.ru:1883";
+    /** Client id prefix; the node's {@link #instanceId} is appended so replicas never kick each other off. */
     private String clientId = "fitocube-backend";
+    /** Identifies this node; defaults to {@code <hostname>-<pid>}. */
+    private String instanceId;
     private String username;
     private String password;
     private String commandTopic = "soil/cmd";
     private String dataTopic = "soil/data";
+    /** Per-device data topics, as an MQTT filter. */
+    private String deviceDataTopic = "soil/+/data";
+    /**
+     * When set, data topics are consumed through the {@code $share/<group>/} shared subscription,
+     * so the broker splits messages between all backend nodes of the group.
+     * <p>
+     * Each node then sees only part of every device's readings, and this state stays per node:
+     * <ul>
+     *   <li>device registry and friend visibility: claims and visibility changes made through
+     *       another node arrive on restart; a device missing here is looked up once;</li>
+     *   <li>pending refreshes: a refresh is answered only if the reply reaches the node waiting for it;</li>
+     *   <li>plant snapshot cache: an entry is dropped only when this node writes the plant;</li>
+     *   <li>stream subscribers: they get the updates of the readings their node ingests;</li>
+     *   <li>mood windows and watering plans: built from the readings the node ingests;</li>
+     *   <li>reading order check: a redelivery to another node still lands in the history, only the
+     *       conditional {@code plant_states} update drops it;</li>
+     *   <li>device liveness: keep {@code liveness.offline-after} well above a device's reporting
+     *       interval times the number of nodes.</li>
+     * </ul>
+     * Stats and games fold in the other nodes' readings from the history, and a single node
+     * writes them; see {@code AggregateOwnership}.
+     */
+    private String sharedGroup;
     private String commandPayload = "get_info";
     private Duration responseTimeout = Duration.ofSeconds(5);
+    /** Per-device command topic used by on-demand refresh; {@code {deviceUid}} is substituted. */
+    private String refreshCommandTopic = "soil/{deviceUid}/cmd";
+    /** A refresh answered less than this long ago is served again instead of sending a new command. */
+    private Duration refreshCoalesceWindow = Duration.ofSeconds(2);
+    /**
+     * Refresh also publishes the raw {@link #commandPayload} on {@link #commandTopic}, for cubes
+     * flashed before the firmware answered {@link #refreshCommandTopic}. Every cube on the topic
+     * reports, so keep it off unless such cubes remain; at most one broadcast goes out per
+     * {@link #refreshCoalesceWindow}.
+     */
+    private boolean refreshBroadcast = false;
+    private Ingest ingest = new Ingest();
+
+    /**
+     * Buffering between the MQTT callback thread and the database. Inbound messages are
+     * spread over {@code lanes} single-threaded lanes by device, each with its own queue and writer.
+     */
+    @Data
+    public static class Ingest {
+
+        /** Number of lanes; a device always lands on the same lane, so its readings stay ordered. */
+        private int lanes = Runtime.getRuntime().availableProcessors();
+        /** Max messages waiting in a single lane. */
+        private int laneCapacity = 10_000;
+        /** What a lane does when its queue is full; with the write-ahead log on, the log holds the backlog instead. */
+        private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+        /** Max readings written in a single JDBC batch. */
+        private int batchSize = 500;
+        /** How long a lane waits for a batch to fill up before flushing what it has. */
+        private Duration linger = Duration.ofMillis(200);
+        /** With {@link OverflowPolicy#BLOCK}: how long the callback thread may wait before the message is dropped. */
+        private Duration enqueueTimeout = Duration.ofSeconds(1);
+        /** Wait before a batch that failed to write is tried again; doubles per attempt up to {@code retryMaxBackoff}. */
+        private Duration retryBackoff = Duration.ofMillis(200);
+        private Duration retryMaxBackoff = Duration.ofSeconds(30);
+        /** Attempts at a batch that fails for another reason than the database being unreachable, which is waited out. */
+        private int writeAttempts = 3;
+        /** A device without a plant, or whose lookup failed, is not looked up again for this long. */
+        private Duration unknownDeviceTtl = Duration.ofSeconds(30);
+        /** Devices without a plant remembered at once; keep it above the number of unclaimed cubes reporting. */
+        private int unknownDeviceMaxEntries = 100_000;
+        private Deadband deadband = new Deadband();
+        private Wal wal = new Wal();
+        private Clock clock = new Clock();
+    }
+
+    /**
+     * Write-ahead log in front of the lanes: a message is appended to a local segment file before
+     * the broker gets its acknowledgement, and a drainer hands it to the lanes from there. On start
+     * the log is replayed from the last committed offset; segments wholly behind it are deleted.
+     */
+    @Data
+    public static class Wal {
+
+        private boolean enabled = true;
+        private String directory = "data/ingest-wal";
+        /** A new segment is started once the current one reaches this size. */
+        private DataSize segmentSize = DataSize.ofMegabytes(64);
+        private FsyncPolicy fsync = FsyncPolicy.INTERVAL;
+        /** With {@link FsyncPolicy#BATCH}: appends per fsync; 1 makes every acknowledged message durable. */
+        private int fsyncBatchSize = 1;
+        /** With {@link FsyncPolicy#INTERVAL}: how often appended messages are forced to disk. */
+        private Duration fsyncInterval = Duration.ofMillis(100);
+        /** How often the committed offset is saved and persisted segments are deleted. */
+        private Duration checkpointInterval = Duration.ofSeconds(1);
+    }
+
+    /**
+     * How far device timestamps are trusted. Firmware that never synced its clock reports uptime,
+     * i.e. readings from 1970 that start over on every reboot; such readings are ordered, stored
+     * and partitioned by their arrival time instead.
+     */
+    @Data
+    public static class Clock {
+
+        /** Device times before this are uptime rather than wall-clock time. */
+        private Instant minDeviceTime = Instant.parse("2020-01-01T00:00:00Z");
+        /** Device times further than this from the arrival time, either way, are not trusted either. */
+        private Duration maxSkew = Duration.ofHours(1);
+        /** A reading this far behind the device's last one, but received after it, means its clock was reset. */
+        private Duration resetJump = Duration.ofMinutes(5);
+    }
+
+    /**
+     * Change suppression for {@code plant_states}: the latest reading of a device is written only if
+     * a metric moved past its threshold since the last written one, the mood changed, the device was
+     * silent for longer than {@code gap}, or nothing was written for {@code maxSilence}.
+     * History and rollups still get every reading.
+     */
+    @Data
+    public static class Deadband {
+
+        private boolean enabled = true;
+        /** Heartbeat: a reading is written at least this often even if nothing changed. */
+        private Duration maxSilence = Duration.ofMinutes(10);
+        /** The first reading after this long without any reading from the device is always written. */
+        private Duration gap = Duration.ofMinutes(2);
+        private Threshold airTemperature = new Threshold(0.2, 0);
+        private Threshold airHumidity = new Threshold(1.0, 0);
+        private Threshold soilMoisture = new Threshold(0.5, 0);
+    }
+
+    /**
+     * A change counts once it reaches either the absolute or the relative (fraction of the last
+     * written value) threshold; a threshold of 0 is off, and with both off any change counts.
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Threshold {
+
+        private double absolute;
+        private double relative;
+    }
+
+    public enum FsyncPolicy {
+        /** Force after every {@code fsyncBatchSize} appends, on the appending thread. */
+        BATCH,
+        /** Force in the background every {@code fsyncInterval}; a process crash loses nothing, a power loss up to one interval. */
+        INTERVAL
+    }
+
+    public enum OverflowPolicy {
+        /** Block the MQTT callback thread, pushing back on the broker. */
+        BLOCK,
+        /** Evict the oldest queued message to make room. */
+        DROP_OLDEST,
+        /** Reject the incoming message. */
+        DROP_NEWEST
+    }
 }
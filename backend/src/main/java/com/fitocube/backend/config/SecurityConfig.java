@@ -1,6 +1,9 @@
 package com.fitocube.backend.config;
 
+import com.fitocube.backend.security.SessionTokenCodec;
+import com.fitocube.backend.security.SessionTokenFilter;
 import com.fitocube.backend.security.UsernameOnlyAuthenticationProvider;
+import org.springframework.boot.actuate.autoconfigure.web.server.ManagementServerProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
@@ -11,6 +14,9 @@ import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+import org.springframework.security.web.util.matcher.RequestMatcher;
 
 @Configuration
 @EnableWebSecurity
@@ -18,15 +24,33 @@ public class SecurityConfig {
 
     @Bean
     public SecurityFilterChain securityFilterChain(HttpSecurity http,
-                                                   UsernameOnlyAuthenticationProvider authenticationProvider) throws Exception {
+                                                   UsernameOnlyAuthenticationProvider authenticationProvider,
+                                                   SessionProperties sessionProperties,
+                                                   SessionTokenCodec sessionTokenCodec,
+                                                   ManagementServerProperties managementServerProperties) throws Exception {
+        boolean stateless = sessionProperties.getMode() == SessionProperties.Mode.TOKEN;
+        if (stateless) {
+            http.addFilterBefore(new SessionTokenFilter(sessionTokenCodec, sessionProperties),
+                                 UsernamePasswordAuthenticationFilter.class);
+        }
+        // metrics are scraped without a session, but only over the separate management port
+        Integer managementPort = managementServerProperties.getPort();
+        RequestMatcher prometheus = AntPathRequestMatcher.antMatcher(HttpMethod.GET, "/actuator/prometheus");
+        RequestMatcher prometheusOnManagementPort = request -> managementPort != null
+                && request.getLocalPort() == managementPort
+                && prometheus.matches(request);
         http
                 .csrf(csrf -> csrf.disable())
                 .cors(Customizer.withDefaults())
                 .authenticationProvider(authenticationProvider)
-                .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.IF_REQUIRED))
+                .sessionManagement(session -> session.sessionCreationPolicy(
+                        stateless ? SessionCreationPolicy.STATELESS : SessionCreationPolicy.IF_REQUIRED))
                 .authorizeHttpRequests(authorize -> authorize
                         .requestMatchers(HttpMethod.POST, "/session/login").permitAll()
-                        .requestMatchers("/plants/by-owner", "/plants/claim").authenticated()
+                        .requestMatchers(HttpMethod.GET, "/actuator/health").permitAll()
+                        .requestMatchers(prometheusOnManagementPort).permitAll()
+                        .requestMatchers("/plants/by-owner", "/plants/claim", "/plants/stream", "/plants/offline",
+                                         "/plants/friend-feed", "/plants/by-friend-name").authenticated()
                         .requestMatchers(HttpMethod.GET, "/plants/*").permitAll()
                         .anyRequest().authenticated()
                 );
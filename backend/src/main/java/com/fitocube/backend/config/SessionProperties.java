@@ -0,0 +1,28 @@
+package com.fitocube.backend.config;
+
+import java.time.Duration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "session")
+public class SessionProperties {
+
+    private Mode mode = Mode.SERVLET;
+    /** HMAC key for {@link Mode#TOKEN}; must be the same on every node. */
+    private String tokenSecret;
+    private Duration tokenTtl = Duration.ofHours(12);
+    private String cookieName = "FITOCUBE_SESSION";
+    private boolean cookieSecure = false;
+    /** How long a looked-up user is served from memory before it is read again. */
+    private Duration userCacheTtl = Duration.ofMinutes(5);
+    private int userCacheMaxEntries = 10_000;
+
+    public enum Mode {
+        /** Security context kept in the servlet {@code HttpSession}; needs sticky sessions when scaled out. */
+        SERVLET,
+        /** Signed token in a cookie or {@code Authorization: Bearer} header, validated without any storage. */
+        TOKEN
+    }
+}
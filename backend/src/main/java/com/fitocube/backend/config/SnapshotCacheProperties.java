@@ -0,0 +1,12 @@
+package com.fitocube.backend.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "snapshot-cache")
+public class SnapshotCacheProperties {
+
+    /** Max plants whose serialized {@code GET /plants/{plantId}} response is kept; least recently used go first. */
+    private int maxEntries = 10_000;
+}
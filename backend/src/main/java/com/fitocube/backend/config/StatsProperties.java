@@ -0,0 +1,25 @@
+package com.fitocube.backend.config;
+
+import java.time.Duration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "stats")
+public class StatsProperties {
+
+    /** How often changed aggregates are written to {@code user_stats / plant_stats}. */
+    private Duration snapshotInterval = Duration.ofMinutes(5);
+    /** History received this long before a snapshot is replayed again after a restart; replay is idempotent. */
+    private Duration replayOverlap = Duration.ofMinutes(5);
+    /** Without any snapshot, the first start replays this much history. */
+    private Duration initialReplay = Duration.ofDays(7);
+    /** A plant keeps its mood for at most this long after a reading; longer silences are not counted. */
+    private Duration maxGap = Duration.ofMinutes(30);
+    /**
+     * With an MQTT shared group: how often readings persisted by the other nodes are folded in,
+     * and how often a node checks whether it is the one writing the aggregates.
+     */
+    private Duration catchUpInterval = Duration.ofSeconds(10);
+}
@@ -0,0 +1,24 @@
+package com.fitocube.backend.config;
+
+import java.time.Duration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "stream")
+public class StreamProperties {
+
+    /** Lifetime of a single {@code /plants/stream} connection; clients reconnect after it. */
+    private Duration emitterTimeout = Duration.ofMinutes(30);
+    /** Updates buffered per subscriber; a subscriber that falls further behind is disconnected. */
+    private int subscriberBuffer = 64;
+    /** Threads writing buffered updates to subscribers. */
+    private int senderThreads = 2;
+    /** Upper bound on those threads while some are stuck writing to clients that stopped reading. */
+    private int maxSenderThreads = 32;
+    /** A subscriber whose single write takes longer is disconnected. */
+    private Duration writeTimeout = Duration.ofSeconds(10);
+    /** How often idle connections get a comment line so dead ones are noticed. */
+    private Duration heartbeatInterval = Duration.ofSeconds(30);
+}
@@ -0,0 +1,41 @@
+package com.fitocube.backend.config;
+
+import java.time.Duration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Predictive watering: from the soil moisture trend of a plant the scheduler works out when it
+ * will drop below {@code mood.dry-below} and acts at that time.
+ */
+@Data
+@ConfigurationProperties(prefix = "watering")
+public class WateringProperties {
+
+    private boolean enabled = true;
+    /** What happens when a plant is predicted to be dry. */
+    private Action action = Action.REMINDER;
+    /** Resolution of the scheduler; predictions are acted on at most this late. */
+    private Duration tick = Duration.ofSeconds(1);
+    /** Act this long before the predicted moment. */
+    private Duration lead = Duration.ZERO;
+    /** Plants drying slower than this, percentage points per hour, are not scheduled. */
+    private double minDryingPerHour = 0.2;
+    /** Predictions further out than this are not scheduled; the plant is re-evaluated on its next reading. */
+    private Duration horizon = Duration.ofDays(14);
+    /** After acting, a plant is scheduled again only once soil moisture is this far above the threshold (it was watered). */
+    private double rearmAbove = 5;
+    /** Per-device command topic; {@code {deviceUid}} is substituted. */
+    private String commandTopic = "soil/{deviceUid}/cmd";
+    private String commandPayload = "water";
+    /** Watering time sent when the request does not say. */
+    private int defaultDurationSeconds = 10;
+
+    public enum Action {
+        /** Push a {@code watering} event to the owner's {@code /plants/stream}. */
+        REMINDER,
+        /** Also send the watering command to the device. */
+        COMMAND
+    }
+}
@@ -0,0 +1,118 @@
+package com.fitocube.backend.ingest;
+
+import com.fitocube.backend.config.MqttProperties;
+import com.fitocube.backend.model.enums.Mood;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.springframework.stereotype.Component;
+
+/**
+ * Decides which readings are worth a {@code plant_states} update; see {@link MqttProperties.Deadband}.
+ * <p>
+ * Readings are compared with the last <em>written</em> reading of the device, so slow drift is
+ * still written once it adds up. A device always goes through the same ingest lane, so its
+ * state is only ever touched by one thread at a time.
+ */
+@Component
+public class DeadbandFilter {
+
+    private final MqttProperties.Deadband settings;
+    private final Map<String, DeviceState> states = new ConcurrentHashMap<>();
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder suppressed = new LongAdder();
+
+    public DeadbandFilter(MqttProperties properties, MeterRegistry meterRegistry) {
+        this.settings = properties.getIngest().getDeadband();
+        bindDecision("written", written, meterRegistry);
+        bindDecision("suppressed", suppressed, meterRegistry);
+    }
+
+    /**
+     * Records every reading as seen and returns those that must be written, taking them as the
+     * new baseline. If the write then fails, call {@link #forget(Collection)} with the result.
+     */
+    public List<PlantReading> select(Collection<PlantReading> latest) {
+        List<PlantReading> selected = new ArrayList<>(latest.size());
+        for (PlantReading reading : latest) {
+            DeviceState state = states.computeIfAbsent(reading.deviceUid(), uid -> new DeviceState());
+            boolean write = !settings.isEnabled() || state.mustWrite(reading);
+            state.lastSeenMillis = reading.receivedAtMillis();
+            if (write) {
+                state.remember(reading);
+                selected.add(reading);
+                written.increment();
+            } else {
+                suppressed.increment();
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Drops the baseline of the devices, so their next reading is written unconditionally.
+     */
+    public void forget(Collection<PlantReading> readings) {
+        readings.forEach(reading -> states.remove(reading.deviceUid()));
+    }
+
+    private static void bindDecision(String decision, LongAdder count, MeterRegistry meterRegistry) {
+        FunctionCounter.builder("fitocube.ingest.deadband", count, LongAdder::sum)
+                .description("Readings checked against the deadband, by decision")
+                .tag("decision", decision)
+                .register(meterRegistry);
+    }
+
+    private static boolean exceeds(MqttProperties.Threshold threshold, double previous, double current) {
+        if (Double.isNaN(previous) || Double.isNaN(current)) {
+            return Double.isNaN(previous) != Double.isNaN(current);
+        }
+        double delta = Math.abs(current - previous);
+        if (threshold.getAbsolute() <= 0 && threshold.getRelative() <= 0) {
+            return delta > 0;
+        }
+        return (threshold.getAbsolute() > 0 && delta >= threshold.getAbsolute())
+                || (threshold.getRelative() > 0 && delta >= threshold.getRelative() * Math.abs(previous));
+    }
+
+    private final class DeviceState {
+
+        private volatile long lastSeenMillis = Long.MIN_VALUE;
+        private long writtenAtMillis = Long.MIN_VALUE;
+        private double airTemperatureC;
+        private double airHumidityPercent;
+        private double soilMoisturePercent;
+        private Mood mood;
+
+        boolean mustWrite(PlantReading reading) {
+            long now = reading.receivedAtMillis();
+            if (writtenAtMillis == Long.MIN_VALUE
+                    || now - lastSeenMillis > settings.getGap().toMillis()
+                    || now - writtenAtMillis >= settings.getMaxSilence().toMillis()) {
+                return true;
+            }
+            if (reading.mood() != null && reading.mood() != mood) {
+                return true;
+            }
+            return exceeds(settings.getAirTemperature(), airTemperatureC, reading.airTemperatureC())
+                    || exceeds(settings.getAirHumidity(), airHumidityPercent, reading.airHumidityPercent())
+                    || exceeds(settings.getSoilMoisture(), soilMoisturePercent, reading.soilMoisturePercent());
+        }
+
+        void remember(PlantReading reading) {
+            writtenAtMillis = reading.receivedAtMillis();
+            airTemperatureC = reading.airTemperatureC();
+            airHumidityPercent = reading.airHumidityPercent();
+            soilMoisturePercent = reading.soilMoisturePercent();
+            if (reading.mood() != null) {
+                mood = reading.mood();
+            }
+        }
+    }
+}
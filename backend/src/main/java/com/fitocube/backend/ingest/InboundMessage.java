@@ -0,0 +1,10 @@
+package com.fitocube.backend.ingest;
+
+/**
+ * Raw MQTT payload waiting in a lane to be decoded. {@code walPosition} is the write-ahead log
+ * offset just past the message's record, or {@link #NOT_LOGGED} when the log is off.
+ */
+record InboundMessage(String deviceUid, byte[] payload, long receivedAtMillis, long walPosition) {
+
+    static final long NOT_LOGGED = -1;
+}
@@ -0,0 +1,35 @@
+package com.fitocube.backend.ingest;
+
+import java.util.List;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@code ingest} health: down while the write-ahead log reader is failing and waiting to restart,
+ * since nothing logged reaches the database then. Lanes retrying a write are only listed; the
+ * database's own indicator already reports an outage.
+ */
+@Component
+public class IngestHealthIndicator implements HealthIndicator {
+
+    private final IngestPipeline pipeline;
+
+    public IngestHealthIndicator(IngestPipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    @Override
+    public Health health() {
+        WalDrainer.State wal = pipeline.walState();
+        Health.Builder health = wal == WalDrainer.State.RECOVERING ? Health.down() : Health.up();
+        if (wal != null) {
+            health.withDetail("wal", wal);
+        }
+        List<Integer> retrying = pipeline.lanes().stream()
+                .filter(IngestLane::isRetrying)
+                .map(IngestLane::index)
+                .toList();
+        return health.withDetail("retryingLanes", retrying).build();
+    }
+}
@@ -0,0 +1,417 @@
+package com.fitocube.backend.ingest;
+
+import com.fitocube.backend.config.MqttProperties;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+/**
+ * One single-threaded slice of the ingest pipeline. Every message of a given device goes
+ * through the same lane, so its readings are decoded and written strictly in arrival order.
+ * A batch that fails to write holds up the lane while it is retried, and its write-ahead log
+ * offset only counts as done once it is written.
+ */
+@Slf4j
+public final class IngestLane {
+
+    private static final Duration WARN_PERIOD = Duration.ofSeconds(10);
+
+    private final int index;
+    private final MqttProperties.Ingest settings;
+    private final PlantPayloadDecoder decoder;
+    private final Consumer<List<PlantReading>> writer;
+    private final List<IngestListener> listeners;
+    private final Timer writeLatency;
+    private final Timer lag;
+    private final DistributionSummary batchSize;
+    private final BlockingQueue<InboundMessage> queue;
+    /** Only touched by the lane thread. */
+    private final ReadingFrame frame = new ReadingFrame();
+    private final ReadingOrderGuard orderGuard;
+    private final MoodEngine.Draft moodDraft;
+
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder decoded = new LongAdder();
+    private final LongAdder undecodable = new LongAdder();
+    private final LongAdder persisted = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LogSampler undecodableWarnings = new LogSampler(WARN_PERIOD);
+
+    /** Write-ahead log offset past the last message handed to this lane, and past the last one it finished. */
+    private volatile long handedThrough;
+    private volatile long doneThrough;
+    /** A batch was left in the log for the next start; nothing after it may be marked done. Lane thread only. */
+    private boolean floorHeld;
+    private volatile boolean retrying;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    IngestLane(int index,
+               MqttProperties.Ingest settings,
+               PlantPayloadDecoder decoder,
+               MoodEngine moodEngine,
+               Consumer<List<PlantReading>> writer,
+               List<IngestListener> listeners,
+               Timer writeLatency,
+               Timer lag,
+               DistributionSummary batchSize) {
+        this.index = index;
+        this.settings = settings;
+        this.decoder = decoder;
+        this.writer = writer;
+        this.listeners = listeners;
+        this.writeLatency = writeLatency;
+        this.lag = lag;
+        this.batchSize = batchSize;
+        this.queue = new ArrayBlockingQueue<>(settings.getLaneCapacity());
+        this.orderGuard = new ReadingOrderGuard(settings.getClock());
+        this.moodDraft = moodEngine.draft();
+    }
+
+    void start() {
+        running = true;
+        thread = new Thread(this::drainLoop, "plant-ingest-lane-" + index);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() throws InterruptedException {
+        running = false;
+        thread.interrupt();
+        thread.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    /**
+     * @return {@code false} if the message was dropped by the overflow policy
+     */
+    boolean offer(InboundMessage message) throws InterruptedException {
+        boolean queued = switch (settings.getOverflowPolicy()) {
+            case BLOCK -> queue.offer(message, settings.getEnqueueTimeout().toNanos(), TimeUnit.NANOSECONDS);
+            case DROP_NEWEST -> queue.offer(message);
+            case DROP_OLDEST -> offerEvictingOldest(message);
+        };
+        if (queued) {
+            enqueued.increment();
+        } else {
+            dropped.increment();
+        }
+        return queued;
+    }
+
+    /**
+     * Hands over a message replayed from the write-ahead log, waiting as long as the queue is full:
+     * the log holds the backlog, so nothing is dropped here.
+     */
+    void put(InboundMessage message) throws InterruptedException {
+        handedThrough = message.walPosition();
+        queue.put(message);
+        enqueued.increment();
+    }
+
+    /**
+     * Write-ahead log offset such that every message of this lane before it is finished, or
+     * {@link Long#MAX_VALUE} when nothing handed to the lane is outstanding.
+     */
+    long walFloor() {
+        long done = doneThrough;
+        return done < handedThrough ? done : Long.MAX_VALUE;
+    }
+
+    /**
+     * Seeds the order check with a device's stored measurement and arrival time; before {@link #start()} only.
+     */
+    void seedOrder(String deviceUid, long measuredAtMillis, long receivedAtMillis) {
+        orderGuard.seed(deviceUid, measuredAtMillis, receivedAtMillis);
+    }
+
+    void walStart(long position) {
+        handedThrough = position;
+        doneThrough = position;
+    }
+
+    private boolean offerEvictingOldest(InboundMessage message) {
+        while (!queue.offer(message)) {
+            if (queue.poll() != null) {
+                dropped.increment();
+            }
+        }
+        return true;
+    }
+
+    public int index() {
+        return index;
+    }
+
+    public int depth() {
+        return queue.size();
+    }
+
+    public long enqueuedCount() {
+        return enqueued.sum();
+    }
+
+    public long droppedCount() {
+        return dropped.sum();
+    }
+
+    public long decodedCount() {
+        return decoded.sum();
+    }
+
+    public long undecodableCount() {
+        return undecodable.sum();
+    }
+
+    /**
+     * Readings whose device time was replaced by the arrival time.
+     */
+    public long untrustedClockCount() {
+        return orderGuard.untrustedClockCount();
+    }
+
+    /**
+     * Readings taken although older than the last accepted one, since the device clock was reset.
+     */
+    public long clockResetCount() {
+        return orderGuard.clockResetCount();
+    }
+
+    /**
+     * Readings dropped because one with the same timestamp was already accepted.
+     */
+    public long duplicateCount() {
+        return orderGuard.duplicateCount();
+    }
+
+    /**
+     * Readings dropped because a newer one was already accepted.
+     */
+    public long staleCount() {
+        return orderGuard.staleCount();
+    }
+
+    public long persistedCount() {
+        return persisted.sum();
+    }
+
+    public long failedCount() {
+        return failed.sum();
+    }
+
+    /**
+     * Readings of batches written again after a failed attempt, once per attempt.
+     */
+    public long retriedCount() {
+        return retried.sum();
+    }
+
+    /**
+     * Whether the lane is waiting to write a batch again, e.g. because the database is down.
+     */
+    public boolean isRetrying() {
+        return retrying;
+    }
+
+    private void drainLoop() {
+        List<InboundMessage> messages = new ArrayList<>(settings.getBatchSize());
+        while (running || !queue.isEmpty()) {
+            try {
+                InboundMessage first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                messages.add(first);
+                fillBatch(messages);
+            }
+            catch (InterruptedException e) {
+                // shutdown: flush whatever is already queued without waiting for more
+                queue.drainTo(messages, settings.getBatchSize() - messages.size());
+            }
+            flush(messages);
+        }
+    }
+
+    private void fillBatch(List<InboundMessage> messages) throws InterruptedException {
+        long deadline = System.nanoTime() + settings.getLinger().toNanos();
+        while (messages.size() < settings.getBatchSize()) {
+            queue.drainTo(messages, settings.getBatchSize() - messages.size());
+            long remaining = deadline - System.nanoTime();
+            if (messages.size() >= settings.getBatchSize() || remaining <= 0) {
+                return;
+            }
+            InboundMessage next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            messages.add(next);
+        }
+    }
+
+    private void flush(List<InboundMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        long walPosition = messages.get(messages.size() - 1).walPosition();
+        boolean logged = walPosition != InboundMessage.NOT_LOGGED;
+        if (floorHeld && logged) {
+            // an earlier batch is waiting in the log for the next start; these go after it
+            messages.clear();
+            return;
+        }
+        if (persist(messages, logged)) {
+            if (logged) {
+                doneThrough = walPosition;
+            }
+        } else {
+            floorHeld = true;
+        }
+    }
+
+    /**
+     * Writes the batch, retrying with backoff: for as long as the database is unreachable, and
+     * up to {@code writeAttempts} times otherwise. The write-ahead log floor stays put meanwhile.
+     *
+     * @return {@code false} if the batch was not written but is left in the log to be replayed
+     *         on the next start, which only happens when shutting down during an outage
+     */
+    private boolean persist(List<InboundMessage> messages, boolean logged) {
+        List<PlantReading> decoded = new ArrayList<>(messages.size());
+        for (InboundMessage message : messages) {
+            PlantReading reading = decode(message);
+            if (reading != null) {
+                decoded.add(reading);
+            }
+        }
+        messages.clear();
+        // redeliveries and late arrivals must not reach the mood windows either
+        List<PlantReading> readings = orderGuard.admit(decoded);
+        if (readings.isEmpty()) {
+            return true;
+        }
+        readings.replaceAll(moodDraft::evaluate);
+        batchSize.record(readings.size());
+        for (int attempt = 1; ; attempt++) {
+            long started = System.nanoTime();
+            try {
+                writer.accept(readings);
+                writeLatency.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                break;
+            }
+            catch (Exception e) {
+                boolean unavailable = isUnavailable(e);
+                if (running && (unavailable || attempt < settings.getWriteAttempts()) && backOff(attempt, readings.size(), e)) {
+                    retried.add(readings.size());
+                    continue;
+                }
+                retrying = false;
+                orderGuard.discard();
+                moodDraft.discard();
+                if (unavailable && logged) {
+                    log.error("Линия {}: база недоступна при остановке, пакет из {} показаний останется в журнале до следующего запуска",
+                              index, readings.size(), e);
+                    return false;
+                }
+                failed.add(readings.size());
+                log.error("Линия {}: не удалось записать пакет из {} показаний", index, readings.size(), e);
+                return true;
+            }
+        }
+        retrying = false;
+        orderGuard.commit();
+        moodDraft.commit();
+        persisted.add(readings.size());
+        for (IngestListener listener : listeners) {
+            try {
+                listener.onPersisted(readings);
+            }
+            catch (Exception e) {
+                log.error("Линия {}: ошибка в обработчике {}", index, listener.getClass().getSimpleName(), e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return {@code false} if interrupted, i.e. the lane is stopping
+     */
+    private boolean backOff(int attempt, int readings, Exception e) {
+        long delay = Math.min(settings.getRetryBackoff().toMillis() << Math.min(attempt - 1, 20),
+                              settings.getRetryMaxBackoff().toMillis());
+        if (!retrying) {
+            log.warn("Линия {}: не удалось записать пакет из {} показаний, повторяем", index, readings, e);
+        } else {
+            log.warn("Линия {}: попытка {} записать пакет не удалась ({}), следующая через {} мс", index, attempt, e.toString(), delay);
+        }
+        retrying = true;
+        try {
+            Thread.sleep(delay);
+            return true;
+        }
+        catch (InterruptedException interrupted) {
+            return false;
+        }
+    }
+
+    /**
+     * Failures that go away once the database is reachable again, as opposed to ones caused by the batch.
+     */
+    private static boolean isUnavailable(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TransientDataAccessException
+                    || cause instanceof RecoverableDataAccessException
+                    || cause instanceof DataAccessResourceFailureException
+                    || cause instanceof CannotCreateTransactionException
+                    || cause instanceof SQLTransientException
+                    || cause instanceof SQLRecoverableException
+                    || cause instanceof SQLException sql && sql.getSQLState() != null && sql.getSQLState().startsWith("08")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private PlantReading decode(InboundMessage message) {
+        try {
+            PlantReading reading = decoder.decode(message.payload(), message.receivedAtMillis(), frame);
+            if (reading == null) {
+                undecodable.increment();
+                if (undecodableWarnings.sample()) {
+                    log.warn("Получено сообщение без deviceUid или блока measurements, пропускаем (ещё {} таких с прошлого раза)",
+                             undecodableWarnings.takeSuppressed());
+                }
+                return null;
+            }
+            decoded.increment();
+            if (reading.hasTimestamp() && orderGuard.trustsClock(reading)) {
+                lag.record(Math.max(0, reading.receivedAtMillis() - reading.timestampMillis()), TimeUnit.MILLISECONDS);
+            }
+            return reading;
+        }
+        catch (Exception e) {
+            undecodable.increment();
+            if (undecodableWarnings.sample()) {
+                log.error("Не удалось распарсить MQTT сообщение (ещё {} таких с прошлого раза)",
+                          undecodableWarnings.takeSuppressed(), e);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.fitocube.backend.ingest;
+
+import java.util.List;
+
+/**
+ * Hook for components that react to readings once their batch has been stored.
+ * <p>
+ * Called on the ingest lane thread that owns the devices, so calls for the same device never
+ * overlap and arrive in order. Implementations must be cheap and must not block.
+ */
+public interface IngestListener {
+
+    void onPersisted(List<PlantReading> readings);
+}
@@ -0,0 +1,207 @@
+package com.fitocube.backend.ingest;
+
+import com.fitocube.backend.config.MqttProperties;
+import com.fitocube.backend.services.LivenessTracker;
+import com.fitocube.backend.services.PlantService;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Entry point of MQTT ingest. Messages are hashed by {@code deviceUid} onto a fixed set of
+ * {@link IngestLane}s, which decode and persist them in parallel while keeping per-device order.
+ * Every lane publishes its counters, queue depth and write latency under {@code fitocube.ingest.*}
+ * tagged with its index.
+ * <p>
+ * With the write-ahead log on, a message is only appended to {@link IngestWal} on the callback
+ * thread, so the broker's acknowledgement means it is on local disk, and a {@link WalDrainer}
+ * feeds the lanes from the log.
+ */
+@Slf4j
+@Component
+public class IngestPipeline {
+
+    private static final Duration WARN_PERIOD = Duration.ofSeconds(10);
+
+    private final PlantService plantService;
+    private final PlantPayloadDecoder decoder;
+    private final LivenessTracker livenessTracker;
+    private final MqttProperties.Ingest settings;
+    private final MeterRegistry meterRegistry;
+    private final List<IngestLane> lanes;
+    private final LogSampler overflowWarnings = new LogSampler(WARN_PERIOD);
+    private WalDrainer wal;
+
+    public IngestPipeline(PlantService plantService,
+                          PlantPayloadDecoder decoder,
+                          MoodEngine moodEngine,
+                          LivenessTracker livenessTracker,
+                          MqttProperties properties,
+                          List<IngestListener> listeners,
+                          MeterRegistry meterRegistry) {
+        this.plantService = plantService;
+        this.decoder = decoder;
+        this.livenessTracker = livenessTracker;
+        this.settings = properties.getIngest();
+        this.meterRegistry = meterRegistry;
+        int laneCount = Math.max(1, settings.getLanes());
+        Timer lag = Timer.builder("fitocube.ingest.lag")
+                .description("Arrival time minus the measurement timestamp sent by the device")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        List<IngestLane> created = new ArrayList<>(laneCount);
+        for (int i = 0; i < laneCount; i++) {
+            String index = String.valueOf(i);
+            Timer writeLatency = Timer.builder("fitocube.ingest.write")
+                    .description("Time to persist one batch of readings")
+                    .tag("lane", index)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry);
+            DistributionSummary batchSize = DistributionSummary.builder("fitocube.ingest.batch.size")
+                    .description("Readings per persisted batch")
+                    .baseUnit("readings")
+                    .tag("lane", index)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry);
+            IngestLane lane = new IngestLane(i, settings, decoder, moodEngine, plantService::saveReadings,
+                                             List.copyOf(listeners), writeLatency, lag, batchSize);
+            bindLane(lane, meterRegistry);
+            created.add(lane);
+        }
+        this.lanes = Collections.unmodifiableList(created);
+        FunctionCounter.builder("fitocube.ingest.rejected", plantService, PlantService::unknownDeviceMessageCount)
+                .description("Messages dropped because no plant is claimed for their device")
+                .tag("reason", "unknown_device")
+                .register(meterRegistry);
+        FunctionCounter.builder("fitocube.ingest.rejected", plantService, PlantService::staleInDatabaseCount)
+                .description("Readings not written to plant_states because a newer measurement was stored")
+                .tag("reason", "stale_in_database")
+                .register(meterRegistry);
+    }
+
+    private static void bindLane(IngestLane lane, MeterRegistry meterRegistry) {
+        String index = String.valueOf(lane.index());
+        bindOutcome(lane, "enqueued", IngestLane::enqueuedCount, meterRegistry);
+        bindOutcome(lane, "dropped", IngestLane::droppedCount, meterRegistry);
+        bindOutcome(lane, "decoded", IngestLane::decodedCount, meterRegistry);
+        bindOutcome(lane, "undecodable", IngestLane::undecodableCount, meterRegistry);
+        bindOutcome(lane, "duplicate", IngestLane::duplicateCount, meterRegistry);
+        bindOutcome(lane, "stale", IngestLane::staleCount, meterRegistry);
+        bindOutcome(lane, "clock_reset", IngestLane::clockResetCount, meterRegistry);
+        bindOutcome(lane, "untrusted_clock", IngestLane::untrustedClockCount, meterRegistry);
+        bindOutcome(lane, "persisted", IngestLane::persistedCount, meterRegistry);
+        bindOutcome(lane, "failed", IngestLane::failedCount, meterRegistry);
+        bindOutcome(lane, "retried", IngestLane::retriedCount, meterRegistry);
+        Gauge.builder("fitocube.ingest.queue.depth", lane, IngestLane::depth)
+                .description("Messages waiting in the lane's queue")
+                .tag("lane", index)
+                .register(meterRegistry);
+    }
+
+    private static void bindOutcome(IngestLane lane,
+                                    String outcome,
+                                    ToDoubleFunction<IngestLane> count,
+                                    MeterRegistry meterRegistry) {
+        FunctionCounter.builder("fitocube.ingest.messages", lane, count)
+                .description("Messages passing through an ingest lane, by outcome")
+                .tag("lane", String.valueOf(lane.index()))
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void start() {
+        plantService.forEachMeasurementTimestamp((deviceUid, measuredAtMillis, receivedAtMillis) ->
+                laneFor(deviceUid).seedOrder(deviceUid, measuredAtMillis, receivedAtMillis));
+        lanes.forEach(IngestLane::start);
+        if (settings.getWal().isEnabled()) {
+            try {
+                wal = new WalDrainer(IngestWal.open(settings.getWal()), settings.getWal(), decoder, lanes, this::laneFor, meterRegistry);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException("Не удалось открыть журнал ingest", e);
+            }
+            wal.start();
+        }
+        log.info("Запущено {} линий ingest{}", lanes.size(), wal != null ? " с журналом" : "");
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        if (wal != null) {
+            wal.stopReading();
+        }
+        for (IngestLane lane : lanes) {
+            lane.stop();
+        }
+        if (wal != null) {
+            wal.close();
+        }
+    }
+
+    /**
+     * Routes a raw payload to the lane of its device. Messages of devices that have no plant
+     * are dropped right here. With the write-ahead log the message is appended to it and the
+     * call returns; without it, depending on the overflow policy, this may block the caller
+     * while the lane is full.
+     *
+     * @return {@code false} if the message was dropped
+     */
+    public boolean submit(byte[] payload, long receivedAtMillis) {
+        String deviceUid = decoder.peekDeviceUid(payload);
+        if (!plantService.acceptsDevice(deviceUid)) {
+            log.debug("Сообщение от неизвестного устройства {} отброшено", deviceUid);
+            return false;
+        }
+        livenessTracker.touch(deviceUid, receivedAtMillis);
+        if (wal != null && wal.append(payload, receivedAtMillis)) {
+            return true;
+        }
+        IngestLane lane = laneFor(deviceUid);
+        try {
+            if (lane.offer(new InboundMessage(deviceUid, payload, receivedAtMillis, InboundMessage.NOT_LOGGED))) {
+                return true;
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (overflowWarnings.sample()) {
+            log.warn("Линия {} переполнена, сообщение от {} отброшено (ещё {} с прошлого раза)",
+                     lane.index(), deviceUid, overflowWarnings.takeSuppressed());
+        }
+        return false;
+    }
+
+    public List<IngestLane> lanes() {
+        return lanes;
+    }
+
+    /**
+     * @return state of the write-ahead log reader, or {@code null} with the log off
+     */
+    WalDrainer.State walState() {
+        return wal == null ? null : wal.state();
+    }
+
+    private IngestLane laneFor(String deviceUid) {
+        if (deviceUid == null) {
+            return lanes.get(0);
+        }
+        int h = deviceUid.hashCode();
+        return lanes.get(Math.floorMod(h ^ (h >>> 16), lanes.size()));
+    }
+}
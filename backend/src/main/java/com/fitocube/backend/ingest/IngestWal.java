@@ -0,0 +1,455 @@
+package com.fitocube.backend.ingest;
+
+import com.fitocube.backend.config.MqttProperties;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Append-only log of raw MQTT payloads, split into segment files. Offsets are global: a segment
+ * is named after the offset of its first record and the next one starts where it ends, so the
+ * segment holding an offset is simply the one with the greatest base not above it.
+ * <p>
+ * A record is {@code int} payload length, {@code int} CRC32 of the rest, {@code long} arrival
+ * time and the payload. A crash can leave a torn record at the end of the last segment; it is
+ * cut off on open. Damage anywhere else is skipped by the reader. The committed offset, before
+ * which every record is persisted, is kept in a {@code checkpoint} file; segments wholly before
+ * it are deleted.
+ * <p>
+ * Appends may come from any thread; a {@link Reader} belongs to a single one.
+ */
+@Slf4j
+final class IngestWal implements Closeable {
+
+    static final int HEADER_BYTES = 16;
+
+    private static final String SEGMENT_SUFFIX = ".wal";
+    private static final String CHECKPOINT = "checkpoint";
+    private static final String LOCK = "lock";
+    private static final int READ_BUFFER_BYTES = 64 * 1024;
+
+    private final Path directory;
+    private final MqttProperties.Wal settings;
+    private final long segmentBytes;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    /** Segment base offset → file; the last entry is the one being appended to. */
+    private final ConcurrentSkipListMap<Long, Path> segments = new ConcurrentSkipListMap<>();
+
+    /** Guarded by {@code this}. */
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    private final CRC32 crc = new CRC32();
+    private FileChannel active;
+    private long activeBase;
+    private long end;
+    private int unforced;
+
+    /** Offset past the last complete record; readers never go beyond it. */
+    private volatile long appendedThrough;
+    private volatile boolean dirty;
+    private volatile long committed;
+    private final LongAdder corruptRecords = new LongAdder();
+
+    private IngestWal(Path directory, MqttProperties.Wal settings, FileChannel lockChannel, FileLock lock) {
+        this.directory = directory;
+        this.settings = settings;
+        this.segmentBytes = settings.getSegmentSize().toBytes();
+        this.lockChannel = lockChannel;
+        this.lock = lock;
+    }
+
+    /**
+     * Opens the log in its directory, creating it on first use, and recovers the last segment.
+     *
+     * @throws IllegalStateException if another process holds the directory
+     */
+    static IngestWal open(MqttProperties.Wal settings) throws IOException {
+        Path directory = Path.of(settings.getDirectory()).toAbsolutePath();
+        Files.createDirectories(directory);
+        FileChannel lockChannel = FileChannel.open(directory.resolve(LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock = lockChannel.tryLock();
+        if (lock == null) {
+            lockChannel.close();
+            throw new IllegalStateException("Журнал ingest " + directory + " уже используется другим процессом");
+        }
+        IngestWal wal = new IngestWal(directory, settings, lockChannel, lock);
+        try {
+            wal.recover();
+        }
+        catch (IOException | RuntimeException e) {
+            wal.close();
+            throw e;
+        }
+        return wal;
+    }
+
+    private void recover() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> file.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .forEach(file -> segments.put(baseOf(file), file));
+        }
+        long checkpoint = readCheckpoint();
+        if (segments.isEmpty()) {
+            segments.put(checkpoint, createSegment(checkpoint));
+        }
+        Map.Entry<Long, Path> last = segments.lastEntry();
+        activeBase = last.getKey();
+        long valid = validLength(last.getValue());
+        active = FileChannel.open(last.getValue(), StandardOpenOption.WRITE);
+        if (active.size() > valid) {
+            log.warn("Журнал ingest: сегмент {} обрезан с {} до {} байт после сбоя", last.getValue().getFileName(), active.size(), valid);
+            active.truncate(valid);
+        }
+        active.position(valid);
+        end = activeBase + valid;
+        appendedThrough = end;
+        long first = segments.firstKey();
+        committed = Math.min(Math.max(checkpoint, first), end);
+        if (committed != checkpoint) {
+            log.warn("Журнал ingest: точка фиксации {} вне журнала [{}, {}], начинаем с {}", checkpoint, first, end, committed);
+        }
+        log.info("Журнал ingest {}: {} сегментов, к воспроизведению {} байт", directory, segments.size(), end - committed);
+    }
+
+    /**
+     * Bytes of the segment up to its first torn or corrupt record.
+     */
+    private long validLength(Path segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(HEADER_BYTES);
+            long size = channel.size();
+            long position = 0;
+            CRC32 check = new CRC32();
+            while (position + HEADER_BYTES <= size) {
+                head.clear();
+                readFully(channel, head, position);
+                int length = head.getInt(0);
+                if (length < 0 || position + HEADER_BYTES + length > size) {
+                    break;
+                }
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                readFully(channel, payload, position + HEADER_BYTES);
+                check.reset();
+                check.update(head.array(), 8, 8);
+                check.update(payload.array(), 0, length);
+                if ((int) check.getValue() != head.getInt(4)) {
+                    break;
+                }
+                position += HEADER_BYTES + length;
+            }
+            return position;
+        }
+    }
+
+    /**
+     * Appends one message; it is durable once this returns if the fsync policy says so.
+     *
+     * @return offset just past the record
+     */
+    synchronized long append(byte[] payload, long receivedAtMillis) throws IOException {
+        long recordBytes = HEADER_BYTES + (long) payload.length;
+        if (end > activeBase && end - activeBase + recordBytes > segmentBytes) {
+            roll();
+        }
+        header.clear();
+        header.putInt(payload.length).putInt(0).putLong(receivedAtMillis);
+        crc.reset();
+        crc.update(header.array(), 8, 8);
+        crc.update(payload, 0, payload.length);
+        header.putInt(4, (int) crc.getValue());
+        header.flip();
+        ByteBuffer[] record = {header, ByteBuffer.wrap(payload)};
+        long written = 0;
+        while (written < recordBytes) {
+            written += active.write(record);
+        }
+        end += recordBytes;
+        appendedThrough = end;
+        if (settings.getFsync() == MqttProperties.FsyncPolicy.BATCH && ++unforced >= settings.getFsyncBatchSize()) {
+            active.force(false);
+            unforced = 0;
+        } else {
+            dirty = true;
+        }
+        return end;
+    }
+
+    private void roll() throws IOException {
+        active.force(false);
+        active.close();
+        Path segment = createSegment(end);
+        segments.put(end, segment);
+        active = FileChannel.open(segment, StandardOpenOption.WRITE);
+        activeBase = end;
+        unforced = 0;
+        log.debug("Журнал ingest: начат сегмент {}", segment.getFileName());
+    }
+
+    /**
+     * Forces what was appended since the last call; for the interval fsync policy.
+     */
+    void sync() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        FileChannel channel;
+        synchronized (this) {
+            channel = active;
+        }
+        try {
+            channel.force(false);
+        }
+        catch (ClosedChannelException e) {
+            // rolled meanwhile, and a roll forces the segment it closes
+        }
+    }
+
+    /**
+     * Records that everything before {@code offset} is persisted and deletes the segments that
+     * lie wholly before it.
+     */
+    void commit(long offset) throws IOException {
+        if (offset <= committed) {
+            return;
+        }
+        Path temp = directory.resolve(CHECKPOINT + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(Long.toString(offset).getBytes(StandardCharsets.US_ASCII)));
+            channel.force(true);
+        }
+        Files.move(temp, directory.resolve(CHECKPOINT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        committed = offset;
+        Iterator<Map.Entry<Long, Path>> iterator = segments.headMap(segments.floorKey(offset)).entrySet().iterator();
+        while (iterator.hasNext()) {
+            Path segment = iterator.next().getValue();
+            iterator.remove();
+            Files.deleteIfExists(segment);
+            log.debug("Журнал ingest: сегмент {} записан в базу и удалён", segment.getFileName());
+        }
+    }
+
+    long committedOffset() {
+        return committed;
+    }
+
+    long appendedOffset() {
+        return appendedThrough;
+    }
+
+    /**
+     * Bytes held on disk, persisted or not.
+     */
+    long sizeBytes() {
+        return appendedThrough - segments.firstKey();
+    }
+
+    int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Records, or stretches of a segment, that readers skipped as unreadable.
+     */
+    long corruptCount() {
+        return corruptRecords.sum();
+    }
+
+    Reader reader(long from) {
+        return new Reader(from);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            synchronized (this) {
+                if (active != null) {
+                    active.force(false);
+                    active.close();
+                }
+            }
+        }
+        finally {
+            lock.release();
+            lockChannel.close();
+        }
+    }
+
+    private long readCheckpoint() throws IOException {
+        Path checkpoint = directory.resolve(CHECKPOINT);
+        if (!Files.exists(checkpoint)) {
+            return 0;
+        }
+        String text = Files.readString(checkpoint, StandardCharsets.US_ASCII).trim();
+        try {
+            return Long.parseLong(text);
+        }
+        catch (NumberFormatException e) {
+            log.warn("Журнал ingest: повреждённая точка фиксации '{}', воспроизводим с начала", text);
+            return 0;
+        }
+    }
+
+    private Path createSegment(long base) throws IOException {
+        Path segment = directory.resolve(String.format("%020d", base) + SEGMENT_SUFFIX);
+        Files.deleteIfExists(segment);
+        return Files.createFile(segment);
+    }
+
+    private static long baseOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Неожиданный конец сегмента журнала ingest");
+            }
+        }
+    }
+
+    /**
+     * A message read back from the log.
+     *
+     * @param end offset just past its record
+     */
+    record Entry(byte[] payload, long receivedAtMillis, long end) {
+    }
+
+    /**
+     * Sequential cursor over the log, never ahead of the last complete append.
+     */
+    final class Reader implements Closeable {
+
+        private long position;
+        private FileChannel channel;
+        private long channelBase = -1;
+        /** Bytes of the current segment starting at {@link #position}. */
+        private ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_BYTES).flip();
+        private final CRC32 check = new CRC32();
+
+        private Reader(long from) {
+            this.position = from;
+        }
+
+        /**
+         * Skips what cannot be read back: a record whose checksum does not match, and the rest of
+         * a segment once a length makes no sense or the file ends early, since no later record
+         * boundary in it can be trusted.
+         *
+         * @return the next message, or {@code null} when caught up with the appends
+         */
+        Entry next() throws IOException {
+            while (true) {
+                long limit = appendedThrough;
+                if (position >= limit) {
+                    return null;
+                }
+                long base = segments.floorKey(position);
+                if (base != channelBase) {
+                    open(base);
+                }
+                Long nextBase = segments.higherKey(base);
+                long segmentEnd = nextBase == null ? limit : Math.min(nextBase, limit);
+                if (segmentEnd - position < HEADER_BYTES || !fill(HEADER_BYTES, segmentEnd)) {
+                    skipTo(segmentEnd, "обрывается");
+                    continue;
+                }
+                int length = buffer.getInt(buffer.position());
+                if (length < 0 || length > segmentEnd - position - HEADER_BYTES) {
+                    skipTo(segmentEnd, "с неверной длиной " + length);
+                    continue;
+                }
+                if (!fill(HEADER_BYTES + length, segmentEnd)) {
+                    skipTo(segmentEnd, "обрывается");
+                    continue;
+                }
+                int start = buffer.position();
+                check.reset();
+                check.update(buffer.array(), buffer.arrayOffset() + start + 8, 8 + length);
+                long receivedAtMillis = buffer.getLong(start + 8);
+                boolean intact = (int) check.getValue() == buffer.getInt(start + 4);
+                position += HEADER_BYTES + length;
+                if (!intact) {
+                    buffer.position(start + HEADER_BYTES + length);
+                    corruptRecords.increment();
+                    log.error("Журнал ingest: запись на смещении {} повреждена (контрольная сумма), пропускаем",
+                              position - HEADER_BYTES - length);
+                    continue;
+                }
+                byte[] payload = new byte[length];
+                buffer.position(start + HEADER_BYTES);
+                buffer.get(payload);
+                return new Entry(payload, receivedAtMillis, position);
+            }
+        }
+
+        private void skipTo(long offset, String reason) {
+            corruptRecords.increment();
+            log.error("Журнал ingest: запись на смещении {} {}, пропускаем {} байт до {}",
+                      position, reason, offset - position, offset);
+            position = offset;
+            buffer.clear().flip();
+        }
+
+        private void open(long base) throws IOException {
+            close();
+            channel = FileChannel.open(segments.get(base), StandardOpenOption.READ);
+            channelBase = base;
+            buffer.clear().flip();
+        }
+
+        /**
+         * Makes {@code bytes} bytes at {@link #position} available, reading no further than
+         * {@code limit} so a record still being written is never picked up.
+         *
+         * @return {@code false} if the segment file ends first
+         */
+        private boolean fill(int bytes, long limit) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return true;
+            }
+            if (buffer.capacity() < bytes) {
+                buffer = ByteBuffer.allocate(bytes).put(buffer).flip();
+            }
+            buffer.compact();
+            long fileOffset = position - channelBase;
+            long available = limit - position;
+            buffer.limit((int) Math.min(buffer.capacity(), available));
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer, fileOffset + buffer.position()) < 0) {
+                    buffer.clear().flip();
+                    return false;
+                }
+            }
+            buffer.flip();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+                channelBase = -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.fitocube.backend.ingest;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lets a per-message log statement through at most once per period and counts the calls it
+ * held back, so a flood of the same event costs an increment instead of a formatted line each.
+ */
+public final class LogSampler {
+
+    private final long periodNanos;
+    private final AtomicLong nextNanos;
+    private final LongAdder suppressed = new LongAdder();
+
+    public LogSampler(Duration period) {
+        this.periodNanos = period.toNanos();
+        this.nextNanos = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * @return {@code true} if the caller should log this time
+     */
+    public boolean sample() {
+        long now = System.nanoTime();
+        long next = nextNanos.get();
+        if (now - next >= 0 && nextNanos.compareAndSet(next, now + periodNanos)) {
+            return true;
+        }
+        suppressed.increment();
+        return false;
+    }
+
+    /**
+     * Calls held back since the previous sampled one.
+     */
+    public long takeSuppressed() {
+        return suppressed.sumThenReset();
+    }
+}
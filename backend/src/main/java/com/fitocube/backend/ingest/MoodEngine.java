@@ -0,0 +1,300 @@
+package com.fitocube.backend.ingest;
+
+import com.fitocube.backend.config.MoodProperties;
+import com.fitocube.backend.model.enums.Mood;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.springframework.stereotype.Component;
+
+/**
+ * Derives a plant's {@link Mood} from its recent readings; see {@link MoodProperties} for the rules.
+ * <p>
+ * Every device keeps fixed-size rings of its last soil moisture, temperature and humidity
+ * values with running sums, so a reading is evaluated in constant time without touching the
+ * database. The mood is put on the reading itself; a changed mood always gets past the
+ * {@link DeadbandFilter}, and an unchanged one never causes a write on its own. Like the
+ * deadband state, a device's window is only ever touched by the lane of that device.
+ * <p>
+ * A lane evaluates its batch through a {@link Draft}: readings go into copies of their
+ * windows, which replace the windows only once the batch is written. A batch that fails and
+ * arrives again is therefore not counted twice.
+ */
+@Component
+public class MoodEngine {
+
+    private static final double MILLIS_PER_HOUR = 3_600_000d;
+
+    private final MoodProperties settings;
+    private final Map<String, Window> windows = new ConcurrentHashMap<>();
+
+    private final LongAdder evaluated = new LongAdder();
+    private final LongAdder changed = new LongAdder();
+
+    public MoodEngine(MoodProperties settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * Adds the reading to its device's window right away. The window is kept even with mood
+     * derivation off, since watering plans from it.
+     *
+     * @return the reading carrying the derived mood, or the reading as is if derivation is off
+     *         or the window has nothing to judge by yet
+     */
+    public PlantReading evaluate(PlantReading reading) {
+        Window window = windowOf(reading.deviceUid());
+        Mood before = window.mood;
+        PlantReading judged = judge(window, reading);
+        if (window.mood != before) {
+            changed.increment();
+        }
+        return judged;
+    }
+
+    /**
+     * Starts the window changes of one batch; owned by the lane that writes it.
+     */
+    Draft draft() {
+        return new Draft();
+    }
+
+    private Window windowOf(String deviceUid) {
+        return windows.computeIfAbsent(deviceUid, uid -> newWindow());
+    }
+
+    private Window newWindow() {
+        return new Window(Math.max(2, settings.getWindow()));
+    }
+
+    private PlantReading judge(Window window, PlantReading reading) {
+        window.push(reading);
+        if (!settings.isEnabled()) {
+            return reading;
+        }
+        evaluated.increment();
+        Mood mood = window.derive();
+        if (mood == null) {
+            return reading;
+        }
+        window.mood = mood;
+        return mood == reading.mood() ? reading : reading.withMood(mood);
+    }
+
+    /**
+     * @return the last derived mood of the device, or {@code null} if none was derived yet
+     */
+    public Mood currentMood(String deviceUid) {
+        Window window = windows.get(deviceUid);
+        return window == null ? null : window.mood;
+    }
+
+    /**
+     * @return mean soil moisture over the device's window, or {@code NaN} if unknown
+     */
+    public double soilMoisture(String deviceUid) {
+        Window window = windows.get(deviceUid);
+        return window == null ? Double.NaN : window.soilMoisture.mean();
+    }
+
+    /**
+     * @return soil moisture change across the device's window, percentage points per hour,
+     *         or {@code NaN} if the window is too short to tell
+     */
+    public double soilMoistureRatePerHour(String deviceUid) {
+        Window window = windows.get(deviceUid);
+        return window == null ? Double.NaN : window.soilMoisture.ratePerHour(settings.getTrendMinSpan().toMillis());
+    }
+
+    public long evaluatedCount() {
+        return evaluated.sum();
+    }
+
+    public long changedCount() {
+        return changed.sum();
+    }
+
+    /**
+     * Window changes of the batch a lane is writing: every window touched is copied once, and the
+     * batch's readings are evaluated against the copies. Reused from batch to batch, so a steady
+     * lane allocates no windows.
+     */
+    final class Draft {
+
+        private final Map<Window, Window> copies = new IdentityHashMap<>();
+        private final List<Window> spare = new ArrayList<>();
+        private long changes;
+
+        private Draft() {
+        }
+
+        /**
+         * Same as {@link MoodEngine#evaluate(PlantReading)}, on this batch's copy of the window.
+         */
+        PlantReading evaluate(PlantReading reading) {
+            Window window = windowOf(reading.deviceUid());
+            Window copy = copies.get(window);
+            if (copy == null) {
+                copy = spare.isEmpty() ? newWindow() : spare.remove(spare.size() - 1);
+                copy.copyFrom(window);
+                copies.put(window, copy);
+            }
+            Mood before = copy.mood;
+            PlantReading judged = judge(copy, reading);
+            if (copy.mood != before) {
+                changes++;
+            }
+            return judged;
+        }
+
+        /**
+         * The batch was written: the copies take the windows' place.
+         */
+        void commit() {
+            copies.forEach(Window::copyFrom);
+            changed.add(changes);
+            discard();
+        }
+
+        /**
+         * The batch was not written: the windows stay as they were.
+         */
+        void discard() {
+            spare.addAll(copies.values());
+            copies.clear();
+            changes = 0;
+        }
+    }
+
+    private final class Window {
+
+        private final Ring soilMoisture;
+        private final Ring airTemperature;
+        private final Ring airHumidity;
+        private volatile Mood mood;
+
+        Window(int capacity) {
+            soilMoisture = new Ring(capacity);
+            airTemperature = new Ring(capacity);
+            airHumidity = new Ring(capacity);
+        }
+
+        void copyFrom(Window other) {
+            soilMoisture.copyFrom(other.soilMoisture);
+            airTemperature.copyFrom(other.airTemperature);
+            airHumidity.copyFrom(other.airHumidity);
+            mood = other.mood;
+        }
+
+        void push(PlantReading reading) {
+            long at = reading.measuredAtMillis();
+            soilMoisture.push(reading.soilMoisturePercent(), at);
+            airTemperature.push(reading.airTemperatureC(), at);
+            airHumidity.push(reading.airHumidityPercent(), at);
+        }
+
+        Mood derive() {
+            double soil = soilMoisture.mean();
+            double temperature = airTemperature.mean();
+            double humidity = airHumidity.mean();
+            if (Double.isNaN(soil) && Double.isNaN(temperature)) {
+                return null;
+            }
+            if (soil < settings.getDryBelow()) {
+                return Mood.DRY;
+            }
+            if (temperature > settings.getHotAbove()) {
+                return Mood.HOT;
+            }
+            if (temperature < settings.getColdBelow()) {
+                return Mood.COLD;
+            }
+            if (soil < settings.getThirstyBelow()
+                    || -soilMoisture.ratePerHour(settings.getTrendMinSpan().toMillis()) >= settings.getDryingFastPerHour()) {
+                return Mood.THIRSTY;
+            }
+            if (settings.getHappySoilMoisture().contains(soil)
+                    && settings.getHappyAirTemperature().contains(temperature)
+                    && settings.getHappyAirHumidity().contains(humidity)) {
+                return Mood.HAPPY;
+            }
+            return Mood.NORMAL;
+        }
+    }
+
+    /**
+     * Last values of one measurement with their running sum. Missing values are skipped.
+     */
+    private static final class Ring {
+
+        private final double[] values;
+        private final long[] times;
+        private int head;
+        private int size;
+        private double sum;
+
+        Ring(int capacity) {
+            values = new double[capacity];
+            times = new long[capacity];
+        }
+
+        void copyFrom(Ring other) {
+            System.arraycopy(other.values, 0, values, 0, values.length);
+            System.arraycopy(other.times, 0, times, 0, times.length);
+            head = other.head;
+            size = other.size;
+            sum = other.sum;
+        }
+
+        void push(double value, long atMillis) {
+            if (Double.isNaN(value)) {
+                return;
+            }
+            if (size == values.length) {
+                sum -= values[head];
+            } else {
+                size++;
+            }
+            values[head] = value;
+            times[head] = atMillis;
+            sum += value;
+            if (++head == values.length) {
+                head = 0;
+                resum();
+            }
+        }
+
+        double mean() {
+            return size == 0 ? Double.NaN : sum / size;
+        }
+
+        /**
+         * @return change per hour from the oldest to the newest value, or {@code NaN} if the
+         *         window spans less than {@code minSpanMillis}
+         */
+        double ratePerHour(long minSpanMillis) {
+            if (size < 2) {
+                return Double.NaN;
+            }
+            int oldest = size < values.length ? 0 : head;
+            int newest = (head == 0 ? values.length : head) - 1;
+            long span = times[newest] - times[oldest];
+            if (span <= 0 || span < minSpanMillis) {
+                return Double.NaN;
+            }
+            return (values[newest] - values[oldest]) * MILLIS_PER_HOUR / span;
+        }
+
+        /** Running sums drift; recomputing once per lap keeps the cost constant per value. */
+        private void resum() {
+            double total = 0;
+            for (int i = 0; i < size; i++) {
+                total += values[i];
+            }
+            sum = total;
+        }
+    }
+}
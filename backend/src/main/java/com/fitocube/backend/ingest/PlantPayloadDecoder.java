@@ -0,0 +1,205 @@
+package com.fitocube.backend.ingest;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fitocube.backend.model.enums.Mood;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Turns firmware payloads into {@link PlantReading}s without binding them to entities.
+ * <p>
+ * Two formats are accepted. JSON, as published by the current firmware, is read with the
+ * streaming parser. The compact binary frame starts with {@link #COMPACT_MAGIC} and a schema
+ * version; version 1 is laid out big-endian as
+ * <pre>
+ * u8  magic (0xF1)        u8  version (1)
+ * u8  deviceUid length    ... deviceUid (UTF-8)
+ * f32 airTemperatureC     f32 airHumidityPercent    f32 soilMoisturePercent   (NaN = missing)
+ * u16 soilMoistureRaw     (0xFFFF = missing)
+ * i64 timestamp, epoch ms (Long.MIN_VALUE = missing)
+ * u8  mood                (0 = missing, otherwise ordinal + 1)
+ * u8  correlationId length (0 = missing)  ... correlationId (UTF-8)
+ * </pre>
+ */
+@Slf4j
+@Component
+public class PlantPayloadDecoder {
+
+    static final byte COMPACT_MAGIC = (byte) 0xF1;
+    static final int COMPACT_VERSION = 1;
+
+    private static final int COMPACT_NO_RAW_VALUE = 0xFFFF;
+    private static final Mood[] MOODS = Mood.values();
+
+    private final JsonFactory jsonFactory;
+
+    public PlantPayloadDecoder(ObjectMapper objectMapper) {
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    /**
+     * Reads only as far as {@code deviceUid}. The firmware writes it first, so this is enough
+     * to pick a lane on the callback thread and leave the full decode to the lane.
+     *
+     * @return the device id, or {@code null} if the payload has none
+     */
+    public String peekDeviceUid(byte[] payload) {
+        if (isCompact(payload)) {
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(payload, 2, payload.length - 2);
+                return readString(buffer);
+            }
+            catch (BufferUnderflowException e) {
+                return null;
+            }
+        }
+        try (JsonParser parser = jsonFactory.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("deviceUid".equals(field)) {
+                    return value == JsonToken.VALUE_STRING ? parser.getText() : null;
+                }
+                parser.skipChildren();
+            }
+        }
+        catch (IOException e) {
+            log.debug("Не удалось найти deviceUid в сообщении", e);
+        }
+        return null;
+    }
+
+    /**
+     * Decodes into the caller's (per-lane) frame.
+     *
+     * @return the reading, or {@code null} if the payload carries no device id or measurements
+     */
+    PlantReading decode(byte[] payload, long receivedAtMillis, ReadingFrame frame) throws IOException {
+        frame.reset();
+        if (isCompact(payload)) {
+            decodeCompact(payload, frame);
+        } else {
+            decodeJson(payload, frame);
+        }
+        return frame.toReading(receivedAtMillis);
+    }
+
+    private static boolean isCompact(byte[] payload) {
+        return payload.length > 1 && payload[0] == COMPACT_MAGIC;
+    }
+
+    private void decodeJson(byte[] payload, ReadingFrame frame) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "deviceUid" -> frame.deviceUid = value == JsonToken.VALUE_STRING ? parser.getText() : null;
+                    case "measurements" -> readMeasurements(parser, value, frame);
+                    case "mood" -> frame.mood = value == JsonToken.VALUE_STRING ? parseMood(parser.getText()) : null;
+                    case "correlationId" -> frame.correlationId = value == JsonToken.VALUE_STRING ? parser.getText() : null;
+                    default -> parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    private static void readMeasurements(JsonParser parser, JsonToken value, ReadingFrame frame) throws IOException {
+        if (value != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        frame.hasMeasurements = true;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken token = parser.nextToken();
+            switch (field) {
+                case "airTemperatureC" -> frame.airTemperatureC = readDouble(parser, token);
+                case "airHumidityPercent" -> frame.airHumidityPercent = readDouble(parser, token);
+                case "soilMoisturePercent" -> frame.soilMoisturePercent = readDouble(parser, token);
+                case "soilMoistureRaw" -> frame.soilMoistureRaw = token.isNumeric()
+                        ? parser.getIntValue()
+                        : PlantReading.NO_RAW_VALUE;
+                case "timestamp" -> frame.timestampMillis = readTimestamp(parser, token);
+                default -> parser.skipChildren();
+            }
+        }
+    }
+
+    private static double readDouble(JsonParser parser, JsonToken token) throws IOException {
+        return token.isNumeric() ? parser.getDoubleValue() : Double.NaN;
+    }
+
+    private static long readTimestamp(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_STRING) {
+            return Instant.parse(parser.getText()).toEpochMilli();
+        }
+        return token == JsonToken.VALUE_NUMBER_INT ? parser.getLongValue() : PlantReading.NO_TIMESTAMP;
+    }
+
+    private static void decodeCompact(byte[] payload, ReadingFrame frame) throws IOException {
+        int version = payload[1] & 0xFF;
+        if (version != COMPACT_VERSION) {
+            throw new IOException("Неподдерживаемая версия бинарного кадра: " + version);
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(payload, 2, payload.length - 2);
+            frame.deviceUid = readString(buffer);
+            frame.airTemperatureC = buffer.getFloat();
+            frame.airHumidityPercent = buffer.getFloat();
+            frame.soilMoisturePercent = buffer.getFloat();
+            int raw = buffer.getShort() & 0xFFFF;
+            frame.soilMoistureRaw = raw == COMPACT_NO_RAW_VALUE ? PlantReading.NO_RAW_VALUE : raw;
+            frame.timestampMillis = buffer.getLong();
+            int mood = buffer.get() & 0xFF;
+            frame.mood = mood == 0 || mood > MOODS.length ? null : MOODS[mood - 1];
+            frame.correlationId = readString(buffer);
+            frame.hasMeasurements = true;
+        }
+        catch (BufferUnderflowException e) {
+            throw new IOException("Бинарный кадр обрезан", e);
+        }
+    }
+
+    /**
+     * @return the length-prefixed string, or {@code null} for length 0
+     */
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.get() & 0xFF;
+        if (length == 0) {
+            return null;
+        }
+        if (buffer.remaining() < length) {
+            throw new BufferUnderflowException();
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    /**
+     * Firmware sends moods in lower case; unknown values are dropped rather than failing the reading.
+     */
+    private static Mood parseMood(String text) {
+        for (Mood mood : MOODS) {
+            if (mood.name().equalsIgnoreCase(text)) {
+                return mood;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,56 @@
+package com.fitocube.backend.ingest;
+
+import com.fitocube.backend.model.PlantMeasurementsDto;
+import com.fitocube.backend.model.enums.Mood;
+import java.time.Instant;
+
+/**
+ * Single firmware reading as it travels through the ingest pipeline.
+ * Missing sensor values are carried as {@link Double#NaN}, a missing raw value as {@code -1}
+ * and a missing timestamp as {@link Long#MIN_VALUE}. {@code correlationId} is set only on
+ * replies to a refresh command that echo it.
+ */
+public record PlantReading(String deviceUid,
+                           double airTemperatureC,
+                           double airHumidityPercent,
+                           double soilMoisturePercent,
+                           int soilMoistureRaw,
+                           long timestampMillis,
+                           Mood mood,
+                           String correlationId,
+                           long receivedAtMillis) {
+
+    public static final int NO_RAW_VALUE = -1;
+    public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    public boolean hasTimestamp() {
+        return timestampMillis != NO_TIMESTAMP;
+    }
+
+    /**
+     * Device time of the reading, falling back to arrival time when the firmware sent none.
+     */
+    public long measuredAtMillis() {
+        return hasTimestamp() ? timestampMillis : receivedAtMillis;
+    }
+
+    public PlantReading withTimestamp(long timestampMillis) {
+        return new PlantReading(deviceUid, airTemperatureC, airHumidityPercent, soilMoisturePercent,
+                                soilMoistureRaw, timestampMillis, mood, correlationId, receivedAtMillis);
+    }
+
+    public PlantReading withMood(Mood mood) {
+        return new PlantReading(deviceUid, airTemperatureC, airHumidityPercent, soilMoisturePercent,
+                                soilMoistureRaw, timestampMillis, mood, correlationId, receivedAtMillis);
+    }
+
+    public PlantMeasurementsDto toMeasurements() {
+        PlantMeasurementsDto dto = new PlantMeasurementsDto();
+        dto.setAirTemperatureC(Double.isNaN(airTemperatureC) ? null : airTemperatureC);
+        dto.setAirHumidityPercent(Double.isNaN(airHumidityPercent) ? null : airHumidityPercent);
+        dto.setSoilMoisturePercent(Double.isNaN(soilMoisturePercent) ? null : soilMoisturePercent);
+        dto.setSoilMoistureRaw(soilMoistureRaw == NO_RAW_VALUE ? null : soilMoistureRaw);
+        dto.setTimestamp(hasTimestamp() ? Instant.ofEpochMilli(timestampMillis) : null);
+        return dto;
+    }
+}
@@ -0,0 +1,47 @@
+package com.fitocube.backend.ingest;
+
+import com.fitocube.backend.model.enums.Mood;
+
+/**
+ * Mutable scratch a lane decodes every payload into. It is reset and reused per message, so
+ * decoding allocates nothing besides the strings and the {@link PlantReading} that are kept.
+ */
+final class ReadingFrame {
+
+    String deviceUid;
+    boolean hasMeasurements;
+    double airTemperatureC;
+    double airHumidityPercent;
+    double soilMoisturePercent;
+    int soilMoistureRaw;
+    long timestampMillis;
+    Mood mood;
+    String correlationId;
+
+    ReadingFrame() {
+        reset();
+    }
+
+    void reset() {
+        deviceUid = null;
+        hasMeasurements = false;
+        airTemperatureC = Double.NaN;
+        airHumidityPercent = Double.NaN;
+        soilMoisturePercent = Double.NaN;
+        soilMoistureRaw = PlantReading.NO_RAW_VALUE;
+        timestampMillis = PlantReading.NO_TIMESTAMP;
+        mood = null;
+        correlationId = null;
+    }
+
+    /**
+     * @return the reading, or {@code null} if the frame lacks a device id or measurements
+     */
+    PlantReading toReading(long receivedAtMillis) {
+        if (deviceUid == null || !hasMeasurements) {
+            return null;
+        }
+        return new PlantReading(deviceUid, airTemperatureC, airHumidityPercent, soilMoisturePercent,
+                                soilMoistureRaw, timestampMillis, mood, correlationId, receivedAtMillis);
+    }
+}
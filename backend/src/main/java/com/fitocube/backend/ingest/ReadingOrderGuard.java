@@ -0,0 +1,155 @@
+package com.fitocube.backend.ingest;
+
+import com.fitocube.backend.config.MqttProperties;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Last accepted measurement time of every device of one lane. A reading whose timestamp is not
+ * newer is a broker redelivery or arrived out of order, and is dropped before anything is
+ * written; readings without a timestamp cannot be ordered and always pass. A batch's readings
+ * only count as accepted once it is written, so a failed batch can arrive again.
+ * <p>
+ * Device times that cannot be wall-clock time (see {@link MqttProperties.Clock}) are replaced by
+ * the arrival time; a redelivery still carries the device's own time and is recognised by it.
+ * A reading more than {@code resetJump} behind the last accepted one that was received after it
+ * means the device clock was reset (a reboot, a time sync): it is accepted and the device is
+ * ordered from its new clock on.
+ * <p>
+ * Not thread-safe: owned by the lane thread, apart from seeding before the lane starts.
+ */
+final class ReadingOrderGuard {
+
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final long minDeviceTimeMillis;
+    private final long maxSkewMillis;
+    private final long resetJumpMillis;
+    private final Map<String, Mark> marks = new HashMap<>();
+    private final List<Mark> pending = new ArrayList<>();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+    private final LongAdder untrustedClock = new LongAdder();
+    private final LongAdder clockResets = new LongAdder();
+
+    ReadingOrderGuard(MqttProperties.Clock clock) {
+        this.minDeviceTimeMillis = clock.getMinDeviceTime().toEpochMilli();
+        this.maxSkewMillis = clock.getMaxSkew().toMillis();
+        this.resetJumpMillis = clock.getResetJump().toMillis();
+    }
+
+    /**
+     * Starts a device from what the database already holds; {@code receivedAtMillis} may be {@link Long#MIN_VALUE}.
+     */
+    void seed(String deviceUid, long acceptedMillis, long receivedAtMillis) {
+        Mark mark = marks.computeIfAbsent(deviceUid, uid -> new Mark());
+        mark.accepted = acceptedMillis;
+        mark.acceptedDeviceTime = acceptedMillis;
+        mark.acceptedReceivedAt = receivedAtMillis;
+    }
+
+    /**
+     * Uptime clocks report times from 1970 and unsynced ones drift; neither is close to the arrival time.
+     */
+    boolean trustsClock(PlantReading reading) {
+        long timestamp = reading.timestampMillis();
+        return timestamp >= minDeviceTimeMillis && Math.abs(reading.receivedAtMillis() - timestamp) <= maxSkewMillis;
+    }
+
+    /**
+     * @return the readings newer than anything accepted for their device, in order, with
+     *         untrusted device times replaced by the arrival time
+     */
+    List<PlantReading> admit(List<PlantReading> readings) {
+        List<PlantReading> admitted = new ArrayList<>(readings.size());
+        for (PlantReading reading : readings) {
+            if (!reading.hasTimestamp()) {
+                admitted.add(reading);
+                continue;
+            }
+            long deviceTime = reading.timestampMillis();
+            if (!trustsClock(reading)) {
+                untrustedClock.increment();
+                reading = reading.withTimestamp(reading.receivedAtMillis());
+            }
+            Mark mark = marks.computeIfAbsent(reading.deviceUid(), uid -> new Mark());
+            boolean hasPending = mark.pending != NONE;
+            if (deviceTime == (hasPending ? mark.pendingDeviceTime : mark.acceptedDeviceTime)) {
+                duplicates.increment();
+                continue;
+            }
+            long last = hasPending ? mark.pending : mark.accepted;
+            long timestamp = reading.timestampMillis();
+            if (timestamp <= last) {
+                long lastReceivedAt = hasPending ? mark.pendingReceivedAt : mark.acceptedReceivedAt;
+                if (last - timestamp <= resetJumpMillis || reading.receivedAtMillis() <= lastReceivedAt) {
+                    stale.increment();
+                    continue;
+                }
+                clockResets.increment();
+            }
+            if (!hasPending) {
+                pending.add(mark);
+            }
+            mark.pending = timestamp;
+            mark.pendingDeviceTime = deviceTime;
+            mark.pendingReceivedAt = reading.receivedAtMillis();
+            admitted.add(reading);
+        }
+        return admitted;
+    }
+
+    /**
+     * The admitted batch was written.
+     */
+    void commit() {
+        for (Mark mark : pending) {
+            // newer than accepted, unless the device clock was reset
+            mark.accepted = mark.pending;
+            mark.acceptedDeviceTime = mark.pendingDeviceTime;
+            mark.acceptedReceivedAt = mark.pendingReceivedAt;
+            mark.pending = NONE;
+        }
+        pending.clear();
+    }
+
+    /**
+     * The admitted batch was not written.
+     */
+    void discard() {
+        for (Mark mark : pending) {
+            mark.pending = NONE;
+        }
+        pending.clear();
+    }
+
+    long duplicateCount() {
+        return duplicates.sum();
+    }
+
+    long staleCount() {
+        return stale.sum();
+    }
+
+    long untrustedClockCount() {
+        return untrustedClock.sum();
+    }
+
+    long clockResetCount() {
+        return clockResets.sum();
+    }
+
+    private static final class Mark {
+
+        /** Ordering time: the device time, or the arrival time if that was not trusted. */
+        private long accepted = NONE;
+        private long acceptedDeviceTime = NONE;
+        private long acceptedReceivedAt = NONE;
+        private long pending = NONE;
+        private long pendingDeviceTime = NONE;
+        private long pendingReceivedAt = NONE;
+    }
+}
@@ -0,0 +1,258 @@
+package com.fitocube.backend.ingest;
+
+import com.fitocube.backend.config.MqttProperties;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Feeds the lanes from the {@link IngestWal}: the MQTT callback only appends, and a single
+ * drainer thread reads the log in order and hands every message to its lane, waiting while the
+ * lane is full. Because the lanes finish in their own time, the committed offset is the lowest
+ * one any lane still has outstanding; it is checkpointed periodically and on shutdown.
+ */
+@Slf4j
+final class WalDrainer {
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final Duration WARN_PERIOD = Duration.ofSeconds(10);
+    private static final long RESTART_BACKOFF_MIN_MILLIS = 100;
+    private static final long RESTART_BACKOFF_MAX_MILLIS = 30_000;
+
+    private final IngestWal wal;
+    private final MqttProperties.Wal settings;
+    private final PlantPayloadDecoder decoder;
+    private final List<IngestLane> lanes;
+    private final Function<String, IngestLane> router;
+    private final LogSampler appendFailures = new LogSampler(WARN_PERIOD);
+    private final LongAdder restarts = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+
+    /** Offset past the last message handed to a lane; written by the drainer thread only. */
+    private volatile long handedThrough;
+    private volatile boolean running;
+    private volatile boolean idle;
+    private volatile State state = State.STOPPED;
+    private Thread thread;
+    private ScheduledExecutorService scheduler;
+
+    WalDrainer(IngestWal wal,
+               MqttProperties.Wal settings,
+               PlantPayloadDecoder decoder,
+               List<IngestLane> lanes,
+               Function<String, IngestLane> router,
+               MeterRegistry meterRegistry) {
+        this.wal = wal;
+        this.settings = settings;
+        this.decoder = decoder;
+        this.lanes = lanes;
+        this.router = router;
+        Gauge.builder("fitocube.ingest.wal.size", wal, IngestWal::sizeBytes)
+                .description("Bytes of write-ahead log on disk")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("fitocube.ingest.wal.backlog", this, drainer -> drainer.wal.appendedOffset() - drainer.handedThrough)
+                .description("Bytes of write-ahead log not yet handed to the lanes")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("fitocube.ingest.wal.segments", wal, IngestWal::segmentCount)
+                .description("Write-ahead log segment files")
+                .register(meterRegistry);
+        FunctionCounter.builder("fitocube.ingest.wal.corrupt", wal, IngestWal::corruptCount)
+                .description("Unreadable write-ahead log records, or segment tails, that were skipped")
+                .register(meterRegistry);
+        FunctionCounter.builder("fitocube.ingest.wal.skipped", skipped, LongAdder::sum)
+                .description("Write-ahead log messages that could not be handed to a lane and were skipped")
+                .register(meterRegistry);
+        FunctionCounter.builder("fitocube.ingest.wal.restarts", restarts, LongAdder::sum)
+                .description("Times the write-ahead log reader failed and was restarted")
+                .register(meterRegistry);
+        Gauge.builder("fitocube.ingest.wal.recovering", this, drainer -> drainer.state == State.RECOVERING ? 1 : 0)
+                .description("1 while the write-ahead log reader is waiting to restart after a failure")
+                .register(meterRegistry);
+    }
+
+    void start() {
+        long from = wal.committedOffset();
+        handedThrough = from;
+        lanes.forEach(lane -> lane.walStart(from));
+        running = true;
+        thread = new Thread(this::drainLoop, "plant-ingest-wal");
+        thread.setDaemon(true);
+        thread.start();
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread sync = new Thread(runnable, "plant-ingest-wal-sync");
+            sync.setDaemon(true);
+            return sync;
+        });
+        if (settings.getFsync() == MqttProperties.FsyncPolicy.INTERVAL) {
+            long interval = settings.getFsyncInterval().toMillis();
+            scheduler.scheduleWithFixedDelay(this::sync, interval, interval, TimeUnit.MILLISECONDS);
+        }
+        long checkpointInterval = settings.getCheckpointInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::checkpoint, checkpointInterval, checkpointInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return {@code false} if the log could not take the message
+     */
+    boolean append(byte[] payload, long receivedAtMillis) {
+        try {
+            wal.append(payload, receivedAtMillis);
+        }
+        catch (IOException e) {
+            if (appendFailures.sample()) {
+                log.error("Не удалось записать сообщение в журнал ingest (ещё {} с прошлого раза)",
+                          appendFailures.takeSuppressed(), e);
+            }
+            return false;
+        }
+        if (idle) {
+            LockSupport.unpark(thread);
+        }
+        return true;
+    }
+
+    /**
+     * Stops handing messages over; the lanes can then drain what they have.
+     */
+    void stopReading() throws InterruptedException {
+        running = false;
+        thread.interrupt();
+        thread.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    /**
+     * Saves the final committed offset and closes the log; call once the lanes have stopped.
+     */
+    void close() {
+        scheduler.shutdownNow();
+        checkpoint();
+        try {
+            wal.close();
+        }
+        catch (IOException e) {
+            log.warn("Не удалось закрыть журнал ingest", e);
+        }
+    }
+
+    /**
+     * Offset before which every logged message is finished by its lane.
+     */
+    long committedOffset() {
+        long committed = handedThrough;
+        for (IngestLane lane : lanes) {
+            committed = Math.min(committed, lane.walFloor());
+        }
+        return committed;
+    }
+
+    /**
+     * Reads until stopped. A read failure restarts the reader, after a growing pause, right after
+     * the last message handed over; unreadable records are skipped by the reader itself.
+     */
+    private void drainLoop() {
+        long backoff = RESTART_BACKOFF_MIN_MILLIS;
+        while (running) {
+            long resumeAt = handedThrough;
+            try (IngestWal.Reader reader = wal.reader(resumeAt)) {
+                state = State.RUNNING;
+                drain(reader);
+            }
+            catch (InterruptedException e) {
+                // shutdown: whatever was not handed over is replayed on the next start
+                break;
+            }
+            catch (IOException | RuntimeException e) {
+                restarts.increment();
+                state = State.RECOVERING;
+                if (handedThrough != resumeAt) {
+                    backoff = RESTART_BACKOFF_MIN_MILLIS;
+                }
+                log.error("Чтение журнала ingest прервано на смещении {}, повтор через {} мс", handedThrough, backoff, e);
+                try {
+                    Thread.sleep(backoff);
+                }
+                catch (InterruptedException interrupted) {
+                    break;
+                }
+                backoff = Math.min(backoff * 2, RESTART_BACKOFF_MAX_MILLIS);
+            }
+        }
+        state = State.STOPPED;
+    }
+
+    private void drain(IngestWal.Reader reader) throws IOException, InterruptedException {
+        while (running) {
+            IngestWal.Entry entry = reader.next();
+            if (entry == null) {
+                idle = true;
+                entry = reader.next();
+                if (entry == null) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    idle = false;
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                    continue;
+                }
+                idle = false;
+            }
+            handOver(entry);
+            handedThrough = entry.end();
+        }
+    }
+
+    /**
+     * A message that cannot be routed is skipped rather than read again and again.
+     */
+    private void handOver(IngestWal.Entry entry) throws InterruptedException {
+        try {
+            String deviceUid = decoder.peekDeviceUid(entry.payload());
+            router.apply(deviceUid).put(new InboundMessage(deviceUid, entry.payload(), entry.receivedAtMillis(), entry.end()));
+        }
+        catch (RuntimeException e) {
+            skipped.increment();
+            log.error("Журнал ingest: сообщение перед смещением {} не удалось передать в линию, пропускаем", entry.end(), e);
+        }
+    }
+
+    State state() {
+        return state;
+    }
+
+    private void sync() {
+        try {
+            wal.sync();
+        }
+        catch (IOException e) {
+            log.error("Не удалось сбросить журнал ingest на диск", e);
+        }
+    }
+
+    private void checkpoint() {
+        try {
+            wal.commit(committedOffset());
+        }
+        catch (IOException | RuntimeException e) {
+            log.error("Не удалось сохранить точку фиксации журнала ingest", e);
+        }
+    }
+
+    enum State {
+        RUNNING,
+        /** The reader failed and is about to be reopened. */
+        RECOVERING,
+        STOPPED
+    }
+}
@@ -0,0 +1,25 @@
+package com.fitocube.backend.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import java.time.Instant;
+import lombok.Data;
+
+/**
+ * Online/offline state of a plant's device: an entry of {@code GET /plants/offline} and the
+ * {@code liveness} event of {@code /plants/stream}.
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class DeviceLivenessDto {
+
+    private Long plantId;
+
+    private String deviceUid;
+
+    private String nickname;
+
+    private boolean online;
+
+    /** Arrival of the last message from the device, as of the transition. */
+    private Instant lastSeenAt;
+}
@@ -0,0 +1,15 @@
+package com.fitocube.backend.model;
+
+import lombok.Data;
+
+@Data
+public class LeaderboardEntryDto {
+
+    /** 1-based. */
+    private int rank;
+
+    private Long plantId;
+
+    /** Happy hours for the wellbeing challenge, battles won for mood battles. */
+    private double score;
+}
@@ -0,0 +1,31 @@
+package com.fitocube.backend.model;
+
+import com.fitocube.backend.model.enums.BattleStatus;
+import java.time.Instant;
+import lombok.Data;
+
+@Data
+public class MoodBattleDto {
+
+    private Long battleId;
+
+    private Long challengerPlantId;
+
+    private Long opponentPlantId;
+
+    /** Hours the plant has been happy since the battle started. */
+    private double challengerScoreHours;
+
+    private double opponentScoreHours;
+
+    private BattleStatus status;
+
+    private Instant startedAt;
+
+    private Instant finishesAt;
+
+    /** {@code null} while active and on a draw. */
+    private Long winnerPlantId;
+
+    private int dropsReward;
+}
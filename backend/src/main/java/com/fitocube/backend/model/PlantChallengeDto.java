@@ -0,0 +1,30 @@
+package com.fitocube.backend.model;
+
+import com.fitocube.backend.model.enums.ChallengeStatus;
+import java.time.LocalDate;
+import lombok.Data;
+
+/**
+ * A plant's weekly wellbeing challenge, for the last week it reported in.
+ */
+@Data
+public class PlantChallengeDto {
+
+    /** ISO week-based year and week, e.g. {@code 202642}. */
+    private Long challengeId;
+
+    private Long plantId;
+
+    private LocalDate weekStart;
+
+    private double goalHappyHours;
+
+    private double achievedHappyHours;
+
+    private ChallengeStatus status;
+
+    /** 1-based place on the current week's leaderboard; {@code null} for a past week. */
+    private Integer rank;
+
+    private int participants;
+}
@@ -0,0 +1,31 @@
+package com.fitocube.backend.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fitocube.backend.model.enums.SeriesResolution;
+import java.time.Instant;
+import java.util.List;
+import lombok.Data;
+
+/**
+ * Downsampled measurements of a plant at a single resolution.
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PlantSeriesDto {
+
+    private Long plantId;
+
+    private SeriesResolution resolution;
+
+    private List<Point> points;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Point(Instant bucketStart,
+                        MetricStats airTemperatureC,
+                        MetricStats airHumidityPercent,
+                        MetricStats soilMoisturePercent) {
+    }
+
+    public record MetricStats(double min, double max, double avg, int count) {
+    }
+}
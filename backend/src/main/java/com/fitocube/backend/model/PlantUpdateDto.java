@@ -0,0 +1,21 @@
+package com.fitocube.backend.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fitocube.backend.model.enums.Mood;
+import lombok.Data;
+
+/**
+ * Change of a plant pushed to {@code /plants/stream} subscribers.
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PlantUpdateDto {
+
+    private Long plantId;
+
+    private String deviceUid;
+
+    private PlantMeasurementsDto measurements;
+
+    private Mood mood;
+}
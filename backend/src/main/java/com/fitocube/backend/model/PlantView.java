@@ -0,0 +1,77 @@
+package com.fitocube.backend.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fitocube.backend.model.enums.Mood;
+import java.time.Instant;
+
+/**
+ * Read model of a plant for the REST layer: the same JSON as {@link PlantStateDto}, but the owner
+ * is reduced to {@link OwnerView}, so no user collections are loaded or serialized.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record PlantView(Long plantId,
+                        String deviceUid,
+                        OwnerView owner,
+                        String nickname,
+                        PlantMeasurementsDto measurements,
+                        Mood mood,
+                        Boolean friendVisible) {
+
+    /**
+     * Flat constructor for JPQL constructor expressions.
+     */
+    public PlantView(Long plantId,
+                     String deviceUid,
+                     Long ownerId,
+                     String ownerUserName,
+                     String ownerDisplayName,
+                     String nickname,
+                     Double airTemperatureC,
+                     Double airHumidityPercent,
+                     Double soilMoisturePercent,
+                     Integer soilMoistureRaw,
+                     Instant timestamp,
+                     Mood mood,
+                     Boolean friendVisible) {
+        this(plantId,
+             deviceUid,
+             ownerId == null ? null : new OwnerView(ownerId, ownerUserName, ownerDisplayName),
+             nickname,
+             measurements(airTemperatureC, airHumidityPercent, soilMoisturePercent, soilMoistureRaw, timestamp),
+             mood,
+             friendVisible);
+    }
+
+    public static PlantView of(PlantStateDto plant) {
+        UserDto owner = plant.getOwner();
+        return new PlantView(plant.getPlantId(),
+                             plant.getDeviceUid(),
+                             owner == null ? null : new OwnerView(owner.getUserId(), owner.getUserName(), owner.getDisplayName()),
+                             plant.getNickname(),
+                             plant.getMeasurements(),
+                             plant.getMood(),
+                             plant.getFriendVisible());
+    }
+
+    private static PlantMeasurementsDto measurements(Double airTemperatureC,
+                                                     Double airHumidityPercent,
+                                                     Double soilMoisturePercent,
+                                                     Integer soilMoistureRaw,
+                                                     Instant timestamp) {
+        if (airTemperatureC == null && airHumidityPercent == null && soilMoisturePercent == null
+                && soilMoistureRaw == null && timestamp == null) {
+            return null;
+        }
+        PlantMeasurementsDto dto = new PlantMeasurementsDto();
+        dto.setAirTemperatureC(airTemperatureC);
+        dto.setAirHumidityPercent(airHumidityPercent);
+        dto.setSoilMoisturePercent(soilMoisturePercent);
+        dto.setSoilMoistureRaw(soilMoistureRaw);
+        dto.setTimestamp(timestamp);
+        return dto;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record OwnerView(Long userId, String userName, String displayName) {
+    }
+}
@@ -0,0 +1,38 @@
+package com.fitocube.backend.model;
+
+import com.fitocube.backend.model.enums.Mood;
+import java.time.Instant;
+import java.util.Map;
+import lombok.Data;
+
+/**
+ * Response of {@code GET /stats/{userId}}.
+ */
+@Data
+public class PlayerStatsDto {
+
+    private Long userId;
+
+    private int plantCount;
+
+    /** Mean of the latest soil moisture of each of the user's plants; {@code null} if none reported yet. */
+    private Double averageSoilMoisturePercent;
+
+    /** Hours the user's plants, added up, spent in each mood. */
+    private Map<Mood, Double> moodHours;
+
+    private double totalHappyHours;
+
+    /** Consecutive days, up to today or yesterday, on which some plant of the user was happy. */
+    private int happyStreakDays;
+
+    private int bestHappyStreakDays;
+
+    private int moodBattlesWon;
+
+    private int moodBattlesLost;
+
+    private int dropsEarned;
+
+    private Instant lastUpdated;
+}
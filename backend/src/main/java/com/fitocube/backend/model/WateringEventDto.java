@@ -0,0 +1,24 @@
+package com.fitocube.backend.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import java.time.Instant;
+import lombok.Data;
+
+/**
+ * Predicted watering pushed to the owner's {@code /plants/stream} as a {@code watering} event.
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class WateringEventDto {
+
+    private Long plantId;
+
+    private String deviceUid;
+
+    private Instant dueAt;
+
+    private Double soilMoisturePercent;
+
+    /** Whether a watering command was sent to the device as well. */
+    private boolean commandSent;
+}
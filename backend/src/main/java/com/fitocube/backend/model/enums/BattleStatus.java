@@ -0,0 +1,15 @@
+package com.fitocube.backend.model.enums;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+import java.util.Locale;
+
+public enum BattleStatus {
+
+    ACTIVE,
+    FINISHED;
+
+    @JsonValue
+    public String code() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,16 @@
+package com.fitocube.backend.model.enums;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+import java.util.Locale;
+
+public enum ChallengeStatus {
+
+    IN_PROGRESS,
+    COMPLETED,
+    FAILED;
+
+    @JsonValue
+    public String code() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,44 @@
+package com.fitocube.backend.model.enums;
+
+import java.util.Locale;
+
+/**
+ * Formats a measurement history export can be streamed in.
+ */
+public enum ExportFormat {
+
+    NDJSON("application/x-ndjson", "ndjson"),
+    CSV("text/csv;charset=UTF-8", "csv");
+
+    private final String contentType;
+    private final String extension;
+
+    ExportFormat(String contentType, String extension) {
+        this.contentType = contentType;
+        this.extension = extension;
+    }
+
+    /**
+     * Case-insensitive; {@code jsonl} is taken as NDJSON.
+     */
+    public static ExportFormat parse(String value) {
+        String format = value.toUpperCase(Locale.ROOT);
+        if (format.equals("JSONL")) {
+            return NDJSON;
+        }
+        for (ExportFormat exportFormat : values()) {
+            if (exportFormat.name().equals(format)) {
+                return exportFormat;
+            }
+        }
+        throw new IllegalArgumentException("Unknown format: " + value);
+    }
+
+    public String contentType() {
+        return contentType;
+    }
+
+    public String extension() {
+        return extension;
+    }
+}
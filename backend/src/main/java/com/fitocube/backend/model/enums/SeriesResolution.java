@@ -0,0 +1,42 @@
+package com.fitocube.backend.model.enums;
+
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * Bucket sizes kept by the measurement rollups, finest first.
+ */
+public enum SeriesResolution {
+
+    MINUTE("1m", Duration.ofMinutes(1)),
+    HOUR("1h", Duration.ofHours(1)),
+    DAY("1d", Duration.ofDays(1));
+
+    private final String code;
+    private final long bucketMillis;
+
+    SeriesResolution(String code, Duration bucket) {
+        this.code = code;
+        this.bucketMillis = bucket.toMillis();
+    }
+
+    /**
+     * Accepts both the name ({@code hour}) and the short code ({@code 1h}), case-insensitively.
+     */
+    public static SeriesResolution parse(String value) {
+        for (SeriesResolution resolution : values()) {
+            if (resolution.code.equalsIgnoreCase(value) || resolution.name().equals(value.toUpperCase(Locale.ROOT))) {
+                return resolution;
+            }
+        }
+        throw new IllegalArgumentException("Unknown resolution: " + value);
+    }
+
+    public long bucketMillis() {
+        return bucketMillis;
+    }
+
+    public long bucketStart(long epochMillis) {
+        return Math.floorDiv(epochMillis, bucketMillis) * bucketMillis;
+    }
+}
@@ -8,4 +8,7 @@ public class ClaimRequest {
     private String deviceUid;
 
     private String nickname;
+
+    /** Whether friends see the plant; open to friends unless said otherwise, as the firmware announces. */
+    private Boolean friendVisible;
 }
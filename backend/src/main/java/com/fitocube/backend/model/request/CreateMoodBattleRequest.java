@@ -0,0 +1,14 @@
+package com.fitocube.backend.model.request;
+
+import lombok.Data;
+
+@Data
+public class CreateMoodBattleRequest {
+
+    private Long challengerPlantId;
+
+    private Long opponentPlantId;
+
+    /** Defaults to {@code games.battle-default-duration}. */
+    private Integer durationHours;
+}
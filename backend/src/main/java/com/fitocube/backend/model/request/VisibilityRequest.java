@@ -0,0 +1,9 @@
+package com.fitocube.backend.model.request;
+
+import lombok.Data;
+
+@Data
+public class VisibilityRequest {
+
+    private Boolean friendVisible;
+}
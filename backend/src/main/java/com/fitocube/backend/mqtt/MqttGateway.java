@@ -1,43 +1,77 @@
 package com.fitocube.backend.mqtt;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fitocube.backend.config.MqttProperties;
-import com.fitocube.backend.model.PlantMeasurementsDto;
-import com.fitocube.backend.model.PlantStateDto;
-import com.fitocube.backend.services.PlantService;
+import com.fitocube.backend.ingest.IngestPipeline;
+import com.fitocube.backend.ingest.LogSampler;
+import com.fitocube.backend.services.LivenessTracker;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.UUID;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
-import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
 import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.MqttTopic;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 import org.springframework.stereotype.Component;
 
 @Component
 @Slf4j
 @RequiredArgsConstructor
-public class MqttGateway implements MqttCallback {
+public class MqttGateway implements MqttCallbackExtended {
+
+    private static final String SHARED_PREFIX = "$share/";
+    private static final Duration LOG_PERIOD = Duration.ofSeconds(10);
 
     private final MqttProperties properties;
-    private final ObjectMapper objectMapper;
-    private final PlantService plantService;
+    private final IngestPipeline ingestPipeline;
+    private final LivenessTracker livenessTracker;
+    private final MeterRegistry meterRegistry;
+    private final LogSampler publishLog = new LogSampler(LOG_PERIOD);
+    private final LogSampler publishFailureLog = new LogSampler(LOG_PERIOD);
 
     private MqttClient client;
+    private Counter received;
+    private Counter connectionsLost;
+    private Counter reconnects;
+    private Counter published;
+    private Counter publishFailures;
 
     @PostConstruct
     void init() {
+        received = Counter.builder("fitocube.mqtt.messages.received")
+                .description("Messages arrived on the data topics")
+                .register(meterRegistry);
+        connectionsLost = Counter.builder("fitocube.mqtt.connection.lost")
+                .description("Times the broker connection was lost")
+                .register(meterRegistry);
+        reconnects = Counter.builder("fitocube.mqtt.reconnects")
+                .description("Automatic reconnects to the broker")
+                .register(meterRegistry);
+        published = Counter.builder("fitocube.mqtt.commands")
+                .description("Commands published to devices, by result")
+                .tag("result", "published")
+                .register(meterRegistry);
+        publishFailures = Counter.builder("fitocube.mqtt.commands")
+                .description("Commands published to devices, by result")
+                .tag("result", "failed")
+                .register(meterRegistry);
         connect();
     }
 
     @PreDestroy
     void shutdown() {
+        livenessTracker.brokerDisconnected();
         if (client != null && client.isConnected()) {
             try {
                 client.disconnect();
@@ -50,12 +84,7 @@ public class MqttGateway implements MqttCallback {
 
     private void connect() {
         try {
-            String clientId = properties.getClientId();
-            if (clientId == null || clientId.isBlank()) {
-                clientId = "fitocube-backend-" + UUID.randomUUID();
-            }
-
-            client = new MqttClient(properties.getBrokerUri(), clientId, new MemoryPersistence());
+            client = new MqttClient(properties.getBrokerUri(), clientId(), new MemoryPersistence());
             client.setCallback(this);
 
             MqttConnectOptions options = new MqttConnectOptions();
@@ -67,66 +96,132 @@ public class MqttGateway implements MqttCallback {
             }
 
             client.connect(options);
-            client.subscribe(properties.getDataTopic());
-            log.info("Подключились к MQTT {} и подписались на {}",
-                     properties.getBrokerUri(),
-                     properties.getDataTopic());
+            livenessTracker.brokerConnected();
+            subscribe();
         }
         catch (MqttException e) {
             throw new IllegalStateException("Не удалось подключиться к MQTT", e);
         }
     }
 
+    /**
+     * With a clean session the broker forgets subscriptions on disconnect, so they are
+     * (re)issued after every connect; a shared group simply gets this node back.
+     */
+    private void subscribe() throws MqttException {
+        String[] filters = subscriptionFilters();
+        for (String filter : filters) {
+            client.subscribe(filter);
+        }
+        log.info("Подключились к MQTT {} как {} и подписались на {}",
+                 properties.getBrokerUri(),
+                 client.getClientId(),
+                 String.join(", ", filters));
+    }
+
+    private String[] subscriptionFilters() {
+        String prefix = hasText(properties.getSharedGroup())
+                ? SHARED_PREFIX + properties.getSharedGroup() + "/"
+                : "";
+        if (!hasText(properties.getDeviceDataTopic())) {
+            return new String[] { prefix + properties.getDataTopic() };
+        }
+        return new String[] { prefix + properties.getDataTopic(), prefix + properties.getDeviceDataTopic() };
+    }
+
+    private String clientId() {
+        String prefix = hasText(properties.getClientId()) ? properties.getClientId() : "fitocube-backend";
+        String instanceId = hasText(properties.getInstanceId()) ? properties.getInstanceId() : defaultInstanceId();
+        return prefix + "-" + instanceId;
+    }
+
+    private static String defaultInstanceId() {
+        try {
+            return InetAddress.getLocalHost().getHostName() + "-" + ProcessHandle.current().pid();
+        }
+        catch (UnknownHostException e) {
+            return UUID.randomUUID().toString();
+        }
+    }
+
     public boolean requestFreshMeasurement() {
+        return publishCommand(properties.getCommandTopic(),
+                              properties.getCommandPayload().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public boolean publishCommand(String topic, byte[] payload) {
         if (client == null || !client.isConnected()) {
-            log.warn("MQTT клиент не подключен");
+            publishFailures.increment();
+            if (publishFailureLog.sample()) {
+                log.warn("MQTT клиент не подключен (ещё {} неотправленных команд с прошлого раза)",
+                         publishFailureLog.takeSuppressed());
+            }
             return false;
         }
 
         try {
-            MqttMessage message = new MqttMessage(properties.getCommandPayload().getBytes(StandardCharsets.UTF_8));
+            MqttMessage message = new MqttMessage(payload);
             message.setQos(1);
-            client.publish(properties.getCommandTopic(), message);
-            log.info("Опубликована команда {} в {}",
-                     properties.getCommandPayload(),
-                     properties.getCommandTopic());
+            client.publish(topic, message);
         }
         catch (Exception e) {
-            log.error("Ошибка при отправке команды через MQTT", e);
+            publishFailures.increment();
+            if (publishFailureLog.sample()) {
+                log.error("Ошибка при отправке команды через MQTT (ещё {} с прошлого раза)",
+                          publishFailureLog.takeSuppressed(), e);
+            }
             return false;
         }
+        published.increment();
+        if (log.isDebugEnabled() && publishLog.sample()) {
+            log.debug("Опубликована команда в {} (ещё {} с прошлого раза)", topic, publishLog.takeSuppressed());
+        }
         return true;
     }
 
+    @Override
+    public void connectComplete(boolean reconnect, String serverURI) {
+        livenessTracker.brokerConnected();
+        if (!reconnect) {
+            return;
+        }
+        reconnects.increment();
+        try {
+            subscribe();
+        }
+        catch (MqttException e) {
+            log.error("Не удалось восстановить подписки после переподключения к MQTT", e);
+        }
+    }
+
     @Override
     public void connectionLost(Throwable cause) {
+        livenessTracker.brokerDisconnected();
+        connectionsLost.increment();
         log.warn("Связь с MQTT потеряна: {}", cause.getMessage());
     }
 
     @Override
     public void messageArrived(String topic, MqttMessage message) {
-        if (!properties.getDataTopic().equals(topic)) {
+        if (!isDataTopic(topic)) {
             return;
         }
 
-        try {
-            PlantStateDto plantState = objectMapper.readValue(message.getPayload(), PlantStateDto.class);
-            PlantMeasurementsDto measurements = plantState.getMeasurements();
-            if (measurements == null) {
-                log.warn("Получено сообщение без блока measurements, пропускаем: {}", message);
-                return;
-            }
-
-            log.info(plantState.toString());
-            plantService.savePlant(plantState);
-        }
-        catch (Exception e) {
-            log.error("Не удалось распарсить MQTT сообщение", e);
-        }
+        received.increment();
+        ingestPipeline.submit(message.getPayload(), System.currentTimeMillis());
     }
 
     @Override
     public void deliveryComplete(IMqttDeliveryToken token) {
         // noop
     }
+
+    private boolean isDataTopic(String topic) {
+        return properties.getDataTopic().equals(topic)
+                || (hasText(properties.getDeviceDataTopic()) && MqttTopic.isMatched(properties.getDeviceDataTopic(), topic));
+    }
+
+    private static boolean hasText(String value) {
+        return value != null && !value.isBlank();
+    }
 }
@@ -0,0 +1,58 @@
+package com.fitocube.backend.repositories;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.List;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Reads {@code user_friends} without loading users, for the friend visibility index.
+ */
+@Repository
+public class FriendshipJdbcRepository {
+
+    private static final String SELECT_FRIENDSHIPS = """
+            SELECT user_id, friend_id
+              FROM user_friends
+            """;
+
+    private static final String SELECT_FRIEND_IDS = """
+            SELECT friend_id
+              FROM user_friends
+             WHERE user_id = ?
+            """;
+
+    private static final int STREAM_FETCH_SIZE = 10_000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public FriendshipJdbcRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Streams every {@code user → friend} pair through a server-side cursor.
+     */
+    @Transactional(readOnly = true)
+    public void forEachFriendship(FriendshipHandler handler) {
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(SELECT_FRIENDSHIPS);
+            ps.setFetchSize(STREAM_FETCH_SIZE);
+            return ps;
+        }, (ResultSet rs) -> {
+            handler.accept(rs.getLong(1), rs.getLong(2));
+        });
+    }
+
+    public List<Long> findFriendIds(long userId) {
+        return jdbcTemplate.queryForList(SELECT_FRIEND_IDS, Long.class, userId);
+    }
+
+    @FunctionalInterface
+    public interface FriendshipHandler {
+
+        void accept(long userId, long friendId);
+    }
+}
@@ -0,0 +1,261 @@
+package com.fitocube.backend.repositories;
+
+import com.fitocube.backend.model.enums.BattleStatus;
+import com.fitocube.backend.model.enums.Mood;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Mood battles, and the checkpoints of the scores kept in memory by the games service.
+ */
+@Repository
+public class GamesRepository {
+
+    private static final String INSERT_BATTLE = """
+            INSERT INTO mood_battles (challenger_plant_id, challenger_owner_id, opponent_plant_id, opponent_owner_id,
+                                      started_at, finishes_at, status, drops_reward)
+            VALUES (?, ?, ?, ?, ?, ?, 'ACTIVE', ?)
+            RETURNING battle_id
+            """;
+
+    private static final String FINISH_BATTLE = """
+            UPDATE mood_battles
+               SET status = 'FINISHED',
+                   challenger_happy_millis = ?,
+                   opponent_happy_millis = ?,
+                   winner_plant_id = ?
+             WHERE battle_id = ?
+               AND status = 'ACTIVE'
+            """;
+
+    /** A checkpoint taken just before a battle finished must not overwrite its final scores. */
+    private static final String UPDATE_BATTLE_SCORES = """
+            UPDATE mood_battles
+               SET challenger_happy_millis = ?,
+                   opponent_happy_millis = ?
+             WHERE battle_id = ?
+               AND status = 'ACTIVE'
+            """;
+
+    private static final String SELECT_BATTLE = """
+            SELECT battle_id, challenger_plant_id, challenger_owner_id, opponent_plant_id, opponent_owner_id,
+                   started_at, finishes_at, challenger_happy_millis, opponent_happy_millis, status,
+                   winner_plant_id, drops_reward
+              FROM mood_battles
+            """;
+
+    private static final String SELECT_WINS_BY_PLANT = """
+            SELECT winner_plant_id, COUNT(*)
+              FROM mood_battles
+             WHERE status = 'FINISHED'
+               AND winner_plant_id IS NOT NULL
+             GROUP BY winner_plant_id
+            """;
+
+    private static final String SELECT_RESULTS_BY_OWNER = """
+            SELECT owner_id, SUM(won), SUM(lost), SUM(drops)
+              FROM (SELECT challenger_owner_id AS owner_id,
+                           CASE WHEN winner_plant_id = challenger_plant_id THEN 1 ELSE 0 END AS won,
+                           CASE WHEN winner_plant_id = opponent_plant_id THEN 1 ELSE 0 END AS lost,
+                           CASE WHEN winner_plant_id = challenger_plant_id THEN drops_reward ELSE 0 END AS drops
+                      FROM mood_battles
+                     WHERE status = 'FINISHED' AND winner_plant_id IS NOT NULL
+                    UNION ALL
+                    SELECT opponent_owner_id,
+                           CASE WHEN winner_plant_id = opponent_plant_id THEN 1 ELSE 0 END,
+                           CASE WHEN winner_plant_id = challenger_plant_id THEN 1 ELSE 0 END,
+                           CASE WHEN winner_plant_id = opponent_plant_id THEN drops_reward ELSE 0 END
+                      FROM mood_battles
+                     WHERE status = 'FINISHED' AND winner_plant_id IS NOT NULL) results
+             GROUP BY owner_id
+            """;
+
+    private static final String UPSERT_WELLBEING = """
+            INSERT INTO wellbeing_scores (plant_id, week_start, happy_millis, mood, last_measured_at)
+            VALUES (?, ?, ?, ?, ?)
+            ON CONFLICT (plant_id) DO UPDATE
+               SET week_start = EXCLUDED.week_start,
+                   happy_millis = EXCLUDED.happy_millis,
+                   mood = EXCLUDED.mood,
+                   last_measured_at = EXCLUDED.last_measured_at
+            """;
+
+    private static final String SELECT_WELLBEING = """
+            SELECT plant_id, week_start, happy_millis, mood, last_measured_at
+              FROM wellbeing_scores
+            """;
+
+    private static final String UPSERT_WATERMARK = """
+            INSERT INTO games_watermark (id, folded_until)
+            VALUES (1, ?)
+            ON CONFLICT (id) DO UPDATE SET folded_until = EXCLUDED.folded_until
+            """;
+
+    private static final String SELECT_WATERMARK = "SELECT folded_until FROM games_watermark WHERE id = 1";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public GamesRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * @return the new battle's id
+     */
+    public long insertBattle(long challengerPlantId, long challengerOwnerId, long opponentPlantId, long opponentOwnerId,
+                             Instant startedAt, Instant finishesAt, int dropsReward) {
+        return jdbcTemplate.queryForObject(INSERT_BATTLE, Long.class, challengerPlantId, challengerOwnerId,
+                                           opponentPlantId, opponentOwnerId, Timestamp.from(startedAt),
+                                           Timestamp.from(finishesAt), dropsReward);
+    }
+
+    /**
+     * @return {@code false} if the battle was already finished, e.g. by another node
+     */
+    public boolean finishBattle(long battleId, long challengerHappyMillis, long opponentHappyMillis, Long winnerPlantId) {
+        return jdbcTemplate.update(FINISH_BATTLE, challengerHappyMillis, opponentHappyMillis, winnerPlantId, battleId) == 1;
+    }
+
+    public Optional<BattleRow> findBattle(long battleId) {
+        return jdbcTemplate.query(SELECT_BATTLE + " WHERE battle_id = ?", GamesRepository::mapBattle, battleId)
+                .stream()
+                .findFirst();
+    }
+
+    public List<BattleRow> findActiveBattles() {
+        return jdbcTemplate.query(SELECT_BATTLE + " WHERE status = 'ACTIVE'", GamesRepository::mapBattle);
+    }
+
+    public void forEachPlantWins(CountHandler handler) {
+        jdbcTemplate.query(SELECT_WINS_BY_PLANT, (ResultSet rs) -> {
+            handler.accept(rs.getLong(1), rs.getLong(2));
+        });
+    }
+
+    public void forEachOwnerResults(ResultsHandler handler) {
+        jdbcTemplate.query(SELECT_RESULTS_BY_OWNER, (ResultSet rs) -> {
+            handler.accept(rs.getLong(1), rs.getInt(2), rs.getInt(3), rs.getInt(4));
+        });
+    }
+
+    public Optional<Instant> findWatermark() {
+        return jdbcTemplate.query(SELECT_WATERMARK, (rs, rowNum) -> rs.getTimestamp(1).toInstant())
+                .stream()
+                .findFirst();
+    }
+
+    public void forEachWellbeing(WellbeingHandler handler) {
+        jdbcTemplate.query(SELECT_WELLBEING, (ResultSet rs) -> {
+            Timestamp lastMeasuredAt = rs.getTimestamp(5);
+            handler.accept(new WellbeingRow(rs.getLong(1),
+                                            rs.getObject(2, LocalDate.class),
+                                            rs.getLong(3),
+                                            parseMood(rs.getString(4)),
+                                            lastMeasuredAt == null ? WellbeingRow.NEVER : lastMeasuredAt.getTime()));
+        });
+    }
+
+    /**
+     * Writes changed scores and moves the watermark, all or nothing.
+     */
+    @Transactional
+    public void saveCheckpoint(List<WellbeingRow> wellbeing, List<BattleScore> battles, Instant foldedUntil) {
+        if (!wellbeing.isEmpty()) {
+            jdbcTemplate.batchUpdate(UPSERT_WELLBEING, wellbeing, wellbeing.size(), GamesRepository::bindWellbeing);
+        }
+        if (!battles.isEmpty()) {
+            jdbcTemplate.batchUpdate(UPDATE_BATTLE_SCORES, battles, battles.size(), (ps, score) -> {
+                ps.setLong(1, score.challengerHappyMillis());
+                ps.setLong(2, score.opponentHappyMillis());
+                ps.setLong(3, score.battleId());
+            });
+        }
+        jdbcTemplate.update(UPSERT_WATERMARK, Timestamp.from(foldedUntil));
+    }
+
+    @FunctionalInterface
+    public interface CountHandler {
+
+        void accept(long plantId, long count);
+    }
+
+    @FunctionalInterface
+    public interface ResultsHandler {
+
+        void accept(long ownerId, int won, int lost, int drops);
+    }
+
+    @FunctionalInterface
+    public interface WellbeingHandler {
+
+        void accept(WellbeingRow row);
+    }
+
+    public record BattleRow(long battleId,
+                            long challengerPlantId,
+                            long challengerOwnerId,
+                            long opponentPlantId,
+                            long opponentOwnerId,
+                            Instant startedAt,
+                            Instant finishesAt,
+                            long challengerHappyMillis,
+                            long opponentHappyMillis,
+                            BattleStatus status,
+                            Long winnerPlantId,
+                            int dropsReward) {
+    }
+
+    public record BattleScore(long battleId, long challengerHappyMillis, long opponentHappyMillis) {
+    }
+
+    /**
+     * A plant's happy time in the week starting {@code weekStart}, and its last reading.
+     */
+    public record WellbeingRow(long plantId, LocalDate weekStart, long happyMillis, Mood mood, long lastMeasuredAtMillis) {
+
+        public static final long NEVER = Long.MIN_VALUE;
+    }
+
+    private static BattleRow mapBattle(ResultSet rs, int rowNum) throws SQLException {
+        long winner = rs.getLong(11);
+        Long winnerPlantId = rs.wasNull() ? null : winner;
+        return new BattleRow(rs.getLong(1), rs.getLong(2), rs.getLong(3), rs.getLong(4), rs.getLong(5),
+                             rs.getTimestamp(6).toInstant(), rs.getTimestamp(7).toInstant(),
+                             rs.getLong(8), rs.getLong(9), BattleStatus.valueOf(rs.getString(10)),
+                             winnerPlantId, rs.getInt(12));
+    }
+
+    private static void bindWellbeing(PreparedStatement ps, WellbeingRow row) throws SQLException {
+        ps.setLong(1, row.plantId());
+        ps.setObject(2, row.weekStart());
+        ps.setLong(3, row.happyMillis());
+        ps.setString(4, row.mood() == null ? null : row.mood().name());
+        if (row.lastMeasuredAtMillis() == WellbeingRow.NEVER) {
+            ps.setNull(5, Types.TIMESTAMP);
+        } else {
+            ps.setTimestamp(5, new Timestamp(row.lastMeasuredAtMillis()));
+        }
+    }
+
+    private static Mood parseMood(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Mood.valueOf(value);
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.fitocube.backend.repositories;
+
+import com.fitocube.backend.ingest.PlantReading;
+import com.fitocube.backend.model.PlantMeasurementsDto;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.List;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Append-only, range-partitioned {@code plant_measurements} table. See {@code schema.sql}.
+ */
+@Repository
+public class MeasurementHistoryRepository {
+
+    public static final String TABLE = "plant_measurements";
+
+    private static final String INSERT = """
+            INSERT INTO plant_measurements (plant_id, measured_at, received_at,
+                                            air_temperature_c, air_humidity_percent,
+                                            soil_moisture_percent, soil_moisture_raw, mood)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?)
+            """;
+
+    private static final String SELECT_RANGE = """
+            SELECT measured_at, air_temperature_c, air_humidity_percent,
+                   soil_moisture_percent, soil_moisture_raw
+              FROM plant_measurements
+             WHERE plant_id = ?
+               AND measured_at >= ?
+               AND measured_at < ?
+             ORDER BY measured_at
+             LIMIT ?
+            """;
+
+    /** One keyset page of an export: resumes at {@code measured_at >= ?}, never needs an OFFSET. */
+    private static final String SELECT_EXPORT_PAGE = """
+            SELECT measured_at, received_at, air_temperature_c, air_humidity_percent,
+                   soil_moisture_percent, soil_moisture_raw, mood
+              FROM plant_measurements
+             WHERE plant_id = ?
+               AND measured_at >= ?
+               AND measured_at < ?
+             ORDER BY measured_at, received_at
+             LIMIT ?
+            """;
+
+    /**
+     * Same, after a given row; a reading stored twice shares its measurement time but was
+     * received at a different one.
+     */
+    private static final String SELECT_EXPORT_PAGE_AFTER = """
+            SELECT measured_at, received_at, air_temperature_c, air_humidity_percent,
+                   soil_moisture_percent, soil_moisture_raw, mood
+              FROM plant_measurements
+             WHERE plant_id = ?
+               AND measured_at >= ?
+               AND measured_at < ?
+               AND (measured_at, received_at) > (?, ?)
+             ORDER BY measured_at, received_at
+             LIMIT ?
+            """;
+
+    private static final String SELECT_PARTITIONS = """
+            SELECT child.relname
+              FROM pg_inherits i
+              JOIN pg_class child ON child.oid = i.inhrelid
+              JOIN pg_class parent ON parent.oid = i.inhparent
+             WHERE parent.relname = 'plant_measurements'
+            """;
+
+    private static final String SELECT_IS_PARTITION = SELECT_PARTITIONS + """
+               AND child.relname = ?
+            """;
+
+    /** Serialises partition maintenance between nodes; the value is arbitrary but fixed. */
+    private static final String LOCK_PARTITION_MAINTENANCE = "SELECT pg_advisory_xact_lock(7460119)";
+
+    private static final int EXPORT_FETCH_SIZE = 1_000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public MeasurementHistoryRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Appends readings in one JDBC batch; {@code plantIds[i]} is the plant of {@code readings.get(i)}.
+     */
+    public void appendAll(List<PlantReading> readings, long[] plantIds) {
+        jdbcTemplate.batchUpdate(INSERT, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                bindRow(ps, plantIds[i], readings.get(i));
+            }
+
+            @Override
+            public int getBatchSize() {
+                return readings.size();
+            }
+        });
+    }
+
+    /**
+     * Readings of a plant in {@code [from, to)}, oldest first. Served by partition pruning
+     * plus the {@code (plant_id, measured_at)} index.
+     */
+    public List<PlantMeasurementsDto> findRange(long plantId, Instant from, Instant to, int limit) {
+        return jdbcTemplate.query(SELECT_RANGE, (rs, rowNum) -> {
+            PlantMeasurementsDto dto = new PlantMeasurementsDto();
+            dto.setTimestamp(rs.getTimestamp(1).toInstant());
+            dto.setAirTemperatureC(rs.getObject(2, Double.class));
+            dto.setAirHumidityPercent(rs.getObject(3, Double.class));
+            dto.setSoilMoisturePercent(rs.getObject(4, Double.class));
+            dto.setSoilMoistureRaw(rs.getObject(5, Integer.class));
+            return dto;
+        }, plantId, Timestamp.from(from), Timestamp.from(to), limit);
+    }
+
+    /**
+     * Streams up to {@code limit} readings of a plant in {@code [from, to)}, ordered by
+     * measurement then arrival time, through a server-side cursor, so only
+     * {@value #EXPORT_FETCH_SIZE} rows are held at a time. Given the measurement and arrival
+     * time of a row, only the rows following it are read.
+     *
+     * @return number of rows handed to the handler
+     */
+    @Transactional(readOnly = true)
+    public int forEachInRange(long plantId, Instant from, Instant to, Instant afterMeasuredAt, Instant afterReceivedAt,
+                              int limit, MeasurementRowHandler handler) {
+        boolean resumed = afterMeasuredAt != null;
+        int[] rows = {0};
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(resumed ? SELECT_EXPORT_PAGE_AFTER : SELECT_EXPORT_PAGE);
+            ps.setFetchSize(EXPORT_FETCH_SIZE);
+            int i = 1;
+            ps.setLong(i++, plantId);
+            ps.setTimestamp(i++, Timestamp.from(resumed && afterMeasuredAt.isAfter(from) ? afterMeasuredAt : from));
+            ps.setTimestamp(i++, Timestamp.from(to));
+            if (resumed) {
+                ps.setTimestamp(i++, Timestamp.from(afterMeasuredAt));
+                ps.setTimestamp(i++, Timestamp.from(afterReceivedAt));
+            }
+            ps.setInt(i, limit);
+            return ps;
+        }, (ResultSet rs) -> {
+            rows[0]++;
+            handler.accept(new MeasurementRow(plantId,
+                                              rs.getTimestamp(1).toInstant(),
+                                              rs.getTimestamp(2).toInstant(),
+                                              rs.getObject(3, Double.class),
+                                              rs.getObject(4, Double.class),
+                                              rs.getObject(5, Double.class),
+                                              rs.getObject(6, Integer.class),
+                                              rs.getString(7)));
+        });
+        return rows[0];
+    }
+
+    public List<String> findPartitionNames() {
+        return jdbcTemplate.queryForList(SELECT_PARTITIONS, String.class);
+    }
+
+    /**
+     * Creates and attaches the partition for {@code [from, to)} unless it exists. Readings the
+     * default partition already holds for that range are moved into it first, since a partition
+     * cannot be attached while the default one has rows that belong to it.
+     * Partition names are generated by {@code MeasurementPartitionManager}, never taken from input.
+     *
+     * @return number of rows moved out of the default partition
+     */
+    @Transactional
+    public int createPartition(String name, Instant from, Instant to) {
+        jdbcTemplate.queryForList(LOCK_PARTITION_MAINTENANCE);
+        if (!jdbcTemplate.queryForList(SELECT_IS_PARTITION, String.class, name).isEmpty()) {
+            return 0;
+        }
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + name
+                + " (LIKE " + TABLE + " INCLUDING DEFAULTS INCLUDING CONSTRAINTS)");
+        int moved = jdbcTemplate.update("WITH moved AS (DELETE FROM " + TABLE + "_default"
+                + " WHERE measured_at >= ? AND measured_at < ? RETURNING *)"
+                + " INSERT INTO " + name + " SELECT * FROM moved", Timestamp.from(from), Timestamp.from(to));
+        jdbcTemplate.execute("ALTER TABLE " + TABLE + " ATTACH PARTITION " + name
+                + " FOR VALUES FROM ('" + from + "') TO ('" + to + "')");
+        return moved;
+    }
+
+    public void dropPartition(String name) {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + name);
+    }
+
+    /**
+     * Stray rows in the default partition are the only ones still deleted row by row. They go by
+     * arrival time: their measurement time is what put them outside the regular partitions.
+     */
+    public int deleteDefaultPartitionRowsReceivedBefore(Instant cutoff) {
+        return jdbcTemplate.update("DELETE FROM " + TABLE + "_default WHERE received_at < ?", Timestamp.from(cutoff));
+    }
+
+    /**
+     * A stored reading as it is exported; {@code null} where the device did not report a value.
+     */
+    public record MeasurementRow(long plantId,
+                                 Instant measuredAt,
+                                 Instant receivedAt,
+                                 Double airTemperatureC,
+                                 Double airHumidityPercent,
+                                 Double soilMoisturePercent,
+                                 Integer soilMoistureRaw,
+                                 String mood) {
+    }
+
+    @FunctionalInterface
+    public interface MeasurementRowHandler {
+
+        void accept(MeasurementRow row);
+    }
+
+    private static void bindRow(PreparedStatement ps, long plantId, PlantReading reading) throws SQLException {
+        ps.setLong(1, plantId);
+        ps.setTimestamp(2, new Timestamp(reading.measuredAtMillis()));
+        ps.setTimestamp(3, new Timestamp(reading.receivedAtMillis()));
+        setDouble(ps, 4, reading.airTemperatureC());
+        setDouble(ps, 5, reading.airHumidityPercent());
+        setDouble(ps, 6, reading.soilMoisturePercent());
+        if (reading.soilMoistureRaw() == PlantReading.NO_RAW_VALUE) {
+            ps.setNull(7, Types.INTEGER);
+        } else {
+            ps.setInt(7, reading.soilMoistureRaw());
+        }
+        ps.setString(8, reading.mood() == null ? null : reading.mood().name());
+    }
+
+    private static void setDouble(PreparedStatement ps, int index, double value) throws SQLException {
+        if (Double.isNaN(value)) {
+            ps.setNull(index, Types.DOUBLE);
+        } else {
+            ps.setDouble(index, value);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.fitocube.backend.repositories;
+
+import com.fitocube.backend.model.PlantSeriesDto;
+import com.fitocube.backend.model.enums.SeriesResolution;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Per-bucket min/max/sum/count of plant metrics in {@code plant_measurement_rollups}.
+ * Buckets are merged, never recomputed, so folding a late reading touches only its own bucket.
+ */
+@Repository
+public class MeasurementRollupRepository {
+
+    private static final String MERGE = """
+            INSERT INTO plant_measurement_rollups AS r (
+                plant_id, resolution, bucket_start,
+                air_temperature_count, air_temperature_sum, air_temperature_min, air_temperature_max,
+                air_humidity_count, air_humidity_sum, air_humidity_min, air_humidity_max,
+                soil_moisture_count, soil_moisture_sum, soil_moisture_min, soil_moisture_max)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+            ON CONFLICT (plant_id, resolution, bucket_start) DO UPDATE SET
+                air_temperature_count = r.air_temperature_count + EXCLUDED.air_temperature_count,
+                air_temperature_sum = r.air_temperature_sum + EXCLUDED.air_temperature_sum,
+                air_temperature_min = LEAST(r.air_temperature_min, EXCLUDED.air_temperature_min),
+                air_temperature_max = GREATEST(r.air_temperature_max, EXCLUDED.air_temperature_max),
+                air_humidity_count = r.air_humidity_count + EXCLUDED.air_humidity_count,
+                air_humidity_sum = r.air_humidity_sum + EXCLUDED.air_humidity_sum,
+                air_humidity_min = LEAST(r.air_humidity_min, EXCLUDED.air_humidity_min),
+                air_humidity_max = GREATEST(r.air_humidity_max, EXCLUDED.air_humidity_max),
+                soil_moisture_count = r.soil_moisture_count + EXCLUDED.soil_moisture_count,
+                soil_moisture_sum = r.soil_moisture_sum + EXCLUDED.soil_moisture_sum,
+                soil_moisture_min = LEAST(r.soil_moisture_min, EXCLUDED.soil_moisture_min),
+                soil_moisture_max = GREATEST(r.soil_moisture_max, EXCLUDED.soil_moisture_max)
+            """;
+
+    private static final String SELECT_RANGE = """
+            SELECT bucket_start,
+                   air_temperature_count, air_temperature_sum, air_temperature_min, air_temperature_max,
+                   air_humidity_count, air_humidity_sum, air_humidity_min, air_humidity_max,
+                   soil_moisture_count, soil_moisture_sum, soil_moisture_min, soil_moisture_max
+              FROM plant_measurement_rollups
+             WHERE plant_id = ?
+               AND resolution = ?
+               AND bucket_start >= ?
+               AND bucket_start < ?
+             ORDER BY bucket_start
+            """;
+
+    /** A bounded chunk, so retention never holds locks on a large part of the table at once. */
+    private static final String DELETE_EXPIRED = """
+            DELETE FROM plant_measurement_rollups
+             WHERE ctid IN (SELECT ctid
+                              FROM plant_measurement_rollups
+                             WHERE resolution = ?
+                               AND bucket_start < ?
+                             LIMIT ?)
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public MeasurementRollupRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void mergeAll(Collection<Bucket> buckets) {
+        jdbcTemplate.batchUpdate(MERGE, buckets, buckets.size(), MeasurementRollupRepository::bindBucket);
+    }
+
+    public List<PlantSeriesDto.Point> findRange(long plantId, SeriesResolution resolution, Instant from, Instant to) {
+        return jdbcTemplate.query(SELECT_RANGE, (rs, rowNum) -> new PlantSeriesDto.Point(
+                rs.getTimestamp(1).toInstant(),
+                readStats(rs, 2),
+                readStats(rs, 6),
+                readStats(rs, 10)
+        ), plantId, resolution.name(), Timestamp.from(from), Timestamp.from(to));
+    }
+
+    /**
+     * Deletes up to {@code limit} buckets of the resolution that start before {@code cutoff}.
+     *
+     * @return number of buckets deleted
+     */
+    public int deleteExpired(SeriesResolution resolution, Instant cutoff, int limit) {
+        return jdbcTemplate.update(DELETE_EXPIRED, resolution.name(), Timestamp.from(cutoff), limit);
+    }
+
+    private static PlantSeriesDto.MetricStats readStats(ResultSet rs, int firstColumn) throws SQLException {
+        int count = rs.getInt(firstColumn);
+        if (count == 0) {
+            return null;
+        }
+        return new PlantSeriesDto.MetricStats(rs.getDouble(firstColumn + 2),
+                                              rs.getDouble(firstColumn + 3),
+                                              rs.getDouble(firstColumn + 1) / count,
+                                              count);
+    }
+
+    private static void bindBucket(PreparedStatement ps, Bucket bucket) throws SQLException {
+        ps.setLong(1, bucket.plantId);
+        ps.setString(2, bucket.resolution.name());
+        ps.setTimestamp(3, new Timestamp(bucket.bucketStartMillis));
+        bindStats(ps, 4, bucket.airTemperature);
+        bindStats(ps, 8, bucket.airHumidity);
+        bindStats(ps, 12, bucket.soilMoisture);
+    }
+
+    private static void bindStats(PreparedStatement ps, int firstIndex, Stats stats) throws SQLException {
+        ps.setInt(firstIndex, stats.count);
+        ps.setDouble(firstIndex + 1, stats.sum);
+        if (stats.count == 0) {
+            ps.setNull(firstIndex + 2, Types.DOUBLE);
+            ps.setNull(firstIndex + 3, Types.DOUBLE);
+        } else {
+            ps.setDouble(firstIndex + 2, stats.min);
+            ps.setDouble(firstIndex + 3, stats.max);
+        }
+    }
+
+    /**
+     * Partial aggregate of one bucket, folded in memory before it is merged into the table.
+     */
+    public static final class Bucket {
+
+        private final long plantId;
+        private final SeriesResolution resolution;
+        private final long bucketStartMillis;
+        private final Stats airTemperature = new Stats();
+        private final Stats airHumidity = new Stats();
+        private final Stats soilMoisture = new Stats();
+
+        public Bucket(long plantId, SeriesResolution resolution, long bucketStartMillis) {
+            this.plantId = plantId;
+            this.resolution = resolution;
+            this.bucketStartMillis = bucketStartMillis;
+        }
+
+        public void add(double airTemperatureC, double airHumidityPercent, double soilMoisturePercent) {
+            airTemperature.add(airTemperatureC);
+            airHumidity.add(airHumidityPercent);
+            soilMoisture.add(soilMoisturePercent);
+        }
+    }
+
+    private static final class Stats {
+
+        private int count;
+        private double sum;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+
+        void add(double value) {
+            if (Double.isNaN(value)) {
+                return;
+            }
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+    }
+}
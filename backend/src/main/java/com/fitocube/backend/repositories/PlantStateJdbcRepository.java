@@ -0,0 +1,270 @@
+package com.fitocube.backend.repositories;
+
+import com.fitocube.backend.config.MqttProperties;
+import com.fitocube.backend.ingest.PlantReading;
+import com.fitocube.backend.model.DeviceLivenessDto;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Bulk writes to {@code plant_states} that bypass JPA on the ingest path.
+ */
+@Repository
+public class PlantStateJdbcRepository {
+
+    private static final String UPDATE_MEASUREMENTS = """
+            UPDATE plant_states
+               SET air_temperature_c = ?,
+                   air_humidity_percent = ?,
+                   soil_moisture_percent = ?,
+                   soil_moisture_raw = ?,
+                   measurement_timestamp = ?,
+                   mood = COALESCE(?, mood),
+                   measurement_received_at = ?
+             WHERE device_uid = ?
+            """;
+
+    /**
+     * Same, but never moves a plant back in time: another node or a replay may have been first.
+     * Unless the device clock was reset: the stored time is far ahead but was received earlier.
+     */
+    private static final String UPDATE_NEWER_MEASUREMENTS = UPDATE_MEASUREMENTS + """
+               AND (measurement_timestamp IS NULL
+                    OR measurement_timestamp < ?
+                    OR (measurement_timestamp > ? AND measurement_received_at < ?))
+            """;
+
+    /**
+     * The deadband leaves {@code plant_states} behind the history by up to its heartbeat, so
+     * the last reading comes from the history: the last received at or after the stored one,
+     * which the {@code (plant_id, measured_at)} index and partition pruning keep to a few rows.
+     * Taken by arrival rather than by time, as after a clock reset the newest reading is not
+     * the latest one.
+     */
+    private static final String SELECT_MEASUREMENT_TIMESTAMPS = """
+            SELECT s.device_uid,
+                   COALESCE(m.measured_at, s.measurement_timestamp),
+                   COALESCE(m.received_at, s.measurement_received_at)
+              FROM plant_states s
+              LEFT JOIN LATERAL (
+                    SELECT measured_at, received_at
+                      FROM plant_measurements
+                     WHERE plant_id = s.plant_id
+                       AND measured_at >= s.measurement_timestamp
+                     ORDER BY received_at DESC, measured_at DESC
+                     LIMIT 1) m ON true
+             WHERE s.measurement_timestamp IS NOT NULL
+            """;
+
+    private static final String UPDATE_LIVENESS = """
+            UPDATE plant_states
+               SET online = ?,
+                   last_seen_at = ?
+             WHERE device_uid = ?
+            """;
+
+    private static final String SELECT_ONLINE_DEVICES = """
+            SELECT device_uid
+              FROM plant_states
+             WHERE online
+            """;
+
+    private static final String SELECT_OFFLINE_BY_OWNER = """
+            SELECT plant_id, device_uid, nickname, last_seen_at
+              FROM plant_states
+             WHERE owner_id = ?
+               AND NOT online
+             ORDER BY plant_id
+            """;
+
+    private static final String SELECT_DEVICE_BINDINGS = """
+            SELECT device_uid, plant_id, owner_id, friend_visible
+              FROM plant_states
+            """;
+
+    private static final String SELECT_DEVICE_BINDING = SELECT_DEVICE_BINDINGS + """
+             WHERE device_uid = ?
+            """;
+
+    private static final int STREAM_FETCH_SIZE = 10_000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final long clockResetJumpMillis;
+
+    public PlantStateJdbcRepository(JdbcTemplate jdbcTemplate, MqttProperties mqttProperties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.clockResetJumpMillis = mqttProperties.getIngest().getClock().getResetJump().toMillis();
+    }
+
+    /**
+     * Writes the latest measurements of every reading in one JDBC batch.
+     * Readings of devices without a row are ignored, same as before, and so are timestamped
+     * readings not newer than the row's {@code measurement_timestamp}, unless the device clock was
+     * reset in between; readings without a timestamp cannot be ordered and are written as they come.
+     *
+     * @return number of rows updated
+     */
+    public int updateMeasurements(List<PlantReading> readings) {
+        List<PlantReading> timestamped = new ArrayList<>(readings.size());
+        List<PlantReading> untimestamped = new ArrayList<>();
+        for (PlantReading reading : readings) {
+            (reading.hasTimestamp() ? timestamped : untimestamped).add(reading);
+        }
+        int updated = 0;
+        if (!timestamped.isEmpty()) {
+            updated += sum(jdbcTemplate.batchUpdate(UPDATE_NEWER_MEASUREMENTS, timestamped, timestamped.size(), (ps, reading) -> {
+                bindMeasurements(ps, reading);
+                ps.setTimestamp(9, new Timestamp(reading.timestampMillis()));
+                ps.setTimestamp(10, new Timestamp(reading.timestampMillis() + clockResetJumpMillis));
+                ps.setTimestamp(11, new Timestamp(reading.receivedAtMillis()));
+            }));
+        }
+        if (!untimestamped.isEmpty()) {
+            updated += sum(jdbcTemplate.batchUpdate(UPDATE_MEASUREMENTS, untimestamped, untimestamped.size(),
+                    PlantStateJdbcRepository::bindMeasurements));
+        }
+        return updated;
+    }
+
+    private static int sum(int[][] counts) {
+        int updated = 0;
+        for (int[] batch : counts) {
+            for (int count : batch) {
+                // drivers may report SUCCESS_NO_INFO (-2) for batched statements
+                updated += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Writes online/offline transitions in one JDBC batch, in list order.
+     */
+    public void updateLiveness(List<DeviceLivenessDto> transitions) {
+        jdbcTemplate.batchUpdate(UPDATE_LIVENESS, transitions, transitions.size(), (ps, transition) -> {
+            ps.setBoolean(1, transition.isOnline());
+            if (transition.getLastSeenAt() == null) {
+                ps.setNull(2, Types.TIMESTAMP);
+            } else {
+                ps.setTimestamp(2, Timestamp.from(transition.getLastSeenAt()));
+            }
+            ps.setString(3, transition.getDeviceUid());
+        });
+    }
+
+    /**
+     * Streams the time of the last stored reading of every plant that has one, and when it was received.
+     */
+    @Transactional(readOnly = true)
+    public void forEachMeasurementTimestamp(MeasurementTimestampHandler handler) {
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(SELECT_MEASUREMENT_TIMESTAMPS);
+            ps.setFetchSize(STREAM_FETCH_SIZE);
+            return ps;
+        }, (ResultSet rs) -> {
+            Timestamp receivedAt = rs.getTimestamp(3);
+            handler.accept(rs.getString(1), rs.getTimestamp(2).getTime(),
+                           receivedAt == null ? PlantReading.NO_TIMESTAMP : receivedAt.getTime());
+        });
+    }
+
+    public List<String> findOnlineDeviceUids() {
+        return jdbcTemplate.queryForList(SELECT_ONLINE_DEVICES, String.class);
+    }
+
+    public List<DeviceLivenessDto> findOfflineByOwner(long ownerId) {
+        return jdbcTemplate.query(SELECT_OFFLINE_BY_OWNER, (rs, rowNum) -> {
+            DeviceLivenessDto plant = new DeviceLivenessDto();
+            plant.setPlantId(rs.getLong(1));
+            plant.setDeviceUid(rs.getString(2));
+            plant.setNickname(rs.getString(3));
+            Timestamp lastSeenAt = rs.getTimestamp(4);
+            plant.setLastSeenAt(lastSeenAt == null ? null : lastSeenAt.toInstant());
+            return plant;
+        }, ownerId);
+    }
+
+    /**
+     * Streams {@code device_uid → plant_id / owner_id} of every plant through a server-side cursor,
+     * without materializing entities.
+     */
+    @Transactional(readOnly = true)
+    public void forEachDeviceBinding(DeviceBindingHandler handler) {
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(SELECT_DEVICE_BINDINGS);
+            ps.setFetchSize(STREAM_FETCH_SIZE);
+            return ps;
+        }, (ResultSet rs) -> {
+            long ownerId = rs.getLong(3);
+            Long owner = rs.wasNull() ? null : ownerId;
+            handler.accept(rs.getString(1), rs.getLong(2), owner, rs.getBoolean(4));
+        });
+    }
+
+    /**
+     * Looks up the binding of a single device.
+     *
+     * @return {@code false} if the device has no plant
+     */
+    public boolean findDeviceBinding(String deviceUid, DeviceBindingHandler handler) {
+        boolean[] found = {false};
+        jdbcTemplate.query(SELECT_DEVICE_BINDING, (ResultSet rs) -> {
+            found[0] = true;
+            long ownerId = rs.getLong(3);
+            Long owner = rs.wasNull() ? null : ownerId;
+            handler.accept(rs.getString(1), rs.getLong(2), owner, rs.getBoolean(4));
+        }, deviceUid);
+        return found[0];
+    }
+
+    @FunctionalInterface
+    public interface DeviceBindingHandler {
+
+        void accept(String deviceUid, long plantId, Long ownerId, boolean friendVisible);
+    }
+
+    @FunctionalInterface
+    public interface MeasurementTimestampHandler {
+
+        /**
+         * @param receivedAtMillis {@link PlantReading#NO_TIMESTAMP} for rows written before arrival times were stored
+         */
+        void accept(String deviceUid, long measuredAtMillis, long receivedAtMillis);
+    }
+
+    private static void bindMeasurements(PreparedStatement ps, PlantReading reading) throws SQLException {
+        setDouble(ps, 1, reading.airTemperatureC());
+        setDouble(ps, 2, reading.airHumidityPercent());
+        setDouble(ps, 3, reading.soilMoisturePercent());
+        if (reading.soilMoistureRaw() == PlantReading.NO_RAW_VALUE) {
+            ps.setNull(4, Types.INTEGER);
+        } else {
+            ps.setInt(4, reading.soilMoistureRaw());
+        }
+        if (reading.hasTimestamp()) {
+            ps.setTimestamp(5, new Timestamp(reading.timestampMillis()));
+        } else {
+            ps.setNull(5, Types.TIMESTAMP);
+        }
+        ps.setString(6, reading.mood() == null ? null : reading.mood().name());
+        ps.setTimestamp(7, new Timestamp(reading.receivedAtMillis()));
+        ps.setString(8, reading.deviceUid());
+    }
+
+    private static void setDouble(PreparedStatement ps, int index, double value) throws SQLException {
+        if (Double.isNaN(value)) {
+            ps.setNull(index, Types.DOUBLE);
+        } else {
+            ps.setDouble(index, value);
+        }
+    }
+}
@@ -1,17 +1,44 @@
 package com.fitocube.backend.repositories;
 
 import com.fitocube.backend.model.PlantStateDto;
+import com.fitocube.backend.model.PlantView;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
-import java.util.Set;
 
 public interface PlantStateRepository extends JpaRepository<PlantStateDto, Long> {
 
-    Optional<PlantStateDto> findByDeviceUid(String deviceUid);
+    String PLANT_VIEW = """
+            SELECT new com.fitocube.backend.model.PlantView(
+                       p.plantId, p.deviceUid, o.userId, o.userName, o.displayName, p.nickname,
+                       p.measurements.airTemperatureC, p.measurements.airHumidityPercent,
+                       p.measurements.soilMoisturePercent, p.measurements.soilMoistureRaw,
+                       p.measurements.timestamp, p.mood, p.friendVisible)
+              FROM PlantStateDto p
+              LEFT JOIN p.owner o
+            """;
 
-    Set<PlantStateDto> findAllByOwner_UserName(String username);
+    Optional<PlantStateDto> findByDeviceUid(String deviceUid);
 
     boolean existsByDeviceUid(String deviceUid);
+
+    @Query(PLANT_VIEW + " WHERE p.plantId = :plantId")
+    Optional<PlantView> findViewById(@Param("plantId") Long plantId);
+
+    /**
+     * One page of the owner's plants in {@code plantId} order, starting after {@code afterPlantId}
+     * (keyset pagination); the page size comes from {@code page}.
+     */
+    @Query(PLANT_VIEW + " WHERE o.userName = :userName AND p.plantId > :afterPlantId ORDER BY p.plantId")
+    List<PlantView> findViewsByOwner(@Param("userName") String userName,
+                                     @Param("afterPlantId") long afterPlantId,
+                                     Pageable page);
+
+    @Query(PLANT_VIEW + " WHERE p.plantId IN :plantIds ORDER BY p.plantId")
+    List<PlantView> findViewsByIds(@Param("plantIds") Collection<Long> plantIds);
 }
@@ -4,8 +4,20 @@ import java.util.Optional;
 
 import com.fitocube.backend.model.UserDto;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 public interface UserRepository extends JpaRepository<UserDto, Long> {
 
-    Optional<UserDto> findByUserNameIgnoreCase(String userName);
+    /**
+     * The user with friends already loaded, so it can be used after the session is gone.
+     */
+    @Query("SELECT u FROM UserDto u LEFT JOIN FETCH u.friends WHERE u.userId = :userId")
+    Optional<UserDto> findWithFriendsById(@Param("userId") Long userId);
+
+    /**
+     * Case-insensitive; served by the {@code UPPER(user_name)} index from {@code schema.sql}.
+     */
+    @Query("SELECT u FROM UserDto u LEFT JOIN FETCH u.friends WHERE UPPER(u.userName) = UPPER(:userName)")
+    Optional<UserDto> findWithFriendsByUserName(@Param("userName") String userName);
 }
@@ -0,0 +1,249 @@
+package com.fitocube.backend.repositories;
+
+import com.fitocube.backend.model.enums.Mood;
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Snapshots of the per-user statistics and the history replayed on top of them.
+ */
+@Repository
+public class UserStatsRepository {
+
+    private static final String UPSERT_USER = """
+            INSERT INTO user_stats (user_id, mood_millis, happy_streak_days, best_happy_streak_days,
+                                    last_happy_day, updated_at)
+            VALUES (?, ?, ?, ?, ?, ?)
+            ON CONFLICT (user_id) DO UPDATE
+               SET mood_millis = EXCLUDED.mood_millis,
+                   happy_streak_days = EXCLUDED.happy_streak_days,
+                   best_happy_streak_days = EXCLUDED.best_happy_streak_days,
+                   last_happy_day = EXCLUDED.last_happy_day,
+                   updated_at = EXCLUDED.updated_at
+            """;
+
+    private static final String UPSERT_PLANT = """
+            INSERT INTO plant_stats (plant_id, mood, last_measured_at, soil_moisture_percent)
+            VALUES (?, ?, ?, ?)
+            ON CONFLICT (plant_id) DO UPDATE
+               SET mood = EXCLUDED.mood,
+                   last_measured_at = EXCLUDED.last_measured_at,
+                   soil_moisture_percent = EXCLUDED.soil_moisture_percent
+            """;
+
+    private static final String UPSERT_WATERMARK = """
+            INSERT INTO stats_watermark (id, folded_until)
+            VALUES (1, ?)
+            ON CONFLICT (id) DO UPDATE SET folded_until = EXCLUDED.folded_until
+            """;
+
+    private static final String SELECT_WATERMARK = "SELECT folded_until FROM stats_watermark WHERE id = 1";
+
+    private static final String SELECT_USERS = """
+            SELECT user_id, mood_millis, happy_streak_days, best_happy_streak_days, last_happy_day, updated_at
+              FROM user_stats
+            """;
+
+    private static final String SELECT_PLANTS = """
+            SELECT plant_id, mood, last_measured_at, soil_moisture_percent
+              FROM plant_stats
+            """;
+
+    private static final String SELECT_OWNERSHIP = """
+            SELECT plant_id, owner_id
+              FROM plant_states
+             WHERE owner_id IS NOT NULL
+            """;
+
+    /**
+     * The {@code measured_at} bound only lets the planner prune partitions; readings from
+     * clocks more than a day off are not replayed.
+     */
+    private static final String SELECT_REPLAY = """
+            SELECT plant_id, measured_at, soil_moisture_percent, mood
+              FROM plant_measurements
+             WHERE received_at > ?
+               AND measured_at > ?
+             ORDER BY measured_at
+            """;
+
+    private static final long REPLAY_CLOCK_SKEW_MILLIS = 24L * 60 * 60 * 1000;
+    private static final int STREAM_FETCH_SIZE = 10_000;
+    private static final Mood[] MOODS = Mood.values();
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public UserStatsRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Writes changed rows and moves the watermark, all or nothing.
+     */
+    @Transactional
+    public void saveSnapshot(List<UserRow> users, List<PlantRow> plants, Instant foldedUntil) {
+        if (!users.isEmpty()) {
+            jdbcTemplate.batchUpdate(UPSERT_USER, users, users.size(), UserStatsRepository::bindUser);
+        }
+        if (!plants.isEmpty()) {
+            jdbcTemplate.batchUpdate(UPSERT_PLANT, plants, plants.size(), UserStatsRepository::bindPlant);
+        }
+        jdbcTemplate.update(UPSERT_WATERMARK, Timestamp.from(foldedUntil));
+    }
+
+    public Optional<Instant> findWatermark() {
+        return jdbcTemplate.query(SELECT_WATERMARK, (rs, rowNum) -> rs.getTimestamp(1).toInstant())
+                .stream()
+                .findFirst();
+    }
+
+    public void forEachUser(RowHandler<UserRow> handler) {
+        jdbcTemplate.query(SELECT_USERS, (ResultSet rs) -> {
+            Long[] stored = (Long[]) rs.getArray(2).getArray();
+            long[] moodMillis = new long[MOODS.length];
+            for (int i = 0; i < Math.min(stored.length, moodMillis.length); i++) {
+                moodMillis[i] = stored[i] == null ? 0 : stored[i];
+            }
+            long lastHappyDay = rs.getLong(5);
+            Timestamp updatedAt = rs.getTimestamp(6);
+            handler.accept(new UserRow(rs.getLong(1), moodMillis, rs.getInt(3), rs.getInt(4),
+                                       rs.wasNull() ? UserRow.NO_DAY : lastHappyDay,
+                                       updatedAt == null ? 0 : updatedAt.getTime()));
+        });
+    }
+
+    public void forEachPlant(RowHandler<PlantRow> handler) {
+        jdbcTemplate.query(SELECT_PLANTS, (ResultSet rs) -> {
+            Timestamp lastMeasuredAt = rs.getTimestamp(3);
+            double soilMoisture = rs.getDouble(4);
+            handler.accept(new PlantRow(rs.getLong(1), parseMood(rs.getString(2)),
+                                        lastMeasuredAt == null ? PlantRow.NEVER : lastMeasuredAt.getTime(),
+                                        rs.wasNull() ? Double.NaN : soilMoisture));
+        });
+    }
+
+    public void forEachOwnership(OwnershipHandler handler) {
+        jdbcTemplate.query(SELECT_OWNERSHIP, (ResultSet rs) -> {
+            handler.accept(rs.getLong(1), rs.getLong(2));
+        });
+    }
+
+    /**
+     * Streams readings received after {@code receivedAfter}, oldest measurement first,
+     * through a server-side cursor.
+     */
+    @Transactional(readOnly = true)
+    public void replay(Instant receivedAfter, ReplayHandler handler) {
+        replay(receivedAfter, receivedAfter.minusMillis(REPLAY_CLOCK_SKEW_MILLIS), handler);
+    }
+
+    /**
+     * Same, for callers that know every such reading was measured after {@code measuredAfter};
+     * the tighter bound prunes more of the history.
+     */
+    @Transactional(readOnly = true)
+    public void replay(Instant receivedAfter, Instant measuredAfter, ReplayHandler handler) {
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(SELECT_REPLAY);
+            ps.setFetchSize(STREAM_FETCH_SIZE);
+            ps.setTimestamp(1, Timestamp.from(receivedAfter));
+            ps.setTimestamp(2, Timestamp.from(measuredAfter));
+            return ps;
+        }, (ResultSet rs) -> {
+            double soilMoisture = rs.getDouble(3);
+            handler.accept(rs.getLong(1), rs.getTimestamp(2).getTime(),
+                           rs.wasNull() ? Double.NaN : soilMoisture, parseMood(rs.getString(4)));
+        });
+    }
+
+    @FunctionalInterface
+    public interface RowHandler<T> {
+
+        void accept(T row);
+    }
+
+    @FunctionalInterface
+    public interface OwnershipHandler {
+
+        void accept(long plantId, long ownerId);
+    }
+
+    @FunctionalInterface
+    public interface ReplayHandler {
+
+        void accept(long plantId, long measuredAtMillis, double soilMoisturePercent, Mood mood);
+    }
+
+    /**
+     * {@code moodMillis} is indexed by {@link Mood#ordinal()}; {@code lastHappyDay} is an epoch day.
+     */
+    public record UserRow(long userId,
+                          long[] moodMillis,
+                          int happyStreakDays,
+                          int bestHappyStreakDays,
+                          long lastHappyDay,
+                          long updatedAtMillis) {
+
+        public static final long NO_DAY = Long.MIN_VALUE;
+    }
+
+    public record PlantRow(long plantId, Mood mood, long lastMeasuredAtMillis, double soilMoisturePercent) {
+
+        public static final long NEVER = Long.MIN_VALUE;
+    }
+
+    private static void bindUser(PreparedStatement ps, UserRow row) throws SQLException {
+        Long[] moodMillis = new Long[row.moodMillis().length];
+        for (int i = 0; i < moodMillis.length; i++) {
+            moodMillis[i] = row.moodMillis()[i];
+        }
+        Array array = ps.getConnection().createArrayOf("bigint", moodMillis);
+        ps.setLong(1, row.userId());
+        ps.setArray(2, array);
+        ps.setInt(3, row.happyStreakDays());
+        ps.setInt(4, row.bestHappyStreakDays());
+        if (row.lastHappyDay() == UserRow.NO_DAY) {
+            ps.setNull(5, Types.BIGINT);
+        } else {
+            ps.setLong(5, row.lastHappyDay());
+        }
+        ps.setTimestamp(6, row.updatedAtMillis() == 0 ? null : new Timestamp(row.updatedAtMillis()));
+    }
+
+    private static void bindPlant(PreparedStatement ps, PlantRow row) throws SQLException {
+        ps.setLong(1, row.plantId());
+        ps.setString(2, row.mood() == null ? null : row.mood().name());
+        if (row.lastMeasuredAtMillis() == PlantRow.NEVER) {
+            ps.setNull(3, Types.TIMESTAMP);
+        } else {
+            ps.setTimestamp(3, new Timestamp(row.lastMeasuredAtMillis()));
+        }
+        if (Double.isNaN(row.soilMoisturePercent())) {
+            ps.setNull(4, Types.DOUBLE);
+        } else {
+            ps.setDouble(4, row.soilMoisturePercent());
+        }
+    }
+
+    private static Mood parseMood(String value) {
+        if (value == null) {
+            return null;
+        }
+        for (Mood mood : MOODS) {
+            if (mood.name().equals(value)) {
+                return mood;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,118 @@
+package com.fitocube.backend.security;
+
+import com.fitocube.backend.config.SessionProperties;
+import com.fitocube.backend.model.session.SessionUser;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Optional;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Compact, self-contained session token: {@code base64url(payload) "." base64url(HMAC-SHA256(payload))}.
+ * The payload is the {@link SessionUser} plus an expiry, so validating a token needs no storage.
+ */
+@Slf4j
+@Component
+public class SessionTokenCodec {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final byte VERSION = 1;
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+
+    public SessionTokenCodec(SessionProperties properties) {
+        byte[] secret;
+        if (properties.getTokenSecret() == null || properties.getTokenSecret().isBlank()) {
+            secret = new byte[32];
+            new SecureRandom().nextBytes(secret);
+            if (properties.getMode() == SessionProperties.Mode.TOKEN) {
+                log.warn("session.token-secret не задан: токены не переживут перезапуск и не подойдут другим узлам");
+            }
+        } else {
+            secret = properties.getTokenSecret().getBytes(StandardCharsets.UTF_8);
+        }
+        this.key = new SecretKeySpec(secret, ALGORITHM);
+    }
+
+    public String encode(SessionUser user, long expiresAtMillis) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeLong(user.id());
+            out.writeLong(expiresAtMillis);
+            out.writeUTF(user.userName());
+            out.writeBoolean(user.displayName() != null);
+            if (user.displayName() != null) {
+                out.writeUTF(user.displayName());
+            }
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] payload = bytes.toByteArray();
+        return ENCODER.encodeToString(payload) + "." + ENCODER.encodeToString(sign(payload));
+    }
+
+    /**
+     * @return the user, or empty if the token is malformed, forged or expired
+     */
+    public Optional<SessionUser> decode(String token, long nowMillis) {
+        int dot = token.indexOf('.');
+        if (dot <= 0 || dot == token.length() - 1) {
+            return Optional.empty();
+        }
+        byte[] payload;
+        byte[] signature;
+        try {
+            payload = DECODER.decode(token.substring(0, dot));
+            signature = DECODER.decode(token.substring(dot + 1));
+        }
+        catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+        if (!MessageDigest.isEqual(sign(payload), signature)) {
+            return Optional.empty();
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            if (in.readByte() != VERSION) {
+                return Optional.empty();
+            }
+            long id = in.readLong();
+            long expiresAtMillis = in.readLong();
+            if (expiresAtMillis <= nowMillis) {
+                return Optional.empty();
+            }
+            String userName = in.readUTF();
+            String displayName = in.readBoolean() ? in.readUTF() : null;
+            return Optional.of(new SessionUser(id, userName, displayName));
+        }
+        catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    private byte[] sign(byte[] payload) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(payload);
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
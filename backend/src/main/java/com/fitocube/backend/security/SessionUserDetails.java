@@ -22,6 +22,13 @@ public class SessionUserDetails implements UserDetails {
         this.authorities = List.of(new SimpleGrantedAuthority("ROLE_USER"));
     }
 
+    public SessionUserDetails(SessionUser user) {
+        this.id = user.id();
+        this.username = user.userName();
+        this.displayName = user.displayName();
+        this.authorities = List.of(new SimpleGrantedAuthority("ROLE_USER"));
+    }
+
     public Long getId() {
         return id;
     }
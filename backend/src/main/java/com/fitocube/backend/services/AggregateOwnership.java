@@ -0,0 +1,112 @@
+package com.fitocube.backend.services;
+
+import com.fitocube.backend.config.MqttProperties;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import javax.sql.DataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Decides which node writes the aggregates kept in memory: the stats snapshot, the games
+ * checkpoint and finished battles. A single node simply owns them. Nodes sharing an MQTT
+ * subscription group compete for a Postgres session advisory lock, held on a connection of its
+ * own; the holder owns them until that connection breaks, and the others take over within
+ * {@code stats.catch-up-interval}.
+ */
+@Slf4j
+@Component
+public class AggregateOwnership {
+
+    /** The value is arbitrary but fixed, and differs from the partition maintenance lock. */
+    private static final String TRY_LOCK = "SELECT pg_try_advisory_lock(7460120)";
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+    private final DataSource dataSource;
+    private final boolean shared;
+
+    /** Guarded by {@code this}. */
+    private Connection connection;
+    private volatile boolean owner;
+
+    public AggregateOwnership(DataSource dataSource, MqttProperties mqttProperties) {
+        this.dataSource = dataSource;
+        this.shared = mqttProperties.getSharedGroup() != null && !mqttProperties.getSharedGroup().isBlank();
+        this.owner = !shared;
+    }
+
+    /**
+     * Whether other nodes ingest readings too, so this one sees only part of them.
+     */
+    public boolean isShared() {
+        return shared;
+    }
+
+    public boolean isOwner() {
+        return owner;
+    }
+
+    @PostConstruct
+    void init() {
+        check();
+    }
+
+    @Scheduled(fixedDelayString = "${stats.catch-up-interval:PT10S}",
+               initialDelayString = "${stats.catch-up-interval:PT10S}")
+    public synchronized void check() {
+        if (!shared) {
+            return;
+        }
+        try {
+            if (connection == null || !connection.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+                lose();
+                connection = dataSource.getConnection();
+                connection.setAutoCommit(true);
+            }
+            if (!owner) {
+                try (Statement statement = connection.createStatement();
+                     ResultSet rs = statement.executeQuery(TRY_LOCK)) {
+                    owner = rs.next() && rs.getBoolean(1);
+                }
+                if (owner) {
+                    log.info("Узел записывает агрегаты статистики и игр");
+                }
+            }
+        }
+        catch (SQLException e) {
+            lose();
+            log.warn("Не удалось проверить владение агрегатами: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    synchronized void shutdown() {
+        if (shared) {
+            lose();
+        }
+    }
+
+    /**
+     * Closing the connection releases the lock, if it still held it.
+     */
+    private void lose() {
+        if (owner) {
+            log.warn("Узел больше не записывает агрегаты статистики и игр");
+        }
+        owner = false;
+        if (connection != null) {
+            try {
+                connection.close();
+            }
+            catch (SQLException e) {
+                log.debug("Не удалось закрыть соединение владения агрегатами", e);
+            }
+            connection = null;
+        }
+    }
+}
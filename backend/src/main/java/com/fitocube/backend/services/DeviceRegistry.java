@@ -0,0 +1,184 @@
+package com.fitocube.backend.services;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * In-memory {@code deviceUid → plantId / ownerId} index consulted by ingest instead of Postgres.
+ * <p>
+ * Entries live in open-addressing tables of parallel primitive arrays split over a fixed number
+ * of segments, so there is no per-entry object besides the key itself. Lookups are lock-free
+ * optimistic reads; writes (claims) take the segment's write lock.
+ */
+public final class DeviceRegistry {
+
+    public static final long ABSENT = -1L;
+
+    private static final int SEGMENTS = 64;
+    private static final int SEGMENT_MASK = SEGMENTS - 1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final byte FRIEND_VISIBLE = 1;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    public DeviceRegistry() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * @return the plant bound to the device, or {@link #ABSENT}
+     */
+    public long plantId(String deviceUid) {
+        return read(deviceUid, Field.PLANT);
+    }
+
+    /**
+     * @return the owner of the device's plant, or {@link #ABSENT} if it is unknown or unclaimed
+     */
+    public long ownerId(String deviceUid) {
+        return read(deviceUid, Field.OWNER);
+    }
+
+    public boolean isFriendVisible(String deviceUid) {
+        return read(deviceUid, Field.FLAGS) == FRIEND_VISIBLE;
+    }
+
+    public boolean contains(String deviceUid) {
+        return plantId(deviceUid) != ABSENT;
+    }
+
+    public void put(String deviceUid, long plantId, Long ownerId, boolean friendVisible) {
+        int hash = spread(deviceUid.hashCode());
+        Segment segment = segments[hash & SEGMENT_MASK];
+        long stamp = segment.lock.writeLock();
+        try {
+            segment.put(hash, deviceUid, plantId, ownerId == null ? ABSENT : ownerId,
+                        friendVisible ? FRIEND_VISIBLE : 0);
+        }
+        finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            long stamp = segment.lock.readLock();
+            try {
+                size += segment.size;
+            }
+            finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+
+    private long read(String deviceUid, Field field) {
+        if (deviceUid == null) {
+            return ABSENT;
+        }
+        int hash = spread(deviceUid.hashCode());
+        Segment segment = segments[hash & SEGMENT_MASK];
+        long stamp = segment.lock.tryOptimisticRead();
+        long value = segment.table.get(hash, deviceUid, field);
+        if (segment.lock.validate(stamp)) {
+            return value;
+        }
+        stamp = segment.lock.readLock();
+        try {
+            return segment.table.get(hash, deviceUid, field);
+        }
+        finally {
+            segment.lock.unlockRead(stamp);
+        }
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private enum Field { PLANT, OWNER, FLAGS }
+
+    private static final class Segment {
+
+        final StampedLock lock = new StampedLock();
+        Table table = new Table(INITIAL_CAPACITY);
+        int size;
+
+        void put(int hash, String key, long plantId, long ownerId, byte flags) {
+            int slot = table.slotOf(hash, key);
+            if (table.keys[slot] == null) {
+                if ((size + 1) * 4 > table.keys.length * 3) {
+                    table = table.resized();
+                    slot = table.slotOf(hash, key);
+                }
+                size++;
+            }
+            table.set(slot, hash, key, plantId, ownerId, flags);
+        }
+    }
+
+    /**
+     * Immutable in size; a resize publishes a new table, so an optimistic reader never
+     * sees arrays of different lengths.
+     */
+    private static final class Table {
+
+        final int[] hashes;
+        final String[] keys;
+        final long[] plantIds;
+        final long[] ownerIds;
+        final byte[] flags;
+
+        Table(int capacity) {
+            hashes = new int[capacity];
+            keys = new String[capacity];
+            plantIds = new long[capacity];
+            ownerIds = new long[capacity];
+            flags = new byte[capacity];
+        }
+
+        int slotOf(int hash, String key) {
+            int mask = keys.length - 1;
+            int slot = (hash >>> 6) & mask;
+            while (keys[slot] != null && !(hashes[slot] == hash && keys[slot].equals(key))) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        long get(int hash, String key, Field field) {
+            int slot = slotOf(hash, key);
+            if (keys[slot] == null) {
+                return ABSENT;
+            }
+            return switch (field) {
+                case PLANT -> plantIds[slot];
+                case OWNER -> ownerIds[slot];
+                case FLAGS -> flags[slot];
+            };
+        }
+
+        void set(int slot, int hash, String key, long plantId, long ownerId, byte flag) {
+            hashes[slot] = hash;
+            plantIds[slot] = plantId;
+            ownerIds[slot] = ownerId;
+            flags[slot] = flag;
+            keys[slot] = key;
+        }
+
+        Table resized() {
+            Table next = new Table(keys.length * 2);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != null) {
+                    int slot = next.slotOf(hashes[i], keys[i]);
+                    next.set(slot, hashes[i], keys[i], plantIds[i], ownerIds[i], flags[i]);
+                }
+            }
+            return next;
+        }
+    }
+}
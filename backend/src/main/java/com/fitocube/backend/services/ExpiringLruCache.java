@@ -0,0 +1,77 @@
+package com.fitocube.backend.services;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Small LRU map whose entries also expire after a fixed time to live. Meant for lookups that
+ * are cheap to repeat but hot enough not to hit the database on every request.
+ */
+final class ExpiringLruCache<K, V> {
+
+    private final long ttlMillis;
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    ExpiringLruCache(int maxEntries, Duration ttl) {
+        this.ttlMillis = ttl.toMillis();
+        int capacity = Math.max(1, maxEntries);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return the live value, or {@code null} if absent or expired
+     */
+    V get(K key) {
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null && entry.expiresAtMillis > now) {
+                hits.increment();
+                return entry.value;
+            }
+            if (entry != null) {
+                entries.remove(key);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    void put(K key, V value) {
+        long expiresAt = System.currentTimeMillis() + ttlMillis;
+        synchronized (entries) {
+            entries.put(key, new Entry<>(value, expiresAt));
+        }
+    }
+
+    /**
+     * @return the removed value, expired or not, or {@code null}
+     */
+    V remove(K key) {
+        synchronized (entries) {
+            Entry<V> entry = entries.remove(key);
+            return entry == null ? null : entry.value;
+        }
+    }
+
+    long hitCount() {
+        return hits.sum();
+    }
+
+    long missCount() {
+        return misses.sum();
+    }
+
+    private record Entry<V>(V value, long expiresAtMillis) {
+    }
+}
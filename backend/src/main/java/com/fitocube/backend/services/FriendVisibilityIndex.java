@@ -0,0 +1,221 @@
+package com.fitocube.backend.services;
+
+import com.fitocube.backend.repositories.FriendshipJdbcRepository;
+import jakarta.annotation.PostConstruct;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongConsumer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+/**
+ * Which plants each user sees as a friend: the friend-visible plants of every user in their
+ * {@code friends}, the same rule the plant stream applies.
+ * <p>
+ * The answer is kept precomputed per viewer in a {@link LongHashSet}, so a friend feed is a
+ * set copy however many friends the viewer has. It is maintained on write instead: a plant
+ * becoming visible or hidden is fanned out to the viewers of its owner, and a changed friend
+ * list adds or removes the visible plants of the friends that came or went. Friendships come
+ * from {@link UserService#save}, plants from claims in {@link PlantService}.
+ * <p>
+ * Writes are rare next to reads, so one read/write lock guards everything.
+ */
+@Slf4j
+@Service
+public class FriendVisibilityIndex {
+
+    private static final long[] NONE = new long[0];
+
+    private final FriendshipJdbcRepository friendshipJdbcRepository;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** Viewer → users whose friend-visible plants they see. */
+    private final Map<Long, LongHashSet> friendsOf = new HashMap<>();
+    /** Owner → users who have them as a friend. */
+    private final Map<Long, LongHashSet> viewersOf = new HashMap<>();
+    /** Owner → their friend-visible plants. */
+    private final Map<Long, LongHashSet> visibleOf = new HashMap<>();
+    /** Friend-visible plant → its owner. */
+    private final Map<Long, Long> ownerOf = new HashMap<>();
+    /** Viewer → every plant they see, the union of {@code visibleOf} over {@code friendsOf}. */
+    private final Map<Long, LongHashSet> feedOf = new HashMap<>();
+
+    public FriendVisibilityIndex(FriendshipJdbcRepository friendshipJdbcRepository) {
+        this.friendshipJdbcRepository = friendshipJdbcRepository;
+    }
+
+    /**
+     * Friendships only; plants are added by {@link PlantService} as it loads the device registry.
+     */
+    @PostConstruct
+    void loadFriendships() {
+        lock.writeLock().lock();
+        try {
+            friendshipJdbcRepository.forEachFriendship(this::addFriend);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Загружены друзья {} пользователей", friendsOf.size());
+    }
+
+    /**
+     * Records the plant's current owner and flag; a plant without owner or not friend-visible
+     * is seen by nobody.
+     */
+    public void plantChanged(long plantId, long ownerId, boolean friendVisible) {
+        lock.writeLock().lock();
+        try {
+            Long previousOwner = ownerOf.get(plantId);
+            boolean visible = friendVisible && ownerId != DeviceRegistry.ABSENT;
+            if (previousOwner != null && (!visible || previousOwner != ownerId)) {
+                ownerOf.remove(plantId);
+                removeFrom(visibleOf, previousOwner, plantId);
+                forEach(viewersOf.get(previousOwner), viewer -> removeFrom(feedOf, viewer, plantId));
+            }
+            if (visible && (previousOwner == null || previousOwner != ownerId)) {
+                ownerOf.put(plantId, ownerId);
+                visibleOf.computeIfAbsent(ownerId, id -> new LongHashSet()).add(plantId);
+                forEach(viewersOf.get(ownerId), viewer -> feedOf.computeIfAbsent(viewer, id -> new LongHashSet()).add(plantId));
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the user's friend list, touching only the friends that changed.
+     */
+    public void friendsChanged(long userId, Collection<Long> friendIds) {
+        LongHashSet next = new LongHashSet(friendIds.size());
+        for (Long friendId : friendIds) {
+            if (friendId != null && friendId != userId) {
+                next.add(friendId);
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            LongHashSet current = friendsOf.get(userId);
+            if (current != null) {
+                for (long friendId : current.toSortedArray()) {
+                    if (!next.contains(friendId)) {
+                        removeFriend(userId, friendId);
+                    }
+                }
+            }
+            next.forEach(friendId -> addFriend(userId, friendId));
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return ids of every plant the viewer sees, ascending
+     */
+    public long[] feed(long viewerId) {
+        lock.readLock().lock();
+        try {
+            LongHashSet feed = feedOf.get(viewerId);
+            return feed == null ? NONE : feed.toSortedArray();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return ids of the owner's plants the viewer sees, ascending; none unless the owner is
+     *         one of the viewer's friends
+     */
+    public long[] visiblePlants(long viewerId, long ownerId) {
+        lock.readLock().lock();
+        try {
+            LongHashSet friends = friendsOf.get(viewerId);
+            LongHashSet visible = visibleOf.get(ownerId);
+            return friends == null || visible == null || !friends.contains(ownerId) ? NONE : visible.toSortedArray();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Runs the action for every user who has the owner as a friend, under the read lock, so
+     * it must not block.
+     */
+    public void forEachViewer(long ownerId, LongConsumer action) {
+        lock.readLock().lock();
+        try {
+            forEach(viewersOf.get(ownerId), action);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean isFriend(long viewerId, long ownerId) {
+        lock.readLock().lock();
+        try {
+            LongHashSet friends = friendsOf.get(viewerId);
+            return friends != null && friends.contains(ownerId);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int visiblePlantCount() {
+        lock.readLock().lock();
+        try {
+            return ownerOf.size();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void addFriend(long userId, long friendId) {
+        if (userId == friendId || !friendsOf.computeIfAbsent(userId, id -> new LongHashSet()).add(friendId)) {
+            return;
+        }
+        viewersOf.computeIfAbsent(friendId, id -> new LongHashSet()).add(userId);
+        LongHashSet visible = visibleOf.get(friendId);
+        if (visible != null) {
+            feedOf.computeIfAbsent(userId, id -> new LongHashSet(visible.size())).addAll(visible);
+        }
+    }
+
+    /**
+     * A plant has a single owner, so the friend's plants in the feed came from that friend alone.
+     */
+    private void removeFriend(long userId, long friendId) {
+        removeFrom(friendsOf, userId, friendId);
+        removeFrom(viewersOf, friendId, userId);
+        LongHashSet visible = visibleOf.get(friendId);
+        LongHashSet feed = feedOf.get(userId);
+        if (visible != null && feed != null) {
+            feed.removeAll(visible);
+            if (feed.isEmpty()) {
+                feedOf.remove(userId);
+            }
+        }
+    }
+
+    private static void removeFrom(Map<Long, LongHashSet> index, long key, long value) {
+        LongHashSet set = index.get(key);
+        if (set != null && set.remove(value) && set.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    private static void forEach(LongHashSet set, LongConsumer action) {
+        if (set != null) {
+            set.forEach(action);
+        }
+    }
+}
@@ -0,0 +1,639 @@
+package com.fitocube.backend.services;
+
+import com.fitocube.backend.config.GamesProperties;
+import com.fitocube.backend.config.MqttProperties;
+import com.fitocube.backend.config.StatsProperties;
+import com.fitocube.backend.ingest.IngestListener;
+import com.fitocube.backend.ingest.PlantReading;
+import com.fitocube.backend.model.LeaderboardEntryDto;
+import com.fitocube.backend.model.MoodBattleDto;
+import com.fitocube.backend.model.PlantChallengeDto;
+import com.fitocube.backend.model.PlayerStatsDto;
+import com.fitocube.backend.model.enums.BattleStatus;
+import com.fitocube.backend.model.enums.ChallengeStatus;
+import com.fitocube.backend.model.enums.Mood;
+import com.fitocube.backend.model.request.CreateMoodBattleRequest;
+import com.fitocube.backend.repositories.GamesRepository;
+import com.fitocube.backend.repositories.GamesRepository.BattleRow;
+import com.fitocube.backend.repositories.GamesRepository.BattleScore;
+import com.fitocube.backend.repositories.GamesRepository.WellbeingRow;
+import com.fitocube.backend.repositories.UserStatsRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.temporal.IsoFields;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Mood battles and the weekly wellbeing challenge, ranked in memory and updated from ingest.
+ * <p>
+ * Each reading credits the time since the plant's previous one, at most {@code stats.max-gap},
+ * if the plant was happy: to the plant's score for the week (Monday 00:00 UTC on) and to every
+ * active battle it takes part in, clipped to the battle. Two {@link RankedSet}s hold the
+ * standings, this week's happy time and battles won, so top-N, rank and neighbours never sort.
+ * <p>
+ * Battles are written when created and when they finish. Everything else is checkpointed
+ * every {@code games.checkpoint-interval} with a watermark; after a restart the history
+ * received since is replayed, which credits nothing twice because readings not newer than a
+ * plant's last one are ignored.
+ * <p>
+ * With an MQTT shared group each node ingests only part of the readings. Every
+ * {@code stats.catch-up-interval} it folds in what the other nodes persisted and picks up the
+ * battles they started. Every node finishes battles in memory, but only the one that
+ * {@link AggregateOwnership owns} the aggregates writes results and checkpoints.
+ * <p>
+ * One lock guards all of it; each update is O(log n).
+ */
+@Slf4j
+@Service
+public class GamesService implements IngestListener {
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    private static final double MILLIS_PER_HOUR = 60d * 60 * 1000;
+
+    private final PlantService plantService;
+    private final FriendVisibilityIndex friendVisibilityIndex;
+    private final GamesRepository gamesRepository;
+    private final UserStatsRepository userStatsRepository;
+    private final GamesProperties properties;
+    private final StatsProperties statsProperties;
+    private final AggregateOwnership ownership;
+    private final long maxGapMillis;
+    private final Duration maxClockSkew;
+
+    private final Object lock = new Object();
+    private final Map<Long, PlantScore> plants = new HashMap<>();
+    /** This week's happy millis of every plant that reported this week. */
+    private final RankedSet wellbeing = new RankedSet();
+    /** Battles won, per plant that won any. */
+    private final RankedSet battleWins = new RankedSet();
+    private final Map<Long, Battle> activeBattles = new HashMap<>();
+    private final Map<Long, BattleRecord> records = new HashMap<>();
+    /** Battles finished here whose result is not written yet, by id; left to the owner. */
+    private final Map<Long, Battle> unwritten = new HashMap<>();
+    private final TimingWheel<Battle> finishing;
+    private long currentWeekMillis;
+    /** Readings received before it are folded in, whichever node persisted them. */
+    private volatile Instant caughtUpTo;
+
+    public GamesService(PlantService plantService,
+                        FriendVisibilityIndex friendVisibilityIndex,
+                        GamesRepository gamesRepository,
+                        UserStatsRepository userStatsRepository,
+                        GamesProperties properties,
+                        StatsProperties statsProperties,
+                        MqttProperties mqttProperties,
+                        AggregateOwnership ownership) {
+        this.plantService = plantService;
+        this.friendVisibilityIndex = friendVisibilityIndex;
+        this.gamesRepository = gamesRepository;
+        this.userStatsRepository = userStatsRepository;
+        this.properties = properties;
+        this.statsProperties = statsProperties;
+        this.ownership = ownership;
+        this.maxGapMillis = statsProperties.getMaxGap().toMillis();
+        this.maxClockSkew = mqttProperties.getIngest().getClock().getMaxSkew();
+        long now = System.currentTimeMillis();
+        this.finishing = new TimingWheel<>(properties.getTick().toMillis(), now);
+        this.currentWeekMillis = weekStartMillis(now);
+    }
+
+    /**
+     * Finished battles, then active ones and the checkpoint, then a replay of the history
+     * received since the checkpoint (or since this week and the oldest active battle began).
+     */
+    @PostConstruct
+    void rebuild() {
+        long started = System.currentTimeMillis();
+        synchronized (lock) {
+            gamesRepository.forEachPlantWins(battleWins::put);
+            gamesRepository.forEachOwnerResults((ownerId, won, lost, drops) -> {
+                BattleRecord record = record(ownerId);
+                record.won = won;
+                record.lost = lost;
+                record.drops = drops;
+            });
+            long replayFrom = currentWeekMillis;
+            for (BattleRow row : gamesRepository.findActiveBattles()) {
+                Battle battle = new Battle(row);
+                register(battle);
+                replayFrom = Math.min(replayFrom, battle.startedAtMillis);
+            }
+            Instant watermark = gamesRepository.findWatermark().orElse(null);
+            if (watermark != null) {
+                gamesRepository.forEachWellbeing(this::restore);
+                replayFrom = watermark.toEpochMilli();
+            }
+            long[] replayed = new long[1];
+            userStatsRepository.replay(Instant.ofEpochMilli(replayFrom), (plantId, measuredAtMillis, soilMoisture, mood) -> {
+                fold(plantId, measuredAtMillis, mood);
+                replayed[0]++;
+            });
+            caughtUpTo = Instant.ofEpochMilli(started);
+            log.info("Игры восстановлены: {} активных батлов, {} растений в челлендже, повторено {} показаний за {} мс",
+                     activeBattles.size(), wellbeing.size(), replayed[0], System.currentTimeMillis() - started);
+        }
+    }
+
+    @Override
+    public void onPersisted(List<PlantReading> readings) {
+        synchronized (lock) {
+            for (PlantReading reading : readings) {
+                long plantId = plantService.plantIdOf(reading.deviceUid());
+                if (plantId != DeviceRegistry.ABSENT) {
+                    fold(plantId, reading.measuredAtMillis(), reading.mood());
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts a battle of one of the user's plants against another of theirs or a friend-visible
+     * plant of one of their friends.
+     */
+    public MoodBattleDto startBattle(long userId, CreateMoodBattleRequest request) {
+        if (request.getChallengerPlantId() == null || request.getOpponentPlantId() == null
+                || request.getChallengerPlantId().equals(request.getOpponentPlantId())) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Two different plants are required");
+        }
+        Duration duration = request.getDurationHours() == null
+                ? properties.getBattleDefaultDuration()
+                : Duration.ofHours(request.getDurationHours());
+        if (duration.compareTo(Duration.ofHours(1)) < 0 || duration.compareTo(properties.getBattleMaxDuration()) > 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "durationHours is out of range");
+        }
+        var challenger = plantService.getPlantView(request.getChallengerPlantId())
+                .filter(plant -> plant.owner() != null && plant.owner().userId() == userId)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "Challenger must be your plant"));
+        var opponent = plantService.getPlantView(request.getOpponentPlantId())
+                .filter(plant -> plant.owner() != null)
+                .filter(plant -> plant.owner().userId() == userId
+                        || (Boolean.TRUE.equals(plant.friendVisible()) && friendVisibilityIndex.isFriend(userId, plant.owner().userId())))
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "Opponent must be your plant or a friend's visible one"));
+
+        Instant startedAt = Instant.now();
+        Instant finishesAt = startedAt.plus(duration);
+        long battleId = gamesRepository.insertBattle(challenger.plantId(), userId, opponent.plantId(), opponent.owner().userId(),
+                                                     startedAt, finishesAt, properties.getBattleDropsReward());
+        Battle battle = new Battle(new BattleRow(battleId, challenger.plantId(), userId, opponent.plantId(),
+                                                 opponent.owner().userId(), startedAt, finishesAt, 0, 0,
+                                                 BattleStatus.ACTIVE, null, properties.getBattleDropsReward()));
+        synchronized (lock) {
+            register(battle);
+            return battle.toDto();
+        }
+    }
+
+    public Optional<MoodBattleDto> getBattle(long battleId) {
+        synchronized (lock) {
+            Battle battle = activeBattles.getOrDefault(battleId, unwritten.get(battleId));
+            if (battle != null) {
+                return Optional.of(battle.toDto());
+            }
+        }
+        return gamesRepository.findBattle(battleId).map(row -> new Battle(row).toDto());
+    }
+
+    /**
+     * @return the plant's challenge for the last week it reported in, or empty if it never did
+     */
+    public Optional<PlantChallengeDto> getChallenge(long plantId) {
+        synchronized (lock) {
+            PlantScore plant = plants.get(plantId);
+            if (plant == null || plant.weekMillis == WellbeingRow.NEVER) {
+                return Optional.empty();
+            }
+            double goal = properties.getWeeklyGoalHappyHours();
+            double achieved = plant.happyMillis / MILLIS_PER_HOUR;
+            boolean current = plant.weekMillis == currentWeekMillis;
+            LocalDate weekStart = LocalDate.ofEpochDay(Math.floorDiv(plant.weekMillis, MILLIS_PER_DAY));
+            PlantChallengeDto dto = new PlantChallengeDto();
+            dto.setChallengeId((long) weekStart.get(IsoFields.WEEK_BASED_YEAR) * 100 + weekStart.get(IsoFields.WEEK_OF_WEEK_BASED_YEAR));
+            dto.setPlantId(plantId);
+            dto.setWeekStart(weekStart);
+            dto.setGoalHappyHours(goal);
+            dto.setAchievedHappyHours(achieved);
+            dto.setStatus(achieved >= goal ? ChallengeStatus.COMPLETED
+                                           : current ? ChallengeStatus.IN_PROGRESS : ChallengeStatus.FAILED);
+            dto.setRank(current && wellbeing.contains(plantId) ? wellbeing.rank(plantId) + 1 : null);
+            dto.setParticipants(wellbeing.size());
+            return Optional.of(dto);
+        }
+    }
+
+    public List<LeaderboardEntryDto> wellbeingTop(int limit) {
+        synchronized (lock) {
+            return entries(wellbeing, 0, limit, MILLIS_PER_HOUR);
+        }
+    }
+
+    /**
+     * @return the plant and up to {@code radius} plants on either side of it, or empty if it
+     *         has not reported this week
+     */
+    public Optional<List<LeaderboardEntryDto>> wellbeingAround(long plantId, int radius) {
+        synchronized (lock) {
+            return around(wellbeing, plantId, radius, MILLIS_PER_HOUR);
+        }
+    }
+
+    public List<LeaderboardEntryDto> battleWinsTop(int limit) {
+        synchronized (lock) {
+            return entries(battleWins, 0, limit, 1);
+        }
+    }
+
+    public Optional<List<LeaderboardEntryDto>> battleWinsAround(long plantId, int radius) {
+        synchronized (lock) {
+            return around(battleWins, plantId, radius, 1);
+        }
+    }
+
+    /**
+     * Fills in the user's battle results.
+     */
+    public void fillPlayerStats(PlayerStatsDto stats) {
+        synchronized (lock) {
+            BattleRecord record = records.get(stats.getUserId());
+            if (record != null) {
+                stats.setMoodBattlesWon(record.won);
+                stats.setMoodBattlesLost(record.lost);
+                stats.setDropsEarned(record.drops);
+            }
+        }
+    }
+
+    public int activeBattleCount() {
+        synchronized (lock) {
+            return activeBattles.size();
+        }
+    }
+
+    public int wellbeingParticipantCount() {
+        synchronized (lock) {
+            return wellbeing.size();
+        }
+    }
+
+    /**
+     * Finishes due battles and starts a new week's ranking when the week turns.
+     */
+    @Scheduled(fixedRateString = "${games.tick:PT1S}")
+    public void tick() {
+        long now = System.currentTimeMillis();
+        List<Battle> finished = new ArrayList<>();
+        synchronized (lock) {
+            long week = weekStartMillis(now);
+            if (week != currentWeekMillis) {
+                currentWeekMillis = week;
+                wellbeing.clear();
+                plants.forEach((plantId, plant) -> {
+                    if (plant.weekMillis == week) {
+                        wellbeing.put(plantId, plant.happyMillis);
+                    }
+                });
+                log.info("Началась неделя челленджа {}", Instant.ofEpochMilli(week));
+            }
+            finishing.advance(now, battle -> {
+                finish(battle);
+                unwritten.put(battle.id, battle);
+                finished.add(battle);
+            });
+        }
+        if (ownership.isOwner()) {
+            writeResults(finished);
+        }
+    }
+
+    /**
+     * With an MQTT shared group: registers the battles other nodes started, then folds in the
+     * readings they persisted since the last catch-up. Readings this node folded already come
+     * by again and change nothing.
+     */
+    @Scheduled(fixedDelayString = "${stats.catch-up-interval:PT10S}",
+               initialDelayString = "${stats.catch-up-interval:PT10S}")
+    public void catchUp() {
+        if (!ownership.isShared()) {
+            return;
+        }
+        Instant started = Instant.now();
+        Instant from = caughtUpTo.minus(statsProperties.getReplayOverlap());
+        try {
+            List<BattleRow> active = gamesRepository.findActiveBattles();
+            synchronized (lock) {
+                long now = System.currentTimeMillis();
+                Set<Long> activeIds = new HashSet<>();
+                for (BattleRow row : active) {
+                    activeIds.add(row.battleId());
+                    // a due one unknown here may just have been finished and written by this node
+                    if (!activeBattles.containsKey(row.battleId()) && !unwritten.containsKey(row.battleId())
+                            && row.finishesAt().toEpochMilli() > now) {
+                        register(new Battle(row));
+                    }
+                }
+                // written by the owner meanwhile
+                unwritten.keySet().retainAll(activeIds);
+            }
+            userStatsRepository.replay(from, from.minus(maxClockSkew), (plantId, measuredAtMillis, soilMoisture, mood) -> {
+                synchronized (lock) {
+                    fold(plantId, measuredAtMillis, mood);
+                }
+            });
+            caughtUpTo = started;
+        }
+        catch (Exception e) {
+            log.error("Не удалось подтянуть показания других узлов для игр", e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${games.checkpoint-interval:PT1M}",
+               initialDelayString = "${games.checkpoint-interval:PT1M}")
+    public void checkpoint() {
+        if (!ownership.isOwner()) {
+            return;
+        }
+        List<Battle> finished;
+        synchronized (lock) {
+            finished = new ArrayList<>(unwritten.values());
+        }
+        writeResults(finished);
+        List<WellbeingRow> rows = new ArrayList<>();
+        List<BattleScore> scores = new ArrayList<>();
+        Instant foldedUntil;
+        synchronized (lock) {
+            foldedUntil = (ownership.isShared() ? caughtUpTo : Instant.now()).minus(statsProperties.getReplayOverlap());
+            plants.forEach((plantId, plant) -> {
+                if (plant.dirty) {
+                    plant.dirty = false;
+                    rows.add(new WellbeingRow(plantId, LocalDate.ofEpochDay(Math.floorDiv(plant.weekMillis, MILLIS_PER_DAY)),
+                                              plant.happyMillis, plant.mood, plant.lastMeasuredAtMillis));
+                }
+            });
+            activeBattles.values().forEach(battle -> {
+                if (battle.dirty) {
+                    battle.dirty = false;
+                    scores.add(new BattleScore(battle.id, battle.challengerMillis, battle.opponentMillis));
+                }
+            });
+        }
+        try {
+            gamesRepository.saveCheckpoint(rows, scores, foldedUntil);
+            log.debug("Чекпоинт игр: {} растений, {} батлов", rows.size(), scores.size());
+        }
+        catch (Exception e) {
+            synchronized (lock) {
+                rows.forEach(row -> plants.get(row.plantId()).dirty = true);
+                scores.forEach(score -> {
+                    Battle battle = activeBattles.get(score.battleId());
+                    if (battle != null) {
+                        battle.dirty = true;
+                    }
+                });
+            }
+            log.error("Не удалось сохранить чекпоинт игр", e);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        checkpoint();
+    }
+
+    /**
+     * A result that fails to write stays in {@link #unwritten} for the next checkpoint.
+     */
+    private void writeResults(List<Battle> finished) {
+        for (Battle battle : finished) {
+            try {
+                if (!gamesRepository.finishBattle(battle.id, battle.challengerMillis, battle.opponentMillis, battle.winnerPlantId)) {
+                    log.debug("Батл {} уже завершён другим узлом", battle.id);
+                }
+                synchronized (lock) {
+                    unwritten.remove(battle.id);
+                }
+            }
+            catch (Exception e) {
+                log.error("Не удалось записать итог батла {}", battle.id, e);
+            }
+        }
+    }
+
+    /**
+     * Called with the lock held.
+     */
+    private void fold(long plantId, long measuredAtMillis, Mood mood) {
+        PlantScore plant = plants.computeIfAbsent(plantId, id -> new PlantScore());
+        if (plant.lastMeasuredAtMillis != WellbeingRow.NEVER && measuredAtMillis <= plant.lastMeasuredAtMillis) {
+            return;
+        }
+        long week = weekStartMillis(measuredAtMillis);
+        if (plant.weekMillis == WellbeingRow.NEVER || week > plant.weekMillis) {
+            plant.weekMillis = week;
+            plant.happyMillis = 0;
+        }
+        if (plant.mood == Mood.HAPPY && plant.lastMeasuredAtMillis != WellbeingRow.NEVER) {
+            long from = plant.lastMeasuredAtMillis;
+            long to = Math.min(measuredAtMillis, from + maxGapMillis);
+            plant.happyMillis += Math.max(0, to - Math.max(from, week));
+            if (plant.battles != null) {
+                plant.battles.forEach(battle -> battle.credit(plantId, from, to));
+            }
+        }
+        plant.lastMeasuredAtMillis = measuredAtMillis;
+        if (mood != null) {
+            plant.mood = mood;
+        }
+        plant.dirty = true;
+        if (plant.weekMillis == currentWeekMillis) {
+            wellbeing.put(plantId, plant.happyMillis);
+        } else {
+            wellbeing.remove(plantId);
+        }
+    }
+
+    /**
+     * Called with the lock held. A plant still happy at the end is credited up to it, as its
+     * next reading would have.
+     */
+    private void finish(Battle battle) {
+        for (long plantId : new long[] {battle.challengerPlantId, battle.opponentPlantId}) {
+            PlantScore plant = plants.get(plantId);
+            if (plant != null) {
+                if (plant.mood == Mood.HAPPY && plant.lastMeasuredAtMillis != WellbeingRow.NEVER) {
+                    battle.credit(plantId, plant.lastMeasuredAtMillis, plant.lastMeasuredAtMillis + maxGapMillis);
+                }
+                if (plant.battles != null) {
+                    plant.battles.remove(battle);
+                    if (plant.battles.isEmpty()) {
+                        plant.battles = null;
+                    }
+                }
+            }
+        }
+        activeBattles.remove(battle.id);
+        battle.status = BattleStatus.FINISHED;
+        if (battle.challengerMillis != battle.opponentMillis) {
+            boolean challengerWon = battle.challengerMillis > battle.opponentMillis;
+            battle.winnerPlantId = challengerWon ? battle.challengerPlantId : battle.opponentPlantId;
+            long winnerOwner = challengerWon ? battle.challengerOwnerId : battle.opponentOwnerId;
+            long loserOwner = challengerWon ? battle.opponentOwnerId : battle.challengerOwnerId;
+            battleWins.put(battle.winnerPlantId, battleWins.score(battle.winnerPlantId) + 1);
+            BattleRecord winner = record(winnerOwner);
+            winner.won++;
+            winner.drops += battle.dropsReward;
+            record(loserOwner).lost++;
+        }
+        log.info("Батл {} завершён, победитель {}", battle.id, battle.winnerPlantId);
+    }
+
+    private void register(Battle battle) {
+        activeBattles.put(battle.id, battle);
+        for (long plantId : new long[] {battle.challengerPlantId, battle.opponentPlantId}) {
+            PlantScore plant = plants.computeIfAbsent(plantId, id -> new PlantScore());
+            if (plant.battles == null) {
+                plant.battles = new ArrayList<>(1);
+            }
+            plant.battles.add(battle);
+        }
+        battle.timer = finishing.newTimer(battle);
+        finishing.schedule(battle.timer, battle.finishesAtMillis);
+    }
+
+    private void restore(WellbeingRow row) {
+        PlantScore plant = plants.computeIfAbsent(row.plantId(), id -> new PlantScore());
+        plant.weekMillis = row.weekStart().toEpochDay() * MILLIS_PER_DAY;
+        plant.happyMillis = row.happyMillis();
+        plant.mood = row.mood();
+        plant.lastMeasuredAtMillis = row.lastMeasuredAtMillis();
+        if (plant.weekMillis == currentWeekMillis) {
+            wellbeing.put(row.plantId(), plant.happyMillis);
+        }
+    }
+
+    private BattleRecord record(long ownerId) {
+        return records.computeIfAbsent(ownerId, id -> new BattleRecord());
+    }
+
+    private Optional<List<LeaderboardEntryDto>> around(RankedSet board, long plantId, int radius, double unit) {
+        int rank = board.rank(plantId);
+        if (rank < 0) {
+            return Optional.empty();
+        }
+        int capped = Math.min(Math.max(radius, 0), properties.getLeaderboardMaxEntries());
+        int from = Math.max(0, rank - capped);
+        return Optional.of(entries(board, from, rank - from + capped + 1, unit));
+    }
+
+    private List<LeaderboardEntryDto> entries(RankedSet board, int from, int count, double unit) {
+        int capped = Math.min(Math.max(count, 1), 2 * properties.getLeaderboardMaxEntries() + 1);
+        List<LeaderboardEntryDto> entries = new ArrayList<>(Math.min(capped, board.size()));
+        board.range(from, capped, (rank, plantId, score) -> {
+            LeaderboardEntryDto entry = new LeaderboardEntryDto();
+            entry.setRank(rank + 1);
+            entry.setPlantId(plantId);
+            entry.setScore(score / unit);
+            entries.add(entry);
+        });
+        return entries;
+    }
+
+    /**
+     * Monday 00:00 UTC of the week containing {@code epochMillis}; epoch day 0 was a Thursday.
+     */
+    private static long weekStartMillis(long epochMillis) {
+        long day = Math.floorDiv(epochMillis, MILLIS_PER_DAY);
+        return (day - Math.floorMod(day + 3, 7)) * MILLIS_PER_DAY;
+    }
+
+    private static final class PlantScore {
+
+        private long weekMillis = WellbeingRow.NEVER;
+        private long happyMillis;
+        private Mood mood;
+        private long lastMeasuredAtMillis = WellbeingRow.NEVER;
+        /** Active battles of the plant; {@code null} when there are none. */
+        private List<Battle> battles;
+        private boolean dirty;
+    }
+
+    private static final class Battle {
+
+        private final long id;
+        private final long challengerPlantId;
+        private final long challengerOwnerId;
+        private final long opponentPlantId;
+        private final long opponentOwnerId;
+        private final long startedAtMillis;
+        private final long finishesAtMillis;
+        private final int dropsReward;
+        private long challengerMillis;
+        private long opponentMillis;
+        private BattleStatus status;
+        private Long winnerPlantId;
+        private TimingWheel.Timer<Battle> timer;
+        private boolean dirty;
+
+        private Battle(BattleRow row) {
+            this.id = row.battleId();
+            this.challengerPlantId = row.challengerPlantId();
+            this.challengerOwnerId = row.challengerOwnerId();
+            this.opponentPlantId = row.opponentPlantId();
+            this.opponentOwnerId = row.opponentOwnerId();
+            this.startedAtMillis = row.startedAt().toEpochMilli();
+            this.finishesAtMillis = row.finishesAt().toEpochMilli();
+            this.dropsReward = row.dropsReward();
+            this.challengerMillis = row.challengerHappyMillis();
+            this.opponentMillis = row.opponentHappyMillis();
+            this.status = row.status();
+            this.winnerPlantId = row.winnerPlantId();
+        }
+
+        void credit(long plantId, long from, long to) {
+            long credited = Math.min(to, finishesAtMillis) - Math.max(from, startedAtMillis);
+            if (credited <= 0) {
+                return;
+            }
+            if (plantId == challengerPlantId) {
+                challengerMillis += credited;
+            } else {
+                opponentMillis += credited;
+            }
+            dirty = true;
+        }
+
+        MoodBattleDto toDto() {
+            MoodBattleDto dto = new MoodBattleDto();
+            dto.setBattleId(id);
+            dto.setChallengerPlantId(challengerPlantId);
+            dto.setOpponentPlantId(opponentPlantId);
+            dto.setChallengerScoreHours(challengerMillis / MILLIS_PER_HOUR);
+            dto.setOpponentScoreHours(opponentMillis / MILLIS_PER_HOUR);
+            dto.setStatus(status);
+            dto.setStartedAt(Instant.ofEpochMilli(startedAtMillis));
+            dto.setFinishesAt(Instant.ofEpochMilli(finishesAtMillis));
+            dto.setWinnerPlantId(winnerPlantId);
+            dto.setDropsReward(dropsReward);
+            return dto;
+        }
+    }
+
+    private static final class BattleRecord {
+
+        private int won;
+        private int lost;
+        private int drops;
+    }
+}
@@ -0,0 +1,283 @@
+package com.fitocube.backend.services;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fitocube.backend.config.HistoryProperties;
+import com.fitocube.backend.model.PlantView;
+import com.fitocube.backend.model.enums.ExportFormat;
+import com.fitocube.backend.repositories.MeasurementHistoryRepository;
+import com.fitocube.backend.repositories.MeasurementHistoryRepository.MeasurementRow;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+/**
+ * Streams stored measurement history straight into a response, one keyset page at a time, so
+ * memory use does not depend on how much history there is. Every row carries a cursor token;
+ * passing the last one received back resumes an interrupted export right after that row.
+ * <p>
+ * Rows are ordered by measurement time, then arrival time: a reading stored twice, by a
+ * redelivery to another node, shares the first but not the second, so neither copy is skipped.
+ */
+@Slf4j
+@Service
+public class HistoryExportService {
+
+    private final MeasurementHistoryRepository measurementHistoryRepository;
+    private final PlantService plantService;
+    private final HistoryProperties historyProperties;
+    private final JsonFactory jsonFactory;
+
+    public HistoryExportService(MeasurementHistoryRepository measurementHistoryRepository,
+                                PlantService plantService,
+                                HistoryProperties historyProperties,
+                                ObjectMapper objectMapper) {
+        this.measurementHistoryRepository = measurementHistoryRepository;
+        this.plantService = plantService;
+        this.historyProperties = historyProperties;
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    /**
+     * Writes the plant's readings in {@code [from, to)}, or those after {@code cursor}, and closes {@code out}.
+     */
+    public void exportPlant(long plantId, Instant from, Instant to, Cursor cursor,
+                            ExportFormat format, OutputStream out) {
+        try (RowWriter writer = open(format, out)) {
+            exportRange(plantId, from, to, cursor, writer);
+        }
+        catch (IOException | UncheckedIOException e) {
+            clientGone(plantId, e);
+        }
+    }
+
+    /**
+     * Writes the readings of all the owner's plants, plant by plant in id order, and closes {@code out}.
+     * A cursor resumes inside its plant; a cursor of a plant the owner does not have starts at the next one.
+     */
+    public void exportOwner(String userName, Instant from, Instant to, Cursor cursor,
+                            ExportFormat format, OutputStream out) {
+        try (RowWriter writer = open(format, out)) {
+            Long after = cursor == null ? null : cursor.plantId() - 1;
+            List<PlantView> page;
+            do {
+                page = plantService.getPlantsByOwner(userName, after, PlantService.MAX_PAGE_SIZE);
+                for (PlantView plant : page) {
+                    boolean resumed = cursor != null && plant.plantId() == cursor.plantId();
+                    exportRange(plant.plantId(), from, to, resumed ? cursor : null, writer);
+                    after = plant.plantId();
+                }
+            } while (page.size() == PlantService.MAX_PAGE_SIZE);
+        }
+        catch (IOException | UncheckedIOException e) {
+            clientGone(userName, e);
+        }
+    }
+
+    /**
+     * Keyset loop over one plant, each page starting right after the last row of the previous
+     * one, or after {@code after}.
+     */
+    private void exportRange(long plantId, Instant from, Instant to, Cursor after, RowWriter writer) throws IOException {
+        int pageSize = Math.max(historyProperties.getExportPageSize(), 1);
+        Cursor position = after;
+        while (true) {
+            int rows = measurementHistoryRepository.forEachInRange(plantId, from, to,
+                                                                   position == null ? null : position.measuredAt(),
+                                                                   position == null ? null : position.receivedAt(),
+                                                                   pageSize, writer::accept);
+            writer.flush();
+            if (rows < pageSize) {
+                return;
+            }
+            position = Cursor.of(writer.last);
+        }
+    }
+
+    /**
+     * Only the response is written to, so a failed write means the client went away; it resumes with its last cursor.
+     */
+    private static void clientGone(Object subject, Exception e) {
+        log.debug("Экспорт истории {} прерван: клиент отключился ({})", subject, e.getMessage());
+    }
+
+    private RowWriter open(ExportFormat format, OutputStream out) throws IOException {
+        return switch (format) {
+            case NDJSON -> new NdjsonWriter(jsonFactory.createGenerator(out).setRootValueSeparator(null));
+            case CSV -> new CsvWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+        };
+    }
+
+    /**
+     * Position right after one exported row: its plant, measurement and arrival time in
+     * microseconds, the precision {@code plant_measurements} stores. Encoded as unpadded base64url.
+     */
+    public record Cursor(long plantId, long measuredAtMicros, long receivedAtMicros) {
+
+        private static final int LENGTH = 3 * Long.BYTES;
+
+        static Cursor of(MeasurementRow row) {
+            return new Cursor(row.plantId(), toMicros(row.measuredAt()), toMicros(row.receivedAt()));
+        }
+
+        public static Cursor decode(String token) {
+            byte[] bytes = Base64.getUrlDecoder().decode(token);
+            if (bytes.length != LENGTH) {
+                throw new IllegalArgumentException("Malformed cursor");
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            return new Cursor(buffer.getLong(), buffer.getLong(), buffer.getLong());
+        }
+
+        public String encode() {
+            byte[] bytes = ByteBuffer.allocate(LENGTH).putLong(plantId).putLong(measuredAtMicros).putLong(receivedAtMicros).array();
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        }
+
+        Instant measuredAt() {
+            return ofMicros(measuredAtMicros);
+        }
+
+        Instant receivedAt() {
+            return ofMicros(receivedAtMicros);
+        }
+
+        private static long toMicros(Instant at) {
+            return Math.addExact(Math.multiplyExact(at.getEpochSecond(), 1_000_000L), at.getNano() / 1_000);
+        }
+
+        private static Instant ofMicros(long micros) {
+            return Instant.ofEpochSecond(Math.floorDiv(micros, 1_000_000L), Math.floorMod(micros, 1_000_000L) * 1_000L);
+        }
+    }
+
+    /**
+     * Row sink of one export. Write failures surface as {@link UncheckedIOException}, since the
+     * rows are pushed from inside the JDBC row callback.
+     */
+    private abstract static class RowWriter implements Closeable {
+
+        private MeasurementRow last;
+
+        void accept(MeasurementRow row) {
+            try {
+                write(row, Cursor.of(row).encode());
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            last = row;
+        }
+
+        abstract void write(MeasurementRow row, String cursor) throws IOException;
+
+        abstract void flush() throws IOException;
+    }
+
+    private static final class NdjsonWriter extends RowWriter {
+
+        private final JsonGenerator generator;
+
+        NdjsonWriter(JsonGenerator generator) {
+            this.generator = generator;
+        }
+
+        @Override
+        void write(MeasurementRow row, String cursor) throws IOException {
+            generator.writeStartObject();
+            generator.writeNumberField("plantId", row.plantId());
+            generator.writeStringField("measuredAt", row.measuredAt().toString());
+            generator.writeStringField("receivedAt", row.receivedAt().toString());
+            if (row.airTemperatureC() != null) {
+                generator.writeNumberField("airTemperatureC", row.airTemperatureC());
+            }
+            if (row.airHumidityPercent() != null) {
+                generator.writeNumberField("airHumidityPercent", row.airHumidityPercent());
+            }
+            if (row.soilMoisturePercent() != null) {
+                generator.writeNumberField("soilMoisturePercent", row.soilMoisturePercent());
+            }
+            if (row.soilMoistureRaw() != null) {
+                generator.writeNumberField("soilMoistureRaw", row.soilMoistureRaw());
+            }
+            if (row.mood() != null) {
+                generator.writeStringField("mood", row.mood());
+            }
+            generator.writeStringField("cursor", cursor);
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        }
+
+        @Override
+        void flush() throws IOException {
+            generator.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            generator.close();
+        }
+    }
+
+    private static final class CsvWriter extends RowWriter {
+
+        private static final String HEADER = "plant_id,measured_at,received_at,air_temperature_c,air_humidity_percent,"
+                + "soil_moisture_percent,soil_moisture_raw,mood,cursor\n";
+
+        private final Writer out;
+
+        CsvWriter(Writer out) throws IOException {
+            this.out = out;
+            out.write(HEADER);
+        }
+
+        /**
+         * No value can contain a comma, quote or line break, so nothing is quoted.
+         */
+        @Override
+        void write(MeasurementRow row, String cursor) throws IOException {
+            out.write(Long.toString(row.plantId()));
+            out.write(',');
+            out.write(row.measuredAt().toString());
+            out.write(',');
+            out.write(row.receivedAt().toString());
+            writeValue(row.airTemperatureC());
+            writeValue(row.airHumidityPercent());
+            writeValue(row.soilMoisturePercent());
+            writeValue(row.soilMoistureRaw());
+            writeValue(row.mood());
+            out.write(',');
+            out.write(cursor);
+            out.write('\n');
+        }
+
+        private void writeValue(Object value) throws IOException {
+            out.write(',');
+            if (value != null) {
+                out.write(value.toString());
+            }
+        }
+
+        @Override
+        void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.fitocube.backend.services;
+
+import com.fitocube.backend.config.LivenessProperties;
+import com.fitocube.backend.model.DeviceLivenessDto;
+import com.fitocube.backend.repositories.PlantStateJdbcRepository;
+import jakarta.annotation.PostConstruct;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Tracks which devices are online, from the MQTT messages themselves and without polling
+ * {@code plant_states}.
+ * <p>
+ * A message only records its arrival time; the device's timer in a {@link TimingWheel} is
+ * set once, when it comes online. When the timer fires, a device heard from in the meantime
+ * is simply rescheduled, and a silent one goes offline. Only these transitions are written
+ * to {@code plant_states.online / last_seen_at} and pushed to the owner's stream as
+ * {@code liveness} events, batched once per {@code liveness.tick}. A batch that fails to
+ * write is kept, the latest state per device, and written with the next one.
+ * <p>
+ * The broker connection is tracked too: while it is down no device is taken offline, and
+ * after it comes back every device gets a full {@code liveness.offline-after} to speak up.
+ */
+@Slf4j
+@Service
+public class LivenessTracker {
+
+    private static final String LIVENESS_EVENT = "liveness";
+
+    private final PlantService plantService;
+    private final PlantStreamService plantStreamService;
+    private final PlantStateJdbcRepository plantStateJdbcRepository;
+    private final long offlineAfterMillis;
+
+    /** Guards itself and the transitions of every {@link Device}. */
+    private final TimingWheel<Device> wheel;
+    private final Map<String, Device> devices = new ConcurrentHashMap<>();
+    private final Queue<DeviceLivenessDto> transitions = new ConcurrentLinkedQueue<>();
+    /** Latest transition of each device whose write failed, by device; only touched by {@link #tick()}. */
+    private final Map<String, DeviceLivenessDto> unwritten = new LinkedHashMap<>();
+    private final AtomicInteger online = new AtomicInteger();
+
+    private final LongAdder wentOnline = new LongAdder();
+    private final LongAdder wentOffline = new LongAdder();
+
+    private volatile boolean brokerConnected;
+    private volatile long brokerConnectedAtMillis;
+    private final LongAdder brokerDisconnects = new LongAdder();
+
+    public LivenessTracker(PlantService plantService,
+                           PlantStreamService plantStreamService,
+                           PlantStateJdbcRepository plantStateJdbcRepository,
+                           LivenessProperties properties) {
+        this.plantService = plantService;
+        this.plantStreamService = plantStreamService;
+        this.plantStateJdbcRepository = plantStateJdbcRepository;
+        this.offlineAfterMillis = properties.getOfflineAfter().toMillis();
+        this.wheel = new TimingWheel<>(properties.getTick().toMillis(), System.currentTimeMillis());
+    }
+
+    /**
+     * Devices left online by the previous run get one {@code offline-after} to prove it.
+     */
+    @PostConstruct
+    void loadOnlineDevices() {
+        long now = System.currentTimeMillis();
+        List<String> deviceUids = plantStateJdbcRepository.findOnlineDeviceUids();
+        synchronized (wheel) {
+            for (String deviceUid : deviceUids) {
+                Device device = devices.computeIfAbsent(deviceUid, Device::new);
+                device.lastSeenMillis = now;
+                device.online = true;
+                online.incrementAndGet();
+                wheel.schedule(device.timer, now + offlineAfterMillis);
+            }
+        }
+        log.info("{} устройств были в сети до перезапуска", deviceUids.size());
+    }
+
+    /**
+     * Records a message from a known device. Called for every message, so the common case is
+     * a map lookup and a volatile write.
+     */
+    public void touch(String deviceUid, long receivedAtMillis) {
+        Device device = devices.computeIfAbsent(deviceUid, Device::new);
+        device.lastSeenMillis = receivedAtMillis;
+        if (device.online) {
+            return;
+        }
+        synchronized (wheel) {
+            if (device.online) {
+                return;
+            }
+            device.online = true;
+            online.incrementAndGet();
+            wentOnline.increment();
+            wheel.schedule(device.timer, receivedAtMillis + offlineAfterMillis);
+            transitions.add(transition(device, true));
+        }
+    }
+
+    @Scheduled(fixedRateString = "${liveness.tick:PT1S}")
+    public void tick() {
+        long now = System.currentTimeMillis();
+        synchronized (wheel) {
+            wheel.advance(now, device -> expire(device, now));
+        }
+        flush();
+    }
+
+    public void brokerConnected() {
+        brokerConnectedAtMillis = System.currentTimeMillis();
+        brokerConnected = true;
+    }
+
+    public void brokerDisconnected() {
+        if (brokerConnected) {
+            brokerConnected = false;
+            brokerDisconnects.increment();
+        }
+    }
+
+    public boolean isBrokerConnected() {
+        return brokerConnected;
+    }
+
+    public long brokerDisconnectCount() {
+        return brokerDisconnects.sum();
+    }
+
+    public List<DeviceLivenessDto> getOfflinePlants(long ownerId) {
+        return plantStateJdbcRepository.findOfflineByOwner(ownerId);
+    }
+
+    public int onlineCount() {
+        return online.get();
+    }
+
+    /**
+     * @return registered devices not currently online, including those never heard from
+     */
+    public int offlineCount() {
+        return Math.max(0, plantService.deviceCount() - online.get());
+    }
+
+    public long wentOnlineCount() {
+        return wentOnline.sum();
+    }
+
+    public long wentOfflineCount() {
+        return wentOffline.sum();
+    }
+
+    private void expire(Device device, long now) {
+        long lastSeen = device.lastSeenMillis;
+        if (!brokerConnected) {
+            wheel.schedule(device.timer, now + offlineAfterMillis);
+            return;
+        }
+        long deadline = Math.max(lastSeen, brokerConnectedAtMillis) + offlineAfterMillis;
+        if (deadline > now) {
+            wheel.schedule(device.timer, deadline);
+            return;
+        }
+        device.online = false;
+        if (device.lastSeenMillis != lastSeen) {
+            // touch() saw the device still online; it is the one that must stay right
+            device.online = true;
+            wheel.schedule(device.timer, device.lastSeenMillis + offlineAfterMillis);
+            return;
+        }
+        online.decrementAndGet();
+        wentOffline.increment();
+        transitions.add(transition(device, false));
+    }
+
+    private void flush() {
+        if (transitions.isEmpty() && unwritten.isEmpty()) {
+            return;
+        }
+        List<DeviceLivenessDto> events = new ArrayList<>();
+        DeviceLivenessDto transition;
+        while ((transition = transitions.poll()) != null) {
+            long plantId = plantService.plantIdOf(transition.getDeviceUid());
+            if (plantId != DeviceRegistry.ABSENT) {
+                transition.setPlantId(plantId);
+                events.add(transition);
+            }
+        }
+        // a device's later transition supersedes the one not written yet
+        Map<String, DeviceLivenessDto> batch = new LinkedHashMap<>(unwritten);
+        unwritten.clear();
+        events.forEach(event -> batch.put(event.getDeviceUid(), event));
+        if (!batch.isEmpty()) {
+            try {
+                plantStateJdbcRepository.updateLiveness(new ArrayList<>(batch.values()));
+            }
+            catch (Exception e) {
+                log.error("Не удалось записать {} переходов онлайн/офлайн, повторим на следующем тике", batch.size(), e);
+                unwritten.putAll(batch);
+            }
+        }
+        for (DeviceLivenessDto event : events) {
+            long ownerId = plantService.ownerIdOf(event.getDeviceUid());
+            if (ownerId != DeviceRegistry.ABSENT) {
+                plantStreamService.notifyOwner(ownerId, LIVENESS_EVENT, event);
+            }
+        }
+    }
+
+    private static DeviceLivenessDto transition(Device device, boolean online) {
+        DeviceLivenessDto transition = new DeviceLivenessDto();
+        transition.setDeviceUid(device.deviceUid);
+        transition.setOnline(online);
+        transition.setLastSeenAt(Instant.ofEpochMilli(device.lastSeenMillis));
+        return transition;
+    }
+
+    private final class Device {
+
+        private final String deviceUid;
+        private final TimingWheel.Timer<Device> timer;
+        private volatile long lastSeenMillis;
+        private volatile boolean online;
+
+        private Device(String deviceUid) {
+            this.deviceUid = deviceUid;
+            this.timer = wheel.newTimer(this);
+        }
+    }
+}
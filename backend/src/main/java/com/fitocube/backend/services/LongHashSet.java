@@ -0,0 +1,155 @@
+package com.fitocube.backend.services;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Open-addressing set of {@code long}s in a single array: linear probing, backward-shift
+ * deletion, no per-element object. {@link Long#MIN_VALUE} marks a free slot and cannot be
+ * stored; ids never take it.
+ * <p>
+ * Not thread-safe.
+ */
+final class LongHashSet {
+
+    private static final long FREE = Long.MIN_VALUE;
+    private static final int MIN_CAPACITY = 4;
+
+    private long[] slots;
+    private int size;
+
+    LongHashSet() {
+        this(MIN_CAPACITY);
+    }
+
+    LongHashSet(int expectedSize) {
+        slots = newSlots(capacityFor(expectedSize));
+    }
+
+    boolean add(long value) {
+        int slot = slotOf(value);
+        if (slots[slot] == value) {
+            return false;
+        }
+        if ((size + 1) * 4 > slots.length * 3) {
+            rehash(slots.length * 2);
+            slot = slotOf(value);
+        }
+        slots[slot] = value;
+        size++;
+        return true;
+    }
+
+    boolean remove(long value) {
+        int mask = slots.length - 1;
+        int slot = slotOf(value);
+        if (slots[slot] != value) {
+            return false;
+        }
+        // shift the rest of the probe run back so lookups never stop early
+        int next = (slot + 1) & mask;
+        while (slots[next] != FREE) {
+            int home = mix(slots[next]) & mask;
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                slots[slot] = slots[next];
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+        slots[slot] = FREE;
+        size--;
+        if (size * 8 < slots.length && slots.length > MIN_CAPACITY) {
+            rehash(capacityFor(size));
+        }
+        return true;
+    }
+
+    boolean contains(long value) {
+        return slots[slotOf(value)] == value;
+    }
+
+    void addAll(LongHashSet other) {
+        for (long value : other.slots) {
+            if (value != FREE) {
+                add(value);
+            }
+        }
+    }
+
+    void removeAll(LongHashSet other) {
+        for (long value : other.slots) {
+            if (value != FREE) {
+                remove(value);
+            }
+        }
+    }
+
+    void forEach(LongConsumer action) {
+        for (long value : slots) {
+            if (value != FREE) {
+                action.accept(value);
+            }
+        }
+    }
+
+    long[] toSortedArray() {
+        long[] values = new long[size];
+        int i = 0;
+        for (long value : slots) {
+            if (value != FREE) {
+                values[i++] = value;
+            }
+        }
+        Arrays.sort(values);
+        return values;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    private int slotOf(long value) {
+        int mask = slots.length - 1;
+        int slot = mix(value) & mask;
+        while (slots[slot] != FREE && slots[slot] != value) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        long[] old = slots;
+        slots = newSlots(capacity);
+        for (long value : old) {
+            if (value != FREE) {
+                slots[slotOf(value)] = value;
+            }
+        }
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 < Math.max(expectedSize, 1) * 4) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static long[] newSlots(int capacity) {
+        long[] slots = new long[capacity];
+        Arrays.fill(slots, FREE);
+        return slots;
+    }
+
+    /**
+     * Sequential ids would otherwise fill neighbouring slots and make probe runs long.
+     */
+    private static int mix(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,170 @@
+package com.fitocube.backend.services;
+
+import com.fitocube.backend.config.HistoryProperties;
+import com.fitocube.backend.model.enums.SeriesResolution;
+import com.fitocube.backend.repositories.MeasurementHistoryRepository;
+import com.fitocube.backend.repositories.MeasurementRollupRepository;
+import jakarta.annotation.PostConstruct;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAdjusters;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Keeps {@code plant_measurements} partitions created ahead of time and drops whole
+ * partitions once they fall out of retention, instead of deleting rows. Rollups are small
+ * enough to be deleted in chunks, each resolution after its own retention.
+ */
+@Slf4j
+@Service
+public class MeasurementPartitionManager {
+
+    private static final String PREFIX = MeasurementHistoryRepository.TABLE + "_p";
+    private static final DateTimeFormatter DAILY = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final DateTimeFormatter MONTHLY = DateTimeFormatter.ofPattern("yyyyMM");
+    private static final int ROLLUP_DELETE_CHUNK = 10_000;
+
+    private final MeasurementHistoryRepository historyRepository;
+    private final MeasurementRollupRepository rollupRepository;
+    private final HistoryProperties properties;
+
+    public MeasurementPartitionManager(MeasurementHistoryRepository historyRepository,
+                                       MeasurementRollupRepository rollupRepository,
+                                       HistoryProperties properties) {
+        this.historyRepository = historyRepository;
+        this.rollupRepository = rollupRepository;
+        this.properties = properties;
+    }
+
+    @PostConstruct
+    void init() {
+        maintain();
+    }
+
+    @Scheduled(fixedDelayString = "${history.maintenance-interval:PT1H}",
+               initialDelayString = "${history.maintenance-interval:PT1H}")
+    public void maintain() {
+        // each step on its own: a partition that cannot be created must not keep old ones around
+        try {
+            createUpcomingPartitions();
+        }
+        catch (Exception e) {
+            log.error("Не удалось создать партиции истории измерений", e);
+        }
+        try {
+            dropExpiredPartitions();
+        }
+        catch (Exception e) {
+            log.error("Не удалось удалить устаревшие партиции истории измерений", e);
+        }
+        try {
+            deleteExpiredStrays();
+        }
+        catch (Exception e) {
+            log.error("Не удалось очистить партицию истории по умолчанию", e);
+        }
+        try {
+            deleteExpiredRollups();
+        }
+        catch (Exception e) {
+            log.error("Не удалось удалить устаревшие агрегаты измерений", e);
+        }
+    }
+
+    private void createUpcomingPartitions() {
+        LocalDate start = periodStart(LocalDate.now(ZoneOffset.UTC));
+        for (int i = 0; i <= properties.getPartitionsAhead(); i++) {
+            LocalDate end = nextPeriod(start);
+            String name = partitionName(start);
+            int moved = historyRepository.createPartition(name, toInstant(start), toInstant(end));
+            if (moved > 0) {
+                log.info("В партицию истории {} перенесено {} строк из партиции по умолчанию", name, moved);
+            }
+            start = end;
+        }
+    }
+
+    private void dropExpiredPartitions() {
+        Instant cutoff = retentionCutoff();
+        for (String name : historyRepository.findPartitionNames()) {
+            LocalDate start = parsePartitionStart(name);
+            if (start != null && !toInstant(nextPeriod(start)).isAfter(cutoff)) {
+                historyRepository.dropPartition(name);
+                log.info("Удалена партиция истории {}", name);
+            }
+        }
+    }
+
+    private void deleteExpiredStrays() {
+        int strays = historyRepository.deleteDefaultPartitionRowsReceivedBefore(retentionCutoff());
+        if (strays > 0) {
+            log.info("Удалено {} устаревших строк из партиции по умолчанию", strays);
+        }
+    }
+
+    private void deleteExpiredRollups() {
+        for (SeriesResolution resolution : SeriesResolution.values()) {
+            Instant cutoff = Instant.now().minus(properties.getRollupRetention(resolution));
+            long deleted = 0;
+            int chunk;
+            do {
+                chunk = rollupRepository.deleteExpired(resolution, cutoff, ROLLUP_DELETE_CHUNK);
+                deleted += chunk;
+            } while (chunk == ROLLUP_DELETE_CHUNK);
+            if (deleted > 0) {
+                log.info("Удалено {} устаревших агрегатов {}", deleted, resolution);
+            }
+        }
+    }
+
+    private Instant retentionCutoff() {
+        return Instant.now().minus(properties.getRetention());
+    }
+
+    private LocalDate periodStart(LocalDate date) {
+        return properties.getGranularity() == HistoryProperties.Granularity.MONTHLY
+                ? date.with(TemporalAdjusters.firstDayOfMonth())
+                : date;
+    }
+
+    private LocalDate nextPeriod(LocalDate start) {
+        return properties.getGranularity() == HistoryProperties.Granularity.MONTHLY
+                ? start.plusMonths(1)
+                : start.plusDays(1);
+    }
+
+    private String partitionName(LocalDate start) {
+        return PREFIX + (properties.getGranularity() == HistoryProperties.Granularity.MONTHLY
+                ? MONTHLY.format(start)
+                : DAILY.format(start));
+    }
+
+    /**
+     * @return start of the period encoded in the partition name, or {@code null} for partitions
+     * this manager does not own (the default one, or ones of another granularity)
+     */
+    private LocalDate parsePartitionStart(String name) {
+        if (!name.startsWith(PREFIX)) {
+            return null;
+        }
+        String suffix = name.substring(PREFIX.length());
+        try {
+            if (properties.getGranularity() == HistoryProperties.Granularity.MONTHLY) {
+                return suffix.length() == 6 ? LocalDate.parse(suffix + "01", DAILY) : null;
+            }
+            return suffix.length() == 8 ? LocalDate.parse(suffix, DAILY) : null;
+        }
+        catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static Instant toInstant(LocalDate date) {
+        return date.atStartOfDay(ZoneOffset.UTC).toInstant();
+    }
+}
@@ -0,0 +1,83 @@
+package com.fitocube.backend.services;
+
+import com.fitocube.backend.config.HistoryProperties;
+import com.fitocube.backend.ingest.PlantReading;
+import com.fitocube.backend.model.PlantSeriesDto;
+import com.fitocube.backend.model.enums.SeriesResolution;
+import com.fitocube.backend.repositories.MeasurementRollupRepository;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.springframework.stereotype.Service;
+
+/**
+ * Keeps 1-minute, 1-hour and 1-day aggregates of plant metrics up to date as readings are
+ * ingested, so series queries never scan raw history.
+ */
+@Service
+public class MeasurementRollupService {
+
+    private static final SeriesResolution[] RESOLUTIONS = SeriesResolution.values();
+
+    private final MeasurementRollupRepository rollupRepository;
+    private final HistoryProperties properties;
+
+    public MeasurementRollupService(MeasurementRollupRepository rollupRepository, HistoryProperties properties) {
+        this.rollupRepository = rollupRepository;
+        this.properties = properties;
+    }
+
+    /**
+     * Folds a batch into its buckets in memory and merges each touched bucket once. A reading
+     * that arrives late lands in the bucket of its own timestamp; no other bucket is touched.
+     * {@code plantIds[i]} is the plant of {@code readings.get(i)}.
+     */
+    public void fold(List<PlantReading> readings, long[] plantIds) {
+        Map<BucketKey, MeasurementRollupRepository.Bucket> buckets = new HashMap<>();
+        for (int i = 0; i < readings.size(); i++) {
+            PlantReading reading = readings.get(i);
+            long plantId = plantIds[i];
+            for (SeriesResolution resolution : RESOLUTIONS) {
+                long start = resolution.bucketStart(reading.measuredAtMillis());
+                buckets.computeIfAbsent(new BucketKey(plantId, resolution, start),
+                                        key -> new MeasurementRollupRepository.Bucket(plantId, resolution, start))
+                        .add(reading.airTemperatureC(), reading.airHumidityPercent(), reading.soilMoisturePercent());
+            }
+        }
+        if (!buckets.isEmpty()) {
+            rollupRepository.mergeAll(buckets.values());
+        }
+    }
+
+    /**
+     * Reads the series at the requested resolution, or at the first coarser one whose bucket
+     * count for {@code [from, to)} stays within {@code history.series-max-points} and whose
+     * buckets from {@code from} on are still kept.
+     */
+    public PlantSeriesDto getSeries(long plantId, SeriesResolution requested, Instant from, Instant to) {
+        SeriesResolution resolution = chooseResolution(requested, from, Duration.between(from, to).toMillis());
+        PlantSeriesDto series = new PlantSeriesDto();
+        series.setPlantId(plantId);
+        series.setResolution(resolution);
+        series.setPoints(rollupRepository.findRange(plantId, resolution,
+                Instant.ofEpochMilli(resolution.bucketStart(from.toEpochMilli())), to));
+        return series;
+    }
+
+    private SeriesResolution chooseResolution(SeriesResolution requested, Instant from, long spanMillis) {
+        int start = requested == null ? 0 : requested.ordinal();
+        Instant now = Instant.now();
+        for (int i = start; i < RESOLUTIONS.length; i++) {
+            if (spanMillis / RESOLUTIONS[i].bucketMillis() <= properties.getSeriesMaxPoints()
+                    && !from.isBefore(now.minus(properties.getRollupRetention(RESOLUTIONS[i])))) {
+                return RESOLUTIONS[i];
+            }
+        }
+        return RESOLUTIONS[RESOLUTIONS.length - 1];
+    }
+
+    private record BucketKey(long plantId, SeriesResolution resolution, long bucketStartMillis) {
+    }
+}
@@ -1,35 +1,278 @@
 package com.fitocube.backend.services;
 
 
+import com.fitocube.backend.config.HistoryProperties;
+import com.fitocube.backend.config.MqttProperties;
+import com.fitocube.backend.ingest.DeadbandFilter;
+import com.fitocube.backend.ingest.LogSampler;
+import com.fitocube.backend.ingest.PlantReading;
+import com.fitocube.backend.model.PlantMeasurementsDto;
 import com.fitocube.backend.model.PlantStateDto;
+import com.fitocube.backend.model.PlantView;
 import com.fitocube.backend.model.UserDto;
 import com.fitocube.backend.model.request.ClaimRequest;
+import com.fitocube.backend.repositories.MeasurementHistoryRepository;
+import com.fitocube.backend.repositories.PlantStateJdbcRepository;
 import com.fitocube.backend.repositories.PlantStateRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.transaction.Transactional;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.StringUtils;
 import org.springframework.lang.NonNull;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 @Slf4j
 @Service
 public class PlantService {
 
+    public static final int MAX_PAGE_SIZE = 500;
+
+    /** Lookups of unknown devices waiting for the lookup thread; more are dropped and retried later. */
+    private static final int LOOKUP_QUEUE_CAPACITY = 1_000;
+
     private final PlantStateRepository plantStateRepository;
+    private final PlantStateJdbcRepository plantStateJdbcRepository;
+    private final MeasurementHistoryRepository measurementHistoryRepository;
+    private final HistoryProperties historyProperties;
+    private final MeasurementRollupService measurementRollupService;
+    private final DeadbandFilter deadbandFilter;
+    private final PlantSnapshotCache plantSnapshotCache;
+    private final FriendVisibilityIndex friendVisibilityIndex;
+    private final DeviceRegistry deviceRegistry = new DeviceRegistry();
+    private final ExpiringLruCache<String, Boolean> unknownDevices;
+    /** Devices being looked up, so each is looked up once however many messages it sends. */
+    private final Set<String> lookups = ConcurrentHashMap.newKeySet();
+    private final ThreadPoolExecutor lookupExecutor;
+    private final LogSampler lookupFailures = new LogSampler(Duration.ofSeconds(10));
+    private final LongAdder unknownDeviceMessages = new LongAdder();
+    private final LongAdder staleInDatabase = new LongAdder();
 
-    public PlantService(PlantStateRepository plantStateRepository) {
+    public PlantService(PlantStateRepository plantStateRepository,
+                        PlantStateJdbcRepository plantStateJdbcRepository,
+                        MeasurementHistoryRepository measurementHistoryRepository,
+                        HistoryProperties historyProperties,
+                        MeasurementRollupService measurementRollupService,
+                        DeadbandFilter deadbandFilter,
+                        PlantSnapshotCache plantSnapshotCache,
+                        FriendVisibilityIndex friendVisibilityIndex,
+                        MqttProperties mqttProperties) {
         this.plantStateRepository = plantStateRepository;
+        this.plantStateJdbcRepository = plantStateJdbcRepository;
+        this.measurementHistoryRepository = measurementHistoryRepository;
+        this.historyProperties = historyProperties;
+        this.measurementRollupService = measurementRollupService;
+        this.deadbandFilter = deadbandFilter;
+        this.plantSnapshotCache = plantSnapshotCache;
+        this.friendVisibilityIndex = friendVisibilityIndex;
+        MqttProperties.Ingest ingest = mqttProperties.getIngest();
+        this.unknownDevices = new ExpiringLruCache<>(ingest.getUnknownDeviceMaxEntries(), ingest.getUnknownDeviceTtl());
+        this.lookupExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                                                     new ArrayBlockingQueue<>(LOOKUP_QUEUE_CAPACITY), runnable -> {
+            Thread thread = new Thread(runnable, "plant-device-lookup");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
-    public void savePlant(PlantStateDto dto){
-        plantStateRepository.findByDeviceUid(dto.getDeviceUid())
-                .ifPresent(existing -> {
-                    dto.setPlantId(existing.getPlantId());
-                    plantStateRepository.save(dto);
-                });
+    @PostConstruct
+    void loadDeviceRegistry() {
+        plantStateJdbcRepository.forEachDeviceBinding((deviceUid, plantId, ownerId, friendVisible) -> {
+            deviceRegistry.put(deviceUid, plantId, ownerId, friendVisible);
+            friendVisibilityIndex.plantChanged(plantId, ownerId == null ? DeviceRegistry.ABSENT : ownerId, friendVisible);
+        });
+        log.info("Загружено {} устройств в реестр, {} видны друзьям",
+                 deviceRegistry.size(), friendVisibilityIndex.visiblePlantCount());
+    }
+
+    /**
+     * Decides from memory whether readings of the device are worth persisting.
+     * Unknown devices are counted and rejected.
+     * <p>
+     * A device missing from the registry may have been claimed through another node, so it is
+     * looked up in the background, once however many messages arrive meanwhile; the caller,
+     * the MQTT callback thread, never waits on the database. Its messages are rejected until
+     * the lookup finds a plant. Without a plant, or if the lookup fails, the device is not
+     * looked up again for {@code mqtt.ingest.unknown-device-ttl}.
+     */
+    public boolean acceptsDevice(String deviceUid) {
+        if (deviceRegistry.contains(deviceUid)) {
+            return true;
+        }
+        if (deviceUid != null && unknownDevices.get(deviceUid) == null) {
+            lookUpLater(deviceUid);
+        }
+        unknownDeviceMessages.increment();
+        return false;
+    }
+
+    private void lookUpLater(String deviceUid) {
+        if (!lookups.add(deviceUid)) {
+            return;
+        }
+        try {
+            lookupExecutor.execute(() -> {
+                try {
+                    loadDevice(deviceUid);
+                }
+                finally {
+                    lookups.remove(deviceUid);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            // too many at once; one of its next messages asks again
+            lookups.remove(deviceUid);
+        }
+    }
+
+    private void loadDevice(String deviceUid) {
+        boolean found;
+        try {
+            found = plantStateJdbcRepository.findDeviceBinding(deviceUid, (uid, plantId, ownerId, friendVisible) -> {
+                deviceRegistry.put(uid, plantId, ownerId, friendVisible);
+                friendVisibilityIndex.plantChanged(plantId, ownerId == null ? DeviceRegistry.ABSENT : ownerId, friendVisible);
+            });
+        }
+        catch (DataAccessException e) {
+            if (lookupFailures.sample()) {
+                log.warn("Не удалось найти устройство {} в базе (ещё {} таких ошибок с прошлого раза)",
+                         deviceUid, lookupFailures.takeSuppressed(), e);
+            }
+            unknownDevices.put(deviceUid, Boolean.TRUE);
+            return;
+        }
+        if (found) {
+            log.info("Устройство {} привязано на другом узле, добавлено в реестр", deviceUid);
+        } else {
+            unknownDevices.put(deviceUid, Boolean.TRUE);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        lookupExecutor.shutdownNow();
+    }
+
+    public long plantIdOf(String deviceUid) {
+        return deviceRegistry.plantId(deviceUid);
+    }
+
+    public long ownerIdOf(String deviceUid) {
+        return deviceRegistry.ownerId(deviceUid);
+    }
+
+    public boolean isFriendVisible(String deviceUid) {
+        return deviceRegistry.isFriendVisible(deviceUid);
+    }
+
+    public int deviceCount() {
+        return deviceRegistry.size();
+    }
+
+    public long unknownDeviceMessageCount() {
+        return unknownDeviceMessages.sum();
+    }
+
+    /**
+     * Readings that passed the in-memory order check but found a newer measurement already stored.
+     */
+    public long staleInDatabaseCount() {
+        return staleInDatabase.sum();
+    }
+
+    /**
+     * Time of the last stored reading of every plant that has one, for seeding the ingest order check.
+     */
+    public void forEachMeasurementTimestamp(PlantStateJdbcRepository.MeasurementTimestampHandler handler) {
+        plantStateJdbcRepository.forEachMeasurementTimestamp(handler);
+    }
+
+    /**
+     * Persists a batch of readings of one ingest lane: every reading is appended to the
+     * history and folded into the rollups, and {@code plant_states} gets the newest reading
+     * of each device unless the {@link DeadbandFilter} finds nothing meaningful changed. The
+     * lanes have already dropped redeliveries and late readings; the row update re-checks the
+     * stored measurement time, which other nodes may have moved on.
+     */
+    @Transactional
+    public void saveReadings(List<PlantReading> readings) {
+        List<PlantReading> known = new ArrayList<>(readings.size());
+        long[] plantIds = new long[readings.size()];
+        Map<String, PlantReading> latest = new LinkedHashMap<>(readings.size() * 2);
+        for (PlantReading reading : readings) {
+            long plantId = deviceRegistry.plantId(reading.deviceUid());
+            if (plantId == DeviceRegistry.ABSENT) {
+                continue;
+            }
+            plantIds[known.size()] = plantId;
+            known.add(reading);
+            latest.put(reading.deviceUid(), reading);
+        }
+        if (known.isEmpty()) {
+            return;
+        }
+        measurementHistoryRepository.appendAll(known, plantIds);
+        measurementRollupService.fold(known, plantIds);
+        List<PlantReading> changed = deadbandFilter.select(latest.values());
+        if (changed.isEmpty()) {
+            log.debug("Записано {} показаний, состояние растений не изменилось", known.size());
+            return;
+        }
+        afterCompletion(() -> changed.forEach(reading -> plantSnapshotCache.invalidate(plantIdOf(reading.deviceUid()))),
+                        () -> deadbandFilter.forget(changed));
+        int updated = plantStateJdbcRepository.updateMeasurements(changed);
+        staleInDatabase.add(changed.size() - updated);
+        log.debug("Записано {} показаний, обновлено {} растений", known.size(), updated);
+    }
+
+    /**
+     * Cached snapshots may only be dropped once the write is visible, and the deadband filter,
+     * which took the readings as written, must forget them if it never becomes visible.
+     */
+    private static void afterCompletion(Runnable onCommit, Runnable onRollback) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            onCommit.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    onCommit.run();
+                } else {
+                    onRollback.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Readings of a plant in {@code [from, to)}, oldest first, capped at {@code history.max-points}.
+     */
+    public List<PlantMeasurementsDto> getHistory(long plantId, Instant from, Instant to, int limit) {
+        int cappedLimit = Math.min(Math.max(limit, 1), historyProperties.getMaxPoints());
+        return measurementHistoryRepository.findRange(plantId, from, to, cappedLimit);
     }
 
     public Optional<PlantStateDto> getPlantById(@NonNull Long id){
@@ -37,10 +280,73 @@ public class PlantService {
 
     }
 
-    public Set<PlantStateDto> getAllPlantsByOwner(String username) {
-        return plantStateRepository.findAllByOwner_UserName(username);
+    public Optional<PlantView> getPlantView(long id) {
+        return plantStateRepository.findViewById(id);
+    }
+
+    /**
+     * Owners see their plants; friends see the ones opened to friends.
+     */
+    public boolean isVisibleTo(PlantView plant, long viewerId) {
+        if (plant.owner() == null) {
+            return false;
+        }
+        long ownerId = plant.owner().userId();
+        return ownerId == viewerId
+                || (Boolean.TRUE.equals(plant.friendVisible()) && friendVisibilityIndex.isFriend(viewerId, ownerId));
+    }
+
+    /**
+     * Keyset page of the owner's plants: up to {@code limit} (at most {@value #MAX_PAGE_SIZE})
+     * plants with ids above {@code afterPlantId}, in id order, fetched in a single query.
+     */
+    public List<PlantView> getPlantsByOwner(String username, Long afterPlantId, int limit) {
+        int pageSize = Math.min(Math.max(limit, 1), MAX_PAGE_SIZE);
+        return plantStateRepository.findViewsByOwner(username,
+                                                     afterPlantId == null ? Long.MIN_VALUE : afterPlantId,
+                                                     PageRequest.ofSize(pageSize));
+    }
+
+
+    /**
+     * Keyset page of the plants the viewer sees as a friend, in id order. The ids come from the
+     * {@link FriendVisibilityIndex}, the page's states from a single query.
+     */
+    public List<PlantView> getFriendFeed(long viewerId, Long afterPlantId, int limit) {
+        int pageSize = Math.min(Math.max(limit, 1), MAX_PAGE_SIZE);
+        long[] plantIds = friendVisibilityIndex.feed(viewerId);
+        int from = 0;
+        if (afterPlantId != null) {
+            int found = Arrays.binarySearch(plantIds, afterPlantId);
+            from = found >= 0 ? found + 1 : -found - 1;
+        }
+        return getPlantViews(Arrays.copyOfRange(plantIds, from, Math.min(from + pageSize, plantIds.length)));
     }
 
+    /**
+     * @return the friend's plants the viewer sees, or empty if they are not the viewer's friend
+     */
+    public Optional<List<PlantView>> getFriendPlants(long viewerId, long friendId) {
+        if (!friendVisibilityIndex.isFriend(viewerId, friendId)) {
+            return Optional.empty();
+        }
+        return Optional.of(getPlantViews(friendVisibilityIndex.visiblePlants(viewerId, friendId)));
+    }
+
+    /**
+     * States of the given plants in id order, read {@value #MAX_PAGE_SIZE} at a time.
+     */
+    private List<PlantView> getPlantViews(long[] plantIds) {
+        List<PlantView> views = new ArrayList<>(plantIds.length);
+        for (int from = 0; from < plantIds.length; from += MAX_PAGE_SIZE) {
+            List<Long> chunk = new ArrayList<>(Math.min(MAX_PAGE_SIZE, plantIds.length - from));
+            for (int i = from; i < Math.min(from + MAX_PAGE_SIZE, plantIds.length); i++) {
+                chunk.add(plantIds[i]);
+            }
+            views.addAll(plantStateRepository.findViewsByIds(chunk));
+        }
+        return views;
+    }
 
     @Transactional
     public Optional<PlantStateDto> claimPlant(UserDto owner, ClaimRequest req) {
@@ -55,14 +361,48 @@ public class PlantService {
             if (StringUtils.hasText(req.getNickname())) {
                 plant.setNickname(req.getNickname());
             }
-            return Optional.of(plantStateRepository.save(plant));
+            if (req.getFriendVisible() != null || plant.getFriendVisible() == null) {
+                plant.setFriendVisible(!Boolean.FALSE.equals(req.getFriendVisible()));
+            }
+            return Optional.of(register(plantStateRepository.save(plant)));
         }
 
         PlantStateDto plant = new PlantStateDto();
         plant.setDeviceUid(req.getDeviceUid());
         plant.setNickname(req.getNickname());
         plant.setOwner(owner);
-        return Optional.of(plantStateRepository.save(plant));
+        plant.setFriendVisible(!Boolean.FALSE.equals(req.getFriendVisible()));
+        return Optional.of(register(plantStateRepository.save(plant)));
+    }
+
+    /**
+     * The owner decides whether friends see the plant; the firmware's own flag is not taken.
+     */
+    @Transactional
+    public Optional<PlantStateDto> setFriendVisible(long plantId, boolean friendVisible) {
+        return plantStateRepository.findById(plantId)
+                .map(plant -> {
+                    plant.setFriendVisible(friendVisible);
+                    return register(plantStateRepository.save(plant));
+                });
+    }
+
+    /**
+     * Ingest and the stream route by the registry, so it only learns the owner and flag once
+     * they are stored, like the caches.
+     */
+    private PlantStateDto register(PlantStateDto plant) {
+        String deviceUid = plant.getDeviceUid();
+        long plantId = plant.getPlantId();
+        Long owner = plant.getOwner() == null ? null : plant.getOwner().getUserId();
+        boolean friendVisible = Boolean.TRUE.equals(plant.getFriendVisible());
+        afterCompletion(() -> {
+            deviceRegistry.put(deviceUid, plantId, owner, friendVisible);
+            unknownDevices.remove(deviceUid);
+            plantSnapshotCache.invalidate(plantId);
+            friendVisibilityIndex.plantChanged(plantId, owner == null ? DeviceRegistry.ABSENT : owner, friendVisible);
+        }, () -> { });
+        return plant;
     }
 
 }
@@ -0,0 +1,169 @@
+package com.fitocube.backend.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fitocube.backend.config.SnapshotCacheProperties;
+import com.fitocube.backend.model.PlantView;
+import com.fitocube.backend.repositories.PlantStateRepository;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import org.springframework.stereotype.Service;
+
+/**
+ * Read-through cache of the serialized {@code GET /plants/{plantId}} response, with its ETag.
+ * <p>
+ * Entries are kept in LRU segments bounded by {@code snapshot-cache.max-entries} and dropped
+ * by {@link #invalidate(long)} once a write that changes the plant has committed. A load that
+ * raced with an invalidation of the same plant is served but not cached, so a stale snapshot
+ * never outlives the write that replaced it.
+ */
+@Service
+public class PlantSnapshotCache {
+
+    private static final int SEGMENTS = 16;
+    private static final int VERSION_STRIPES = 1024;
+
+    private final PlantStateRepository plantStateRepository;
+    private final ObjectMapper objectMapper;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    /** Bumped by every invalidation of a plant hashing to the stripe. */
+    private final AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public PlantSnapshotCache(PlantStateRepository plantStateRepository,
+                              ObjectMapper objectMapper,
+                              SnapshotCacheProperties properties) {
+        this.plantStateRepository = plantStateRepository;
+        this.objectMapper = objectMapper;
+        int perSegment = Math.max(1, properties.getMaxEntries() / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    /**
+     * @return the snapshot, or {@code null} if there is no such plant
+     */
+    public Snapshot get(long plantId) {
+        Segment segment = segmentOf(plantId);
+        Snapshot snapshot;
+        synchronized (segment) {
+            snapshot = segment.get(plantId);
+        }
+        if (snapshot != null) {
+            hits.increment();
+            return snapshot;
+        }
+        misses.increment();
+
+        int stripe = stripeOf(plantId);
+        long version = versions.get(stripe);
+        PlantView plant = plantStateRepository.findViewById(plantId).orElse(null);
+        if (plant == null) {
+            return null;
+        }
+        snapshot = serialize(plant);
+        synchronized (segment) {
+            if (versions.get(stripe) == version) {
+                segment.put(plantId, snapshot);
+            }
+        }
+        return snapshot;
+    }
+
+    public void invalidate(long plantId) {
+        versions.incrementAndGet(stripeOf(plantId));
+        Segment segment = segmentOf(plantId);
+        synchronized (segment) {
+            segment.remove(plantId);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    private Snapshot serialize(PlantView plant) {
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(plant);
+        }
+        catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new Snapshot(json, etag(plant, json));
+    }
+
+    /**
+     * Strong ETag of plant id, measurement timestamp and a CRC of the body, so a claim that
+     * changes owner or nickname without a new measurement still gets a new tag.
+     */
+    private static String etag(PlantView plant, byte[] json) {
+        long timestamp = plant.measurements() == null || plant.measurements().getTimestamp() == null
+                ? 0L
+                : plant.measurements().getTimestamp().toEpochMilli();
+        CRC32 crc = new CRC32();
+        crc.update(json);
+        return "\"" + plant.plantId() + "-" + Long.toHexString(timestamp) + "-" + Long.toHexString(crc.getValue()) + "\"";
+    }
+
+    private Segment segmentOf(long plantId) {
+        return segments[(int) (mix(plantId) & (SEGMENTS - 1))];
+    }
+
+    private static int stripeOf(long plantId) {
+        return (int) ((mix(plantId) >>> 4) & (VERSION_STRIPES - 1));
+    }
+
+    private static long mix(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+
+    public record Snapshot(byte[] json, String etag) {
+    }
+
+    private final class Segment extends LinkedHashMap<Long, Snapshot> {
+
+        private final int maxEntries;
+
+        private Segment(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Snapshot> eldest) {
+            if (size() > maxEntries) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package com.fitocube.backend.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fitocube.backend.config.StreamProperties;
+import com.fitocube.backend.ingest.IngestListener;
+import com.fitocube.backend.ingest.PlantReading;
+import com.fitocube.backend.model.PlantUpdateDto;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Pushes plant updates from ingest to {@code /plants/stream} subscribers.
+ * <p>
+ * Every update is serialized once and offered to the bounded buffer of each interested
+ * subscriber; a shared pool drains the buffers, so idle connections hold no thread. Offering
+ * never blocks: a subscriber whose buffer overflows, or whose write has hung for longer than
+ * {@code stream.write-timeout}, is only marked closed, and its own drain task completes the
+ * emitter once the write in flight returns. A hung write keeps its pool thread until the
+ * container gives up on the socket, so the pool grows past {@code stream.sender-threads} up to
+ * {@code stream.max-sender-threads} meanwhile and the other subscribers keep being served.
+ * <p>
+ * Friends are looked up in {@link FriendVisibilityIndex} for every update, so a friendship
+ * ended while a stream is open stops the feed right away.
+ */
+@Slf4j
+@Service
+public class PlantStreamService implements IngestListener {
+
+    private static final String PLANT_EVENT = "plant";
+    /** Buffer entry standing for a keep-alive comment. */
+    private static final Event HEARTBEAT = new Event(null, null);
+
+    private final PlantService plantService;
+    private final FriendVisibilityIndex friendVisibilityIndex;
+    private final ObjectMapper objectMapper;
+    private final StreamProperties properties;
+    private final ThreadPoolExecutor sender;
+    private final long writeTimeoutNanos;
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    /** Subscribers by user; they see that user's plants in full and their friends' visible ones. */
+    private final Map<Long, Set<Subscriber>> byUser = new ConcurrentHashMap<>();
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder slowConsumersDropped = new LongAdder();
+
+    public PlantStreamService(PlantService plantService,
+                              FriendVisibilityIndex friendVisibilityIndex,
+                              ObjectMapper objectMapper,
+                              StreamProperties properties) {
+        this.plantService = plantService;
+        this.friendVisibilityIndex = friendVisibilityIndex;
+        this.objectMapper = objectMapper;
+        this.properties = properties;
+        this.writeTimeoutNanos = properties.getWriteTimeout().toNanos();
+        int threads = Math.max(1, properties.getSenderThreads());
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.sender = new ThreadPoolExecutor(threads, Math.max(threads, properties.getMaxSenderThreads()),
+                                             60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "plant-stream-sender-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public SseEmitter subscribe(long userId) {
+        SseEmitter emitter = new SseEmitter(properties.getEmitterTimeout().toMillis());
+        Subscriber subscriber = new Subscriber(userId, emitter, properties.getSubscriberBuffer());
+
+        subscribers.add(subscriber);
+        byUser.computeIfAbsent(userId, id -> ConcurrentHashMap.newKeySet()).add(subscriber);
+
+        emitter.onCompletion(() -> unregister(subscriber));
+        emitter.onTimeout(() -> unregister(subscriber));
+        emitter.onError(e -> unregister(subscriber));
+        return emitter;
+    }
+
+    @Override
+    public void onPersisted(List<PlantReading> readings) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        for (PlantReading reading : readings) {
+            long ownerId = plantService.ownerIdOf(reading.deviceUid());
+            if (ownerId == DeviceRegistry.ABSENT) {
+                continue;
+            }
+            // serialized on the first subscriber found
+            Event[] event = new Event[1];
+            Consumer<Set<Subscriber>> deliver = targets -> {
+                if (isEmpty(targets)) {
+                    return;
+                }
+                if (event[0] == null) {
+                    String json = serialize(reading);
+                    if (json == null) {
+                        return;
+                    }
+                    event[0] = new Event(PLANT_EVENT, json);
+                    published.increment();
+                }
+                deliver(targets, event[0]);
+            };
+            deliver.accept(byUser.get(ownerId));
+            if (plantService.isFriendVisible(reading.deviceUid())) {
+                friendVisibilityIndex.forEachViewer(ownerId, viewerId -> deliver.accept(byUser.get(viewerId)));
+            }
+        }
+    }
+
+    /**
+     * Pushes a named event to the user's own subscribers only.
+     */
+    public void notifyOwner(long ownerId, String eventName, Object payload) {
+        Set<Subscriber> owners = byUser.get(ownerId);
+        if (isEmpty(owners)) {
+            return;
+        }
+        try {
+            deliver(owners, new Event(eventName, objectMapper.writeValueAsString(payload)));
+            published.increment();
+        }
+        catch (JsonProcessingException e) {
+            log.error("Не удалось сериализовать событие {} для пользователя {}", eventName, ownerId, e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${stream.heartbeat-interval:PT30S}")
+    public void heartbeat() {
+        subscribers.forEach(subscriber -> subscriber.offer(HEARTBEAT));
+    }
+
+    /**
+     * Drops subscribers whose write has hung; the drain task stuck in it completes the emitter
+     * when the write returns.
+     */
+    @Scheduled(fixedDelayString = "${stream.write-timeout:PT10S}")
+    public void dropStalled() {
+        long now = System.nanoTime();
+        for (Subscriber subscriber : subscribers) {
+            long started = subscriber.writeStartedNanos;
+            if (started != 0 && now - started > writeTimeoutNanos) {
+                log.debug("Запись подписчику {} зависла, отключаем", subscriber.userId);
+                subscriber.close();
+            }
+        }
+    }
+
+    public int subscriberCount() {
+        return subscribers.size();
+    }
+
+    public long publishedCount() {
+        return published.sum();
+    }
+
+    public long slowConsumersDroppedCount() {
+        return slowConsumersDropped.sum();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        sender.shutdownNow();
+        subscribers.forEach(Subscriber::complete);
+    }
+
+    private String serialize(PlantReading reading) {
+        PlantUpdateDto update = new PlantUpdateDto();
+        update.setPlantId(plantService.plantIdOf(reading.deviceUid()));
+        update.setDeviceUid(reading.deviceUid());
+        update.setMeasurements(reading.toMeasurements());
+        update.setMood(reading.mood());
+        try {
+            return objectMapper.writeValueAsString(update);
+        }
+        catch (JsonProcessingException e) {
+            log.error("Не удалось сериализовать обновление растения {}", reading.deviceUid(), e);
+            return null;
+        }
+    }
+
+    private void deliver(Set<Subscriber> targets, Event event) {
+        if (targets != null) {
+            targets.forEach(subscriber -> subscriber.offer(event));
+        }
+    }
+
+    private void unregister(Subscriber subscriber) {
+        if (!subscribers.remove(subscriber)) {
+            return;
+        }
+        removeFrom(byUser, subscriber.userId, subscriber);
+    }
+
+    private static void removeFrom(Map<Long, Set<Subscriber>> index, Long key, Subscriber subscriber) {
+        index.computeIfPresent(key, (id, set) -> {
+            set.remove(subscriber);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private static boolean isEmpty(Set<Subscriber> set) {
+        return set == null || set.isEmpty();
+    }
+
+    /**
+     * Only its drain task touches the emitter, since {@link SseEmitter} serializes
+     * {@code send} and {@code complete} on one monitor; everyone else just offers events or
+     * marks it closed, and never waits on a slow client.
+     */
+    private final class Subscriber {
+
+        private final long userId;
+        private final SseEmitter emitter;
+        private final BlockingQueue<Event> buffer;
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final AtomicBoolean completed = new AtomicBoolean();
+        /** When the write in flight started, 0 when none is. */
+        private volatile long writeStartedNanos;
+
+        private Subscriber(long userId, SseEmitter emitter, int bufferSize) {
+            this.userId = userId;
+            this.emitter = emitter;
+            this.buffer = new ArrayBlockingQueue<>(Math.max(1, bufferSize));
+        }
+
+        void offer(Event event) {
+            if (closed.get()) {
+                return;
+            }
+            if (!buffer.offer(event)) {
+                log.debug("Подписчик {} не успевает читать поток, отключаем", userId);
+                close();
+                return;
+            }
+            scheduleDrain();
+        }
+
+        /**
+         * Stops routing to the subscriber; the drain task completes the emitter.
+         */
+        void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            slowConsumersDropped.increment();
+            unregister(this);
+            buffer.clear();
+            scheduleDrain();
+        }
+
+        private void scheduleDrain() {
+            if (!draining.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                sender.execute(this::drain);
+            }
+            catch (RejectedExecutionException e) {
+                // every sender is stuck on a slow client; nothing writes to this one either
+                closed.set(true);
+                unregister(this);
+                buffer.clear();
+                complete();
+                draining.set(false);
+            }
+        }
+
+        /**
+         * Only one drain per subscriber runs at a time, which is what {@link SseEmitter} needs.
+         */
+        private void drain() {
+            try {
+                Event event;
+                while (!closed.get() && (event = buffer.poll()) != null) {
+                    writeStartedNanos = System.nanoTime();
+                    if (event == HEARTBEAT) {
+                        emitter.send(SseEmitter.event().comment("ping"));
+                    } else {
+                        emitter.send(SseEmitter.event().name(event.name()).data(event.json(), MediaType.APPLICATION_JSON));
+                    }
+                    writeStartedNanos = 0;
+                }
+            }
+            catch (IOException | IllegalStateException e) {
+                // the emitter has failed and completes itself
+                completed.set(true);
+                closed.set(true);
+                unregister(this);
+                buffer.clear();
+            }
+            finally {
+                writeStartedNanos = 0;
+                draining.set(false);
+            }
+            if (closed.get()) {
+                complete();
+            } else if (!buffer.isEmpty()) {
+                scheduleDrain();
+            }
+        }
+
+        private void complete() {
+            if (completed.compareAndSet(false, true)) {
+                emitter.complete();
+            }
+        }
+    }
+
+    private record Event(String name, String json) {
+    }
+}
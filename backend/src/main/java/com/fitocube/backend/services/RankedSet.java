@@ -0,0 +1,199 @@
+package com.fitocube.backend.services;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Ids ranked by score, highest first and by id on ties: an indexable skip list whose links
+ * carry the number of elements they skip, plus an id → node map. Updating a score, the rank
+ * of an id and the element at a rank are all expected O(log n); walking {@code k} elements
+ * from a rank adds O(k).
+ * <p>
+ * Not thread-safe; callers synchronize.
+ */
+final class RankedSet {
+
+    private static final int MAX_LEVEL = 32;
+
+    private final Node head = new Node(0, 0, MAX_LEVEL);
+    private final Map<Long, Node> nodes = new HashMap<>();
+    private final SplittableRandom random = new SplittableRandom();
+    private int level = 1;
+
+    /**
+     * Adds the id or moves it to its new score.
+     */
+    void put(long id, long score) {
+        Node node = nodes.remove(id);
+        if (node != null) {
+            if (node.score == score) {
+                nodes.put(id, node);
+                return;
+            }
+            unlink(node);
+        }
+        nodes.put(id, insert(id, score));
+    }
+
+    void remove(long id) {
+        Node node = nodes.remove(id);
+        if (node != null) {
+            unlink(node);
+        }
+    }
+
+    /**
+     * @return the id's 0-based rank, or {@code -1} if absent
+     */
+    int rank(long id) {
+        Node node = nodes.get(id);
+        if (node == null) {
+            return -1;
+        }
+        int rank = 0;
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && precedes(x.next[i], node.score, node.id)) {
+                rank += x.span[i];
+                x = x.next[i];
+            }
+        }
+        return rank;
+    }
+
+    boolean contains(long id) {
+        return nodes.containsKey(id);
+    }
+
+    /**
+     * @return the id's score; meaningless for an absent id
+     */
+    long score(long id) {
+        Node node = nodes.get(id);
+        return node == null ? 0 : node.score;
+    }
+
+    /**
+     * Hands up to {@code count} elements starting at rank {@code from} to {@code visitor}, best first.
+     */
+    void range(int from, int count, Visitor visitor) {
+        if (from < 0 || from >= nodes.size() || count <= 0) {
+            return;
+        }
+        Node x = head;
+        int traversed = 0;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && traversed + x.span[i] <= from) {
+                traversed += x.span[i];
+                x = x.next[i];
+            }
+        }
+        x = x.next[0];
+        for (int rank = from; x != null && rank < from + count; rank++, x = x.next[0]) {
+            visitor.visit(rank, x.id, x.score);
+        }
+    }
+
+    int size() {
+        return nodes.size();
+    }
+
+    void clear() {
+        nodes.clear();
+        for (int i = 0; i < MAX_LEVEL; i++) {
+            head.next[i] = null;
+            head.span[i] = 0;
+        }
+        level = 1;
+    }
+
+    private Node insert(long id, long score) {
+        Node[] update = new Node[MAX_LEVEL];
+        int[] rank = new int[MAX_LEVEL];
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            rank[i] = i == level - 1 ? 0 : rank[i + 1];
+            while (x.next[i] != null && precedes(x.next[i], score, id)) {
+                rank[i] += x.span[i];
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+        int nodeLevel = randomLevel();
+        if (nodeLevel > level) {
+            for (int i = level; i < nodeLevel; i++) {
+                rank[i] = 0;
+                update[i] = head;
+                update[i].span[i] = nodes.size();
+            }
+            level = nodeLevel;
+        }
+        Node node = new Node(id, score, nodeLevel);
+        for (int i = 0; i < nodeLevel; i++) {
+            node.next[i] = update[i].next[i];
+            update[i].next[i] = node;
+            node.span[i] = update[i].span[i] - (rank[0] - rank[i]);
+            update[i].span[i] = rank[0] - rank[i] + 1;
+        }
+        for (int i = nodeLevel; i < level; i++) {
+            update[i].span[i]++;
+        }
+        return node;
+    }
+
+    private void unlink(Node node) {
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && x.next[i] != node && precedes(x.next[i], node.score, node.id)) {
+                x = x.next[i];
+            }
+            if (x.next[i] == node) {
+                x.span[i] += node.span[i] - 1;
+                x.next[i] = node.next[i];
+            } else {
+                x.span[i]--;
+            }
+        }
+        while (level > 1 && head.next[level - 1] == null) {
+            head.span[level - 1] = 0;
+            level--;
+        }
+    }
+
+    /**
+     * Whether {@code node} ranks before the element {@code (score, id)}.
+     */
+    private static boolean precedes(Node node, long score, long id) {
+        return node.score > score || (node.score == score && node.id < id);
+    }
+
+    private int randomLevel() {
+        int nodeLevel = 1;
+        while (nodeLevel < MAX_LEVEL && random.nextInt(4) == 0) {
+            nodeLevel++;
+        }
+        return nodeLevel;
+    }
+
+    @FunctionalInterface
+    interface Visitor {
+
+        void visit(int rank, long id, long score);
+    }
+
+    private static final class Node {
+
+        final long id;
+        final long score;
+        final Node[] next;
+        final int[] span;
+
+        Node(long id, long score, int level) {
+            this.id = id;
+            this.score = score;
+            this.next = new Node[level];
+            this.span = new int[level];
+        }
+    }
+}
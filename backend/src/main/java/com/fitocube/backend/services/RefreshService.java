@@ -0,0 +1,161 @@
+package com.fitocube.backend.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fitocube.backend.config.MqttProperties;
+import com.fitocube.backend.ingest.IngestListener;
+import com.fitocube.backend.ingest.PlantReading;
+import com.fitocube.backend.model.PlantMeasurementsDto;
+import com.fitocube.backend.mqtt.MqttGateway;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+
+/**
+ * On-demand refresh of a device's measurements over MQTT.
+ * <p>
+ * Concurrent refreshes of one device share a single in-flight command (single-flight), and an
+ * answer younger than {@code mqtt.refresh-coalesce-window} is reused. A command is answered by
+ * the first reading from the device that echoes its correlation id or, for firmware that does
+ * not echo it, arrives after the command was sent.
+ * <p>
+ * The firmware answers the per-device command and echoes its correlation id. Older cubes only
+ * react to the raw {@code get_info} on the shared command topic; for them it can be broadcast
+ * as well ({@code mqtt.refresh-broadcast}, off by default). A broadcast wakes every cube, so
+ * one sent within the coalesce window is reused: readings arriving after it answer the new
+ * refresh too.
+ */
+@Slf4j
+@Service
+public class RefreshService implements IngestListener {
+
+    private final MqttGateway mqttGateway;
+    private final ObjectMapper objectMapper;
+    private final MqttProperties properties;
+
+    private final Map<String, Pending> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, Answered> recent = new ConcurrentHashMap<>();
+    private final AtomicLong lastBroadcastAtMillis = new AtomicLong();
+
+    private final LongAdder commandsSent = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    public RefreshService(@Lazy MqttGateway mqttGateway, ObjectMapper objectMapper, MqttProperties properties) {
+        this.mqttGateway = mqttGateway;
+        this.objectMapper = objectMapper;
+        this.properties = properties;
+    }
+
+    public CompletableFuture<PlantMeasurementsDto> refresh(String deviceUid) {
+        Answered answered = recent.get(deviceUid);
+        long now = System.currentTimeMillis();
+        if (answered != null && now - answered.atMillis < properties.getRefreshCoalesceWindow().toMillis()) {
+            coalesced.increment();
+            return CompletableFuture.completedFuture(answered.measurements);
+        }
+
+        long window = properties.getRefreshCoalesceWindow().toMillis();
+        long lastBroadcast = lastBroadcastAtMillis.get();
+        boolean broadcastDue = properties.isRefreshBroadcast() && now - lastBroadcast >= window;
+        // while a broadcast is fresh, the readings it triggers answer this refresh too
+        long answerableFrom = properties.isRefreshBroadcast() && !broadcastDue ? lastBroadcast : now;
+        Pending created = new Pending(UUID.randomUUID().toString(), answerableFrom, new CompletableFuture<>());
+        Pending pending = inFlight.putIfAbsent(deviceUid, created);
+        if (pending != null) {
+            coalesced.increment();
+            return pending.future.copy();
+        }
+
+        created.future
+                .orTimeout(properties.getResponseTimeout().toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((measurements, error) -> {
+                    inFlight.remove(deviceUid, created);
+                    if (error == null) {
+                        Answered answer = new Answered(measurements, System.currentTimeMillis());
+                        recent.put(deviceUid, answer);
+                        // nothing reads an answer past the window; drop it so idle devices cost nothing
+                        CompletableFuture.runAsync(() -> recent.remove(deviceUid, answer),
+                                                   CompletableFuture.delayedExecutor(window, TimeUnit.MILLISECONDS));
+                    } else if (error instanceof TimeoutException) {
+                        timedOut.increment();
+                    }
+                });
+        boolean sent = sendCommand(deviceUid, created.correlationId);
+        if (broadcastDue && lastBroadcastAtMillis.compareAndSet(lastBroadcast, now)) {
+            sent |= mqttGateway.requestFreshMeasurement();
+        }
+        if (!sent) {
+            created.future.completeExceptionally(new IllegalStateException("MQTT command was not published"));
+        }
+        return created.future.copy();
+    }
+
+    @Override
+    public void onPersisted(List<PlantReading> readings) {
+        if (inFlight.isEmpty()) {
+            return;
+        }
+        for (PlantReading reading : readings) {
+            Pending pending = inFlight.get(reading.deviceUid());
+            if (pending != null && pending.isAnsweredBy(reading)) {
+                pending.future.complete(reading.toMeasurements());
+            }
+        }
+    }
+
+    public long commandsSentCount() {
+        return commandsSent.sum();
+    }
+
+    public long coalescedCount() {
+        return coalesced.sum();
+    }
+
+    public long timedOutCount() {
+        return timedOut.sum();
+    }
+
+    private boolean sendCommand(String deviceUid, String correlationId) {
+        byte[] payload;
+        try {
+            payload = objectMapper.writeValueAsBytes(Map.of(
+                    "cmd", properties.getCommandPayload(),
+                    "deviceUid", deviceUid,
+                    "correlationId", correlationId));
+        }
+        catch (JsonProcessingException e) {
+            log.error("Не удалось сформировать команду обновления для {}", deviceUid, e);
+            return false;
+        }
+        String topic = properties.getRefreshCommandTopic().replace("{deviceUid}", deviceUid);
+        boolean sent = mqttGateway.publishCommand(topic, payload);
+        if (sent) {
+            commandsSent.increment();
+        }
+        return sent;
+    }
+
+    private record Pending(String correlationId, long sentAtMillis, CompletableFuture<PlantMeasurementsDto> future) {
+
+        boolean isAnsweredBy(PlantReading reading) {
+            if (reading.correlationId() != null) {
+                return Objects.equals(reading.correlationId(), correlationId);
+            }
+            return reading.receivedAtMillis() >= sentAtMillis;
+        }
+    }
+
+    private record Answered(PlantMeasurementsDto measurements, long atMillis) {
+    }
+}
@@ -1,12 +1,17 @@
 package com.fitocube.backend.services;
 
+import com.fitocube.backend.config.SessionProperties;
 import com.fitocube.backend.model.UserDto;
 import com.fitocube.backend.model.session.SessionUser;
+import com.fitocube.backend.security.SessionTokenCodec;
 import com.fitocube.backend.security.SessionUserDetails;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.servlet.http.HttpSession;
 import java.util.Optional;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseCookie;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
@@ -21,13 +26,20 @@ public class SessionService {
 
     private final AuthenticationManager authenticationManager;
     private final UserService userService;
+    private final SessionProperties properties;
+    private final SessionTokenCodec tokenCodec;
 
-    public SessionService(AuthenticationManager authenticationManager, UserService userService) {
+    public SessionService(AuthenticationManager authenticationManager,
+                          UserService userService,
+                          SessionProperties properties,
+                          SessionTokenCodec tokenCodec) {
         this.authenticationManager = authenticationManager;
         this.userService = userService;
+        this.properties = properties;
+        this.tokenCodec = tokenCodec;
     }
 
-    public SessionUser login(String rawUsername, HttpServletRequest request) {
+    public SessionUser login(String rawUsername, HttpServletRequest request, HttpServletResponse response) {
         var authRequest = UsernamePasswordAuthenticationToken.unauthenticated(rawUsername, "");
         var authentication = authenticationManager.authenticate(authRequest);
 
@@ -35,10 +47,15 @@ public class SessionService {
         context.setAuthentication(authentication);
         SecurityContextHolder.setContext(context);
 
-        HttpSession session = request.getSession(true);
-        session.setAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY, context);
-
-        return extractSessionUser(authentication);
+        var sessionUser = extractSessionUser(authentication);
+        if (isStateless()) {
+            long expiresAt = System.currentTimeMillis() + properties.getTokenTtl().toMillis();
+            setTokenCookie(response, tokenCodec.encode(sessionUser, expiresAt), properties.getTokenTtl().toSeconds());
+        } else {
+            HttpSession session = request.getSession(true);
+            session.setAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY, context);
+        }
+        return sessionUser;
     }
 
     public Optional<SessionUser> getCurrentUser() {
@@ -67,8 +84,14 @@ public class SessionService {
         }
     }
 
-    public void logout(HttpSession session) {
+    /**
+     * In token mode only the cookie is dropped; a copied token stays valid until it expires.
+     */
+    public void logout(HttpSession session, HttpServletResponse response) {
         SecurityContextHolder.clearContext();
+        if (isStateless()) {
+            setTokenCookie(response, "", 0);
+        }
         if (session == null) {
             return;
         }
@@ -79,6 +102,21 @@ public class SessionService {
         }
     }
 
+    private boolean isStateless() {
+        return properties.getMode() == SessionProperties.Mode.TOKEN;
+    }
+
+    private void setTokenCookie(HttpServletResponse response, String value, long maxAgeSeconds) {
+        var cookie = ResponseCookie.from(properties.getCookieName(), value)
+                .httpOnly(true)
+                .secure(properties.isCookieSecure())
+                .sameSite("Lax")
+                .path("/")
+                .maxAge(maxAgeSeconds)
+                .build();
+        response.addHeader(HttpHeaders.SET_COOKIE, cookie.toString());
+    }
+
     private SessionUser extractSessionUser(Authentication authentication) {
         var principal = authentication.getPrincipal();
         if (principal instanceof SessionUserDetails details) {
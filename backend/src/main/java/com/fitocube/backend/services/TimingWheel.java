@@ -0,0 +1,152 @@
+package com.fitocube.backend.services;
+
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel: {@value #LEVELS} levels of {@value #SLOTS} slots, each level
+ * {@value #SLOTS} times coarser than the one below. Scheduling, rescheduling and cancelling
+ * are O(1) list operations on a {@link Timer} the caller keeps; a slot of a coarser level is
+ * cascaded down once the wheel reaches it. Deadlines beyond the top level wait in its
+ * farthest slot and are placed again on the way down.
+ * <p>
+ * Not thread-safe; callers synchronize on the wheel.
+ */
+final class TimingWheel<T> {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+
+    private final long tickMillis;
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final Timer<T>[][] buckets = new Timer[LEVELS][SLOTS];
+    /** Last tick whose timers have expired. */
+    private long currentTick;
+    private int size;
+
+    TimingWheel(long tickMillis, long nowMillis) {
+        this.tickMillis = Math.max(1, tickMillis);
+        this.currentTick = nowMillis / this.tickMillis;
+    }
+
+    Timer<T> newTimer(T item) {
+        return new Timer<>(item);
+    }
+
+    /**
+     * (Re)schedules the timer; a deadline that has already passed expires on the next {@link #advance}.
+     */
+    void schedule(Timer<T> timer, long deadlineMillis) {
+        cancel(timer);
+        timer.deadlineTick = Math.max(deadlineMillis / tickMillis, currentTick + 1);
+        place(timer);
+        size++;
+    }
+
+    void cancel(Timer<T> timer) {
+        if (timer.level < 0) {
+            return;
+        }
+        unlink(timer);
+        size--;
+    }
+
+    /**
+     * Moves the wheel up to {@code nowMillis} and hands every expired item to {@code expired}.
+     * Expired timers are unscheduled before the callback runs, so it may schedule them again.
+     */
+    void advance(long nowMillis, Consumer<T> expired) {
+        long targetTick = nowMillis / tickMillis;
+        while (currentTick < targetTick) {
+            currentTick++;
+            for (int level = 1; level < LEVELS; level++) {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+                    break;
+                }
+                cascade(level, (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK));
+            }
+            Timer<T> timer = buckets[0][(int) (currentTick & SLOT_MASK)];
+            while (timer != null) {
+                Timer<T> next = timer.next;
+                unlink(timer);
+                size--;
+                expired.accept(timer.item);
+                timer = next;
+            }
+        }
+    }
+
+    long deadlineMillis(Timer<T> timer) {
+        return timer.deadlineTick * tickMillis;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void cascade(int level, int slot) {
+        Timer<T> timer = buckets[level][slot];
+        buckets[level][slot] = null;
+        while (timer != null) {
+            Timer<T> next = timer.next;
+            timer.level = -1;
+            timer.prev = null;
+            timer.next = null;
+            place(timer);
+            timer = next;
+        }
+    }
+
+    private void place(Timer<T> timer) {
+        long delta = timer.deadlineTick - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        long tick = delta >= 1L << (SLOT_BITS * LEVELS)
+                ? currentTick + ((long) SLOT_MASK << (SLOT_BITS * level))
+                : Math.max(timer.deadlineTick, currentTick);
+        int slot = (int) ((tick >>> (SLOT_BITS * level)) & SLOT_MASK);
+        timer.level = level;
+        timer.slot = slot;
+        timer.prev = null;
+        timer.next = buckets[level][slot];
+        if (timer.next != null) {
+            timer.next.prev = timer;
+        }
+        buckets[level][slot] = timer;
+    }
+
+    private void unlink(Timer<T> timer) {
+        if (timer.prev == null) {
+            buckets[timer.level][timer.slot] = timer.next;
+        } else {
+            timer.prev.next = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.prev = timer.prev;
+        }
+        timer.level = -1;
+        timer.prev = null;
+        timer.next = null;
+    }
+
+    static final class Timer<T> {
+
+        final T item;
+        private long deadlineTick;
+        private int level = -1;
+        private int slot;
+        private Timer<T> prev;
+        private Timer<T> next;
+
+        private Timer(T item) {
+            this.item = item;
+        }
+
+        boolean isScheduled() {
+            return level >= 0;
+        }
+    }
+}
@@ -1,21 +1,42 @@
 package com.fitocube.backend.services;
 
+import com.fitocube.backend.config.SessionProperties;
 import com.fitocube.backend.model.UserDto;
+import com.fitocube.backend.repositories.FriendshipJdbcRepository;
 import com.fitocube.backend.repositories.UserRepository;
 import jakarta.annotation.PostConstruct;
+import java.util.Locale;
 import java.util.Optional;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.lang.NonNull;
 import org.springframework.stereotype.Service;
 
+/**
+ * User lookups go through a bounded TTL cache (by id and by lower-cased name). Cached users
+ * come with their friends loaded and are detached, so callers must not rely on other lazy
+ * associations; changes have to go through {@link #save(UserDto)} to evict them.
+ * <p>
+ * The same two entry points keep the {@link FriendVisibilityIndex} in step with friend lists.
+ */
 @Service
 @Slf4j
 public class UserService {
 
     private final UserRepository userRepository;
+    private final FriendshipJdbcRepository friendshipJdbcRepository;
+    private final FriendVisibilityIndex friendVisibilityIndex;
+    private final ExpiringLruCache<Long, UserDto> byId;
+    private final ExpiringLruCache<String, UserDto> byName;
 
-    public UserService(UserRepository userRepository) {
+    public UserService(UserRepository userRepository,
+                       FriendshipJdbcRepository friendshipJdbcRepository,
+                       FriendVisibilityIndex friendVisibilityIndex,
+                       SessionProperties sessionProperties) {
         this.userRepository = userRepository;
+        this.friendshipJdbcRepository = friendshipJdbcRepository;
+        this.friendVisibilityIndex = friendVisibilityIndex;
+        this.byId = new ExpiringLruCache<>(sessionProperties.getUserCacheMaxEntries(), sessionProperties.getUserCacheTtl());
+        this.byName = new ExpiringLruCache<>(sessionProperties.getUserCacheMaxEntries(), sessionProperties.getUserCacheTtl());
     }
 
     @PostConstruct
@@ -25,10 +46,57 @@ public class UserService {
     }
 
     public Optional<UserDto> findByUserName(String userName) {
-        return userRepository.findByUserNameIgnoreCase(userName);
+        String key = userName.toLowerCase(Locale.ROOT);
+        UserDto cached = byName.get(key);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        return userRepository.findWithFriendsByUserName(userName).map(this::remember);
     }
 
     public Optional<UserDto> findById(@NonNull Long userId) {
-        return userRepository.findById(userId);
+        UserDto cached = byId.get(userId);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        return userRepository.findWithFriendsById(userId).map(this::remember);
+    }
+
+    public UserDto save(UserDto user) {
+        UserDto saved = userRepository.save(user);
+        forget(saved.getUserId());
+        byName.remove(saved.getUserName().toLowerCase(Locale.ROOT));
+        friendVisibilityIndex.friendsChanged(saved.getUserId(), user.getFriends());
+        return saved;
+    }
+
+    /**
+     * For users changed behind the repository's back: drops them from the caches and re-reads
+     * their friends.
+     */
+    public void evict(@NonNull Long userId) {
+        forget(userId);
+        friendVisibilityIndex.friendsChanged(userId, friendshipJdbcRepository.findFriendIds(userId));
+    }
+
+    public long cacheHitCount() {
+        return byId.hitCount() + byName.hitCount();
+    }
+
+    public long cacheMissCount() {
+        return byId.missCount() + byName.missCount();
+    }
+
+    private void forget(Long userId) {
+        UserDto removed = byId.remove(userId);
+        if (removed != null) {
+            byName.remove(removed.getUserName().toLowerCase(Locale.ROOT));
+        }
+    }
+
+    private UserDto remember(UserDto user) {
+        byId.put(user.getUserId(), user);
+        byName.put(user.getUserName().toLowerCase(Locale.ROOT), user);
+        return user;
     }
 }
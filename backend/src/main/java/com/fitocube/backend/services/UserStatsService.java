@@ -0,0 +1,413 @@
+package com.fitocube.backend.services;
+
+import com.fitocube.backend.config.MqttProperties;
+import com.fitocube.backend.config.StatsProperties;
+import com.fitocube.backend.ingest.IngestListener;
+import com.fitocube.backend.ingest.PlantReading;
+import com.fitocube.backend.model.PlayerStatsDto;
+import com.fitocube.backend.model.enums.Mood;
+import com.fitocube.backend.repositories.UserStatsRepository;
+import com.fitocube.backend.repositories.UserStatsRepository.PlantRow;
+import com.fitocube.backend.repositories.UserStatsRepository.UserRow;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Per-user statistics behind {@code /stats/{userId}}, folded in as readings are persisted and
+ * plants are claimed, so serving them is a map lookup.
+ * <p>
+ * Per plant only its latest mood, reading time and soil moisture are kept; a reading credits
+ * the time since the previous one (at most {@code stats.max-gap}) to the mood the plant was in.
+ * Folding a reading that is not newer than the plant's last one changes nothing, which makes
+ * the startup replay idempotent: changed aggregates are snapshotted every
+ * {@code stats.snapshot-interval}, and after a restart the snapshot is loaded and history
+ * received since shortly before it is folded again.
+ * <p>
+ * With an MQTT shared group each node ingests only part of the readings. Every
+ * {@code stats.catch-up-interval} it folds in what the other nodes persisted. Only the node that
+ * {@link AggregateOwnership owns} the aggregates writes snapshots. Plants claimed through another
+ * node are counted here from the next restart on.
+ */
+@Slf4j
+@Service
+public class UserStatsService implements IngestListener {
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    private static final double MILLIS_PER_HOUR = 60d * 60 * 1000;
+    private static final int MOODS = Mood.values().length;
+
+    private final PlantService plantService;
+    private final UserStatsRepository userStatsRepository;
+    private final StatsProperties properties;
+    private final AggregateOwnership ownership;
+    private final long maxGapMillis;
+    private final Duration maxClockSkew;
+
+    private final Map<Long, PlantStats> plants = new ConcurrentHashMap<>();
+    private final Map<Long, UserStats> users = new ConcurrentHashMap<>();
+    /**
+     * Folds share it, a snapshot takes it exclusively while copying, so every reading is either
+     * fully in a snapshot or not at all and the replay neither loses nor repeats it.
+     */
+    private final ReadWriteLock cut = new ReentrantReadWriteLock();
+    /** Readings received before it are folded in, whichever node persisted them. */
+    private volatile Instant caughtUpTo;
+
+    public UserStatsService(PlantService plantService,
+                            UserStatsRepository userStatsRepository,
+                            StatsProperties properties,
+                            MqttProperties mqttProperties,
+                            AggregateOwnership ownership) {
+        this.plantService = plantService;
+        this.userStatsRepository = userStatsRepository;
+        this.properties = properties;
+        this.ownership = ownership;
+        this.maxGapMillis = properties.getMaxGap().toMillis();
+        this.maxClockSkew = mqttProperties.getIngest().getClock().getMaxSkew();
+    }
+
+    /**
+     * Ownership from {@code plant_states}, then the snapshot, then a replay of the history
+     * received since the snapshot's watermark. Runs before ingest starts.
+     */
+    @PostConstruct
+    void rebuild() {
+        long started = System.currentTimeMillis();
+        userStatsRepository.forEachOwnership((plantId, ownerId) -> assign(plant(plantId), ownerId));
+        Instant watermark = userStatsRepository.findWatermark().orElse(null);
+        if (watermark != null) {
+            userStatsRepository.forEachUser(this::restore);
+            userStatsRepository.forEachPlant(this::restore);
+        }
+        Instant replayFrom = watermark != null ? watermark : Instant.ofEpochMilli(started).minus(properties.getInitialReplay());
+        long[] replayed = new long[1];
+        userStatsRepository.replay(replayFrom, (plantId, measuredAtMillis, soilMoisture, mood) -> {
+            if (foldStored(plantId, measuredAtMillis, soilMoisture, mood)) {
+                replayed[0]++;
+            }
+        });
+        caughtUpTo = Instant.ofEpochMilli(started);
+        log.info("Статистика восстановлена для {} пользователей: снимок от {}, повторено {} показаний за {} мс",
+                 users.size(), watermark, replayed[0], System.currentTimeMillis() - started);
+    }
+
+    @Override
+    public void onPersisted(List<PlantReading> readings) {
+        cut.readLock().lock();
+        try {
+            for (PlantReading reading : readings) {
+                long plantId = plantService.plantIdOf(reading.deviceUid());
+                long ownerId = plantService.ownerIdOf(reading.deviceUid());
+                if (plantId == DeviceRegistry.ABSENT || ownerId == DeviceRegistry.ABSENT) {
+                    continue;
+                }
+                fold(plant(plantId), ownerId, reading.measuredAtMillis(), reading.soilMoisturePercent(), reading.mood());
+            }
+        }
+        finally {
+            cut.readLock().unlock();
+        }
+    }
+
+    /**
+     * Counts a freshly claimed plant for its (new) owner right away rather than on its next reading.
+     */
+    public void plantClaimed(long plantId, long ownerId) {
+        cut.readLock().lock();
+        try {
+            PlantStats plant = plant(plantId);
+            synchronized (plant) {
+                assign(plant, ownerId);
+            }
+        }
+        finally {
+            cut.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the user's statistics; a user without plants or readings gets zeros
+     */
+    public PlayerStatsDto getStats(long userId) {
+        PlayerStatsDto dto = new PlayerStatsDto();
+        dto.setUserId(userId);
+        UserStats user = users.get(userId);
+        Map<Mood, Double> moodHours = new EnumMap<>(Mood.class);
+        for (Mood mood : Mood.values()) {
+            moodHours.put(mood, 0d);
+        }
+        dto.setMoodHours(moodHours);
+        if (user == null) {
+            return dto;
+        }
+        synchronized (user) {
+            dto.setPlantCount(user.plantCount);
+            dto.setAverageSoilMoisturePercent(user.soilCount == 0 ? null : user.soilSum / user.soilCount);
+            for (Mood mood : Mood.values()) {
+                moodHours.put(mood, user.moodMillis[mood.ordinal()] / MILLIS_PER_HOUR);
+            }
+            long today = Math.floorDiv(System.currentTimeMillis(), MILLIS_PER_DAY);
+            dto.setHappyStreakDays(user.lastHappyDay >= today - 1 ? user.happyStreakDays : 0);
+            dto.setBestHappyStreakDays(user.bestHappyStreakDays);
+            dto.setLastUpdated(user.updatedAtMillis == 0 ? null : Instant.ofEpochMilli(user.updatedAtMillis));
+        }
+        dto.setTotalHappyHours(moodHours.get(Mood.HAPPY));
+        return dto;
+    }
+
+    /**
+     * With an MQTT shared group: folds in the readings the other nodes persisted since the last
+     * catch-up. Readings this node folded already come by again and change nothing.
+     */
+    @Scheduled(fixedDelayString = "${stats.catch-up-interval:PT10S}",
+               initialDelayString = "${stats.catch-up-interval:PT10S}")
+    public void catchUp() {
+        if (!ownership.isShared()) {
+            return;
+        }
+        Instant started = Instant.now();
+        Instant from = caughtUpTo.minus(properties.getReplayOverlap());
+        try {
+            userStatsRepository.replay(from, from.minus(maxClockSkew), (plantId, measuredAtMillis, soilMoisture, mood) -> {
+                cut.readLock().lock();
+                try {
+                    foldStored(plantId, measuredAtMillis, soilMoisture, mood);
+                }
+                finally {
+                    cut.readLock().unlock();
+                }
+            });
+            caughtUpTo = started;
+        }
+        catch (Exception e) {
+            log.error("Не удалось подтянуть показания других узлов для статистики", e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${stats.snapshot-interval:PT5M}",
+               initialDelayString = "${stats.snapshot-interval:PT5M}")
+    public void snapshot() {
+        if (!ownership.isOwner()) {
+            return;
+        }
+        List<UserRow> userRows = new ArrayList<>();
+        List<PlantRow> plantRows = new ArrayList<>();
+        Instant foldedUntil;
+        cut.writeLock().lock();
+        try {
+            foldedUntil = (ownership.isShared() ? caughtUpTo : Instant.now()).minus(properties.getReplayOverlap());
+            copyDirty(userRows, plantRows);
+        }
+        finally {
+            cut.writeLock().unlock();
+        }
+        try {
+            userStatsRepository.saveSnapshot(userRows, plantRows, foldedUntil);
+            log.debug("Снимок статистики: {} пользователей, {} растений", userRows.size(), plantRows.size());
+        }
+        catch (Exception e) {
+            for (UserRow row : userRows) {
+                UserStats user = users.get(row.userId());
+                synchronized (user) {
+                    user.dirty = true;
+                }
+            }
+            for (PlantRow row : plantRows) {
+                PlantStats plant = plants.get(row.plantId());
+                synchronized (plant) {
+                    plant.dirty = true;
+                }
+            }
+            log.error("Не удалось сохранить снимок статистики", e);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        snapshot();
+    }
+
+    private void copyDirty(List<UserRow> userRows, List<PlantRow> plantRows) {
+        users.forEach((userId, user) -> {
+            synchronized (user) {
+                if (user.dirty) {
+                    user.dirty = false;
+                    userRows.add(new UserRow(userId, user.moodMillis.clone(), user.happyStreakDays,
+                                             user.bestHappyStreakDays, user.lastHappyDay, user.updatedAtMillis));
+                }
+            }
+        });
+        plants.forEach((plantId, plant) -> {
+            synchronized (plant) {
+                if (plant.dirty) {
+                    plant.dirty = false;
+                    plantRows.add(new PlantRow(plantId, plant.mood, plant.lastMeasuredAtMillis, plant.soilMoisture));
+                }
+            }
+        });
+    }
+
+    /**
+     * Folds a reading read back from the history, if its plant has an owner.
+     */
+    private boolean foldStored(long plantId, long measuredAtMillis, double soilMoisture, Mood mood) {
+        PlantStats plant = plants.get(plantId);
+        if (plant == null || plant.ownerId == DeviceRegistry.ABSENT) {
+            return false;
+        }
+        fold(plant, plant.ownerId, measuredAtMillis, soilMoisture, mood);
+        return true;
+    }
+
+    private void fold(PlantStats plant, long ownerId, long measuredAtMillis, double soilMoisture, Mood mood) {
+        synchronized (plant) {
+            if (plant.ownerId != ownerId) {
+                assign(plant, ownerId);
+            }
+            if (plant.lastMeasuredAtMillis != PlantRow.NEVER && measuredAtMillis <= plant.lastMeasuredAtMillis) {
+                return;
+            }
+            UserStats user = user(ownerId);
+            synchronized (user) {
+                if (plant.mood != null && plant.lastMeasuredAtMillis != PlantRow.NEVER) {
+                    user.moodMillis[plant.mood.ordinal()] += Math.min(measuredAtMillis - plant.lastMeasuredAtMillis, maxGapMillis);
+                }
+                if (!Double.isNaN(soilMoisture)) {
+                    if (Double.isNaN(plant.soilMoisture)) {
+                        user.soilCount++;
+                    } else {
+                        user.soilSum -= plant.soilMoisture;
+                    }
+                    user.soilSum += soilMoisture;
+                }
+                if (mood == Mood.HAPPY) {
+                    user.happyOn(Math.floorDiv(measuredAtMillis, MILLIS_PER_DAY));
+                }
+                user.updatedAtMillis = Math.max(user.updatedAtMillis, measuredAtMillis);
+                user.dirty = true;
+            }
+            if (!Double.isNaN(soilMoisture)) {
+                plant.soilMoisture = soilMoisture;
+            }
+            if (mood != null) {
+                plant.mood = mood;
+            }
+            plant.lastMeasuredAtMillis = measuredAtMillis;
+            plant.dirty = true;
+        }
+    }
+
+    /**
+     * Moves the plant's count and soil moisture to its new owner; time already spent stays
+     * with the old one. Called with the plant locked.
+     */
+    private void assign(PlantStats plant, long ownerId) {
+        if (plant.ownerId == ownerId) {
+            return;
+        }
+        if (plant.ownerId != DeviceRegistry.ABSENT) {
+            UserStats previous = user(plant.ownerId);
+            synchronized (previous) {
+                previous.plantCount--;
+                if (!Double.isNaN(plant.soilMoisture)) {
+                    previous.soilCount--;
+                    previous.soilSum -= plant.soilMoisture;
+                }
+            }
+        }
+        UserStats user = user(ownerId);
+        synchronized (user) {
+            user.plantCount++;
+            if (!Double.isNaN(plant.soilMoisture)) {
+                user.soilCount++;
+                user.soilSum += plant.soilMoisture;
+            }
+        }
+        plant.ownerId = ownerId;
+    }
+
+    private void restore(UserRow row) {
+        UserStats user = user(row.userId());
+        synchronized (user) {
+            System.arraycopy(row.moodMillis(), 0, user.moodMillis, 0, MOODS);
+            user.happyStreakDays = row.happyStreakDays();
+            user.bestHappyStreakDays = row.bestHappyStreakDays();
+            user.lastHappyDay = row.lastHappyDay();
+            user.updatedAtMillis = row.updatedAtMillis();
+        }
+    }
+
+    /**
+     * Snapshot rows of plants that lost their owner since are still restored, so their
+     * readings replay correctly once claimed again.
+     */
+    private void restore(PlantRow row) {
+        PlantStats plant = plant(row.plantId());
+        synchronized (plant) {
+            plant.mood = row.mood();
+            plant.lastMeasuredAtMillis = row.lastMeasuredAtMillis();
+            if (!Double.isNaN(row.soilMoisturePercent()) && plant.ownerId != DeviceRegistry.ABSENT) {
+                UserStats user = user(plant.ownerId);
+                synchronized (user) {
+                    user.soilCount++;
+                    user.soilSum += row.soilMoisturePercent();
+                }
+            }
+            plant.soilMoisture = row.soilMoisturePercent();
+        }
+    }
+
+    private PlantStats plant(long plantId) {
+        return plants.computeIfAbsent(plantId, id -> new PlantStats());
+    }
+
+    private UserStats user(long userId) {
+        return users.computeIfAbsent(userId, id -> new UserStats());
+    }
+
+    /**
+     * Guarded by its own monitor; a plant's monitor is always taken before its owner's.
+     */
+    private static final class PlantStats {
+
+        private long ownerId = DeviceRegistry.ABSENT;
+        private Mood mood;
+        private long lastMeasuredAtMillis = PlantRow.NEVER;
+        private double soilMoisture = Double.NaN;
+        private boolean dirty;
+    }
+
+    private static final class UserStats {
+
+        private int plantCount;
+        private int soilCount;
+        private double soilSum;
+        private final long[] moodMillis = new long[MOODS];
+        private int happyStreakDays;
+        private int bestHappyStreakDays;
+        private long lastHappyDay = UserRow.NO_DAY;
+        private long updatedAtMillis;
+        private boolean dirty;
+
+        void happyOn(long day) {
+            if (lastHappyDay != UserRow.NO_DAY && day <= lastHappyDay) {
+                return;
+            }
+            happyStreakDays = lastHappyDay != UserRow.NO_DAY && day == lastHappyDay + 1 ? happyStreakDays + 1 : 1;
+            bestHappyStreakDays = Math.max(bestHappyStreakDays, happyStreakDays);
+            lastHappyDay = day;
+        }
+    }
+}
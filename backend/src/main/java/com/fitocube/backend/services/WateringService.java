@@ -0,0 +1,216 @@
+package com.fitocube.backend.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fitocube.backend.config.MoodProperties;
+import com.fitocube.backend.config.WateringProperties;
+import com.fitocube.backend.ingest.IngestListener;
+import com.fitocube.backend.ingest.MoodEngine;
+import com.fitocube.backend.ingest.PlantReading;
+import com.fitocube.backend.model.WateringEventDto;
+import com.fitocube.backend.mqtt.MqttGateway;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Predictive watering; see {@link WateringProperties}.
+ * <p>
+ * Every persisted reading re-plans its plant from the {@link MoodEngine} window: the current
+ * soil moisture and its trend give the moment the plant crosses the dry threshold, and the
+ * plant's single timer in a {@link TimingWheel} is moved there. Nothing is scanned and no task
+ * is kept per plant, so pending plans cost one small node each. A plant is acted on once per
+ * drying; it is planned again after it has been watered.
+ * <p>
+ * With shared subscriptions every node plans only the devices it ingests.
+ */
+@Slf4j
+@Service
+public class WateringService implements IngestListener {
+
+    private static final double MILLIS_PER_HOUR = 3_600_000d;
+
+    private final PlantService plantService;
+    private final PlantStreamService plantStreamService;
+    private final MoodEngine moodEngine;
+    private final MqttGateway mqttGateway;
+    private final ObjectMapper objectMapper;
+    private final MoodProperties moodProperties;
+    private final WateringProperties properties;
+
+    /** Guards itself and every {@link Plan}. */
+    private final TimingWheel<Plan> wheel;
+    private final Map<String, Plan> plans = new ConcurrentHashMap<>();
+
+    private final LongAdder dueEvents = new LongAdder();
+    private final LongAdder commandsSent = new LongAdder();
+
+    public WateringService(PlantService plantService,
+                           PlantStreamService plantStreamService,
+                           MoodEngine moodEngine,
+                           @Lazy MqttGateway mqttGateway,
+                           ObjectMapper objectMapper,
+                           MoodProperties moodProperties,
+                           WateringProperties properties) {
+        this.plantService = plantService;
+        this.plantStreamService = plantStreamService;
+        this.moodEngine = moodEngine;
+        this.mqttGateway = mqttGateway;
+        this.objectMapper = objectMapper;
+        this.moodProperties = moodProperties;
+        this.properties = properties;
+        this.wheel = new TimingWheel<>(properties.getTick().toMillis(), System.currentTimeMillis());
+    }
+
+    /**
+     * Runs on the lane of the readings, where the {@link MoodEngine} window is current.
+     */
+    @Override
+    public void onPersisted(List<PlantReading> readings) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        for (PlantReading reading : readings) {
+            replan(reading.deviceUid(), reading.receivedAtMillis());
+        }
+    }
+
+    @Scheduled(fixedRateString = "${watering.tick:PT1S}")
+    public void tick() {
+        List<Due> expired = new ArrayList<>();
+        synchronized (wheel) {
+            wheel.advance(System.currentTimeMillis(), plan -> {
+                plan.acted = true;
+                expired.add(new Due(plan.deviceUid, plan.dueAtMillis, plan.soilMoisture));
+            });
+        }
+        expired.forEach(this::act);
+    }
+
+    /**
+     * Sends the watering command to the device right away.
+     *
+     * @return {@code false} if the command could not be published
+     */
+    public boolean water(String deviceUid, int durationSeconds) {
+        byte[] payload;
+        try {
+            payload = objectMapper.writeValueAsBytes(Map.of(
+                    "cmd", properties.getCommandPayload(),
+                    "deviceUid", deviceUid,
+                    "durationSeconds", durationSeconds));
+        }
+        catch (JsonProcessingException e) {
+            log.error("Не удалось сформировать команду полива для {}", deviceUid, e);
+            return false;
+        }
+        String topic = properties.getCommandTopic().replace("{deviceUid}", deviceUid);
+        boolean sent = mqttGateway.publishCommand(topic, payload);
+        if (sent) {
+            commandsSent.increment();
+        }
+        return sent;
+    }
+
+    public int defaultDurationSeconds() {
+        return properties.getDefaultDurationSeconds();
+    }
+
+    public int scheduledCount() {
+        synchronized (wheel) {
+            return wheel.size();
+        }
+    }
+
+    public long dueCount() {
+        return dueEvents.sum();
+    }
+
+    public long commandsSentCount() {
+        return commandsSent.sum();
+    }
+
+    private void replan(String deviceUid, long nowMillis) {
+        double level = moodEngine.soilMoisture(deviceUid);
+        double rate = moodEngine.soilMoistureRatePerHour(deviceUid);
+        double threshold = moodProperties.getDryBelow();
+        Plan plan = plans.computeIfAbsent(deviceUid, Plan::new);
+        synchronized (wheel) {
+            if (plan.timer == null) {
+                plan.timer = wheel.newTimer(plan);
+            }
+            if (Double.isNaN(level)) {
+                wheel.cancel(plan.timer);
+                return;
+            }
+            plan.soilMoisture = level;
+            if (level >= threshold + properties.getRearmAbove()) {
+                plan.acted = false;
+            }
+            if (plan.acted) {
+                return;
+            }
+            if (level <= threshold) {
+                wheel.schedule(plan.timer, nowMillis);
+                plan.dueAtMillis = nowMillis;
+                return;
+            }
+            if (Double.isNaN(rate) || -rate < properties.getMinDryingPerHour()) {
+                wheel.cancel(plan.timer);
+                return;
+            }
+            long inMillis = (long) ((level - threshold) / -rate * MILLIS_PER_HOUR) - properties.getLead().toMillis();
+            if (inMillis > properties.getHorizon().toMillis()) {
+                wheel.cancel(plan.timer);
+                return;
+            }
+            wheel.schedule(plan.timer, nowMillis + Math.max(0, inMillis));
+            plan.dueAtMillis = wheel.deadlineMillis(plan.timer);
+        }
+    }
+
+    private void act(Due due) {
+        long ownerId = plantService.ownerIdOf(due.deviceUid());
+        long plantId = plantService.plantIdOf(due.deviceUid());
+        if (plantId == DeviceRegistry.ABSENT) {
+            return;
+        }
+        dueEvents.increment();
+        WateringEventDto event = new WateringEventDto();
+        event.setPlantId(plantId);
+        event.setDeviceUid(due.deviceUid());
+        event.setDueAt(Instant.ofEpochMilli(due.dueAtMillis()));
+        event.setSoilMoisturePercent(due.soilMoisture());
+        if (properties.getAction() == WateringProperties.Action.COMMAND) {
+            event.setCommandSent(water(due.deviceUid(), properties.getDefaultDurationSeconds()));
+        }
+        log.info("Растению {} пора полить (влажность почвы {})", plantId, event.getSoilMoisturePercent());
+        if (ownerId != DeviceRegistry.ABSENT) {
+            plantStreamService.notifyOwner(ownerId, "watering", event);
+        }
+    }
+
+    private static final class Plan {
+
+        private final String deviceUid;
+        private TimingWheel.Timer<Plan> timer;
+        /** Acted on in this drying; cleared once the plant is watered. */
+        private boolean acted;
+        private long dueAtMillis;
+        private double soilMoisture;
+
+        private Plan(String deviceUid) {
+            this.deviceUid = deviceUid;
+        }
+    }
+
+    private record Due(String deviceUid, long dueAtMillis, double soilMoisture) {
+    }
+}
@@ -0,0 +1,89 @@
+package com.fitocube.backend.web;
+
+import com.fitocube.backend.model.LeaderboardEntryDto;
+import com.fitocube.backend.model.MoodBattleDto;
+import com.fitocube.backend.model.PlantChallengeDto;
+import com.fitocube.backend.model.request.CreateMoodBattleRequest;
+import com.fitocube.backend.services.GamesService;
+import com.fitocube.backend.services.SessionService;
+import java.util.List;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+@RestController
+@RequestMapping("/games")
+public class GamesController {
+
+    private final SessionService sessionService;
+    private final GamesService gamesService;
+
+    public GamesController(SessionService sessionService, GamesService gamesService) {
+        this.sessionService = sessionService;
+        this.gamesService = gamesService;
+    }
+
+    @PostMapping("/mood-battles")
+    public ResponseEntity<MoodBattleDto> startMoodBattle(@RequestBody CreateMoodBattleRequest request) {
+        var sessionUser = sessionService.requireSessionUser();
+        return ResponseEntity.status(HttpStatus.CREATED).body(gamesService.startBattle(sessionUser.id(), request));
+    }
+
+    @GetMapping("/mood-battles/{battleId}")
+    public ResponseEntity<MoodBattleDto> getMoodBattle(@PathVariable long battleId) {
+        sessionService.requireSessionUser();
+        return gamesService.getBattle(battleId)
+                .map(ResponseEntity::ok)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Battle not found"));
+    }
+
+    /**
+     * Plants by battles won: the top {@code limit}, or with {@code aroundPlantId} the plant and
+     * {@code radius} plants on either side of it.
+     */
+    @GetMapping("/mood-battles/leaderboard")
+    public ResponseEntity<List<LeaderboardEntryDto>> getBattleLeaderboard(
+            @RequestParam(value = "limit", defaultValue = "10") int limit,
+            @RequestParam(value = "aroundPlantId", required = false) Long aroundPlantId,
+            @RequestParam(value = "radius", defaultValue = "5") int radius) {
+        sessionService.requireSessionUser();
+        if (aroundPlantId == null) {
+            return ResponseEntity.ok(gamesService.battleWinsTop(limit));
+        }
+        return gamesService.battleWinsAround(aroundPlantId, radius)
+                .map(ResponseEntity::ok)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Plant has not won a battle"));
+    }
+
+    @GetMapping("/wellbeing-challenge")
+    public ResponseEntity<PlantChallengeDto> getWeeklyChallenge(@RequestParam("plantId") long plantId) {
+        sessionService.requireSessionUser();
+        return gamesService.getChallenge(plantId)
+                .map(ResponseEntity::ok)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Plant is not in the challenge"));
+    }
+
+    /**
+     * This week's happy hours, paged like the battle leaderboard.
+     */
+    @GetMapping("/wellbeing-challenge/leaderboard")
+    public ResponseEntity<List<LeaderboardEntryDto>> getWellbeingLeaderboard(
+            @RequestParam(value = "limit", defaultValue = "10") int limit,
+            @RequestParam(value = "aroundPlantId", required = false) Long aroundPlantId,
+            @RequestParam(value = "radius", defaultValue = "5") int radius) {
+        sessionService.requireSessionUser();
+        if (aroundPlantId == null) {
+            return ResponseEntity.ok(gamesService.wellbeingTop(limit));
+        }
+        return gamesService.wellbeingAround(aroundPlantId, radius)
+                .map(ResponseEntity::ok)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Plant is not in the challenge"));
+    }
+}
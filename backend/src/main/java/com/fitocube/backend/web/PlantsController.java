@@ -1,11 +1,39 @@
 package com.fitocube.backend.web;
 
-import com.fitocube.backend.model.PlantStateDto;
+import com.fitocube.backend.model.DeviceLivenessDto;
+import com.fitocube.backend.model.PlantMeasurementsDto;
+import com.fitocube.backend.model.PlantSeriesDto;
+import com.fitocube.backend.model.PlantView;
+import com.fitocube.backend.model.enums.ExportFormat;
+import com.fitocube.backend.model.enums.SeriesResolution;
 import com.fitocube.backend.model.request.ClaimRequest;
+import com.fitocube.backend.model.request.VisibilityRequest;
+import com.fitocube.backend.model.request.WateringRequest;
+import com.fitocube.backend.services.HistoryExportService;
+import com.fitocube.backend.services.LivenessTracker;
+import com.fitocube.backend.services.MeasurementRollupService;
 import com.fitocube.backend.services.PlantService;
+import com.fitocube.backend.services.PlantSnapshotCache;
+import com.fitocube.backend.services.PlantStreamService;
+import com.fitocube.backend.services.RefreshService;
 import com.fitocube.backend.services.SessionService;
-import java.util.Set;
+import com.fitocube.backend.services.UserService;
+import com.fitocube.backend.services.UserStatsService;
+import com.fitocube.backend.services.WateringService;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPOutputStream;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.lang.NonNull;
 import org.springframework.util.StringUtils;
@@ -13,48 +41,374 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 @RestController
 @RequestMapping("/plants")
 public class PlantsController {
 
+    private static final int EXPORT_GZIP_BUFFER = 8192;
+
     private final PlantService plantService;
     private final SessionService sessionService;
+    private final UserService userService;
+    private final MeasurementRollupService measurementRollupService;
+    private final PlantStreamService plantStreamService;
+    private final RefreshService refreshService;
+    private final PlantSnapshotCache plantSnapshotCache;
+    private final WateringService wateringService;
+    private final LivenessTracker livenessTracker;
+    private final UserStatsService userStatsService;
+    private final HistoryExportService historyExportService;
 
-    public PlantsController(PlantService plantService, SessionService sessionService) {
+    public PlantsController(PlantService plantService,
+                            SessionService sessionService,
+                            UserService userService,
+                            MeasurementRollupService measurementRollupService,
+                            PlantStreamService plantStreamService,
+                            RefreshService refreshService,
+                            PlantSnapshotCache plantSnapshotCache,
+                            WateringService wateringService,
+                            LivenessTracker livenessTracker,
+                            UserStatsService userStatsService,
+                            HistoryExportService historyExportService) {
         this.plantService = plantService;
         this.sessionService = sessionService;
+        this.userService = userService;
+        this.measurementRollupService = measurementRollupService;
+        this.plantStreamService = plantStreamService;
+        this.refreshService = refreshService;
+        this.plantSnapshotCache = plantSnapshotCache;
+        this.wateringService = wateringService;
+        this.livenessTracker = livenessTracker;
+        this.userStatsService = userStatsService;
+        this.historyExportService = historyExportService;
     }
 
+    /**
+     * Served from {@link PlantSnapshotCache}; a matching {@code If-None-Match} gets a 304
+     * without touching the database or serializing anything.
+     */
     @GetMapping("/{plantId}")
-    public ResponseEntity<PlantStateDto> getPlantById(@PathVariable @NonNull Long plantId) {
-        return plantService.getPlantById(plantId)
+    public ResponseEntity<byte[]> getPlantById(@PathVariable @NonNull Long plantId, WebRequest webRequest) {
+        var snapshot = plantSnapshotCache.get(plantId);
+        if (snapshot == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (webRequest.checkNotModified(snapshot.etag())) {
+            return null;
+        }
+        return ResponseEntity.ok()
+                .eTag(snapshot.etag())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(snapshot.json());
+    }
+
+    @GetMapping("/{plantId}/history")
+    public ResponseEntity<List<PlantMeasurementsDto>> getPlantHistory(
+            @PathVariable @NonNull Long plantId,
+            @RequestParam("from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+            @RequestParam(value = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+            @RequestParam(value = "limit", defaultValue = "1000") int limit) {
+        var until = to == null ? Instant.now() : to;
+        if (!from.isBefore(until)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "from must be before to");
+        }
+        requireVisiblePlant(plantId);
+        return ResponseEntity.ok(plantService.getHistory(plantId, from, until, limit));
+    }
+
+    /**
+     * Streams the plant's whole history, or {@code [from, to)} of it, as NDJSON or CSV straight into
+     * the response; owner only. Gzipped when the client accepts it.
+     */
+    @GetMapping("/{plantId}/export")
+    public void exportPlantHistory(
+            @PathVariable @NonNull Long plantId,
+            @RequestParam(value = "format", defaultValue = "ndjson") String format,
+            @RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+            @RequestParam(value = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            HttpServletResponse response) throws IOException {
+        requireOwnedPlant(plantId);
+        var exportFormat = parseFormat(format);
+        var resumeFrom = parseCursor(cursor);
+        if (resumeFrom != null && resumeFrom.plantId() != plantId) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "cursor belongs to another plant");
+        }
+        var since = from == null ? Instant.EPOCH : from;
+        var until = to == null ? Instant.now() : to;
+        if (!since.isBefore(until)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "from must be before to");
+        }
+        var out = startExport(response, exportFormat, "plant-" + plantId + "-history", acceptEncoding);
+        historyExportService.exportPlant(plantId, since, until, resumeFrom, exportFormat, out);
+    }
+
+    @GetMapping("/{plantId}/series")
+    public ResponseEntity<PlantSeriesDto> getPlantSeries(
+            @PathVariable @NonNull Long plantId,
+            @RequestParam(value = "resolution", required = false) String resolution,
+            @RequestParam("from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+            @RequestParam(value = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to) {
+        var until = to == null ? Instant.now() : to;
+        if (!from.isBefore(until)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "from must be before to");
+        }
+        requireVisiblePlant(plantId);
+        return ResponseEntity.ok(measurementRollupService.getSeries(plantId, parseResolution(resolution), from, until));
+    }
+
+    @PostMapping("/{plantId}/refresh")
+    public CompletableFuture<ResponseEntity<PlantMeasurementsDto>> refreshPlant(@PathVariable @NonNull Long plantId) {
+        var plant = requireOwnedPlant(plantId);
+        return refreshService.refresh(plant.deviceUid())
+                .thenApply(ResponseEntity::ok)
+                .exceptionally(PlantsController::refreshFailed);
+    }
+
+    @PostMapping("/watering")
+    public ResponseEntity<Void> triggerWatering(@RequestParam("plantId") @NonNull Long plantId,
+                                                @RequestBody(required = false) WateringRequest request) {
+        var plant = requireOwnedPlant(plantId);
+        Integer duration = request == null ? null : request.getDurationSeconds();
+        if (duration != null && duration < 1) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "durationSeconds must be positive");
+        }
+        if (!wateringService.water(plant.deviceUid(), duration == null ? wateringService.defaultDurationSeconds() : duration)) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Watering command could not be sent");
+        }
+        return ResponseEntity.accepted().build();
+    }
+
+    /**
+     * Opens the plant to the owner's friends or hides it from them; owner only.
+     */
+    @PostMapping("/{plantId}/visibility")
+    public ResponseEntity<PlantView> setFriendVisibility(@PathVariable @NonNull Long plantId,
+                                                         @RequestBody VisibilityRequest request) {
+        if (request.getFriendVisible() == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "friendVisible is required");
+        }
+        requireOwnedPlant(plantId);
+        return plantService.setFriendVisible(plantId, request.getFriendVisible())
+                .map(PlantView::of)
                 .map(ResponseEntity::ok)
-                .orElseGet(() -> ResponseEntity.notFound().build());
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Plant not found"));
+    }
+
+    /**
+     * The caller's plants whose device is not online, with when it was last heard from.
+     */
+    @GetMapping("/offline")
+    public ResponseEntity<List<DeviceLivenessDto>> getOfflinePlants() {
+        var sessionUser = sessionService.requireSessionUser();
+        return ResponseEntity.ok(livenessTracker.getOfflinePlants(sessionUser.id()));
     }
 
+    @GetMapping(path = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamPlantUpdates() {
+        var sessionUser = sessionService.requireSessionUser();
+        return plantStreamService.subscribe(sessionUser.id());
+    }
+
+    /**
+     * Keyset-paginated: a full page carries a {@code Link: <...>; rel="next"} header pointing
+     * at the page after its last plant.
+     */
     @GetMapping("/by-owner")
-    public ResponseEntity<Set<PlantStateDto>> getAllPlantsByOwner(
-            @RequestParam(value = "ownerName", required = false) String requestedOwner) {
+    public ResponseEntity<List<PlantView>> getAllPlantsByOwner(
+            @RequestParam(value = "ownerName", required = false) String requestedOwner,
+            @RequestParam(value = "after", required = false) Long after,
+            @RequestParam(value = "limit", defaultValue = "100") int limit) {
         var sessionUser = sessionService.requireSessionUser();
         sessionService.ensureSameUser(requestedOwner, sessionUser);
 
-        var set = plantService.getAllPlantsByOwner(sessionUser.userName());
-        return set.isEmpty() ? ResponseEntity.notFound().build() : ResponseEntity.ok(set);
+        var page = plantService.getPlantsByOwner(sessionUser.userName(), after, limit);
+        if (page.isEmpty()) {
+            return after == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(page);
+        }
+        return keysetPage(page, limit);
+    }
+
+    /**
+     * Streams the history of all the caller's plants, plant by plant, like {@code /{plantId}/export}.
+     */
+    @GetMapping("/by-owner/export")
+    public void exportOwnerHistory(
+            @RequestParam(value = "format", defaultValue = "ndjson") String format,
+            @RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+            @RequestParam(value = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            HttpServletResponse response) throws IOException {
+        var sessionUser = sessionService.requireSessionUser();
+        var exportFormat = parseFormat(format);
+        var resumeFrom = parseCursor(cursor);
+        var since = from == null ? Instant.EPOCH : from;
+        var until = to == null ? Instant.now() : to;
+        if (!since.isBefore(until)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "from must be before to");
+        }
+        var out = startExport(response, exportFormat, "plants-history", acceptEncoding);
+        historyExportService.exportOwner(sessionUser.userName(), since, until, resumeFrom, exportFormat, out);
+    }
+
+    /**
+     * Friend-visible plants of all the user's friends, served from the friend visibility index;
+     * keyset-paginated like {@code /by-owner}.
+     */
+    @GetMapping("/friend-feed")
+    public ResponseEntity<List<PlantView>> getFriendFeed(
+            @RequestParam(value = "after", required = false) Long after,
+            @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        var sessionUser = sessionService.requireSessionUser();
+        return keysetPage(plantService.getFriendFeed(sessionUser.id(), after, limit), limit);
+    }
+
+    @GetMapping("/by-friend-name")
+    public ResponseEntity<List<PlantView>> getPlantsByFriendName(@RequestParam("friendName") String friendName) {
+        var sessionUser = sessionService.requireSessionUser();
+        var friend = userService.findByUserName(friendName)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found"));
+        return plantService.getFriendPlants(sessionUser.id(), friend.getUserId())
+                .map(ResponseEntity::ok)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.FORBIDDEN, "Not a friend"));
     }
 
     @PostMapping("/claim")
-    public ResponseEntity<PlantStateDto> claimPlant(@RequestBody ClaimRequest claimRequest) {
+    public ResponseEntity<PlantView> claimPlant(@RequestBody ClaimRequest claimRequest) {
         if (!StringUtils.hasText(claimRequest.getDeviceUid())) {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "deviceUid is required");
         }
         var owner = sessionService.requireSessionUserEntity();
         return plantService.claimPlant(owner, claimRequest)
+                .map(PlantView::of)
+                .map(view -> {
+                    userStatsService.plantClaimed(view.plantId(), view.owner().userId());
+                    return view;
+                })
                 .map(ResponseEntity::ok)
                 .orElseGet(() -> ResponseEntity.badRequest().build());
     }
+
+    /**
+     * History and series are readable by the owner and, for plants opened to friends, by friends.
+     */
+    private void requireVisiblePlant(long plantId) {
+        var sessionUser = sessionService.requireSessionUser();
+        var plant = plantService.getPlantView(plantId)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Plant not found"));
+        if (!plantService.isVisibleTo(plant, sessionUser.id())) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Cannot access requested resource");
+        }
+    }
+
+    /**
+     * Refresh, watering, visibility and export are for the owner alone.
+     */
+    private PlantView requireOwnedPlant(long plantId) {
+        var sessionUser = sessionService.requireSessionUser();
+        var plant = plantService.getPlantView(plantId)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Plant not found"));
+        if (plant.owner() == null || !plant.owner().userId().equals(sessionUser.id())) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Cannot access requested resource");
+        }
+        return plant;
+    }
+
+    /**
+     * A full page carries a {@code Link: <...>; rel="next"} header pointing at the page after its last plant.
+     */
+    private static ResponseEntity<List<PlantView>> keysetPage(List<PlantView> page, int limit) {
+        var response = ResponseEntity.ok();
+        if (!page.isEmpty() && page.size() >= Math.min(Math.max(limit, 1), PlantService.MAX_PAGE_SIZE)) {
+            var next = ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("after", page.get(page.size() - 1).plantId())
+                    .toUriString();
+            response.header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+        }
+        return response.body(page);
+    }
+
+    /**
+     * Commits the export's headers and hands back the body stream, wrapped in gzip when the client takes it.
+     * Gzip is sync-flushed after every page, so a slow export still reaches the client as it goes.
+     */
+    private static OutputStream startExport(HttpServletResponse response, ExportFormat format,
+                                            String fileName, String acceptEncoding) throws IOException {
+        response.setContentType(format.contentType());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                .filename(fileName + "." + format.extension())
+                .build()
+                .toString());
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (acceptsGzip(acceptEncoding)) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+            return new GZIPOutputStream(response.getOutputStream(), EXPORT_GZIP_BUFFER, true);
+        }
+        return response.getOutputStream();
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (!StringUtils.hasText(acceptEncoding)) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (parts[0].trim().equalsIgnoreCase("gzip")) {
+                return parts.length < 2 || !parts[1].replace(" ", "").matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    private static ExportFormat parseFormat(String value) {
+        try {
+            return ExportFormat.parse(value.trim());
+        }
+        catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    private static HistoryExportService.Cursor parseCursor(String value) {
+        if (!StringUtils.hasText(value)) {
+            return null;
+        }
+        try {
+            return HistoryExportService.Cursor.decode(value.trim());
+        }
+        catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Malformed cursor");
+        }
+    }
+
+    private static ResponseEntity<PlantMeasurementsDto> refreshFailed(Throwable error) {
+        var cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof TimeoutException) {
+            throw new ResponseStatusException(HttpStatus.GATEWAY_TIMEOUT, "Device did not answer in time");
+        }
+        throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Refresh command could not be sent");
+    }
+
+    private static SeriesResolution parseResolution(String value) {
+        if (!StringUtils.hasText(value)) {
+            return null;
+        }
+        try {
+            return SeriesResolution.parse(value.trim());
+        }
+        catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
 }
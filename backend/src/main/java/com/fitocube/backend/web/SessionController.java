@@ -4,7 +4,7 @@ import com.fitocube.backend.model.request.LoginRequest;
 import com.fitocube.backend.model.session.SessionUser;
 import com.fitocube.backend.services.SessionService;
 import jakarta.servlet.http.HttpServletRequest;
-import jakarta.servlet.http.HttpSession;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -23,8 +23,10 @@ public class SessionController {
     }
 
     @PostMapping("/login")
-    public ResponseEntity<SessionUser> login(@RequestBody LoginRequest loginRequest, HttpServletRequest request) {
-        var sessionUser = sessionService.login(loginRequest.getUsername(), request);
+    public ResponseEntity<SessionUser> login(@RequestBody LoginRequest loginRequest,
+                                             HttpServletRequest request,
+                                             HttpServletResponse response) {
+        var sessionUser = sessionService.login(loginRequest.getUsername(), request, response);
         return ResponseEntity.ok(sessionUser);
     }
 
@@ -35,8 +37,8 @@ public class SessionController {
     }
 
     @PostMapping("/logout")
-    public ResponseEntity<Void> logout(HttpSession session) {
-        sessionService.logout(session);
+    public ResponseEntity<Void> logout(HttpServletRequest request, HttpServletResponse response) {
+        sessionService.logout(request.getSession(false), response);
         return ResponseEntity.noContent().build();
     }
 }
@@ -0,0 +1,45 @@
+package com.fitocube.backend.web;
+
+import com.fitocube.backend.model.PlayerStatsDto;
+import com.fitocube.backend.services.GamesService;
+import com.fitocube.backend.services.SessionService;
+import com.fitocube.backend.services.UserService;
+import com.fitocube.backend.services.UserStatsService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+@RestController
+@RequestMapping("/stats")
+public class StatsController {
+
+    private final SessionService sessionService;
+    private final UserService userService;
+    private final UserStatsService userStatsService;
+    private final GamesService gamesService;
+
+    public StatsController(SessionService sessionService,
+                           UserService userService,
+                           UserStatsService userStatsService,
+                           GamesService gamesService) {
+        this.sessionService = sessionService;
+        this.userService = userService;
+        this.userStatsService = userStatsService;
+        this.gamesService = gamesService;
+    }
+
+    @GetMapping("/{userId}")
+    public ResponseEntity<PlayerStatsDto> getStats(@PathVariable long userId) {
+        sessionService.requireSessionUser();
+        if (userService.findById(userId).isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found");
+        }
+        PlayerStatsDto stats = userStatsService.getStats(userId);
+        gamesService.fillPlayerStats(stats);
+        return ResponseEntity.ok(stats);
+    }
+}
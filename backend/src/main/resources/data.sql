@@ -16,3 +16,10 @@ VALUES
     (5, 'esp32-048308587FB8', 1, 'Фикус Монго', 'HAPPY', true,  23.4, 48.0, 42.5, 3120, NOW() - INTERVAL '10 minutes')
 
 ON CONFLICT (device_uid) DO NOTHING;
+
+-- The seed rows above take explicit ids; move the Hibernate sequences past them (never back),
+-- so users and plants created later do not collide with the seed.
+SELECT setval('user_seq', GREATEST((SELECT COALESCE(MAX(user_id), 1) FROM users),
+                                   (SELECT last_value FROM user_seq)));
+SELECT setval('plant_states_seq', GREATEST((SELECT COALESCE(MAX(plant_id), 1) FROM plant_states),
+                                           (SELECT last_value FROM plant_states_seq)));
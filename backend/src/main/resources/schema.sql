@@ -0,0 +1,113 @@
+CREATE TABLE IF NOT EXISTS plant_measurements (
+    plant_id              BIGINT           NOT NULL,
+    measured_at           TIMESTAMPTZ      NOT NULL,
+    received_at           TIMESTAMPTZ      NOT NULL,
+    air_temperature_c     DOUBLE PRECISION,
+    air_humidity_percent  DOUBLE PRECISION,
+    soil_moisture_percent DOUBLE PRECISION,
+    soil_moisture_raw     INTEGER,
+    mood                  VARCHAR(16)
+) PARTITION BY RANGE (measured_at);
+
+ALTER TABLE plant_measurements ADD COLUMN IF NOT EXISTS mood VARCHAR(16);
+
+-- readings outside the pre-created partitions; moved out once the partition of their range is created
+CREATE TABLE IF NOT EXISTS plant_measurements_default PARTITION OF plant_measurements DEFAULT;
+
+CREATE INDEX IF NOT EXISTS plant_measurements_plant_ts_idx ON plant_measurements (plant_id, measured_at);
+
+CREATE INDEX IF NOT EXISTS plant_measurements_ts_brin_idx ON plant_measurements USING BRIN (measured_at);
+
+CREATE TABLE IF NOT EXISTS plant_measurement_rollups (
+    plant_id                BIGINT           NOT NULL,
+    resolution              VARCHAR(8)       NOT NULL,
+    bucket_start            TIMESTAMPTZ      NOT NULL,
+    air_temperature_count   INTEGER          NOT NULL DEFAULT 0,
+    air_temperature_sum     DOUBLE PRECISION NOT NULL DEFAULT 0,
+    air_temperature_min     DOUBLE PRECISION,
+    air_temperature_max     DOUBLE PRECISION,
+    air_humidity_count      INTEGER          NOT NULL DEFAULT 0,
+    air_humidity_sum        DOUBLE PRECISION NOT NULL DEFAULT 0,
+    air_humidity_min        DOUBLE PRECISION,
+    air_humidity_max        DOUBLE PRECISION,
+    soil_moisture_count     INTEGER          NOT NULL DEFAULT 0,
+    soil_moisture_sum       DOUBLE PRECISION NOT NULL DEFAULT 0,
+    soil_moisture_min       DOUBLE PRECISION,
+    soil_moisture_max       DOUBLE PRECISION,
+    PRIMARY KEY (plant_id, resolution, bucket_start)
+);
+
+-- retention deletes by bucket age across plants; buckets are written roughly in time order
+CREATE INDEX IF NOT EXISTS plant_measurement_rollups_bucket_brin_idx
+    ON plant_measurement_rollups USING BRIN (bucket_start);
+
+-- Case-insensitive login lookups (UPPER(user_name) = UPPER(?)).
+CREATE INDEX IF NOT EXISTS users_user_name_upper_idx
+    ON users (UPPER(user_name));
+
+-- Device liveness, written by LivenessTracker on online/offline transitions only.
+ALTER TABLE plant_states ADD COLUMN IF NOT EXISTS online BOOLEAN NOT NULL DEFAULT FALSE;
+ALTER TABLE plant_states ADD COLUMN IF NOT EXISTS last_seen_at TIMESTAMP;
+-- arrival time of the stored measurement; tells a device clock reset from a late reading
+ALTER TABLE plant_states ADD COLUMN IF NOT EXISTS measurement_received_at TIMESTAMP;
+CREATE INDEX IF NOT EXISTS plant_states_offline_owner_idx
+    ON plant_states (owner_id) WHERE NOT online;
+
+-- plants claimed before claims set the flag: open to friends, as the firmware announces
+UPDATE plant_states SET friend_visible = TRUE WHERE friend_visible IS NULL AND owner_id IS NOT NULL;
+
+-- Per-user statistics, snapshotted by UserStatsService. On startup the snapshot is loaded and
+-- history received after stats_watermark.folded_until is replayed on top of it.
+CREATE TABLE IF NOT EXISTS user_stats (
+    user_id                BIGINT      PRIMARY KEY,
+    mood_millis            BIGINT[]    NOT NULL,
+    happy_streak_days      INTEGER     NOT NULL DEFAULT 0,
+    best_happy_streak_days INTEGER     NOT NULL DEFAULT 0,
+    last_happy_day         BIGINT,
+    updated_at             TIMESTAMPTZ
+);
+
+CREATE TABLE IF NOT EXISTS plant_stats (
+    plant_id              BIGINT      PRIMARY KEY,
+    mood                  VARCHAR(16),
+    last_measured_at      TIMESTAMPTZ,
+    soil_moisture_percent DOUBLE PRECISION
+);
+
+CREATE TABLE IF NOT EXISTS stats_watermark (
+    id           SMALLINT    PRIMARY KEY CHECK (id = 1),
+    folded_until TIMESTAMPTZ NOT NULL
+);
+
+-- Mood battles: written on creation and when they finish; scores of active battles are
+-- checkpointed by GamesService.
+CREATE TABLE IF NOT EXISTS mood_battles (
+    battle_id               BIGSERIAL   PRIMARY KEY,
+    challenger_plant_id     BIGINT      NOT NULL,
+    challenger_owner_id     BIGINT      NOT NULL,
+    opponent_plant_id       BIGINT      NOT NULL,
+    opponent_owner_id       BIGINT      NOT NULL,
+    started_at              TIMESTAMPTZ NOT NULL,
+    finishes_at             TIMESTAMPTZ NOT NULL,
+    challenger_happy_millis BIGINT      NOT NULL DEFAULT 0,
+    opponent_happy_millis   BIGINT      NOT NULL DEFAULT 0,
+    status                  VARCHAR(16) NOT NULL,
+    winner_plant_id         BIGINT,
+    drops_reward            INTEGER     NOT NULL DEFAULT 0
+);
+CREATE INDEX IF NOT EXISTS mood_battles_active_idx
+    ON mood_battles (finishes_at) WHERE status = 'ACTIVE';
+
+-- Weekly wellbeing challenge, checkpointed like user_stats with its own watermark.
+CREATE TABLE IF NOT EXISTS wellbeing_scores (
+    plant_id         BIGINT      PRIMARY KEY,
+    week_start       DATE        NOT NULL,
+    happy_millis     BIGINT      NOT NULL DEFAULT 0,
+    mood             VARCHAR(16),
+    last_measured_at TIMESTAMPTZ
+);
+
+CREATE TABLE IF NOT EXISTS games_watermark (
+    id           SMALLINT    PRIMARY KEY CHECK (id = 1),
+    folded_until TIMESTAMPTZ NOT NULL
+);
@@ -0,0 +1,146 @@
+package com.fitocube.backend.ingest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fitocube.backend.config.MoodProperties;
+import com.fitocube.backend.config.MqttProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+/**
+ * A lane fed from the write-ahead log, as the pipeline runs it, with a writer that can fail.
+ */
+class IngestLaneTest {
+
+    private static final String DEVICE = "esp32-test";
+
+    @TempDir
+    Path directory;
+
+    private final MqttProperties.Ingest settings = new MqttProperties.Ingest();
+    private final PlantPayloadDecoder decoder = new PlantPayloadDecoder(new ObjectMapper());
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<PlantReading> written = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean databaseDown = new AtomicBoolean();
+
+    private IngestLane lane;
+    private WalDrainer drainer;
+
+    @BeforeEach
+    void setUp() {
+        settings.setLinger(Duration.ofMillis(10));
+        settings.setRetryBackoff(Duration.ofMillis(10));
+        settings.setRetryMaxBackoff(Duration.ofMillis(50));
+        settings.getWal().setDirectory(directory.toString());
+        settings.getWal().setFsync(MqttProperties.FsyncPolicy.BATCH);
+        settings.getWal().setCheckpointInterval(Duration.ofMillis(20));
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (drainer != null) {
+            stop();
+        }
+    }
+
+    @Test
+    void keepsBatchUntilDatabaseIsBack() throws IOException {
+        start(this::write);
+        databaseDown.set(true);
+        drainer.append(payload(0), System.currentTimeMillis());
+        drainer.append(payload(1), System.currentTimeMillis());
+
+        await().atMost(Duration.ofSeconds(10)).until(lane::isRetrying);
+        assertThat(drainer.committedOffset()).isZero();
+
+        databaseDown.set(false);
+
+        await().atMost(Duration.ofSeconds(10)).until(() -> lane.persistedCount() == 2);
+        assertThat(written).hasSize(2);
+        assertThat(lane.failedCount()).isZero();
+        assertThat(lane.retriedCount()).isPositive();
+        assertThat(lane.isRetrying()).isFalse();
+        assertThat(lane.walFloor()).isEqualTo(Long.MAX_VALUE);
+        assertThat(drainer.committedOffset()).isPositive();
+    }
+
+    @Test
+    void replaysBatchLeftInLogWhenStoppedDuringOutage() throws Exception {
+        start(this::write);
+        databaseDown.set(true);
+        drainer.append(payload(0), System.currentTimeMillis());
+        drainer.append(payload(1), System.currentTimeMillis());
+        await().atMost(Duration.ofSeconds(10)).until(lane::isRetrying);
+        drainer.append(payload(2), System.currentTimeMillis());
+
+        stop();
+
+        assertThat(lane.failedCount()).isZero();
+        assertThat(written).isEmpty();
+
+        databaseDown.set(false);
+        start(this::write);
+
+        await().atMost(Duration.ofSeconds(10)).until(() -> written.size() == 3);
+        assertThat(written).extracting(PlantReading::soilMoisturePercent).containsExactly(40.0, 41.0, 42.0);
+    }
+
+    @Test
+    void writesOffBatchRejectedByDatabase() throws IOException {
+        settings.setWriteAttempts(2);
+        start(readings -> {
+            throw new IllegalArgumentException("value too long");
+        });
+        drainer.append(payload(0), System.currentTimeMillis());
+
+        await().atMost(Duration.ofSeconds(10)).until(() -> lane.failedCount() == 1);
+        assertThat(lane.retriedCount()).isEqualTo(1);
+        // written off, so the log moves on and does not replay it
+        await().atMost(Duration.ofSeconds(10)).until(() -> drainer.committedOffset() > 0);
+    }
+
+    private void write(List<PlantReading> readings) {
+        if (databaseDown.get()) {
+            throw new DataAccessResourceFailureException("connection refused");
+        }
+        written.addAll(readings);
+    }
+
+    private void start(Consumer<List<PlantReading>> writer) throws IOException {
+        lane = new IngestLane(0, settings, decoder, new MoodEngine(new MoodProperties()), writer, List.of(),
+                              meterRegistry.timer("write"), meterRegistry.timer("lag"), meterRegistry.summary("batch"));
+        lane.start();
+        drainer = new WalDrainer(IngestWal.open(settings.getWal()), settings.getWal(), decoder, List.of(lane),
+                                 deviceUid -> lane, meterRegistry);
+        drainer.start();
+    }
+
+    private void stop() throws InterruptedException {
+        drainer.stopReading();
+        lane.stop();
+        drainer.close();
+        drainer = null;
+    }
+
+    private static byte[] payload(int i) {
+        Instant measuredAt = Instant.now().minusSeconds(60).plusSeconds(i);
+        return ("{\"deviceUid\":\"" + DEVICE + "\",\"measurements\":{\"soilMoisturePercent\":" + (40 + i)
+                + ",\"timestamp\":\"" + measuredAt + "\"}}").getBytes(StandardCharsets.UTF_8);
+    }
+}
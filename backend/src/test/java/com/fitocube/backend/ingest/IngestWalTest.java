@@ -0,0 +1,154 @@
+package com.fitocube.backend.ingest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fitocube.backend.config.MqttProperties;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+class IngestWalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void replaysFromCommittedOffset() throws IOException {
+        long first;
+        try (IngestWal wal = open(DataSize.ofMegabytes(1))) {
+            first = wal.append(payload(1), 1_000);
+            wal.append(payload(2), 2_000);
+            wal.append(payload(3), 3_000);
+            wal.commit(first);
+        }
+
+        try (IngestWal wal = open(DataSize.ofMegabytes(1))) {
+            assertThat(wal.committedOffset()).isEqualTo(first);
+            assertThat(readAll(wal, wal.committedOffset())).containsExactly("message-2", "message-3");
+        }
+    }
+
+    @Test
+    void cutsTornTailOnOpen() throws IOException {
+        long end;
+        try (IngestWal wal = open(DataSize.ofMegabytes(1))) {
+            wal.append(payload(1), 1_000);
+            end = wal.append(payload(2), 2_000);
+        }
+        try (FileChannel channel = FileChannel.open(lastSegment(), StandardOpenOption.WRITE)) {
+            // header of a record whose payload never made it to disk
+            channel.write(ByteBuffer.allocate(IngestWal.HEADER_BYTES).putInt(100).putInt(7).putLong(3_000).flip(), end);
+        }
+
+        try (IngestWal wal = open(DataSize.ofMegabytes(1))) {
+            assertThat(wal.appendedOffset()).isEqualTo(end);
+            assertThat(Files.size(lastSegment())).isEqualTo(end);
+            wal.append(payload(3), 3_000);
+            assertThat(readAll(wal, 0)).containsExactly("message-1", "message-2", "message-3");
+        }
+    }
+
+    @Test
+    void skipsRecordWithBadChecksum() throws IOException {
+        try (IngestWal wal = open(DataSize.ofBytes(50))) {
+            for (int i = 1; i <= 4; i++) {
+                wal.append(payload(i), 1_000L * i);
+            }
+            assertThat(wal.segmentCount()).isEqualTo(2);
+            flipByte(firstSegment(), IngestWal.HEADER_BYTES + 2);
+
+            assertThat(readAll(wal, 0)).containsExactly("message-2", "message-3", "message-4");
+            assertThat(wal.corruptCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void skipsRestOfSegmentAfterBadLength() throws IOException {
+        try (IngestWal wal = open(DataSize.ofBytes(50))) {
+            for (int i = 1; i <= 4; i++) {
+                wal.append(payload(i), 1_000L * i);
+            }
+            try (FileChannel channel = FileChannel.open(firstSegment(), StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(-5).flip(), 0);
+            }
+
+            assertThat(readAll(wal, 0)).containsExactly("message-3", "message-4");
+            assertThat(wal.corruptCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void rotatesSegmentsAndDeletesCommittedOnes() throws IOException {
+        try (IngestWal wal = open(DataSize.ofBytes(50))) {
+            List<Long> ends = new ArrayList<>();
+            for (int i = 1; i <= 6; i++) {
+                ends.add(wal.append(payload(i), 1_000L * i));
+            }
+            assertThat(wal.segmentCount()).isEqualTo(3);
+            assertThat(segmentFiles()).hasSize(3);
+
+            wal.commit(ends.get(2));
+
+            assertThat(wal.segmentCount()).isEqualTo(2);
+            assertThat(segmentFiles()).hasSize(2);
+            assertThat(readAll(wal, wal.committedOffset())).containsExactly("message-4", "message-5", "message-6");
+        }
+    }
+
+    private IngestWal open(DataSize segmentSize) throws IOException {
+        MqttProperties.Wal settings = new MqttProperties.Wal();
+        settings.setDirectory(directory.toString());
+        settings.setSegmentSize(segmentSize);
+        settings.setFsync(MqttProperties.FsyncPolicy.BATCH);
+        return IngestWal.open(settings);
+    }
+
+    private static List<String> readAll(IngestWal wal, long from) throws IOException {
+        List<String> payloads = new ArrayList<>();
+        try (IngestWal.Reader reader = wal.reader(from)) {
+            IngestWal.Entry entry;
+            while ((entry = reader.next()) != null) {
+                payloads.add(new String(entry.payload(), StandardCharsets.UTF_8));
+            }
+        }
+        return payloads;
+    }
+
+    /** 9 bytes, a 25 byte record, so two fit a 50 byte segment. */
+    private static byte[] payload(int i) {
+        return ("message-" + i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void flipByte(Path segment, long position) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer one = ByteBuffer.allocate(1);
+            channel.read(one, position);
+            channel.write(ByteBuffer.wrap(new byte[] {(byte) ~one.get(0)}), position);
+        }
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".wal")).sorted().toList();
+        }
+    }
+
+    private Path firstSegment() throws IOException {
+        return segmentFiles().get(0);
+    }
+
+    private Path lastSegment() throws IOException {
+        List<Path> segments = segmentFiles();
+        return segments.get(segments.size() - 1);
+    }
+}
@@ -0,0 +1,59 @@
+package com.fitocube.backend.ingest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fitocube.backend.config.MoodProperties;
+import com.fitocube.backend.model.enums.Mood;
+import org.junit.jupiter.api.Test;
+
+class MoodEngineTest {
+
+    private static final String DEVICE = "esp32-test";
+    private static final long MINUTE = 60_000;
+
+    private final MoodEngine moodEngine = new MoodEngine(new MoodProperties());
+
+    @Test
+    void draftLeavesWindowsAloneUntilCommitted() {
+        moodEngine.evaluate(reading(50.0, 0));
+        MoodEngine.Draft draft = moodEngine.draft();
+
+        assertThat(draft.evaluate(reading(10.0, MINUTE)).mood()).isEqualTo(Mood.THIRSTY);
+        assertThat(moodEngine.soilMoisture(DEVICE)).isEqualTo(50.0);
+
+        draft.commit();
+
+        assertThat(moodEngine.soilMoisture(DEVICE)).isEqualTo(30.0);
+        assertThat(moodEngine.currentMood(DEVICE)).isEqualTo(Mood.THIRSTY);
+    }
+
+    @Test
+    void retriedBatchCountsOnce() {
+        moodEngine.evaluate(reading(50.0, 0));
+        MoodEngine.Draft draft = moodEngine.draft();
+
+        draft.evaluate(reading(10.0, MINUTE));
+        draft.discard();
+        draft.evaluate(reading(10.0, MINUTE));
+        draft.commit();
+
+        assertThat(moodEngine.soilMoisture(DEVICE)).isEqualTo(30.0);
+    }
+
+    @Test
+    void readingsOfOneBatchSeeEachOther() {
+        MoodEngine.Draft draft = moodEngine.draft();
+
+        draft.evaluate(reading(10.0, 0));
+        PlantReading second = draft.evaluate(reading(10.0, MINUTE));
+        draft.commit();
+
+        assertThat(second.mood()).isEqualTo(Mood.DRY);
+        assertThat(moodEngine.soilMoisture(DEVICE)).isEqualTo(10.0);
+    }
+
+    private static PlantReading reading(double soilMoisturePercent, long timestampMillis) {
+        return new PlantReading(DEVICE, 22.0, 50.0, soilMoisturePercent, PlantReading.NO_RAW_VALUE,
+                                timestampMillis, null, null, timestampMillis);
+    }
+}
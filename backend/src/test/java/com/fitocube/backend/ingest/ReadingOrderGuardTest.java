@@ -0,0 +1,70 @@
+package com.fitocube.backend.ingest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fitocube.backend.config.MqttProperties;
+import java.time.Instant;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class ReadingOrderGuardTest {
+
+    private static final long NOW = Instant.parse("2026-05-01T12:00:00Z").toEpochMilli();
+    private static final long MINUTE = 60_000;
+
+    private final ReadingOrderGuard guard = new ReadingOrderGuard(new MqttProperties.Clock());
+
+    @Test
+    void dropsRedeliveriesAndLateReadings() {
+        admitAndCommit(reading(NOW, NOW));
+
+        List<PlantReading> admitted = guard.admit(List.of(reading(NOW, NOW + 10), reading(NOW - MINUTE, NOW + 20)));
+
+        assertThat(admitted).isEmpty();
+        assertThat(guard.duplicateCount()).isEqualTo(1);
+        assertThat(guard.staleCount()).isEqualTo(1);
+    }
+
+    @Test
+    void ordersUptimeClocksByArrival() {
+        List<PlantReading> admitted = admitAndCommit(reading(5_000, NOW), reading(5_000, NOW + 10), reading(65_000, NOW + MINUTE));
+
+        assertThat(admitted).extracting(PlantReading::timestampMillis).containsExactly(NOW, NOW + MINUTE);
+        assertThat(guard.duplicateCount()).isEqualTo(1);
+        assertThat(guard.untrustedClockCount()).isEqualTo(3);
+
+        // reboot: uptime starts over
+        assertThat(admitAndCommit(reading(1_000, NOW + 2 * MINUTE)))
+                .extracting(PlantReading::timestampMillis).containsExactly(NOW + 2 * MINUTE);
+    }
+
+    @Test
+    void takesClockResetOnlyWhenReceivedLater() {
+        admitAndCommit(reading(NOW + 30 * MINUTE, NOW));
+
+        assertThat(guard.admit(List.of(reading(NOW, NOW - 1)))).isEmpty();
+        assertThat(admitAndCommit(reading(NOW + MINUTE, NOW + MINUTE))).hasSize(1);
+        assertThat(guard.clockResetCount()).isEqualTo(1);
+        // ordered from the new clock on
+        assertThat(guard.admit(List.of(reading(NOW + 30 * MINUTE - 1, NOW + 2 * MINUTE)))).hasSize(1);
+    }
+
+    @Test
+    void forgetsDiscardedBatches() {
+        guard.admit(List.of(reading(NOW, NOW)));
+        guard.discard();
+
+        assertThat(guard.admit(List.of(reading(NOW, NOW + 10)))).hasSize(1);
+    }
+
+    private List<PlantReading> admitAndCommit(PlantReading... readings) {
+        List<PlantReading> admitted = guard.admit(List.of(readings));
+        guard.commit();
+        return admitted;
+    }
+
+    private static PlantReading reading(long timestampMillis, long receivedAtMillis) {
+        return new PlantReading("esp32-test", Double.NaN, Double.NaN, 40.0, PlantReading.NO_RAW_VALUE,
+                                timestampMillis, null, null, receivedAtMillis);
+    }
+}
@@ -0,0 +1,141 @@
+package com.fitocube.backend.mqtt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import com.fitocube.backend.config.MqttProperties;
+import com.fitocube.backend.ingest.IngestPipeline;
+import com.fitocube.backend.services.LivenessTracker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.moquette.broker.ClientDescriptor;
+import io.moquette.broker.Server;
+import io.moquette.broker.config.MemoryConfig;
+import io.moquette.interception.AbstractInterceptHandler;
+import io.moquette.interception.messages.InterceptSubscribeMessage;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Gateways of several nodes against an embedded broker. Moquette 0.17 takes {@code $share}
+ * subscriptions but does not route to them, so how the group is joined is checked at the broker
+ * and delivery without a group.
+ */
+class MqttGatewayTest {
+
+    private static final String GROUP = "ingest";
+    private static final Duration WAIT = Duration.ofSeconds(15);
+
+    private final List<String> subscriptions = new CopyOnWriteArrayList<>();
+    private final List<MqttGateway> gateways = new ArrayList<>();
+    private final IngestPipeline ingestPipeline = mock(IngestPipeline.class);
+    private Server broker;
+    private int port;
+
+    @BeforeEach
+    void startBroker() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        Properties properties = new Properties();
+        properties.setProperty("host", "127.0.0.1");
+        properties.setProperty("port", String.valueOf(port));
+        properties.setProperty("allow_anonymous", "true");
+        properties.setProperty("persistence_enabled", "false");
+        broker = new Server();
+        broker.startServer(new MemoryConfig(properties), List.of(new AbstractInterceptHandler() {
+            @Override
+            public String getID() {
+                return "subscriptions";
+            }
+
+            @Override
+            public void onSubscribe(InterceptSubscribeMessage message) {
+                subscriptions.add(message.getClientID() + " " + message.getTopicFilter());
+            }
+
+            @Override
+            public void onSessionLoopError(Throwable error) {
+                // nothing to record
+            }
+        }));
+    }
+
+    @AfterEach
+    void stopBroker() {
+        gateways.forEach(MqttGateway::shutdown);
+        broker.stopServer();
+    }
+
+    @Test
+    void nodesJoinSharedGroupSideBySide() {
+        start("node-a", GROUP);
+        start("node-b", GROUP);
+
+        await().atMost(WAIT).untilAsserted(() -> assertThat(subscriptions).containsExactlyInAnyOrder(
+                "fitocube-backend-node-a $share/ingest/soil/data",
+                "fitocube-backend-node-a $share/ingest/soil/+/data",
+                "fitocube-backend-node-b $share/ingest/soil/data",
+                "fitocube-backend-node-b $share/ingest/soil/+/data"));
+        assertThat(broker.listConnectedClients()).extracting(ClientDescriptor::getClientID)
+                .containsExactlyInAnyOrder("fitocube-backend-node-a", "fitocube-backend-node-b");
+    }
+
+    @Test
+    void rejoinsGroupAfterReconnect() {
+        start("node-a", GROUP);
+        await().atMost(WAIT).until(() -> subscriptions.size() == 2);
+        subscriptions.clear();
+
+        broker.disconnectClient("fitocube-backend-node-a");
+
+        await().atMost(WAIT).untilAsserted(() -> assertThat(subscriptions).containsExactlyInAnyOrder(
+                "fitocube-backend-node-a $share/ingest/soil/data",
+                "fitocube-backend-node-a $share/ingest/soil/+/data"));
+    }
+
+    @Test
+    void ingestsLegacyAndPerDeviceTopics() throws Exception {
+        start("node-a", null);
+        await().atMost(WAIT).until(() -> subscriptions.size() == 2);
+        byte[] legacy = "{\"deviceUid\":\"esp32-1\"}".getBytes(StandardCharsets.UTF_8);
+        byte[] perDevice = "{\"deviceUid\":\"esp32-2\"}".getBytes(StandardCharsets.UTF_8);
+
+        MqttClient device = new MqttClient("tcp://127.0.0.1:" + port, "esp32-test", new MemoryPersistence());
+        device.connect();
+        device.publish("soil/data", legacy, 1, false);
+        device.publish("soil/esp32-2/data", perDevice, 1, false);
+        device.publish("soil/esp32-2/cmd", perDevice, 1, false);
+        device.disconnect();
+        device.close();
+
+        verify(ingestPipeline, timeout(WAIT.toMillis())).submit(eq(legacy), anyLong());
+        verify(ingestPipeline, timeout(WAIT.toMillis())).submit(eq(perDevice), anyLong());
+    }
+
+    private MqttGateway start(String instanceId, String sharedGroup) {
+        MqttProperties properties = new MqttProperties();
+        properties.setBrokerUri("tcp://127.0.0.1:" + port);
+        properties.setInstanceId(instanceId);
+        properties.setSharedGroup(sharedGroup);
+        MqttGateway gateway = new MqttGateway(properties, ingestPipeline, mock(LivenessTracker.class), new SimpleMeterRegistry());
+        gateway.init();
+        gateways.add(gateway);
+        return gateway;
+    }
+}
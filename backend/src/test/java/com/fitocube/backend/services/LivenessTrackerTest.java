@@ -0,0 +1,58 @@
+package com.fitocube.backend.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.fitocube.backend.config.LivenessProperties;
+import com.fitocube.backend.model.DeviceLivenessDto;
+import com.fitocube.backend.repositories.PlantStateJdbcRepository;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+class LivenessTrackerTest {
+
+    private static final String DEVICE = "esp32-test";
+
+    private final PlantService plantService = mock(PlantService.class);
+    private final PlantStreamService plantStreamService = mock(PlantStreamService.class);
+    private final PlantStateJdbcRepository repository = mock(PlantStateJdbcRepository.class);
+    private final LivenessTracker tracker = new LivenessTracker(plantService, plantStreamService, repository,
+                                                                new LivenessProperties());
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void retriesTransitionNotWritten() {
+        when(plantService.plantIdOf(DEVICE)).thenReturn(7L);
+        when(plantService.ownerIdOf(DEVICE)).thenReturn(2L);
+        doThrow(new DataAccessResourceFailureException("connection refused"))
+                .doNothing()
+                .when(repository).updateLiveness(anyList());
+
+        tracker.touch(DEVICE, System.currentTimeMillis());
+        tracker.tick();
+        tracker.tick();
+
+        ArgumentCaptor<List<DeviceLivenessDto>> batches = ArgumentCaptor.forClass(List.class);
+        verify(repository, times(2)).updateLiveness(batches.capture());
+        assertThat(batches.getAllValues().get(1)).singleElement()
+                .satisfies(transition -> {
+                    assertThat(transition.getDeviceUid()).isEqualTo(DEVICE);
+                    assertThat(transition.isOnline()).isTrue();
+                });
+        // the owner heard of it once, when it happened
+        verify(plantStreamService, times(1)).notifyOwner(anyLong(), anyString(), any());
+
+        tracker.tick();
+        verify(repository, times(2)).updateLiveness(anyList());
+    }
+}
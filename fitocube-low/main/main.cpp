@@ -62,6 +62,8 @@ static const char *TAG = "soil_sensor";
 static const TickType_t kSampleDelayTicks = pdMS_TO_TICKS(CONFIG_SOIL_SENSOR_SAMPLE_PERIOD_MS);
 static const TickType_t kWifiConnectTimeoutTicks = pdMS_TO_TICKS(10000);
 static const char *kCmdGetInfo = "get_info";
+// Per-device command topic; the backend sends {"cmd":"get_info","correlationId":"..."} here.
+static const char *kDeviceCmdTopicFormat = "soil/%s/cmd";
 static EventGroupHandle_t wifi_event_group;
 static const int WIFI_CONNECTED_BIT = BIT0;
 
@@ -70,6 +72,7 @@ static esp_adc_cal_characteristics_t adc_chars;
 static esp_mqtt_client_handle_t mqtt_client = nullptr;
 static bool mqtt_connected = false;
 static char device_uid[32];
+static char device_cmd_topic[48];
 
 typedef struct
 {
@@ -98,6 +101,7 @@ static void init_device_uid(void)
              mac[3],
              mac[4],
              mac[5]);
+    snprintf(device_cmd_topic, sizeof(device_cmd_topic), kDeviceCmdTopicFormat, device_uid);
     ESP_LOGI(TAG, "Device UID: %s", device_uid);
 }
 
@@ -225,7 +229,8 @@ static const char *derive_mood(const measurement_report_t *report)
     return "normal";
 }
 
-static void publish_measurement(const measurement_report_t *report)
+// correlation_id may be nullptr; when set it is echoed so the backend can match the answer
+static void publish_measurement(const measurement_report_t *report, const char *correlation_id)
 {
     if (!mqtt_client || !mqtt_connected)
     {
@@ -244,20 +249,27 @@ static void publish_measurement(const measurement_report_t *report)
 
     const char *mood = derive_mood(report);
 
-    char payload[384];
+    char correlation[80] = "";
+    if (correlation_id)
+    {
+        snprintf(correlation, sizeof(correlation), ",\"correlationId\":\"%s\"", correlation_id);
+    }
+
+    char payload[448];
     int written = snprintf(payload,
                           sizeof(payload),
                           "{\"deviceUid\":\"%s\"," \
                           "\"measurements\":{\"airTemperatureC\":%s,\"airHumidityPercent\":%s,"
                           "\"soilMoisturePercent\":%s,\"soilMoistureRaw\":%d,\"timestamp\":\"%s\"},"
-                          "\"mood\":\"%s\",\"friendVisible\":true}",
+                          "\"mood\":\"%s\",\"friendVisible\":true%s}",
                           device_uid,
                           temp_str,
                           hum_str,
                           soil_percent_str,
                           report->soil.raw,
                           timestamp_iso,
-                          mood);
+                          mood,
+                          correlation);
     if (written <= 0 || written >= (int)sizeof(payload))
     {
         ESP_LOGW(TAG, "Payload truncated, skipping publish");
@@ -294,7 +306,7 @@ static void soil_sensor_task(void *param)
         if (mqtt_connected &&
             (report.timestamp_ms - last_publish_timestamp_ms) >= CONFIG_SOIL_SENSOR_PUBLISH_INTERVAL_MS)
         {
-            publish_measurement(&report);
+            publish_measurement(&report, nullptr);
             last_publish_timestamp_ms = report.timestamp_ms;
         }
 
@@ -392,6 +404,46 @@ static bool wifi_start(void)
     return true;
 }
 
+static bool topic_equals(const esp_mqtt_event_handle_t event, const char *topic)
+{
+    size_t topic_len = strlen(topic);
+    return event->topic_len == (int)topic_len && strncmp(event->topic, topic, topic_len) == 0;
+}
+
+// Copies the string value of "key" from a flat JSON object; false if it is missing or does
+// not fit. Only characters safe to echo back unescaped are accepted.
+static bool json_string_field(const char *json, const char *key, char *out, size_t len)
+{
+    char pattern[32];
+    snprintf(pattern, sizeof(pattern), "\"%s\":\"", key);
+    const char *start = strstr(json, pattern);
+    if (!start)
+    {
+        return false;
+    }
+    start += strlen(pattern);
+    size_t i = 0;
+    for (; start[i] != '"'; i++)
+    {
+        char c = start[i];
+        bool safe = (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '-' || c == '_';
+        if (!safe || i + 1 >= len)
+        {
+            return false;
+        }
+        out[i] = c;
+    }
+    out[i] = '\0';
+    return true;
+}
+
+static void answer_get_info(const char *correlation_id)
+{
+    measurement_report_t report = collect_measurements();
+    publish_measurement(&report, correlation_id);
+    last_publish_timestamp_ms = report.timestamp_ms;
+}
+
 static void mqtt_handle_command(const esp_mqtt_event_handle_t event)
 {
     if (!event->topic || !event->data)
@@ -399,20 +451,37 @@ static void mqtt_handle_command(const esp_mqtt_event_handle_t event)
         return;
     }
 
-    size_t topic_len = strlen(CONFIG_SOIL_SENSOR_MQTT_CMD_TOPIC);
-    if (event->topic_len != (int)topic_len ||
-        strncmp(event->topic, CONFIG_SOIL_SENSOR_MQTT_CMD_TOPIC, topic_len) != 0)
+    if (topic_equals(event, CONFIG_SOIL_SENSOR_MQTT_CMD_TOPIC))
     {
+        if ((int)strlen(kCmdGetInfo) == event->data_len &&
+            strncmp(event->data, kCmdGetInfo, event->data_len) == 0)
+        {
+            ESP_LOGI(TAG, "Получена команда get_info через MQTT");
+            answer_get_info(nullptr);
+        }
         return;
     }
 
-    if ((int)strlen(kCmdGetInfo) == event->data_len &&
-        strncmp(event->data, kCmdGetInfo, event->data_len) == 0)
+    if (topic_equals(event, device_cmd_topic))
     {
-        ESP_LOGI(TAG, "Получена команда get_info через MQTT");
-        measurement_report_t report = collect_measurements();
-        publish_measurement(&report);
-        last_publish_timestamp_ms = report.timestamp_ms;
+        char json[256];
+        if (event->data_len <= 0 || event->data_len >= (int)sizeof(json))
+        {
+            ESP_LOGW(TAG, "Команда устройству проигнорирована: неверная длина %d", event->data_len);
+            return;
+        }
+        memcpy(json, event->data, event->data_len);
+        json[event->data_len] = '\0';
+
+        char cmd[16];
+        if (!json_string_field(json, "cmd", cmd, sizeof(cmd)) || strcmp(cmd, kCmdGetInfo) != 0)
+        {
+            return;
+        }
+        char correlation_id[64];
+        bool correlated = json_string_field(json, "correlationId", correlation_id, sizeof(correlation_id));
+        ESP_LOGI(TAG, "Получена команда get_info для устройства%s", correlated ? " с correlationId" : "");
+        answer_get_info(correlated ? correlation_id : nullptr);
     }
 }
 
@@ -429,6 +498,7 @@ static void mqtt_event_handler(void *handler_args, esp_event_base_t base, int32_
         mqtt_connected = true;
         ESP_LOGI(TAG, "MQTT подключен");
         esp_mqtt_client_subscribe(event->client, CONFIG_SOIL_SENSOR_MQTT_CMD_TOPIC, 1);
+        esp_mqtt_client_subscribe(event->client, device_cmd_topic, 1);
         break;
     case MQTT_EVENT_DISCONNECTED:
         mqtt_connected = false;